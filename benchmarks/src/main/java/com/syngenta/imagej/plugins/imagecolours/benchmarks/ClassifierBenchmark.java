@@ -0,0 +1,73 @@
+package com.syngenta.imagej.plugins.imagecolours.benchmarks;
+
+import com.syngenta.imagej.plugins.imagecolours.HueClassifier;
+import com.syngenta.imagej.plugins.imagecolours.HueKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link HueClassifier}, one pixel at a time and in bulk.
+ * <p>
+ * Bulk classification uses a {@link HueKernel} if one is available, e.g. the Vector API kernel when the benchmarks
+ * are built with JDK 17 or later and run with {@code --add-modules jdk.incubator.vector}. Each invocation classifies a
+ * fixed set of random colours, so scores are in pixels per microsecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassifierBenchmark {
+
+    // Number of pixels classified per invocation.
+    private static final int NUM_PIXELS = 4096;
+
+    // Random number seed, so every run classifies the same colours.
+    private static final long SEED = 42L;
+
+    // Inputs and outputs.
+    private HueClassifier classifier;
+    private int[] pixels;
+    private byte[] classes;
+
+    @Setup
+    public void setUp() {
+
+        final Random random = new Random(SEED);
+        classifier = new HueClassifier(200, 10, 10, 0.5, 0.5);
+        pixels = new int[NUM_PIXELS];
+        classes = new byte[NUM_PIXELS];
+        for (int i = 0; i < NUM_PIXELS; i++) {
+            pixels[i] = random.nextInt(1 << 24);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PIXELS)
+    public byte[] classifyScalar() {
+        for (int i = 0; i < NUM_PIXELS; i++) {
+            classes[i] = (byte) classifier.classify(pixels[i]);
+        }
+        return classes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PIXELS)
+    public byte[] classifyBulk() {
+        classifier.classify(pixels, 0, NUM_PIXELS, classes);
+        return classes;
+    }
+}
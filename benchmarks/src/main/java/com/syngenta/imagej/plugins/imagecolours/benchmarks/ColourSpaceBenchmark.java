@@ -0,0 +1,149 @@
+package com.syngenta.imagej.plugins.imagecolours.benchmarks;
+
+import com.syngenta.imagej.plugins.imagecolours.ColourSpaceUtilities;
+import com.syngenta.imagej.plugins.imagecolours.Rgb24Bit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per-colour conversions in {@link ColourSpaceUtilities} and {@link Rgb24Bit}, and of the bulk
+ * conversion of LAB back to packed RGB pixels.
+ * <p>
+ * Each invocation converts a fixed set of random colours, so scores are in colours per microsecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColourSpaceBenchmark {
+
+    // Number of colours converted per invocation.
+    private static final int NUM_COLOURS = 4096;
+
+    // Random number seed, so every run converts the same colours.
+    private static final long SEED = 42L;
+
+    // Inputs.
+    private int[] pixels;
+    private int[][] rgbs;
+    private float[][] xyzs;
+    private float[][] labs;
+    private float[][] lchs;
+    private float[][] labPlanes;
+    private int[] converted;
+
+    @Setup
+    public void setUp() {
+
+        final Random random = new Random(SEED);
+        pixels = new int[NUM_COLOURS];
+        rgbs = new int[NUM_COLOURS][];
+        xyzs = new float[NUM_COLOURS][];
+        labs = new float[NUM_COLOURS][];
+        lchs = new float[NUM_COLOURS][];
+        labPlanes = new float[3][NUM_COLOURS];
+        converted = new int[NUM_COLOURS];
+        for (int i = 0; i < NUM_COLOURS; i++) {
+            pixels[i] = random.nextInt(1 << 24);
+            rgbs[i] = Rgb24Bit.unpack(pixels[i]);
+            xyzs[i] = ColourSpaceUtilities.convertRgb2Xyz(rgbs[i]);
+            labs[i] = ColourSpaceUtilities.convertXyz2Lab(xyzs[i]);
+            lchs[i] = ColourSpaceUtilities.convertLab2Lch(labs[i]);
+        }
+        ColourSpaceUtilities.convertRgb2Lab(pixels, 0, NUM_COLOURS, labPlanes[0], labPlanes[1], labPlanes[2]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertRgb2Hsv(final Blackhole blackhole) {
+        for (final int[] rgb : rgbs) {
+            blackhole.consume(ColourSpaceUtilities.convertRgb2Hsv(rgb));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertRgb2Xyz(final Blackhole blackhole) {
+        for (final int[] rgb : rgbs) {
+            blackhole.consume(ColourSpaceUtilities.convertRgb2Xyz(rgb));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertXyz2Lab(final Blackhole blackhole) {
+        for (final float[] xyz : xyzs) {
+            blackhole.consume(ColourSpaceUtilities.convertXyz2Lab(xyz));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertLab2Lch(final Blackhole blackhole) {
+        for (final float[] lab : labs) {
+            blackhole.consume(ColourSpaceUtilities.convertLab2Lch(lab));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertXyz2Rgb(final Blackhole blackhole) {
+        for (final float[] xyz : xyzs) {
+            blackhole.consume(ColourSpaceUtilities.convertXyz2Rgb(xyz));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertLab2Xyz(final Blackhole blackhole) {
+        for (final float[] lab : labs) {
+            blackhole.consume(ColourSpaceUtilities.convertLab2Xyz(lab));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void convertLch2Lab(final Blackhole blackhole) {
+        for (final float[] lch : lchs) {
+            blackhole.consume(ColourSpaceUtilities.convertLch2Lab(lch));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public int[] convertLab2RgbBulk() {
+        ColourSpaceUtilities.convertLab2Rgb(labPlanes[0], labPlanes[1], labPlanes[2], 0, NUM_COLOURS, converted);
+        return converted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void pack(final Blackhole blackhole) {
+        for (final int[] rgb : rgbs) {
+            blackhole.consume(Rgb24Bit.pack(rgb));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_COLOURS)
+    public void unpack(final Blackhole blackhole) {
+        for (final int pixel : pixels) {
+            blackhole.consume(Rgb24Bit.unpack(pixel));
+        }
+    }
+}
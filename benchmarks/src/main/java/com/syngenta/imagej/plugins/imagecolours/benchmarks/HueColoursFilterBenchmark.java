@@ -0,0 +1,142 @@
+package com.syngenta.imagej.plugins.imagecolours.benchmarks;
+
+import com.syngenta.imagej.plugins.imagecolours.HueColoursFilter;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.WindowManager;
+import ij.gui.OvalRoi;
+import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ColorProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for {@link HueColoursFilter} to process a synthetic image, run through {@link PlugInFilterRunner} as ImageJ
+ * does, or applied directly using the tiled fork-join engine.
+ * <p>
+ * The image is a smooth colour gradient with noise, so it contains many distinct colours, and is restored before
+ * each invocation. A thread count of 0 uses all available processors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class HueColoursFilterBenchmark {
+
+    // Random number seed, so every run processes the same image.
+    private static final long SEED = 42L;
+
+    // Noise amplitude.
+    private static final int NOISE = 32;
+
+    @Param({"1", "10", "100"})
+    public int megapixels;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean binarize;
+
+    @Param({"false", "true"})
+    public boolean hideBackground;
+
+    @Param({"false", "true"})
+    public boolean masked;
+
+    // Pristine pixels.
+    private int[] source;
+
+    // Image dimensions.
+    private int width;
+    private int height;
+
+    // Image to process.
+    private ImagePlus image;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+
+        // Square-ish image of the requested size.
+        width = (int) Math.sqrt(megapixels * 1.0e6);
+        height = (int) (megapixels * 1.0e6 / width);
+        source = createPixels(width, height);
+
+        Prefs.setThreads(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+
+        image = new ImagePlus("benchmark", new ColorProcessor(width, height, source.clone()));
+        if (masked) {
+            image.setRoi(new OvalRoi(width / 8, height / 8, 3 * width / 4, 3 * height / 4));
+        }
+        WindowManager.setTempCurrentImage(image);
+    }
+
+    @Benchmark
+    public ImagePlus run() {
+
+        new PlugInFilterRunner(createFilter(), "", "");
+        return image;
+    }
+
+    @Benchmark
+    public ImagePlus applyTiled() {
+
+        createFilter().apply(image);
+        return image;
+    }
+
+    private HueColoursFilter createFilter() {
+
+        return new HueColoursFilter(200, 10, 10, 0.5, 0.5,
+                true, true, true, true, true, true,
+                true, true, true, true,
+                true, false, false, false, false,
+                true, hideBackground, false, binarize, true);
+    }
+
+    /**
+     * Create a noisy colour gradient.
+     *
+     * @param width  image width.
+     * @param height image height.
+     * @return the packed RGB pixels.
+     */
+    private static int[] createPixels(final int width, final int height) {
+
+        final Random random = new Random(SEED);
+        final int[] pixels = new int[width * height];
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i++) {
+
+                final int r = clamp(255 * x / width + random.nextInt(NOISE) - NOISE / 2);
+                final int g = clamp(255 * y / height + random.nextInt(NOISE) - NOISE / 2);
+                final int b = clamp(255 - 255 * (x + y) / (width + height) + random.nextInt(NOISE) - NOISE / 2);
+                pixels[i] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int clamp(final int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,136 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.measure.ResultsTable;
+import ij.process.LUT;
+
+/**
+ * The label image output of the filter: one 8-bit class label per pixel, coloured by a LUT.
+ * <p>
+ * A pixel in a selected class is labelled with its class index plus one; other pixels, and those outside the ROI,
+ * are labelled {@link #BACKGROUND}. The LUT paints each label in its class's colour, and the background light grey,
+ * i.e. as the filter's RGB output with a hidden background.
+ */
+public final class ClassLabels {
+
+    /**
+     * Label of pixels that aren't in a selected class.
+     */
+    public static final int BACKGROUND = 0;
+
+    /**
+     * Colour of the background label.
+     */
+    public static final int BACKGROUND_COLOUR = Rgb24Bit.LIGHT_GREY;
+
+    // Results table column names.
+    private static final String INDEX_COLUMN = "Index";
+    private static final String CLASS_COLUMN = "Class";
+    private static final String RED_COLUMN = "Red";
+    private static final String GREEN_COLUMN = "Green";
+    private static final String BLUE_COLUMN = "Blue";
+
+    // Name of the background label.
+    private static final String BACKGROUND_NAME = "Background";
+
+    // Number of LUT entries.
+    private static final int LUT_SIZE = 256;
+
+    private ClassLabels() {
+    }
+
+    /**
+     * Gets the label of a class.
+     *
+     * @param classIndex the class index.
+     * @return the label.
+     */
+    public static int getLabel(final int classIndex) {
+        return classIndex + 1;
+    }
+
+    /**
+     * Gets the colour of every label, with the built-in class colours.
+     *
+     * @return the packed RGB colours, indexed by label (unused labels are black).
+     */
+    public static int[] getColours() {
+        return getColours(HueClassTable.DEFAULT.getColours());
+    }
+
+    /**
+     * Gets the colour of every label.
+     *
+     * @param classColours the colour of each class, indexed by class index (see {@link HueClassTable#getColours()}).
+     * @return the packed RGB colours, indexed by label (unused labels are black).
+     */
+    public static int[] getColours(final int[] classColours) {
+
+        final int[] colours = new int[LUT_SIZE];
+        colours[BACKGROUND] = BACKGROUND_COLOUR;
+        for (int i = 0; i < HueColourClass.count(); i++) {
+            colours[getLabel(i)] = classColours[i];
+        }
+        return colours;
+    }
+
+    /**
+     * Creates a LUT that paints each label in its class's built-in colour.
+     *
+     * @return the LUT.
+     */
+    public static LUT createLut() {
+        return createLut(HueClassTable.DEFAULT.getColours());
+    }
+
+    /**
+     * Creates a LUT that paints each label in its class's colour.
+     *
+     * @param classColours the colour of each class, indexed by class index.
+     * @return the LUT.
+     */
+    public static LUT createLut(final int[] classColours) {
+
+        final int[] colours = getColours(classColours);
+        final byte[] reds = new byte[LUT_SIZE];
+        final byte[] greens = new byte[LUT_SIZE];
+        final byte[] blues = new byte[LUT_SIZE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            reds[i] = (byte) Rgb24Bit.red(colours[i]);
+            greens[i] = (byte) Rgb24Bit.green(colours[i]);
+            blues[i] = (byte) Rgb24Bit.blue(colours[i]);
+        }
+        return new LUT(reds, greens, blues);
+    }
+
+    /**
+     * Creates a results table that maps each label to its class name and built-in colour.
+     *
+     * @return the table, one row per label.
+     */
+    public static ResultsTable createTable() {
+        return createTable(HueClassTable.DEFAULT.getColours());
+    }
+
+    /**
+     * Creates a results table that maps each label to its class name and colour.
+     *
+     * @param classColours the colour of each class, indexed by class index.
+     * @return the table, one row per label.
+     */
+    public static ResultsTable createTable(final int[] classColours) {
+
+        final int[] colours = getColours(classColours);
+        final ResultsTable table = new ResultsTable();
+        for (int label = BACKGROUND; label <= HueColourClass.count(); label++) {
+
+            table.incrementCounter();
+            table.addValue(INDEX_COLUMN, label);
+            table.addValue(CLASS_COLUMN, label == BACKGROUND ? BACKGROUND_NAME :
+                    HueColourClass.valueOf(label - 1).getLabel());
+            table.addValue(RED_COLUMN, Rgb24Bit.red(colours[label]));
+            table.addValue(GREEN_COLUMN, Rgb24Bit.green(colours[label]));
+            table.addValue(BLUE_COLUMN, Rgb24Bit.blue(colours[label]));
+        }
+        return table;
+    }
+}
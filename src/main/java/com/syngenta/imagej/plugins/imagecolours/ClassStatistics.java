@@ -0,0 +1,100 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.measure.ResultsTable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Per-class pixel counts, accumulated by several threads.
+ * <p>
+ * Each thread counts into its own array, obtained from {@link #newCounts()} and handed back with
+ * {@link #add(long[])}; the arrays are only summed when the totals are read.
+ */
+public class ClassStatistics {
+
+    // Results table column names.
+    private static final String TOTAL_COLUMN = "Total";
+    private static final String FRACTION_SUFFIX = "_Fraction";
+
+    // Counts added by each thread.
+    private final Queue<long[]> threadCounts = new ConcurrentLinkedQueue<long[]>();
+
+    /**
+     * Creates an array for a thread to count pixels into.
+     *
+     * @return an array of zero counts, indexed by class index.
+     */
+    public static long[] newCounts() {
+        return new long[HueColourClass.count()];
+    }
+
+    /**
+     * Adds a thread's counts.
+     *
+     * @param counts the counts, indexed by class index.
+     */
+    public void add(final long[] counts) {
+        threadCounts.add(counts);
+    }
+
+    /**
+     * Discards all counts.
+     */
+    public void reset() {
+        threadCounts.clear();
+    }
+
+    /**
+     * Gets the total count of each class.
+     *
+     * @return the merged counts, indexed by class index.
+     */
+    public long[] getCounts() {
+
+        final long[] totals = newCounts();
+        for (final long[] counts : threadCounts) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += counts[i];
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Adds a row of class counts and area fractions to a results table.
+     *
+     * @param table the results table.
+     * @param label the row label, e.g. the image title.
+     */
+    public void addTo(final ResultsTable table, final String label) {
+        addRow(table, label, getCounts(), 0);
+    }
+
+    /**
+     * Adds a row of class counts and area fractions to a results table.
+     *
+     * @param table  the results table.
+     * @param label  the row label.
+     * @param counts the counts.
+     * @param offset index of the first class's count.
+     */
+    static void addRow(final ResultsTable table, final String label, final long[] counts, final int offset) {
+
+        final int numClasses = HueColourClass.count();
+        long total = 0L;
+        for (int i = 0; i < numClasses; i++) {
+            total += counts[offset + i];
+        }
+
+        table.incrementCounter();
+        table.addLabel(label);
+        table.addValue(TOTAL_COLUMN, total);
+        for (int i = 0; i < numClasses; i++) {
+            final String name = HueColourClass.valueOf(i).getLabel();
+            final long count = counts[offset + i];
+            table.addValue(name, count);
+            table.addValue(name + FRACTION_SUFFIX, total == 0L ? 0.0 : (double) count / total);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.Prefs;
+import ij.util.ThreadUtil;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A look-up table of the class index of every 24-bit RGB colour.
+ * <p>
+ * The table is built once per classifier (i.e. set of classification parameters), in parallel, after which classifying
+ * a pixel is a single load. Built tables are also kept in files by a {@link TableCache}, and later JVMs map them
+ * read-only rather than building them again, so processes using the same parameters share one copy in memory.
+ */
+public final class ClassificationTable {
+
+    // Number of 24-bit colours.
+    public static final int SIZE = 1 << 24;
+
+    // Mask for the 24-bit colour in a packed pixel.
+    private static final int RGB_MASK = 0xffffff;
+
+    // The table is built in chunks of this many colours (one red value).
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int NUM_CHUNKS = SIZE / CHUNK_SIZE;
+
+    // Maximum number of tables to keep (each is 16MB).
+    private static final int MAX_CACHED_TABLES = 4;
+
+    // Tables built most recently, by classifier.
+    private static final Map<ColourClassifier, ClassificationTable> CACHE =
+            new LinkedHashMap<ColourClassifier, ClassificationTable>(MAX_CACHED_TABLES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<ColourClassifier, ClassificationTable> eldest) {
+                    return size() > MAX_CACHED_TABLES;
+                }
+            };
+
+    // Class index of each colour, in a direct or mapped buffer (loads from which are as quick as from an array).
+    private final ByteBuffer classes;
+
+    // Whether the table is mapped from its file.
+    private final boolean inFile;
+
+    private ClassificationTable(final ByteBuffer classes, final boolean inFile) {
+
+        this.classes = classes;
+        this.inFile = inFile;
+    }
+
+    /**
+     * Gets the table for a classifier, mapping its file or building it (and writing its file) if it isn't cached.
+     *
+     * @param classifier the classifier.
+     * @return the table.
+     */
+    public static ClassificationTable getTable(final ColourClassifier classifier) {
+        return getTable(classifier, true);
+    }
+
+    /**
+     * Gets the table for a classifier, mapping its file or building it if it isn't cached.
+     *
+     * @param classifier the classifier.
+     * @param keepFile   whether to write a table that isn't in a file to one, for later JVMs; tables for previews
+     *                   aren't, as adjusting parameters would leave a file for every setting tried.
+     * @return the table.
+     */
+    public static ClassificationTable getTable(final ColourClassifier classifier, final boolean keepFile) {
+
+        synchronized (CACHE) {
+            ClassificationTable table = CACHE.get(classifier);
+            if (table == null) {
+
+                // Map the table's file, or build the table.
+                final ByteBuffer mapped = TableCache.load(classifier);
+                table = mapped == null ? build(classifier) : new ClassificationTable(mapped, true);
+                CACHE.put(classifier, table);
+            }
+            if (keepFile && !table.inFile) {
+
+                // Write the table to a file and use that, so processes with the same parameters share it.
+                final ByteBuffer saved = TableCache.save(classifier, table.classes);
+                if (saved != null) {
+                    table = new ClassificationTable(saved, true);
+                    CACHE.put(classifier, table);
+                }
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Whether the table for a classifier is cached, in memory or in a file, i.e. getting it costs little.
+     *
+     * @param classifier the classifier.
+     * @return true if the table has been built and not evicted, or has a file.
+     */
+    public static boolean isCached(final ColourClassifier classifier) {
+
+        synchronized (CACHE) {
+            if (CACHE.containsKey(classifier)) {
+                return true;
+            }
+        }
+        final File file = TableCache.getFile(classifier);
+        return file != null && file.isFile();
+    }
+
+    /**
+     * Build a table by classifying every 24-bit colour, without using or writing its file.
+     *
+     * @param classifier the classifier.
+     * @return the table.
+     */
+    public static ClassificationTable build(final ColourClassifier classifier) {
+        return new ClassificationTable(toDirectBuffer(classifyAll(classifier)), false);
+    }
+
+    /**
+     * Classifies every 24-bit colour, in parallel.
+     *
+     * @param classifier the classifier.
+     * @return the class index of each colour.
+     */
+    private static byte[] classifyAll(final ColourClassifier classifier) {
+
+        final byte[] classes = new byte[SIZE];
+
+        // Threads take chunks until all are done.
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Thread[] threads = ThreadUtil.createThreadArray(Math.min(Prefs.getThreads(), NUM_CHUNKS));
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+
+                    // Each chunk is classified in bulk.
+                    final int[] colours = new int[CHUNK_SIZE];
+                    final byte[] chunkClasses = new byte[CHUNK_SIZE];
+                    for (int chunk = nextChunk.getAndIncrement(); chunk < NUM_CHUNKS;
+                         chunk = nextChunk.getAndIncrement()) {
+
+                        final int start = chunk * CHUNK_SIZE;
+                        for (int i = 0; i < CHUNK_SIZE; i++) {
+                            colours[i] = start + i;
+                        }
+                        classifier.classify(colours, 0, CHUNK_SIZE, chunkClasses);
+                        System.arraycopy(chunkClasses, 0, classes, start, CHUNK_SIZE);
+                    }
+                }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+
+        return classes;
+    }
+
+    private static ByteBuffer toDirectBuffer(final byte[] classes) {
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(classes.length);
+        buffer.put(classes);
+        return buffer;
+    }
+
+    /**
+     * Gets the class index of a pixel.
+     *
+     * @param pixel the pixel value (packed RGB, any alpha is ignored).
+     * @return the class index.
+     */
+    public int classify(final int pixel) {
+        return classes.get(pixel & RGB_MASK);
+    }
+}
@@ -0,0 +1,36 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+/**
+ * Assigns RGB colours to {@link HueColourClass}es.
+ * <p>
+ * Classifiers are immutable and compare equal if they have the same parameters, as a {@link ClassificationTable} is
+ * built and cached for each classifier, in memory and in a file named by a hash of its parameters.
+ */
+public interface ColourClassifier {
+
+    /**
+     * Classifies a pixel.
+     *
+     * @param pixel the pixel value (packed RGB).
+     * @return the class index.
+     */
+    int classify(int pixel);
+
+    /**
+     * Classifies pixels in bulk. Classes are written at the same indices as the pixels.
+     *
+     * @param pixels  packed RGB pixels.
+     * @param offset  index of the first pixel to classify.
+     * @param length  number of pixels to classify.
+     * @param classes receives the class indices.
+     */
+    void classify(int[] pixels, int offset, int length, byte[] classes);
+
+    /**
+     * Gets the classifier's parameters, as the options {@link HueColoursConfig#getOptions()} writes for them.
+     * Classifiers with equal parameters classify every colour alike.
+     *
+     * @return the parameters.
+     */
+    String getParameters();
+}
@@ -0,0 +1,342 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import com.syngenta.imagej.plugins.imagecolours.ColourSpaceUtilities.ColourSpace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A 3D look-up table that converts packed RGB pixels to XYZ, Lab or LCh by interpolating between the conversions of a
+ * grid of colours.
+ * <p>
+ * A table of every 24-bit colour would take 200MB; a grid of {@code nodes^3} colours takes {@code 12 * nodes^3} bytes
+ * (59KB for 17 nodes, 431KB for 33 and 3.3MB for 65), so it stays in cache. Grid colours are converted with
+ * {@link ColourSpaceUtilities}, and their channel values are the nearest integers to evenly spaced values, so a grid
+ * colour converts exactly. LCh is interpolated in Lab and then converted, so that hue doesn't wrap round within a cell.
+ * <p>
+ * Errors over all 24-bit colours against {@link ColourSpaceUtilities#convertRgb2Lab(int, int, int, float[])}, as
+ * CIE76 colour differences (largest / mean):
+ * <table summary="Lab errors">
+ * <tr><th>Nodes</th><th>Trilinear</th><th>Tetrahedral</th></tr>
+ * <tr><td>17</td><td>1.08 / 0.121</td><td>1.62 / 0.078</td></tr>
+ * <tr><td>33</td><td>0.46 / 0.032</td><td>0.67 / 0.022</td></tr>
+ * <tr><td>65</td><td>0.14 / 0.008</td><td>0.20 / 0.005</td></tr>
+ * </table>
+ * Errors are largest in dark colours, where Lab's cube root is steepest; a difference below 1 is generally
+ * imperceptible. LCh lightness, chroma and hue difference have about the same errors, though hue angle error grows
+ * without bound as chroma approaches 0. XYZ depends on the channels separately, so its errors are the same for both
+ * interpolations: at most 0.26, 0.065 and 0.016 (of 100) for 17, 33 and 65 nodes.
+ */
+public final class ColourCubeLut {
+
+    /**
+     * How to interpolate between grid colours.
+     */
+    public enum Interpolation {
+
+        /**
+         * Weight the 8 corners of a pixel's cell.
+         */
+        TRILINEAR,
+
+        /**
+         * Weight the 4 corners of the tetrahedron of a pixel's cell that contains it, which is faster and has a
+         * smaller mean error, though a larger maximum error (see the table above). Neutral colours are interpolated
+         * only along the grey diagonal, between the grid's greys, so they get no chroma from coloured nodes.
+         */
+        TETRAHEDRAL
+    }
+
+    /**
+     * Smallest number of grid nodes per channel.
+     */
+    public static final int MIN_NODES = 2;
+
+    /**
+     * Largest number of grid nodes per channel, i.e. one per channel value.
+     */
+    public static final int MAX_NODES = 256;
+
+    // Number of channel values.
+    private static final int CHANNEL_VALUES = 256;
+
+    // Maximum number of tables to keep.
+    private static final int MAX_CACHED_LUTS = 8;
+
+    // Tables built most recently, by key.
+    private static final Map<String, ColourCubeLut> CACHE =
+            new LinkedHashMap<String, ColourCubeLut>(MAX_CACHED_LUTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, ColourCubeLut> eldest) {
+                    return size() > MAX_CACHED_LUTS;
+                }
+            };
+
+    // Parameters.
+    private final ColourSpace space;
+    private final int nodes;
+    private final Interpolation interpolation;
+
+    // Converted grid colours, 3 floats per node, with blue varying fastest.
+    private final float[] grid;
+
+    // Grid offsets of adjacent nodes in each channel.
+    private final int redStride;
+    private final int greenStride;
+    private final int blueStride;
+
+    // Grid offset of the cell containing each channel value, and the value's position in the cell (0-1).
+    private final int[] redOffsets = new int[CHANNEL_VALUES];
+    private final int[] greenOffsets = new int[CHANNEL_VALUES];
+    private final int[] blueOffsets = new int[CHANNEL_VALUES];
+    private final float[] fractions = new float[CHANNEL_VALUES];
+
+    private ColourCubeLut(final ColourSpace space, final int nodes, final Interpolation interpolation) {
+
+        this.space = space;
+        this.nodes = nodes;
+        this.interpolation = interpolation;
+
+        // Channel value of each node.
+        final int[] values = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            values[i] = (int) Math.round(i * (CHANNEL_VALUES - 1.0) / (nodes - 1));
+        }
+
+        // Cell of each channel value; the last value is at the end of the last cell.
+        blueStride = 3;
+        greenStride = nodes * blueStride;
+        redStride = nodes * greenStride;
+        for (int value = 0, cell = 0; value < CHANNEL_VALUES; value++) {
+
+            while (cell < nodes - 2 && value >= values[cell + 1]) {
+                cell++;
+            }
+            redOffsets[value] = cell * redStride;
+            greenOffsets[value] = cell * greenStride;
+            blueOffsets[value] = cell * blueStride;
+            fractions[value] = (float) (value - values[cell]) / (values[cell + 1] - values[cell]);
+        }
+
+        // Convert the grid colours (LCh is interpolated as Lab).
+        grid = new float[nodes * redStride];
+        final float[] converted = new float[3];
+        for (int r = 0, i = 0; r < nodes; r++) {
+            for (int g = 0; g < nodes; g++) {
+                for (int b = 0; b < nodes; b++) {
+
+                    if (space == ColourSpace.XYZ) {
+                        ColourSpaceUtilities.convertRgb2Xyz(values[r], values[g], values[b], converted);
+                    } else {
+                        ColourSpaceUtilities.convertRgb2Lab(values[r], values[g], values[b], converted);
+                    }
+                    grid[i++] = converted[0];
+                    grid[i++] = converted[1];
+                    grid[i++] = converted[2];
+                }
+            }
+        }
+    }
+
+    /**
+     * Build a table.
+     *
+     * @param space         the colour space to convert to: XYZ, LAB or LCH.
+     * @param nodes         the number of grid nodes per channel, from {@link #MIN_NODES} to {@link #MAX_NODES}, e.g.
+     *                      17, 33 or 65.
+     * @param interpolation how to interpolate between grid colours.
+     * @return the table.
+     */
+    public static ColourCubeLut build(final ColourSpace space, final int nodes, final Interpolation interpolation) {
+
+        if (space == ColourSpace.HSV) {
+            throw new IllegalArgumentException("HSV hue isn't continuous, so can't be interpolated");
+        }
+        if (nodes < MIN_NODES || nodes > MAX_NODES) {
+            throw new IllegalArgumentException(
+                    "Nodes must be from " + MIN_NODES + " to " + MAX_NODES + ": " + nodes);
+        }
+        return new ColourCubeLut(space, nodes, interpolation);
+    }
+
+    /**
+     * Gets a table, building it if it isn't cached.
+     *
+     * @param space         the colour space to convert to: XYZ, LAB or LCH.
+     * @param nodes         the number of grid nodes per channel.
+     * @param interpolation how to interpolate between grid colours.
+     * @return the table.
+     * @see #build(ColourSpace, int, Interpolation)
+     */
+    public static ColourCubeLut getLut(final ColourSpace space, final int nodes, final Interpolation interpolation) {
+
+        final String key = space + " " + nodes + ' ' + interpolation;
+        synchronized (CACHE) {
+            ColourCubeLut lut = CACHE.get(key);
+            if (lut == null) {
+                lut = build(space, nodes, interpolation);
+                CACHE.put(key, lut);
+            }
+            return lut;
+        }
+    }
+
+    public ColourSpace getSpace() {
+        return space;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Converts a pixel.
+     *
+     * @param pixel     the pixel value (packed RGB, any alpha is ignored).
+     * @param converted array to receive the converted triple.
+     */
+    public void convert(final int pixel, final float[] converted) {
+
+        if (interpolation == Interpolation.TETRAHEDRAL) {
+            interpolateTetrahedral(pixel, converted);
+        } else {
+            interpolateTrilinear(pixel, converted);
+        }
+        if (space == ColourSpace.LCH) {
+            ColourSpaceUtilities.convertLab2Lch(converted[0], converted[1], converted[2], converted);
+        }
+    }
+
+    /**
+     * Bulk conversion of packed RGB pixels. Outputs are planar and written at the same indices as the input pixels.
+     *
+     * @param pixels packed RGB pixels.
+     * @param offset index of the first pixel to convert.
+     * @param length number of pixels to convert.
+     * @param c0     receives the first component.
+     * @param c1     receives the second component.
+     * @param c2     receives the third component.
+     */
+    public void convert(final int[] pixels, final int offset, final int length, final float[] c0, final float[] c1,
+                        final float[] c2) {
+
+        final float[] converted = new float[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+
+            convert(pixels[i], converted);
+            c0[i] = converted[0];
+            c1[i] = converted[1];
+            c2[i] = converted[2];
+        }
+    }
+
+    /**
+     * Interpolates between the 8 corners of a pixel's cell.
+     */
+    private void interpolateTrilinear(final int pixel, final float[] converted) {
+
+        final int red = Rgb24Bit.red(pixel);
+        final int green = Rgb24Bit.green(pixel);
+        final int blue = Rgb24Bit.blue(pixel);
+        final float fr = fractions[red];
+        final float fg = fractions[green];
+        final float fb = fractions[blue];
+        final int o000 = redOffsets[red] + greenOffsets[green] + blueOffsets[blue];
+        final int o001 = o000 + blueStride;
+        final int o010 = o000 + greenStride;
+        final int o011 = o010 + blueStride;
+        final int o100 = o000 + redStride;
+        final int o101 = o100 + blueStride;
+        final int o110 = o100 + greenStride;
+        final int o111 = o110 + blueStride;
+        for (int k = 0; k < 3; k++) {
+
+            final float c00 = grid[o000 + k] + fb * (grid[o001 + k] - grid[o000 + k]);
+            final float c01 = grid[o010 + k] + fb * (grid[o011 + k] - grid[o010 + k]);
+            final float c10 = grid[o100 + k] + fb * (grid[o101 + k] - grid[o100 + k]);
+            final float c11 = grid[o110 + k] + fb * (grid[o111 + k] - grid[o110 + k]);
+            final float c0 = c00 + fg * (c01 - c00);
+            final float c1 = c10 + fg * (c11 - c10);
+            converted[k] = c0 + fr * (c1 - c0);
+        }
+    }
+
+    /**
+     * Interpolates between the 4 corners of the tetrahedron containing a pixel: the cell's origin, its opposite
+     * corner, and the corners reached by stepping along the channels in decreasing order of position in the cell.
+     */
+    private void interpolateTetrahedral(final int pixel, final float[] converted) {
+
+        final int red = Rgb24Bit.red(pixel);
+        final int green = Rgb24Bit.green(pixel);
+        final int blue = Rgb24Bit.blue(pixel);
+        final float fr = fractions[red];
+        final float fg = fractions[green];
+        final float fb = fractions[blue];
+
+        // Order the channels by position.
+        final int step1;
+        final int step2;
+        final float f1;
+        final float f2;
+        final float f3;
+        if (fr >= fg) {
+            if (fg >= fb) {
+                step1 = redStride;
+                step2 = greenStride;
+                f1 = fr;
+                f2 = fg;
+                f3 = fb;
+            } else if (fr >= fb) {
+                step1 = redStride;
+                step2 = blueStride;
+                f1 = fr;
+                f2 = fb;
+                f3 = fg;
+            } else {
+                step1 = blueStride;
+                step2 = redStride;
+                f1 = fb;
+                f2 = fr;
+                f3 = fg;
+            }
+        } else {
+            if (fr >= fb) {
+                step1 = greenStride;
+                step2 = redStride;
+                f1 = fg;
+                f2 = fr;
+                f3 = fb;
+            } else if (fg >= fb) {
+                step1 = greenStride;
+                step2 = blueStride;
+                f1 = fg;
+                f2 = fb;
+                f3 = fr;
+            } else {
+                step1 = blueStride;
+                step2 = greenStride;
+                f1 = fb;
+                f2 = fg;
+                f3 = fr;
+            }
+        }
+
+        final int o0 = redOffsets[red] + greenOffsets[green] + blueOffsets[blue];
+        final int o1 = o0 + step1;
+        final int o2 = o1 + step2;
+        final int o3 = o0 + redStride + greenStride + blueStride;
+        for (int k = 0; k < 3; k++) {
+
+            final float v0 = grid[o0 + k];
+            final float v1 = grid[o1 + k];
+            final float v2 = grid[o2 + k];
+            converted[k] = v0 + f1 * (v1 - v0) + f2 * (v2 - v1) + f3 * (grid[o3 + k] - v2);
+        }
+    }
+}
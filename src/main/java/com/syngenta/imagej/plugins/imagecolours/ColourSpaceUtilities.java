@@ -1,9 +1,23 @@
 package com.syngenta.imagej.plugins.imagecolours;
 
+import ij.Prefs;
+import ij.util.ThreadUtil;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Useful colour space utilities.
  */
 public final class ColourSpaceUtilities {
+
+    /**
+     * Colour spaces that packed RGB pixels can be converted to in bulk.
+     */
+    public enum ColourSpace {
+        HSV, XYZ, LAB, LCH
+    }
+
     // Colour space ranges.
     public static final double LCH_L_MIN = 0.0;
     public static final double LCH_C_MIN = 0.0;
@@ -52,6 +66,21 @@ public final class ColourSpaceUtilities {
     private static final float[] RGB2XYZ_GX = new float[NUM_XYZ_ENTRIES];
     private static final float[] RGB2XYZ_RX = new float[NUM_XYZ_ENTRIES];
 
+    // XYZ to RGB gamma encoding: the smallest linear value that encodes to each level, and the level to start
+    // searching from in each segment of 0-1.
+    private static final double GAMMA_LINEAR_MAX = 0.0031308f;
+    private static final int GAMMA_SEGMENTS = 4096;
+    private static final double[] GAMMA_THRESHOLDS = new double[NUM_XYZ_ENTRIES];
+    private static final int[] GAMMA_START = new int[GAMMA_SEGMENTS + 1];
+
+    // LCH to LAB sines, with a further quarter turn for cosines.
+    private static final int SINE_SEGMENTS = 3600;
+    private static final float SINE_SCALE = SINE_SEGMENTS / 360.0f;
+    private static final float[] SINE = new float[SINE_SEGMENTS + SINE_SEGMENTS / 4 + 1];
+
+    // Rows per band for multi-threaded bulk conversion.
+    private static final int BULK_ROWS_PER_BAND = 16;
+
     // Computational constants.
     private static final double ONE_THIRD = 1.0 / 3.0;
     private static final double TWO_THIRDS = 2.0 / 3.0;
@@ -153,6 +182,35 @@ public final class ColourSpaceUtilities {
         LAB2LCH_T2[2][0] = -1.0f;
         LAB2LCH_T2[2][1] = 0.0f;
         LAB2LCH_T2[2][2] = 1.0f;
+
+        // Gamma encoding thresholds, found by bisection so that look ups match the formula exactly.
+        final long linearMax = Double.doubleToLongBits(GAMMA_LINEAR_MAX);
+        for (int level = 0; level < NUM_XYZ_ENTRIES; level++) {
+            long low = linearMax;
+            long high = Double.doubleToLongBits(1.0);
+            while (low < high) {
+                final long mid = low + (high - low) / 2;
+                if (calculateGamma(Double.longBitsToDouble(mid)) < level) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            GAMMA_THRESHOLDS[level] = Double.longBitsToDouble(low);
+        }
+        int level = 0;
+        for (int seg = 0; seg <= GAMMA_SEGMENTS; seg++) {
+            final double linear = (double) seg / GAMMA_SEGMENTS;
+            while (level < NUM_XYZ_ENTRIES - 1 && linear >= GAMMA_THRESHOLDS[level + 1]) {
+                level++;
+            }
+            GAMMA_START[seg] = level;
+        }
+
+        // Sines.
+        for (int seg = 0; seg < SINE.length; seg++) {
+            SINE[seg] = (float) StrictMath.sin(seg * 2.0 * Math.PI / SINE_SEGMENTS);
+        }
     }
 
     private static double getArctan(final int i) {
@@ -181,21 +239,87 @@ public final class ColourSpaceUtilities {
      */
     public static double[] convertRgb2Hsv(final int... rgb) {
 
-        final double r = rgb[0] / 255.0;    // R 0..1
-        final double g = rgb[1] / 255.0;    // G 0..1
-        final double b = rgb[2] / 255.0;    // B 0..1
+        final double[] hsv = new double[3];
+        convertRgb2Hsv(rgb[0], rgb[1], rgb[2], hsv);
+        return hsv;
+    }
+
+    /**
+     * Colour space conversion from RGB (0..255) to HSV (0..1) without allocation.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @param hsv   array to receive the HSV values (0: H; 1: S; 2: V).
+     */
+    public static void convertRgb2Hsv(final int red, final int green, final int blue, final double[] hsv) {
+
+        final double r = red / 255.0;      // R 0..1
+        final double g = green / 255.0;    // G 0..1
+        final double b = blue / 255.0;     // B 0..1
 
-        final double rgbMin = Math.min(Math.min(r, g), b); // Min. value of RGB
         final double rgbMax = Math.max(Math.max(r, g), b); // Max. value of RGB
-        final double rgbDelta = rgbMax - rgbMin;           // Delta RGB value
+        final double rgbDelta = rgbMax - Math.min(Math.min(r, g), b); // Delta RGB value
+
+        hsv[0] = calculateHue(r, g, b, rgbMax, rgbDelta);
+        hsv[1] = calculateSaturation(rgbMax, rgbDelta);
+        hsv[2] = rgbMax;
+    }
+
+    /**
+     * Gets the HSV hue (0..1) of an RGB (0..255) colour.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @return the hue.
+     */
+    public static double getHue(final int red, final int green, final int blue) {
+
+        final double r = red / 255.0;
+        final double g = green / 255.0;
+        final double b = blue / 255.0;
+
+        final double rgbMax = Math.max(Math.max(r, g), b);
+        return calculateHue(r, g, b, rgbMax, rgbMax - Math.min(Math.min(r, g), b));
+    }
+
+    /**
+     * Gets the HSV saturation (0..1) of an RGB (0..255) colour.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @return the saturation.
+     */
+    public static double getSaturation(final int red, final int green, final int blue) {
+
+        final double r = red / 255.0;
+        final double g = green / 255.0;
+        final double b = blue / 255.0;
+
+        final double rgbMax = Math.max(Math.max(r, g), b);
+        return calculateSaturation(rgbMax, rgbMax - Math.min(Math.min(r, g), b));
+    }
+
+    /**
+     * Gets the HSV value (0..1) of an RGB (0..255) colour.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @return the value.
+     */
+    public static double getValue(final int red, final int green, final int blue) {
+
+        return Math.max(Math.max(red, green), blue) / 255.0;
+    }
+
+    private static double calculateHue(final double r, final double g, final double b, final double rgbMax,
+                                       final double rgbDelta) {
 
         double hue = 0.0;
-        final double saturation;
-        if (rgbDelta == 0.0) {                  // This is a grey, no chroma...
-            hue = 0.0;                          // HSV results = 0 or 1
-            saturation = 0.0;
-        } else {                                // Chromatic data...
-            saturation = rgbDelta / rgbMax;
+        if (rgbDelta != 0.0) {                  // Chromatic data...
             final double rDelta = ((rgbMax - r) / 6.0 + rgbDelta / 2.0) / rgbDelta;
             final double gDelta = ((rgbMax - g) / 6.0 + rgbDelta / 2.0) / rgbDelta;
             final double bDelta = ((rgbMax - b) / 6.0 + rgbDelta / 2.0) / rgbDelta;
@@ -213,9 +337,13 @@ public final class ColourSpaceUtilities {
             } else if (hue > 1.0) {
                 hue -= 1.0;
             }
-        }
+        }                                       // else this is a grey, no chroma...
+        return hue;
+    }
 
-        return new double[]{hue, saturation, rgbMax};
+    private static double calculateSaturation(final double rgbMax, final double rgbDelta) {
+
+        return rgbDelta == 0.0 ? 0.0 : rgbDelta / rgbMax;
     }
 
     /**
@@ -332,12 +460,39 @@ public final class ColourSpaceUtilities {
      */
     public static float[] convertRgb2Xyz(final int... rgb) {
 
-        final int red = rgb[0];
-        final int green = rgb[1];
-        final int blue = rgb[2];
-        return new float[]{RGB2XYZ_RX[red] + RGB2XYZ_GX[green] + RGB2XYZ_BX[blue],
+        final float[] xyz = new float[3];
+        convertRgb2Xyz(rgb[0], rgb[1], rgb[2], xyz);
+        return xyz;
+    }
+
+    /**
+     * Colour space conversion from RGB to XYZ without allocation.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @param xyz   array to receive the XYZ triple.
+     */
+    public static void convertRgb2Xyz(final int red, final int green, final int blue, final float[] xyz) {
+
+        xyz[0] = RGB2XYZ_RX[red] + RGB2XYZ_GX[green] + RGB2XYZ_BX[blue];
+        xyz[1] = RGB2XYZ_RY[red] + RGB2XYZ_GY[green] + RGB2XYZ_BY[blue];
+        xyz[2] = RGB2XYZ_RZ[red] + RGB2XYZ_GZ[green] + RGB2XYZ_BZ[blue];
+    }
+
+    /**
+     * Colour space conversion from RGB to LAB without allocation.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @param lab   array to receive the LAB triple.
+     */
+    public static void convertRgb2Lab(final int red, final int green, final int blue, final float[] lab) {
+
+        convertXyz2Lab(RGB2XYZ_RX[red] + RGB2XYZ_GX[green] + RGB2XYZ_BX[blue],
                 RGB2XYZ_RY[red] + RGB2XYZ_GY[green] + RGB2XYZ_BY[blue],
-                RGB2XYZ_RZ[red] + RGB2XYZ_GZ[green] + RGB2XYZ_BZ[blue]};
+                RGB2XYZ_RZ[red] + RGB2XYZ_GZ[green] + RGB2XYZ_BZ[blue], lab);
     }
 
     /**
@@ -363,10 +518,25 @@ public final class ColourSpaceUtilities {
      */
     public static float[] convertXyz2Lab(final float... xyz) {
 
+        final float[] lab = new float[3];
+        convertXyz2Lab(xyz[0], xyz[1], xyz[2], lab);
+        return lab;
+    }
+
+    /**
+     * Colour space conversion from XYZ to LAB without allocation.
+     *
+     * @param x   X value.
+     * @param y   Y value.
+     * @param z   Z value.
+     * @param lab array to receive the LAB triple.
+     */
+    public static void convertXyz2Lab(final float x, final float y, final float z, final float[] lab) {
+
         // Find s and w.
-        final float ux = XYZ2LAB_X * xyz[0];
-        final float uy = XYZ2LAB_Y * xyz[1];
-        final float uz = XYZ2LAB_Z * xyz[2];
+        final float ux = XYZ2LAB_X * x;
+        final float uy = XYZ2LAB_Y * y;
+        final float uz = XYZ2LAB_Z * z;
         final int sx = (int) ux;
         final int sy = (int) uy;
         final int sz = (int) uz;
@@ -379,7 +549,9 @@ public final class ColourSpaceUtilities {
         final float A = XYZ2LAB_A_C[sx] * wx + XYZ2LAB_A_D[sx] - XYZ2LAB_A_C[sy] * wy - XYZ2LAB_A_D[sy];
         final float B = XYZ2LAB_B_C[sy] * wy + XYZ2LAB_B_D[sy] - XYZ2LAB_B_C[sz] * wz - XYZ2LAB_B_D[sz];
 
-        return new float[]{L, A, B};
+        lab[0] = L;
+        lab[1] = A;
+        lab[2] = B;
     }
 
     /**
@@ -390,9 +562,20 @@ public final class ColourSpaceUtilities {
      */
     public static float[] convertLab2Lch(final float... lab) {
 
-        //Inputs
-        final float b = lab[2];
-        final float a = lab[1];
+        final float[] lch = new float[3];
+        convertLab2Lch(lab[0], lab[1], lab[2], lch);
+        return lch;
+    }
+
+    /**
+     * Colour space conversion from LAB to LCH without allocation.
+     *
+     * @param l   L value.
+     * @param a   A value.
+     * @param b   B value.
+     * @param lch array to receive the LCH triple.
+     */
+    public static void convertLab2Lch(final float l, final float a, final float b, final float[] lch) {
 
         final float H;
         final float C;
@@ -419,7 +602,9 @@ public final class ColourSpaceUtilities {
             H = LAB2LCH_T1[sa][sb] + LAB2LCH_T2[sa][sb] * (ARCCOTAN_C[s] * w + ARCCOTAN_D[s]);
         }
 
-        return new float[]{lab[0], C, H};
+        lch[0] = l;
+        lch[1] = C;
+        lch[2] = H;
     }
 
     /**
@@ -430,19 +615,54 @@ public final class ColourSpaceUtilities {
      */
     public static int[] convertXyz2Rgb(final float... xyz) {
 
-        final float x = xyz[0] / 100.0f;       // X from 0 to  95.047.
-        final float y = xyz[1] / 100.0f;       // Y from 0 to 100.000
-        final float z = xyz[2] / 100.0f;       // Z from 0 to 108.883
+        final int[] rgb = new int[3];
+        convertXyz2Rgb(xyz[0], xyz[1], xyz[2], rgb);
+        return rgb;
+    }
 
-        double r = x * 3.2406f + y * -1.5372f + z * -0.4986f;
-        double g = x * -0.9689f + y * 1.8758f + z * 0.0415f;
-        double b = x * 0.0557f + y * -0.2040f + z * 1.0570f;
+    /**
+     * Colour space conversion from XYZ to RGB without allocation. Channels of colours outside the RGB gamut are not
+     * clamped to 0..255.
+     *
+     * @param x   X value (0 to 95.047).
+     * @param y   Y value (0 to 100).
+     * @param z   Z value (0 to 108.883).
+     * @param rgb array to receive the red, green, blue triple.
+     */
+    public static void convertXyz2Rgb(final float x, final float y, final float z, final int[] rgb) {
 
-        r = r > 0.0031308f ? 1.055f * StrictMath.pow(r, EXPONENT) - 0.055f : 12.92f * r;
-        g = g > 0.0031308f ? 1.055f * StrictMath.pow(g, EXPONENT) - 0.055f : 12.92f * g;
-        b = b > 0.0031308f ? 1.055f * StrictMath.pow(b, EXPONENT) - 0.055f : 12.92f * b;
+        final float xs = x / 100.0f;
+        final float ys = y / 100.0f;
+        final float zs = z / 100.0f;
 
-        return new int[]{(int) Math.round(r * 255.0), (int) Math.round(g * 255.0), (int) Math.round(b * 255.0)};
+        rgb[0] = encodeGamma(xs * 3.2406f + ys * -1.5372f + zs * -0.4986f);
+        rgb[1] = encodeGamma(xs * -0.9689f + ys * 1.8758f + zs * 0.0415f);
+        rgb[2] = encodeGamma(xs * 0.0557f + ys * -0.2040f + zs * 1.0570f);
+    }
+
+    /**
+     * sRGB gamma encoding of a linear channel value to 0..255. Values in 0..1 are looked up, and give the same level
+     * as the exact formula.
+     */
+    private static int encodeGamma(final double linear) {
+
+        if (linear > 1.0) {
+            return calculateGamma(linear);
+        }
+        if (linear > GAMMA_LINEAR_MAX) {
+
+            // Start from the first level of the segment, and step up to the level the value reaches.
+            int level = GAMMA_START[(int) (linear * GAMMA_SEGMENTS)];
+            while (level < NUM_XYZ_ENTRIES - 1 && linear >= GAMMA_THRESHOLDS[level + 1]) {
+                level++;
+            }
+            return level;
+        }
+        return (int) Math.round(12.92f * linear * 255.0);
+    }
+
+    private static int calculateGamma(final double linear) {
+        return (int) Math.round((1.055f * StrictMath.pow(linear, EXPONENT) - 0.055f) * 255.0);
     }
 
     /**
@@ -453,15 +673,32 @@ public final class ColourSpaceUtilities {
      */
     public static float[] convertLab2Xyz(final float... lab) {
 
-        final double x = (lab[0] + 16.0) / 116.0;
-        final double y = lab[1] / 500.0 + x;
-        final double z = x - lab[2] / 200.0;
+        final float[] xyz = new float[3];
+        convertLab2Xyz(lab[0], lab[1], lab[2], xyz);
+        return xyz;
+    }
 
-        return new float[]{(float) (95.047 * lab2xyz(y)), (float) (100.0 * lab2xyz(x)), (float) (108.883 * lab2xyz(z))};
+    /**
+     * Colour space conversion from LAB to XYZ without allocation.
+     *
+     * @param l   L value.
+     * @param a   A value.
+     * @param b   B value.
+     * @param xyz array to receive the XYZ triple.
+     */
+    public static void convertLab2Xyz(final float l, final float a, final float b, final float[] xyz) {
+
+        final double x = (l + 16.0) / 116.0;
+        final double y = a / 500.0 + x;
+        final double z = x - b / 200.0;
+
+        xyz[0] = (float) (95.047 * lab2xyz(y));
+        xyz[1] = (float) (100.0 * lab2xyz(x));
+        xyz[2] = (float) (108.883 * lab2xyz(z));
     }
 
     private static double lab2xyz(final double val) {
-        final double x3 = StrictMath.pow(val, 3);
+        final double x3 = val * val * val;
         return x3 > 0.008856 ? x3 : (val - SIXTEENTHS) / 7.787;
     }
 
@@ -473,8 +710,35 @@ public final class ColourSpaceUtilities {
      */
     public static float[] convertLch2Lab(final float... lch) {
 
-        final double theta = lch[2] * Math.PI / 180.0;
-        return new float[]{lch[0], (float) (StrictMath.cos(theta) * lch[1]), (float) (StrictMath.sin(theta) * lch[1])};
+        final float[] lab = new float[3];
+        convertLch2Lab(lch[0], lch[1], lch[2], lab);
+        return lab;
+    }
+
+    /**
+     * Colour space conversion from LCH to LAB without allocation. Sines and cosines are interpolated from a table, to
+     * within 5e-7 (A and B to within 1e-4 for C up to {@link #LCH_C_MAX}).
+     *
+     * @param l   L value.
+     * @param c   C value.
+     * @param h   H value, in degrees.
+     * @param lab array to receive the LAB triple.
+     */
+    public static void convertLch2Lab(final float l, final float c, final float h, final float[] lab) {
+
+        // Find s and w, with the hue wrapped to 0-360.
+        final float u = h * SINE_SCALE;
+        final int floor = (int) Math.floor(u);
+        final float w = u - floor;
+        int s = floor % SINE_SEGMENTS;
+        if (s < 0) {
+            s += SINE_SEGMENTS;
+        }
+        final int sc = s + SINE_SEGMENTS / 4;
+
+        lab[0] = l;
+        lab[1] = c * (SINE[sc] + (SINE[sc + 1] - SINE[sc]) * w);
+        lab[2] = c * (SINE[s] + (SINE[s + 1] - SINE[s]) * w);
     }
 
     /**
@@ -499,4 +763,337 @@ public final class ColourSpaceUtilities {
         }
         return rgbDiff;
     }
-}
\ No newline at end of file
+
+    /**
+     * Bulk colour space conversion of packed RGB pixels to HSV (0..1). Outputs are planar and written at the same
+     * indices as the input pixels.
+     *
+     * @param pixels     packed RGB pixels.
+     * @param offset     index of the first pixel to convert.
+     * @param length     number of pixels to convert.
+     * @param hue        receives the hue values.
+     * @param saturation receives the saturation values.
+     * @param value      receives the value values.
+     */
+    public static void convertRgb2Hsv(final int[] pixels, final int offset, final int length, final float[] hue,
+                                      final float[] saturation, final float[] value) {
+
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+
+            final int pixel = pixels[i];
+            final double r = Rgb24Bit.red(pixel) / 255.0;
+            final double g = Rgb24Bit.green(pixel) / 255.0;
+            final double b = Rgb24Bit.blue(pixel) / 255.0;
+            final double rgbMax = Math.max(Math.max(r, g), b);
+            final double rgbDelta = rgbMax - Math.min(Math.min(r, g), b);
+            hue[i] = (float) calculateHue(r, g, b, rgbMax, rgbDelta);
+            saturation[i] = (float) calculateSaturation(rgbMax, rgbDelta);
+            value[i] = (float) rgbMax;
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of packed RGB pixels to XYZ. Outputs are planar and written at the same indices as
+     * the input pixels.
+     *
+     * @param pixels packed RGB pixels.
+     * @param offset index of the first pixel to convert.
+     * @param length number of pixels to convert.
+     * @param x      receives the X values.
+     * @param y      receives the Y values.
+     * @param z      receives the Z values.
+     */
+    public static void convertRgb2Xyz(final int[] pixels, final int offset, final int length, final float[] x,
+                                      final float[] y, final float[] z) {
+
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+
+            final int pixel = pixels[i];
+            final int red = Rgb24Bit.red(pixel);
+            final int green = Rgb24Bit.green(pixel);
+            final int blue = Rgb24Bit.blue(pixel);
+            x[i] = RGB2XYZ_RX[red] + RGB2XYZ_GX[green] + RGB2XYZ_BX[blue];
+            y[i] = RGB2XYZ_RY[red] + RGB2XYZ_GY[green] + RGB2XYZ_BY[blue];
+            z[i] = RGB2XYZ_RZ[red] + RGB2XYZ_GZ[green] + RGB2XYZ_BZ[blue];
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of packed RGB pixels to LAB. Outputs are planar and written at the same indices as
+     * the input pixels.
+     *
+     * @param pixels packed RGB pixels.
+     * @param offset index of the first pixel to convert.
+     * @param length number of pixels to convert.
+     * @param l      receives the L values.
+     * @param a      receives the A values.
+     * @param b      receives the B values.
+     */
+    public static void convertRgb2Lab(final int[] pixels, final int offset, final int length, final float[] l,
+                                      final float[] a, final float[] b) {
+
+        final float[] lab = new float[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+
+            final int pixel = pixels[i];
+            convertRgb2Lab(Rgb24Bit.red(pixel), Rgb24Bit.green(pixel), Rgb24Bit.blue(pixel), lab);
+            l[i] = lab[0];
+            a[i] = lab[1];
+            b[i] = lab[2];
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of packed RGB pixels to LCH. Outputs are planar and written at the same indices as
+     * the input pixels.
+     *
+     * @param pixels packed RGB pixels.
+     * @param offset index of the first pixel to convert.
+     * @param length number of pixels to convert.
+     * @param l      receives the L values.
+     * @param c      receives the C values.
+     * @param h      receives the H values.
+     */
+    public static void convertRgb2Lch(final int[] pixels, final int offset, final int length, final float[] l,
+                                      final float[] c, final float[] h) {
+
+        final float[] lch = new float[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+
+            final int pixel = pixels[i];
+            convertRgb2Lab(Rgb24Bit.red(pixel), Rgb24Bit.green(pixel), Rgb24Bit.blue(pixel), lch);
+            convertLab2Lch(lch[0], lch[1], lch[2], lch);
+            l[i] = lch[0];
+            c[i] = lch[1];
+            h[i] = lch[2];
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of packed RGB pixels to a colour space. Outputs are planar and written at the same
+     * indices as the input pixels.
+     *
+     * @param space  the colour space to convert to.
+     * @param pixels packed RGB pixels.
+     * @param offset index of the first pixel to convert.
+     * @param length number of pixels to convert.
+     * @param c0     receives the first component.
+     * @param c1     receives the second component.
+     * @param c2     receives the third component.
+     */
+    public static void convertRgb(final ColourSpace space, final int[] pixels, final int offset, final int length,
+                                  final float[] c0, final float[] c1, final float[] c2) {
+
+        switch (space) {
+            case HSV:
+                convertRgb2Hsv(pixels, offset, length, c0, c1, c2);
+                break;
+            case XYZ:
+                convertRgb2Xyz(pixels, offset, length, c0, c1, c2);
+                break;
+            case LAB:
+                convertRgb2Lab(pixels, offset, length, c0, c1, c2);
+                break;
+            case LCH:
+                convertRgb2Lch(pixels, offset, length, c0, c1, c2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported colour space: " + space);
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of planar HSV (0..1) to packed RGB pixels. Outputs are written at the same indices
+     * as the inputs.
+     *
+     * @param hue        hue values.
+     * @param saturation saturation values.
+     * @param value      value values.
+     * @param offset     index of the first colour to convert.
+     * @param length     number of colours to convert.
+     * @param pixels     receives the packed RGB pixels.
+     */
+    public static void convertHsv2Rgb(final float[] hue, final float[] saturation, final float[] value,
+                                      final int offset, final int length, final int[] pixels) {
+
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            pixels[i] = Color.HSBtoRGB(hue[i], saturation[i], value[i]) & 0xffffff;
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of planar XYZ to packed RGB pixels. Channels of colours outside the RGB gamut are
+     * clamped to 0..255. Outputs are written at the same indices as the inputs.
+     *
+     * @param x      X values.
+     * @param y      Y values.
+     * @param z      Z values.
+     * @param offset index of the first colour to convert.
+     * @param length number of colours to convert.
+     * @param pixels receives the packed RGB pixels.
+     */
+    public static void convertXyz2Rgb(final float[] x, final float[] y, final float[] z, final int offset,
+                                      final int length, final int[] pixels) {
+
+        final int[] rgb = new int[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            convertXyz2Rgb(x[i], y[i], z[i], rgb);
+            pixels[i] = packClamped(rgb);
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of planar LAB to packed RGB pixels. Channels of colours outside the RGB gamut are
+     * clamped to 0..255. Outputs are written at the same indices as the inputs.
+     *
+     * @param l      L values.
+     * @param a      A values.
+     * @param b      B values.
+     * @param offset index of the first colour to convert.
+     * @param length number of colours to convert.
+     * @param pixels receives the packed RGB pixels.
+     */
+    public static void convertLab2Rgb(final float[] l, final float[] a, final float[] b, final int offset,
+                                      final int length, final int[] pixels) {
+
+        final float[] xyz = new float[3];
+        final int[] rgb = new int[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            convertLab2Xyz(l[i], a[i], b[i], xyz);
+            convertXyz2Rgb(xyz[0], xyz[1], xyz[2], rgb);
+            pixels[i] = packClamped(rgb);
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of planar LCH to packed RGB pixels. Channels of colours outside the RGB gamut are
+     * clamped to 0..255. Outputs are written at the same indices as the inputs.
+     *
+     * @param l      L values.
+     * @param c      C values.
+     * @param h      H values.
+     * @param offset index of the first colour to convert.
+     * @param length number of colours to convert.
+     * @param pixels receives the packed RGB pixels.
+     */
+    public static void convertLch2Rgb(final float[] l, final float[] c, final float[] h, final int offset,
+                                      final int length, final int[] pixels) {
+
+        final float[] lab = new float[3];
+        final int[] rgb = new int[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            convertLch2Lab(l[i], c[i], h[i], lab);
+            convertLab2Xyz(lab[0], lab[1], lab[2], lab);
+            convertXyz2Rgb(lab[0], lab[1], lab[2], rgb);
+            pixels[i] = packClamped(rgb);
+        }
+    }
+
+    /**
+     * Bulk colour space conversion of planar colours in a colour space to packed RGB pixels: the inverse of
+     * {@link #convertRgb(ColourSpace, int[], int, int, float[], float[], float[])}. Outputs are written at the same
+     * indices as the inputs.
+     *
+     * @param space  the colour space to convert from.
+     * @param c0     first components.
+     * @param c1     second components.
+     * @param c2     third components.
+     * @param offset index of the first colour to convert.
+     * @param length number of colours to convert.
+     * @param pixels receives the packed RGB pixels.
+     */
+    public static void convert2Rgb(final ColourSpace space, final float[] c0, final float[] c1, final float[] c2,
+                                   final int offset, final int length, final int[] pixels) {
+
+        switch (space) {
+            case HSV:
+                convertHsv2Rgb(c0, c1, c2, offset, length, pixels);
+                break;
+            case XYZ:
+                convertXyz2Rgb(c0, c1, c2, offset, length, pixels);
+                break;
+            case LAB:
+                convertLab2Rgb(c0, c1, c2, offset, length, pixels);
+                break;
+            case LCH:
+                convertLch2Rgb(c0, c1, c2, offset, length, pixels);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported colour space: " + space);
+        }
+    }
+
+    private static int packClamped(final int[] rgb) {
+        return Rgb24Bit.pack(Math.max(0, Math.min(rgb[0], 255)), Math.max(0, Math.min(rgb[1], 255)),
+                Math.max(0, Math.min(rgb[2], 255)));
+    }
+
+    /**
+     * Bulk colour space conversion of the packed RGB pixels in a rectangle of an image. Outputs are planar and written
+     * at the same indices as the input pixels.
+     *
+     * @param space  the colour space to convert to.
+     * @param pixels packed RGB pixels.
+     * @param width  image width.
+     * @param roi    the rectangle to convert.
+     * @param c0     receives the first component.
+     * @param c1     receives the second component.
+     * @param c2     receives the third component.
+     */
+    public static void convertRgb(final ColourSpace space, final int[] pixels, final int width, final Rectangle roi,
+                                  final float[] c0, final float[] c1, final float[] c2) {
+
+        convertRgbRows(space, pixels, width, roi, roi.y, roi.y + roi.height, c0, c1, c2);
+    }
+
+    /**
+     * Multi-threaded bulk colour space conversion of the packed RGB pixels in a rectangle of an image. Threads convert
+     * bands of rows. Outputs are planar and written at the same indices as the input pixels.
+     *
+     * @param space  the colour space to convert to.
+     * @param pixels packed RGB pixels.
+     * @param width  image width.
+     * @param roi    the rectangle to convert.
+     * @param c0     receives the first component.
+     * @param c1     receives the second component.
+     * @param c2     receives the third component.
+     */
+    public static void convertRgbParallel(final ColourSpace space, final int[] pixels, final int width,
+                                          final Rectangle roi, final float[] c0, final float[] c1, final float[] c2) {
+
+        final int numBands = (roi.height + BULK_ROWS_PER_BAND - 1) / BULK_ROWS_PER_BAND;
+        final AtomicInteger nextBand = new AtomicInteger();
+        final Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(Prefs.getThreads(), numBands)));
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int band = nextBand.getAndIncrement(); band < numBands; band = nextBand.getAndIncrement()) {
+
+                        final int startY = roi.y + band * BULK_ROWS_PER_BAND;
+                        final int endY = Math.min(startY + BULK_ROWS_PER_BAND, roi.y + roi.height);
+                        convertRgbRows(space, pixels, width, roi, startY, endY, c0, c1, c2);
+                    }
+                }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+    }
+
+    private static void convertRgbRows(final ColourSpace space, final int[] pixels, final int width,
+                                       final Rectangle roi, final int startY, final int endY, final float[] c0,
+                                       final float[] c1, final float[] c2) {
+
+        for (int y = startY; y < endY; y++) {
+            convertRgb(space, pixels, y * width + roi.x, roi.width, c0, c1, c2);
+        }
+    }
+}
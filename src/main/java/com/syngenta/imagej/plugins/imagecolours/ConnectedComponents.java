@@ -0,0 +1,423 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.Prefs;
+import ij.measure.ResultsTable;
+import ij.util.ThreadUtil;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connected components (objects) of every selected class in a class map: 8-connected regions of pixels with the
+ * same class, with their areas, bounding boxes and centroids.
+ * <p>
+ * The map is labelled in parallel strips of rows. Each strip finds the runs of each class along its rows and joins
+ * touching runs with a union-find; the strips' forests are then joined across the rows where strips meet. Components
+ * are numbered in raster order of their first pixel, so results don't depend on the number of threads.
+ */
+public final class ConnectedComponents {
+
+    /**
+     * Class map value of pixels that weren't classified, e.g. those outside the ROI.
+     */
+    public static final byte UNCLASSIFIED = (byte) -1;
+
+    // Smallest strip, so small images aren't split into many strips.
+    private static final int MIN_STRIP_ROWS = 64;
+
+    // Initial number of runs of a strip.
+    private static final int INITIAL_RUNS = 1024;
+
+    // Offset from a pixel's index to its centre, as ImageJ measures centroids.
+    private static final double PIXEL_CENTRE = 0.5;
+
+    // Results table column names (as Analyze Particles names them).
+    private static final String CLASS_COLUMN = "Class";
+    private static final String AREA_COLUMN = "Area";
+    private static final String X_COLUMN = "X";
+    private static final String Y_COLUMN = "Y";
+    private static final String BX_COLUMN = "BX";
+    private static final String BY_COLUMN = "BY";
+    private static final String WIDTH_COLUMN = "Width";
+    private static final String HEIGHT_COLUMN = "Height";
+    private static final String COUNT_SUFFIX = "_Count";
+
+    // Class, area, bounds and coordinate sums of each component.
+    private final int count;
+    private final byte[] classIndices;
+    private final long[] areas;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+    private final double[] sumX;
+    private final double[] sumY;
+
+    private ConnectedComponents(final int count) {
+
+        this.count = count;
+        classIndices = new byte[count];
+        areas = new long[count];
+        minX = new int[count];
+        minY = new int[count];
+        maxX = new int[count];
+        maxY = new int[count];
+        sumX = new double[count];
+        sumY = new double[count];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxX, Integer.MIN_VALUE);
+        Arrays.fill(maxY, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Finds the components of the selected classes, using ImageJ's thread count.
+     *
+     * @param classes  the class index of each pixel, or {@link #UNCLASSIFIED}.
+     * @param width    width of the map.
+     * @param height   height of the map.
+     * @param selected whether each class is selected, indexed by class index.
+     * @return the components.
+     */
+    public static ConnectedComponents find(final byte[] classes, final int width, final int height,
+                                           final boolean[] selected) {
+        return find(classes, width, height, selected, Prefs.getThreads());
+    }
+
+    /**
+     * Finds the components of the selected classes.
+     *
+     * @param classes    the class index of each pixel, or {@link #UNCLASSIFIED}.
+     * @param width      width of the map.
+     * @param height     height of the map.
+     * @param selected   whether each class is selected, indexed by class index.
+     * @param numThreads number of threads (and strips) to label with.
+     * @return the components.
+     */
+    public static ConnectedComponents find(final byte[] classes, final int width, final int height,
+                                           final boolean[] selected, final int numThreads) {
+
+        // Label strips in parallel.
+        final int numStrips = Math.max(1, Math.min(numThreads, height / MIN_STRIP_ROWS));
+        final Strip[] strips = new Strip[numStrips];
+        for (int i = 0; i < numStrips; i++) {
+            strips[i] = new Strip((int) ((long) height * i / numStrips), (int) ((long) height * (i + 1) / numStrips));
+        }
+        final AtomicInteger nextStrip = new AtomicInteger();
+        final Thread[] threads = ThreadUtil.createThreadArray(numStrips);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int strip = nextStrip.getAndIncrement(); strip < numStrips;
+                         strip = nextStrip.getAndIncrement()) {
+                        strips[strip].label(classes, width, selected);
+                    }
+                }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+
+        // Join the strips' forests into one, in raster order of runs.
+        final int[] offsets = new int[numStrips + 1];
+        for (int i = 0; i < numStrips; i++) {
+            offsets[i + 1] = offsets[i] + strips[i].numRuns;
+        }
+        final int[] parents = new int[offsets[numStrips]];
+        for (int i = 0; i < numStrips; i++) {
+            for (int run = 0; run < strips[i].numRuns; run++) {
+                parents[offsets[i] + run] = offsets[i] + strips[i].parents[run];
+            }
+        }
+        for (int i = 1; i < numStrips; i++) {
+            final Strip above = strips[i - 1];
+            final Strip below = strips[i];
+            joinRows(above, offsets[i - 1], above.getRowStart(above.endY - 1), above.numRuns,
+                    below, offsets[i], 0, below.getRowStart(below.startY + 1), parents);
+        }
+
+        // Number components by their first run, and measure them.
+        final int[] components = new int[parents.length];
+        int numComponents = 0;
+        for (int run = 0; run < parents.length; run++) {
+            final int root = find(parents, run);
+            components[run] = root == run ? numComponents++ : components[root];
+        }
+        final ConnectedComponents result = new ConnectedComponents(numComponents);
+        for (int i = 0; i < numStrips; i++) {
+            strips[i].measure(components, offsets[i], result);
+        }
+        return result;
+    }
+
+    /**
+     * Joins the runs of two adjacent rows that touch, including diagonally, and have the same class.
+     */
+    private static void joinRows(final Strip above, final int aboveOffset, final int aboveStart, final int aboveEnd,
+                                 final Strip below, final int belowOffset, final int belowStart, final int belowEnd,
+                                 final int[] parents) {
+
+        int first = aboveStart;
+        for (int run = belowStart; run < belowEnd; run++) {
+
+            // Runs above that end before the column left of this run don't touch the following runs either.
+            final int start = below.starts[run];
+            final int end = below.ends[run];
+            while (first < aboveEnd && above.ends[first] < start - 1) {
+                first++;
+            }
+            for (int other = first; other < aboveEnd && above.starts[other] <= end + 1; other++) {
+                if (above.classIndices[other] == below.classIndices[run]) {
+                    union(parents, aboveOffset + other, belowOffset + run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the root of a run, halving the path to it.
+     */
+    private static int find(final int[] parents, final int run) {
+
+        int node = run;
+        while (parents[node] != node) {
+            parents[node] = parents[parents[node]];
+            node = parents[node];
+        }
+        return node;
+    }
+
+    /**
+     * Joins the trees of two runs. The root is the earlier run, so each component's root is its first run.
+     */
+    private static void union(final int[] parents, final int run1, final int run2) {
+
+        final int root1 = find(parents, run1);
+        final int root2 = find(parents, run2);
+        if (root1 < root2) {
+            parents[root2] = root1;
+        } else if (root2 < root1) {
+            parents[root1] = root2;
+        }
+    }
+
+    /**
+     * Gets the number of components.
+     *
+     * @return the count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of components of each class.
+     *
+     * @return the counts, indexed by class index.
+     */
+    public int[] getClassCounts() {
+
+        final int[] counts = new int[HueColourClass.count()];
+        for (int i = 0; i < count; i++) {
+            counts[classIndices[i]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the class index of a component.
+     *
+     * @param component the component number (0 to {@code getCount() - 1}).
+     * @return the class index.
+     */
+    public int getClassIndex(final int component) {
+        return classIndices[component];
+    }
+
+    /**
+     * Gets the area of a component.
+     *
+     * @param component the component number.
+     * @return the number of pixels.
+     */
+    public long getArea(final int component) {
+        return areas[component];
+    }
+
+    /**
+     * Gets the bounding box of a component.
+     *
+     * @param component the component number.
+     * @return the bounds.
+     */
+    public Rectangle getBounds(final int component) {
+        return new Rectangle(minX[component], minY[component], maxX[component] - minX[component] + 1,
+                maxY[component] - minY[component] + 1);
+    }
+
+    /**
+     * Gets the x coordinate of a component's centroid, measured from the left edge of the image, as ImageJ measures it.
+     *
+     * @param component the component number.
+     * @return the centroid's x coordinate.
+     */
+    public double getCentroidX(final int component) {
+        return sumX[component] / areas[component] + PIXEL_CENTRE;
+    }
+
+    /**
+     * Gets the y coordinate of a component's centroid, measured from the top edge of the image.
+     *
+     * @param component the component number.
+     * @return the centroid's y coordinate.
+     */
+    public double getCentroidY(final int component) {
+        return sumY[component] / areas[component] + PIXEL_CENTRE;
+    }
+
+    /**
+     * Adds a row per component to a results table: its class, area, centroid and bounding box.
+     *
+     * @param table the results table.
+     * @param label the rows' label, e.g. the image title.
+     */
+    public void addTo(final ResultsTable table, final String label) {
+
+        for (int i = 0; i < count; i++) {
+
+            table.incrementCounter();
+            table.addLabel(label);
+            table.addValue(CLASS_COLUMN, HueColourClass.valueOf(classIndices[i]).getLabel());
+            table.addValue(AREA_COLUMN, areas[i]);
+            table.addValue(X_COLUMN, getCentroidX(i));
+            table.addValue(Y_COLUMN, getCentroidY(i));
+            table.addValue(BX_COLUMN, minX[i]);
+            table.addValue(BY_COLUMN, minY[i]);
+            table.addValue(WIDTH_COLUMN, maxX[i] - minX[i] + 1);
+            table.addValue(HEIGHT_COLUMN, maxY[i] - minY[i] + 1);
+        }
+    }
+
+    /**
+     * Adds a row of the number of components of each selected class to a results table.
+     *
+     * @param table    the results table.
+     * @param label    the row label, e.g. the image title.
+     * @param selected whether each class is selected, indexed by class index.
+     */
+    public void addCountsTo(final ResultsTable table, final String label, final boolean[] selected) {
+
+        final int[] counts = getClassCounts();
+        table.incrementCounter();
+        table.addLabel(label);
+        for (int i = 0; i < counts.length; i++) {
+            if (selected[i]) {
+                table.addValue(HueColourClass.valueOf(i).getLabel() + COUNT_SUFFIX, counts[i]);
+            }
+        }
+    }
+
+    /**
+     * The runs of a strip of rows, joined into trees.
+     */
+    private static final class Strip {
+
+        // Rows of the strip.
+        private final int startY;
+        private final int endY;
+
+        // Index of the first run of each row, and one past the last row's runs.
+        private final int[] rowStarts;
+
+        // Each run's first and last x, row, class and parent (strip run index).
+        private int[] starts = new int[INITIAL_RUNS];
+        private int[] ends = new int[INITIAL_RUNS];
+        private int[] rows = new int[INITIAL_RUNS];
+        private byte[] classIndices = new byte[INITIAL_RUNS];
+        private int[] parents = new int[INITIAL_RUNS];
+        private int numRuns;
+
+        private Strip(final int startY, final int endY) {
+            this.startY = startY;
+            this.endY = endY;
+            rowStarts = new int[endY - startY + 1];
+        }
+
+        /**
+         * Gets the index of the first run of a row.
+         */
+        private int getRowStart(final int y) {
+            return rowStarts[y - startY];
+        }
+
+        /**
+         * Finds the runs of selected classes in each row, and joins those that touch runs of the row above.
+         */
+        private void label(final byte[] classes, final int width, final boolean[] selected) {
+
+            for (int y = startY; y < endY; y++) {
+
+                final int rowStart = numRuns;
+                rowStarts[y - startY] = rowStart;
+                final int offset = y * width;
+                int x = 0;
+                while (x < width) {
+
+                    final byte classIndex = classes[offset + x];
+                    if (classIndex == UNCLASSIFIED || !selected[classIndex]) {
+                        x++;
+                        continue;
+                    }
+                    final int start = x;
+                    while (x < width && classes[offset + x] == classIndex) {
+                        x++;
+                    }
+                    addRun(start, x - 1, y, classIndex);
+                }
+                if (y > startY) {
+                    joinRows(this, 0, rowStarts[y - startY - 1], rowStart, this, 0, rowStart, numRuns, parents);
+                }
+            }
+            rowStarts[endY - startY] = numRuns;
+        }
+
+        private void addRun(final int start, final int end, final int y, final byte classIndex) {
+
+            if (numRuns == starts.length) {
+                final int size = numRuns * 2;
+                starts = Arrays.copyOf(starts, size);
+                ends = Arrays.copyOf(ends, size);
+                rows = Arrays.copyOf(rows, size);
+                classIndices = Arrays.copyOf(classIndices, size);
+                parents = Arrays.copyOf(parents, size);
+            }
+            starts[numRuns] = start;
+            ends[numRuns] = end;
+            rows[numRuns] = y;
+            classIndices[numRuns] = classIndex;
+            parents[numRuns] = numRuns;
+            numRuns++;
+        }
+
+        /**
+         * Adds the strip's runs to their components' measurements.
+         */
+        private void measure(final int[] components, final int offset, final ConnectedComponents result) {
+
+            for (int run = 0; run < numRuns; run++) {
+
+                final int component = components[offset + run];
+                final int length = ends[run] - starts[run] + 1;
+                result.classIndices[component] = classIndices[run];
+                result.areas[component] += length;
+                result.sumX[component] += (starts[run] + ends[run]) * 0.5 * length;
+                result.sumY[component] += (double) rows[run] * length;
+                result.minX[component] = Math.min(result.minX[component], starts[run]);
+                result.maxX[component] = Math.max(result.maxX[component], ends[run]);
+                result.minY[component] = Math.min(result.minY[component], rows[run]);
+                result.maxY[component] = Math.max(result.maxY[component], rows[run]);
+            }
+        }
+    }
+}
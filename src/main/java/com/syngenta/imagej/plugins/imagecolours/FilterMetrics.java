@@ -0,0 +1,169 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe timings of the stages of a filter run, and their throughput.
+ * <p>
+ * A stage may be timed several times, concurrently (e.g. by {@code PARALLELIZE_IMAGES} workers) or one after another
+ * (e.g. set-up before and after a dialog). Its elapsed time is the smaller of the sum of the timed intervals and the
+ * span from the first start to the last end: the former excludes gaps between sequential calls, the latter doesn't
+ * double count concurrent ones.
+ */
+public class FilterMetrics {
+
+    /**
+     * Stages of a filter run.
+     */
+    public enum Stage {
+
+        SETUP("Setup"),
+        ROI_INDEX("ROI index"),
+        UNIQUE_COLOURS("Unique colours"),
+        BINARIZE_PRE_PASS("Binarize pre-pass"),
+        CLASSIFICATION("Classification"),
+        FINAL_BINARIZE("Final binarize"),
+        FINAL_LABELS("Final labels"),
+        FINAL_OBJECTS("Final objects");
+
+        // Display name.
+        private final String label;
+
+        Stage(final String label) {
+            this.label = label;
+        }
+
+        /**
+         * Gets the stage's display name.
+         *
+         * @return the name.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // Nanoseconds per second.
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    // Nanoseconds per millisecond.
+    private static final double NANOS_PER_MILLI = 1.0e6;
+
+    // Per-stage counters, indexed by stage ordinal.
+    private final AtomicLong[] summedNanos = newCounters(0L);
+    private final AtomicLong[] firstStart = newCounters(Long.MAX_VALUE);
+    private final AtomicLong[] lastEnd = newCounters(Long.MIN_VALUE);
+    private final AtomicLong[] pixels = newCounters(0L);
+    private final AtomicLong[] calls = newCounters(0L);
+
+    private static AtomicLong[] newCounters(final long initialValue) {
+
+        final AtomicLong[] counters = new AtomicLong[Stage.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong(initialValue);
+        }
+        return counters;
+    }
+
+    /**
+     * Gets the start time of an interval.
+     *
+     * @return the current time, in nanoseconds.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records an interval of a stage that ends now.
+     *
+     * @param stage      the stage.
+     * @param startNanos the interval's start, as returned by {@link #start()}.
+     * @param pixelCount the number of pixels processed in the interval.
+     */
+    public void record(final Stage stage, final long startNanos, final long pixelCount) {
+
+        final long end = System.nanoTime();
+        final int i = stage.ordinal();
+        summedNanos[i].addAndGet(end - startNanos);
+        pixels[i].addAndGet(pixelCount);
+        calls[i].incrementAndGet();
+
+        // Widen the span to cover the interval.
+        long first = firstStart[i].get();
+        while (startNanos < first && !firstStart[i].compareAndSet(first, startNanos)) {
+            first = firstStart[i].get();
+        }
+        long last = lastEnd[i].get();
+        while (end > last && !lastEnd[i].compareAndSet(last, end)) {
+            last = lastEnd[i].get();
+        }
+    }
+
+    /**
+     * Discards all timings.
+     */
+    public void reset() {
+
+        for (int i = 0; i < calls.length; i++) {
+            calls[i].set(0L);
+            summedNanos[i].set(0L);
+            pixels[i].set(0L);
+            firstStart[i].set(Long.MAX_VALUE);
+            lastEnd[i].set(Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Gets the elapsed time of a stage.
+     *
+     * @param stage the stage.
+     * @return the elapsed time, in nanoseconds; zero if the stage hasn't run.
+     */
+    public long getNanos(final Stage stage) {
+
+        final int i = stage.ordinal();
+        return calls[i].get() == 0L ? 0L : Math.min(summedNanos[i].get(), lastEnd[i].get() - firstStart[i].get());
+    }
+
+    /**
+     * Gets the number of pixels processed by a stage.
+     *
+     * @param stage the stage.
+     * @return the pixel count.
+     */
+    public long getPixels(final Stage stage) {
+        return pixels[stage.ordinal()].get();
+    }
+
+    /**
+     * Gets the throughput of a stage.
+     *
+     * @param stage the stage.
+     * @return pixels per second; zero if the stage hasn't run.
+     */
+    public double getPixelsPerSecond(final Stage stage) {
+
+        final long nanos = getNanos(stage);
+        return nanos == 0L ? 0.0 : getPixels(stage) * NANOS_PER_SECOND / nanos;
+    }
+
+    /**
+     * Formats the timing of each stage that has run, one per line.
+     *
+     * @return the report.
+     */
+    @Override
+    public String toString() {
+
+        final StringBuilder report = new StringBuilder();
+        for (final Stage stage : Stage.values()) {
+            if (calls[stage.ordinal()].get() > 0L) {
+                report.append(String.format(Locale.ROOT, "%s: %.3f ms, %d pixels, %.0f pixels/s%n", stage.getLabel(),
+                        getNanos(stage) / NANOS_PER_MILLI, getPixels(stage), getPixelsPerSecond(stage)));
+            }
+        }
+        return report.toString();
+    }
+}
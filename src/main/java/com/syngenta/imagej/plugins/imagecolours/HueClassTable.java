@@ -0,0 +1,327 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The hue classes of a {@link HueClassifier}: the hue ranges that saturated colours are binned into, the classes of
+ * light and dark colours in each range, and the colour each class is painted in.
+ * <p>
+ * A table is compiled into a dense look-up of the first range overlapping each of {@link #LOOKUP_BINS} equal hue
+ * bins. Ranges are at least a bin wide, so a bin holds at most one range boundary and a hue's range is the bin's
+ * range plus one comparison; the class is then read from a decision table indexed by range and lightness. Custom
+ * tables therefore classify as fast as the built-in one, however many ranges they have.
+ * <p>
+ * Tables can be read from text files, one range per line in increasing hue order, e.g.
+ * <pre>
+ * # hue_max light_class dark_class
+ * 0.0277 Red Red
+ * 0.1138 Orange Brown
+ * 1.0 Red Red
+ * colour Brown 993300
+ * </pre>
+ * Hues are fractions of the colour wheel, 0 to 1; each range ends at its (inclusive) maximum, and the last must end at
+ * 1. Classes are named by their labels (see {@link HueColourClass#getLabel()}), and {@code colour} lines replace a
+ * class's colour with a hexadecimal RGB value. Blank lines and those starting with {@code #} are ignored.
+ */
+public final class HueClassTable {
+
+    /**
+     * Number of hue bins of the compiled look-up.
+     */
+    public static final int LOOKUP_BINS = 4096;
+
+    /**
+     * Largest number of hue ranges (so that a range index fits in 4 bits, e.g. in a {@link PreviewCache}).
+     */
+    public static final int MAX_RANGES = 16;
+
+    // Keyword of colour lines.
+    private static final String COLOUR_KEYWORD = "colour";
+
+    // Comment prefix and field separator of table files.
+    private static final String COMMENT_PREFIX = "#";
+    private static final Pattern FIELD_SPLIT_REGEX = Pattern.compile("\\s+");
+
+    // Radix of colours.
+    private static final int HEX_RADIX = 16;
+
+    // Upper end of the last range.
+    private static final double HUE_MAX = 1.0;
+
+    /**
+     * The built-in table.
+     */
+    public static final HueClassTable DEFAULT = new HueClassTable(
+            new double[]{0.0277, 0.1138, 0.1916, 0.3083, 0.425, 0.475, 0.8, 0.9333},
+            new HueColourClass[]{HueColourClass.RED, HueColourClass.ORANGE, HueColourClass.LIGHT_YELLOW,
+                    HueColourClass.LIGHT_YELLOW_GREEN, HueColourClass.LIGHT_GREEN, HueColourClass.AQUA,
+                    HueColourClass.LIGHT_BLUE, HueColourClass.MAGENTA, HueColourClass.RED},
+            new HueColourClass[]{HueColourClass.RED, HueColourClass.BROWN, HueColourClass.DARK_YELLOW,
+                    HueColourClass.DARK_YELLOW_GREEN, HueColourClass.DARK_GREEN, HueColourClass.AQUA,
+                    HueColourClass.DARK_BLUE, HueColourClass.MAGENTA, HueColourClass.RED},
+            getDefaultColours());
+
+    // Upper bounds (inclusive) of the ranges, the last being infinite so every hue is below one.
+    private final double[] limits;
+
+    // Class of each (range, light) key, indexed by range * 2 + (light ? 1 : 0).
+    private final byte[] classes;
+
+    // Colour of each class.
+    private final int[] colours;
+
+    // First range overlapping each look-up bin.
+    private final byte[] binRanges;
+
+    /**
+     * Create a table.
+     *
+     * @param boundaries   the upper bounds (inclusive) of all but the last range, in increasing order, each in a
+     *                     different look-up bin.
+     * @param lightClasses the class of light colours in each range.
+     * @param darkClasses  the class of dark colours in each range.
+     * @param colours      the colour of each class, indexed by class index.
+     * @throws IllegalArgumentException if the ranges are invalid.
+     */
+    public HueClassTable(final double[] boundaries, final HueColourClass[] lightClasses,
+                         final HueColourClass[] darkClasses, final int[] colours) {
+
+        final int numRanges = boundaries.length + 1;
+        if (numRanges > MAX_RANGES || lightClasses.length != numRanges || darkClasses.length != numRanges ||
+                colours.length != HueColourClass.count()) {
+            throw new IllegalArgumentException("There must be at most " + MAX_RANGES +
+                    " hue ranges, each with light and dark classes, and a colour per class");
+        }
+        for (int i = 0; i < boundaries.length; i++) {
+            final int previousBin = i == 0 ? -1 : getLookupBin(boundaries[i - 1]);
+            if (!(boundaries[i] > 0.0 && boundaries[i] < HUE_MAX) || getLookupBin(boundaries[i]) <= previousBin) {
+                throw new IllegalArgumentException(
+                        "Hue ranges must be increasing and at least 1/" + LOOKUP_BINS + " wide: " +
+                                Arrays.toString(boundaries));
+            }
+        }
+
+        limits = Arrays.copyOf(boundaries, numRanges);
+        limits[boundaries.length] = Double.POSITIVE_INFINITY;
+        classes = new byte[numRanges * 2];
+        for (int i = 0; i < numRanges; i++) {
+            classes[i * 2] = (byte) darkClasses[i].ordinal();
+            classes[i * 2 + 1] = (byte) lightClasses[i].ordinal();
+        }
+        this.colours = colours.clone();
+
+        // Each bin starts in the range of the last boundary below its lowest hue.
+        binRanges = new byte[LOOKUP_BINS];
+        int range = 0;
+        for (int bin = 0; bin < LOOKUP_BINS; bin++) {
+            while ((double) bin / LOOKUP_BINS > limits[range]) {
+                range++;
+            }
+            binRanges[bin] = (byte) range;
+        }
+    }
+
+    /**
+     * Reads a table from a file (see the class description for the format).
+     *
+     * @param file the file.
+     * @return the table.
+     * @throws IOException              if the file can't be read.
+     * @throws IllegalArgumentException if the table is invalid.
+     */
+    public static HueClassTable read(final File file) throws IOException {
+
+        final Reader reader = new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"));
+        try {
+            return read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a table (see the class description for the format).
+     *
+     * @param reader the table's text.
+     * @return the table.
+     * @throws IOException              if the text can't be read.
+     * @throws IllegalArgumentException if the table is invalid.
+     */
+    public static HueClassTable read(final Reader reader) throws IOException {
+
+        final List<Double> maxima = new ArrayList<Double>();
+        final List<HueColourClass> lightClasses = new ArrayList<HueColourClass>();
+        final List<HueColourClass> darkClasses = new ArrayList<HueColourClass>();
+        final int[] colours = getDefaultColours();
+
+        final BufferedReader lines = new BufferedReader(reader);
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith(COMMENT_PREFIX)) {
+                continue;
+            }
+            final String[] fields = FIELD_SPLIT_REGEX.split(trimmed);
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Expected 3 fields: " + line);
+            }
+            try {
+                if (COLOUR_KEYWORD.equalsIgnoreCase(fields[0])) {
+                    colours[getClass(fields[1]).ordinal()] = Integer.parseInt(fields[2], HEX_RADIX) & 0xffffff;
+                } else {
+                    maxima.add(Double.parseDouble(fields[0]));
+                    lightClasses.add(getClass(fields[1]));
+                    darkClasses.add(getClass(fields[2]));
+                }
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number: " + line, e);
+            }
+        }
+
+        // The last range must reach the top of the colour wheel, so every hue has a range.
+        if (maxima.isEmpty() || maxima.get(maxima.size() - 1) != HUE_MAX) {
+            throw new IllegalArgumentException("The last hue range must end at " + HUE_MAX);
+        }
+        final double[] boundaries = new double[maxima.size() - 1];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = maxima.get(i);
+        }
+        return new HueClassTable(boundaries, lightClasses.toArray(new HueColourClass[0]),
+                darkClasses.toArray(new HueColourClass[0]), colours);
+    }
+
+    /**
+     * Gets the number of hue ranges.
+     *
+     * @return the count.
+     */
+    public int getRangeCount() {
+        return limits.length;
+    }
+
+    /**
+     * Gets the range boundaries, i.e. the upper bounds (inclusive) of all but the last range.
+     *
+     * @return the boundaries, in increasing order.
+     */
+    public double[] getBoundaries() {
+        return Arrays.copyOf(limits, limits.length - 1);
+    }
+
+    /**
+     * Gets the range of a hue.
+     *
+     * @param hue hue value (0 to 1).
+     * @return the range, 0 to {@code getRangeCount() - 1}.
+     */
+    public int getRange(final double hue) {
+
+        final int range = binRanges[Math.min(Math.max(getLookupBin(hue), 0), LOOKUP_BINS - 1)];
+        return hue > limits[range] ? range + 1 : range;
+    }
+
+    /**
+     * Gets the class of saturated colours in a hue range.
+     *
+     * @param range   the hue range.
+     * @param isLight whether the colour is light.
+     * @return the class index.
+     */
+    public int getClass(final int range, final boolean isLight) {
+        return classes[isLight ? range * 2 + 1 : range * 2];
+    }
+
+    /**
+     * Gets the colour of each class.
+     *
+     * @return the packed RGB colours, indexed by class index.
+     */
+    public int[] getColours() {
+        return colours.clone();
+    }
+
+    /**
+     * Gets the table in the format it is read in, with a colour line for each class whose colour isn't its usual one.
+     *
+     * @return the table's text.
+     */
+    @Override
+    public String toString() {
+
+        final StringBuilder text = new StringBuilder();
+        for (int range = 0; range < limits.length; range++) {
+            text.append(range < limits.length - 1 ? limits[range] : HUE_MAX).append(' ')
+                    .append(HueColourClass.valueOf(getClass(range, true)).getLabel()).append(' ')
+                    .append(HueColourClass.valueOf(getClass(range, false)).getLabel()).append('\n');
+        }
+        final int[] defaultColours = getDefaultColours();
+        for (int i = 0; i < colours.length; i++) {
+            if (colours[i] != defaultColours[i]) {
+                text.append(COLOUR_KEYWORD).append(' ').append(HueColourClass.valueOf(i).getLabel()).append(' ')
+                        .append(String.format("%06x", colours[i])).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final HueClassTable that = (HueClassTable) o;
+        return Arrays.equals(limits, that.limits) && Arrays.equals(classes, that.classes) &&
+                Arrays.equals(colours, that.colours);
+    }
+
+    @Override
+    public int hashCode() {
+
+        int result = Arrays.hashCode(limits);
+        result = 31 * result + Arrays.hashCode(classes);
+        result = 31 * result + Arrays.hashCode(colours);
+        return result;
+    }
+
+    /**
+     * Gets the look-up bin of a hue. Multiplying by a power of two is exact, so a boundary is in the bin whose lowest
+     * hue is at or below it.
+     */
+    private static int getLookupBin(final double hue) {
+        return (int) (hue * LOOKUP_BINS);
+    }
+
+    private static HueColourClass getClass(final String label) {
+
+        for (int i = 0; i < HueColourClass.count(); i++) {
+            final HueColourClass hueClass = HueColourClass.valueOf(i);
+            if (hueClass.getLabel().equalsIgnoreCase(label) || hueClass.name().equalsIgnoreCase(label)) {
+                return hueClass;
+            }
+        }
+        throw new IllegalArgumentException("Unknown class: " + label);
+    }
+
+    private static int[] getDefaultColours() {
+
+        final int[] colours = new int[HueColourClass.count()];
+        for (int i = 0; i < colours.length; i++) {
+            colours[i] = HueColourClass.valueOf(i).getColour();
+        }
+        return colours;
+    }
+}
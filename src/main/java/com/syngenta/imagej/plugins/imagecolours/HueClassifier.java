@@ -0,0 +1,310 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import static com.syngenta.imagej.plugins.imagecolours.HueColoursConfig.*;
+
+/**
+ * Assigns RGB colours to {@link HueColourClass}es.
+ * <p>
+ * Greys, i.e. colours whose RGB channels are close or that are not saturated, are split into black, grey and white
+ * by their RGB mean; all other colours are classified by hue, and by value into light and dark variants, as defined by
+ * a {@link HueClassTable}.
+ */
+public final class HueClassifier implements ColourClassifier {
+
+    /**
+     * Number of hue bins of the built-in class table.
+     */
+    public static final int HUE_BINS = HueClassTable.DEFAULT.getRangeCount();
+
+    // Class indices.
+    private static final int BLACK = HueColourClass.BLACK.ordinal();
+    private static final int GREY = HueColourClass.GREY.ordinal();
+    private static final int WHITE = HueColourClass.WHITE.ordinal();
+
+    // Classification thresholds.
+    private final int whiteMin;
+    private final int blackMax;
+    private final int greyTolerance;
+    private final double lightDarkCutoff;
+    private final double saturationCutoff;
+
+    // Hue ranges and their classes.
+    private final HueClassTable classTable;
+
+    /**
+     * Create a classifier with the built-in hue classes.
+     *
+     * @param whiteMin         white minimum value.
+     * @param blackMax         black maximum value.
+     * @param greyTolerance    grey tolerance.
+     * @param lightDarkCutoff  light-dark threshold value.
+     * @param saturationCutoff saturation threshold value.
+     */
+    public HueClassifier(final int whiteMin, final int blackMax, final int greyTolerance,
+                         final double lightDarkCutoff, final double saturationCutoff) {
+        this(whiteMin, blackMax, greyTolerance, lightDarkCutoff, saturationCutoff, HueClassTable.DEFAULT);
+    }
+
+    /**
+     * Create a classifier.
+     *
+     * @param whiteMin         white minimum value.
+     * @param blackMax         black maximum value.
+     * @param greyTolerance    grey tolerance.
+     * @param lightDarkCutoff  light-dark threshold value.
+     * @param saturationCutoff saturation threshold value.
+     * @param classTable       hue ranges and their classes.
+     */
+    public HueClassifier(final int whiteMin, final int blackMax, final int greyTolerance,
+                         final double lightDarkCutoff, final double saturationCutoff,
+                         final HueClassTable classTable) {
+
+        this.whiteMin = whiteMin;
+        this.blackMax = blackMax;
+        this.greyTolerance = greyTolerance;
+        this.lightDarkCutoff = lightDarkCutoff;
+        this.saturationCutoff = saturationCutoff;
+        this.classTable = classTable;
+    }
+
+    public int getWhiteMin() {
+        return whiteMin;
+    }
+
+    public int getBlackMax() {
+        return blackMax;
+    }
+
+    public int getGreyTolerance() {
+        return greyTolerance;
+    }
+
+    public double getLightDarkCutoff() {
+        return lightDarkCutoff;
+    }
+
+    public double getSaturationCutoff() {
+        return saturationCutoff;
+    }
+
+    public HueClassTable getClassTable() {
+        return classTable;
+    }
+
+    @Override
+    public int classify(final int pixel) {
+
+        // Split RGB pixel value into it's components.
+        final int red = Rgb24Bit.red(pixel);
+        final int green = Rgb24Bit.green(pixel);
+        final int blue = Rgb24Bit.blue(pixel);
+
+        // Calculate RGB sensitivity and mean.
+        final int rgbDiff = ColourSpaceUtilities.getRgbSensitivity(red, green, blue);
+        final int rgbMean = (red + green + blue) / 3;
+
+        // Work out in RGB space if colour is black, grey or white first and only convert to HSV if needed.
+        final int result;
+        if (rgbDiff < greyTolerance || ColourSpaceUtilities.getSaturation(red, green, blue) <= saturationCutoff) {
+            result = classifyGrey(rgbMean);
+        } else {
+            result = classifyHue(ColourSpaceUtilities.getHue(red, green, blue),
+                    ColourSpaceUtilities.getValue(red, green, blue));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Pixels are classified with a {@link HueKernel} if one is available.
+     */
+    @Override
+    public void classify(final int[] pixels, final int offset, final int length, final byte[] classes) {
+
+        final HueKernel kernel = HueKernels.getKernel();
+        if (kernel == null) {
+            final int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                classes[i] = (byte) classify(pixels[i]);
+            }
+        } else {
+            kernel.classify(this, pixels, offset, length, classes);
+        }
+    }
+
+    /**
+     * Classifies a colour from its HSV and RGB statistics.
+     *
+     * @param hue        hue value.
+     * @param saturation saturation value.
+     * @param variance   variance value.
+     * @param diff       RGB sensitivity.
+     * @param mean       RGB mean.
+     * @return the class index.
+     */
+    public int classify(final double hue, final double saturation, final double variance, final int diff,
+                        final int mean) {
+
+        return diff < greyTolerance || saturation <= saturationCutoff ? classifyGrey(mean) :
+                classifyHue(hue, variance);
+    }
+
+    /**
+     * Classifies a colour from its hue bin (see {@link #getBin(double)}) and RGB channel statistics. The result
+     * is the same as {@link #classify(int)} for a colour with the same statistics.
+     *
+     * @param hueBin hue bin.
+     * @param max    largest RGB channel.
+     * @param min    smallest RGB channel.
+     * @param mean   RGB mean.
+     * @return the class index.
+     */
+    public int classify(final int hueBin, final int max, final int min, final int mean) {
+
+        return isGrey(max, min) ? classifyGrey(mean) : classTable.getClass(hueBin, isLight(max));
+    }
+
+    /**
+     * Whether colours with the given largest and smallest channels are greys, i.e. their channels are close or they
+     * are not saturated.
+     *
+     * @param max largest RGB channel.
+     * @param min smallest RGB channel.
+     * @return true for greys.
+     */
+    boolean isGrey(final int max, final int min) {
+        return max - min < greyTolerance || ColourSpaceUtilities.getSaturation(max, min, min) <= saturationCutoff;
+    }
+
+    /**
+     * Whether colours with the given largest channel are light.
+     *
+     * @param max largest RGB channel.
+     * @return true for light colours.
+     */
+    boolean isLight(final int max) {
+        return ColourSpaceUtilities.getValue(max, max, max) >= lightDarkCutoff;
+    }
+
+    /**
+     * Classifies a grey by its RGB mean.
+     *
+     * @param mean RGB mean.
+     * @return the class index.
+     */
+    int classifyGrey(final int mean) {
+
+        final int result;
+        if (mean <= blackMax) {
+            result = BLACK;
+        } else if (mean < whiteMin) {
+            result = GREY;
+        } else {
+            result = WHITE;
+        }
+        return result;
+    }
+
+    /**
+     * Classifies a saturated colour by its hue.
+     *
+     * @param hue      hue value.
+     * @param variance variance value.
+     * @return the class index.
+     */
+    private int classifyHue(final double hue, final double variance) {
+        return classTable.getClass(classTable.getRange(hue), variance >= lightDarkCutoff);
+    }
+
+    /**
+     * Gets the hue bin of a hue, i.e. its range in this classifier's class table.
+     *
+     * @param hue hue value.
+     * @return the bin, 0 to {@code getClassTable().getRangeCount() - 1}.
+     */
+    public int getBin(final double hue) {
+        return classTable.getRange(hue);
+    }
+
+    /**
+     * Gets the hue bin of a hue in the built-in class table, i.e. the interval between the hue boundaries that it
+     * falls in.
+     *
+     * @param hue hue value.
+     * @return the bin, 0 to {@code HUE_BINS - 1}.
+     */
+    public static int getHueBin(final double hue) {
+        return HueClassTable.DEFAULT.getRange(hue);
+    }
+
+    /**
+     * Gets the hue boundaries of the built-in class table, i.e. the upper bounds (inclusive) of all but the last hue
+     * bin.
+     *
+     * @return the boundaries, in increasing order.
+     */
+    public static double[] getHueBoundaries() {
+        return HueClassTable.DEFAULT.getBoundaries();
+    }
+
+    /**
+     * Classifies a saturated colour by its hue bin in the built-in class table.
+     *
+     * @param hueBin  hue bin.
+     * @param isLight whether the colour is light.
+     * @return the class index.
+     */
+    public static int classifyHueBin(final int hueBin, final boolean isLight) {
+        return HueClassTable.DEFAULT.getClass(hueBin, isLight);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A custom class table is given by its contents rather than its file.
+     */
+    @Override
+    public String getParameters() {
+
+        final StringBuilder parameters = new StringBuilder()
+                .append(getOptionString(WHITE_MIN_PARAM_NAME, whiteMin))
+                .append(getOptionString(BLACK_MAX_PARAM_NAME, blackMax))
+                .append(getOptionString(GREY_TOLERANCE_PARAM_NAME, greyTolerance))
+                .append(getOptionString(LIGHT_DARK_PARAM_NAME, lightDarkCutoff))
+                .append(getOptionString(SATURATION_PARAM_NAME, saturationCutoff));
+        if (!classTable.equals(HueClassTable.DEFAULT)) {
+            parameters.append(getOptionString(CLASS_TABLE_PARAM_NAME, "[" + classTable + "]"));
+        }
+        return parameters.toString();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final HueClassifier that = (HueClassifier) o;
+        return whiteMin == that.whiteMin && blackMax == that.blackMax && greyTolerance == that.greyTolerance &&
+                Double.compare(that.lightDarkCutoff, lightDarkCutoff) == 0 &&
+                Double.compare(that.saturationCutoff, saturationCutoff) == 0 && classTable.equals(that.classTable);
+    }
+
+    @Override
+    public int hashCode() {
+
+        int result = whiteMin;
+        result = 31 * result + blackMax;
+        result = 31 * result + greyTolerance;
+        long bits = Double.doubleToLongBits(lightDarkCutoff);
+        result = 31 * result + (int) (bits ^ bits >>> 32);
+        bits = Double.doubleToLongBits(saturationCutoff);
+        result = 31 * result + (int) (bits ^ bits >>> 32);
+        result = 31 * result + classTable.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+/**
+ * The colour classes that the hue colour filter assigns pixels to.
+ * <p>
+ * A class's ordinal is its class index, i.e. the value stored in a {@link ClassificationTable}.
+ */
+public enum HueColourClass {
+
+    // Greys (selected in RGB space).
+    BLACK("Black", Rgb24Bit.BLACK),
+    GREY("Grey", Rgb24Bit.GREY),
+    WHITE("White", Rgb24Bit.WHITE),
+
+    // Hues (selected in HSV space).
+    RED("Red", Rgb24Bit.RED),
+    ORANGE("Orange", Rgb24Bit.ORANGE),
+    BROWN("Brown", Rgb24Bit.BROWN),
+    LIGHT_YELLOW("Yellow_Light", Rgb24Bit.LIGHT_YELLOW),
+    DARK_YELLOW("Yellow_Dark", Rgb24Bit.DARK_YELLOW),
+    LIGHT_YELLOW_GREEN("GreenYellow_Light", Rgb24Bit.LIGHT_YELLOW_GREEN),
+    DARK_YELLOW_GREEN("GreenYellow_Dark", Rgb24Bit.DARK_YELLOW_GREEN),
+    LIGHT_GREEN("Green_Light", Rgb24Bit.LIGHT_GREEN),
+    DARK_GREEN("Green_Dark", Rgb24Bit.DARK_GREEN),
+    AQUA("Aqua", Rgb24Bit.AQUA),
+    LIGHT_BLUE("Light_Blue", Rgb24Bit.LIGHT_BLUE),
+    DARK_BLUE("Dark_Blue", Rgb24Bit.DARK_BLUE),
+    MAGENTA("Magenta", Rgb24Bit.MAGENTA);
+
+    // Cached values() - avoids cloning the array on each call.
+    private static final HueColourClass[] CLASSES = values();
+
+    // Display name.
+    private final String label;
+
+    // Colour used to paint the class.
+    private final int colour;
+
+    HueColourClass(final String label, final int colour) {
+        this.label = label;
+        this.colour = colour;
+    }
+
+    /**
+     * Gets the class's display name.
+     *
+     * @return the name.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Gets the colour used to paint the class.
+     *
+     * @return the packed 24-bit RGB colour.
+     */
+    public int getColour() {
+        return colour;
+    }
+
+    /**
+     * Gets the number of classes.
+     *
+     * @return the class count.
+     */
+    public static int count() {
+        return CLASSES.length;
+    }
+
+    /**
+     * Gets a class by its index.
+     *
+     * @param index the class index (ordinal).
+     * @return the class.
+     */
+    public static HueColourClass valueOf(final int index) {
+        return CLASSES[index];
+    }
+}
@@ -0,0 +1,470 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.measure.ResultsTable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the HueColoursFilter to a directory, or list, of images without a GUI.
+ * <p>
+ * Images are processed in a pipeline of decoding, classification and encoding stages, each with its own thread pool,
+ * so that I/O and CPU work overlap. The number of images in flight is bounded to limit memory use. Class statistics of
+ * every image are written to a single CSV file.
+ */
+public class HueColoursBatch {
+
+    // Usage message.
+    private static final String USAGE = "usage: HueColoursBatch [-threads <n>] [-io-threads <n>] " +
+            "[-options \"<filter options>\"] <input_directory_or_list_file> <output_directory>";
+
+    // Command-line flags.
+    private static final String THREADS_FLAG = "-threads";
+    private static final String IO_THREADS_FLAG = "-io-threads";
+    private static final String OPTIONS_FLAG = "-options";
+
+    // Option that turns on statistics.
+    private static final String MEASURE_OPTION = " measure";
+
+    // Extensions of image files read from a directory.
+    private static final List<String> IMAGE_EXTENSIONS =
+            Arrays.asList(".tif", ".tiff", ".jpg", ".jpeg", ".png", ".bmp", ".gif");
+
+    // Output file names.
+    private static final String OUTPUT_EXTENSION = ".tif";
+    private static final String STATISTICS_FILENAME = "hue-colours-statistics.csv";
+
+    // Images in flight per classification thread.
+    private static final int IMAGES_PER_THREAD = 2;
+
+    // Nanoseconds per second.
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    // Filter options.
+    private final String options;
+
+    // Stage thread pools.
+    private final ExecutorService decoders;
+    private final ExecutorService classifiers;
+    private final ExecutorService encoders;
+
+    // Bounds the number of images in flight.
+    private final Semaphore inFlight;
+
+    // Class counts of each image, by input path (relative to the inputs' common directory).
+    private final Map<String, long[]> statistics = new TreeMap<String, long[]>();
+
+    // Progress counters.
+    private final AtomicInteger imageCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final AtomicLong pixelCount = new AtomicLong();
+
+    /**
+     * Create a batch processor.
+     *
+     * @param options   filter options (as returned by {@link HueColoursFilter#getOptions()}).
+     * @param threads   number of classification threads.
+     * @param ioThreads number of decoding threads, and of encoding threads.
+     */
+    public HueColoursBatch(final String options, final int threads, final int ioThreads) {
+
+        this.options = options + MEASURE_OPTION;
+        decoders = Executors.newFixedThreadPool(ioThreads);
+        classifiers = Executors.newFixedThreadPool(threads);
+        encoders = Executors.newFixedThreadPool(ioThreads);
+        inFlight = new Semaphore(threads * IMAGES_PER_THREAD);
+    }
+
+    public static void main(final String... args) throws IOException, InterruptedException {
+
+        // Process command-line args.
+        int threads = Runtime.getRuntime().availableProcessors();
+        int ioThreads = Math.max(1, threads / 2);
+        String options = null;
+        int arg = 0;
+        try {
+            for (; arg < args.length - 2 && args[arg].startsWith("-"); arg += 2) {
+                if (THREADS_FLAG.equals(args[arg])) {
+                    threads = Integer.parseInt(args[arg + 1]);
+                } else if (IO_THREADS_FLAG.equals(args[arg])) {
+                    ioThreads = Integer.parseInt(args[arg + 1]);
+                } else if (OPTIONS_FLAG.equals(args[arg])) {
+                    options = args[arg + 1];
+                } else {
+                    throw new IllegalArgumentException("Unknown flag: " + args[arg]);
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            arg = args.length;
+        }
+        if (args.length - arg != 2) {
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+        final File input = new File(args[arg]);
+        final File outputDir = new File(args[arg + 1]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Can't create output directory: " + outputDir);
+            System.exit(-1);
+        }
+
+        // Use the filter's defaults if no options are given.
+        if (options == null) {
+            new HueColoursFilter();
+            options = HueColoursFilter.getOptions();
+        }
+
+        // Process the images.
+        final HueColoursBatch batch = new HueColoursBatch(options, threads, ioThreads);
+        final List<File> files = getInputFiles(input);
+        final long start = System.nanoTime();
+        batch.process(files, outputDir);
+        final double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        batch.saveStatistics(new File(outputDir, STATISTICS_FILENAME));
+
+        // Report throughput.
+        System.out.println(String.format(Locale.ROOT,
+                "Processed %d images (%d failed), %d pixels in %.2fs: %.2f images/s, %.0f pixels/s",
+                batch.imageCount.get(), batch.failureCount.get(), batch.pixelCount.get(), seconds,
+                batch.imageCount.get() / seconds, batch.pixelCount.get() / seconds));
+        System.exit(batch.failureCount.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Gets the files to process.
+     *
+     * @param input a directory of images, or a file listing image paths (one per line).
+     * @return the image files.
+     * @throws IOException if the list file can't be read.
+     */
+    private static List<File> getInputFiles(final File input) throws IOException {
+
+        final List<File> files = new ArrayList<File>();
+        if (input.isDirectory()) {
+
+            final File[] children = input.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (final File file : children) {
+                    if (file.isFile() && isImageFile(file)) {
+                        files.add(file);
+                    }
+                }
+            }
+        } else {
+
+            final BufferedReader reader = new BufferedReader(new FileReader(input));
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (!line.trim().isEmpty()) {
+                        files.add(new File(line.trim()));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return files;
+    }
+
+    private static boolean isImageFile(final File file) {
+
+        final String name = file.getName().toLowerCase(Locale.ROOT);
+        final int dot = name.lastIndexOf('.');
+        return dot >= 0 && IMAGE_EXTENSIONS.contains(name.substring(dot));
+    }
+
+    private static String getBaseName(final String path) {
+
+        final int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf('/') + 1 ? path.substring(0, dot) : path;
+    }
+
+    /**
+     * Gets the path of each image relative to the directory that holds all of them, so that images with the same name
+     * in different directories, e.g. listed in a file, are told apart.
+     *
+     * @param files the images.
+     * @return the relative paths, separated by '/', in the order of the images.
+     */
+    static List<String> getRelativePaths(final List<File> files) {
+
+        // The deepest directory holding every image.
+        File common = null;
+        for (final File file : files) {
+
+            final File parent = file.getAbsoluteFile().getParentFile();
+            if (common == null) {
+                common = parent;
+            } else {
+                while (common != null && !isAncestor(common, parent)) {
+                    common = common.getParentFile();
+                }
+            }
+        }
+
+        final List<String> paths = new ArrayList<String>(files.size());
+        for (final File file : files) {
+
+            final StringBuilder path = new StringBuilder(file.getName());
+            for (File parent = file.getAbsoluteFile().getParentFile(); parent != null && !parent.equals(common);
+                 parent = parent.getParentFile()) {
+                path.insert(0, parent.getName() + '/');
+            }
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    private static boolean isAncestor(final File ancestor, final File directory) {
+
+        for (File parent = directory; parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the output path of each image: its relative path without its extension, or with it if another image would
+     * otherwise have the same output (e.g. img1.jpg and img1.png).
+     *
+     * @param paths the images' relative paths (an image listed twice has the same output).
+     * @return the output paths, without the output extension.
+     */
+    private static List<String> getOutputPaths(final List<String> paths) {
+
+        final Map<String, Integer> baseCounts = new HashMap<String, Integer>();
+        for (final String path : new HashSet<String>(paths)) {
+            final Integer count = baseCounts.get(getBaseName(path));
+            baseCounts.put(getBaseName(path), count == null ? 1 : count + 1);
+        }
+        final List<String> outputs = new ArrayList<String>(paths.size());
+        for (final String path : paths) {
+            outputs.add(baseCounts.get(getBaseName(path)) == 1 ? getBaseName(path) : path);
+        }
+        return outputs;
+    }
+
+    /**
+     * Process images, waiting until all are written.
+     * <p>
+     * Images are written, and their statistics labelled, by their path relative to the directory holding all of them,
+     * so images with the same name in different directories are written to matching subdirectories of the output
+     * directory. An image listed more than once is only processed once.
+     *
+     * @param files     the images to process.
+     * @param outputDir directory to write filtered images to.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void process(final List<File> files, final File outputDir) throws InterruptedException {
+
+        final List<String> paths = getRelativePaths(files);
+        final List<String> outputPaths = getOutputPaths(paths);
+        final Set<String> started = new HashSet<String>();
+        for (int i = 0; i < files.size(); i++) {
+
+            final File file = files.get(i);
+            final String path = paths.get(i);
+            final File output = new File(outputDir, outputPaths.get(i) + OUTPUT_EXTENSION);
+            if (!started.add(path)) {
+                System.err.println(file + ": listed more than once");
+                failureCount.incrementAndGet();
+                continue;
+            }
+
+            // Wait for room in the pipeline; the image's permit is released when it leaves the pipeline.
+            inFlight.acquire();
+            boolean queued = false;
+            try {
+                decoders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        decode(file, path, output);
+                    }
+                });
+                queued = true;
+            } finally {
+                if (!queued) {
+                    inFlight.release();
+                }
+            }
+        }
+
+        // Drain the stages in order.
+        shutdown(decoders);
+        shutdown(classifiers);
+        shutdown(encoders);
+    }
+
+    private static void shutdown(final ExecutorService executor) throws InterruptedException {
+
+        executor.shutdown();
+        while (!executor.awaitTermination(1L, TimeUnit.MINUTES)) {
+            // Keep waiting.
+        }
+    }
+
+    /**
+     * Decode stage: open an image then hand it to the classification stage.
+     *
+     * @param file   the image file.
+     * @param path   the image's relative path.
+     * @param output the output file.
+     */
+    private void decode(final File file, final String path, final File output) {
+
+        boolean queued = false;
+        try {
+            final ImagePlus image = IJ.openImage(file.getPath());
+            if (image == null) {
+                fail(file, "can't open image");
+                return;
+            }
+            if (image.getType() != ImagePlus.COLOR_RGB) {
+                image.setProcessor(image.getProcessor().convertToRGB());
+            }
+
+            classifiers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    classify(file, path, image, output);
+                }
+            });
+            queued = true;
+        } catch (final Throwable e) {
+            fail(file, String.valueOf(e));
+        } finally {
+            if (!queued) {
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Classification stage: filter an image then hand it to the encoding stage.
+     *
+     * @param file   the image file.
+     * @param path   the image's relative path.
+     * @param image  the image.
+     * @param output the output file.
+     */
+    private void classify(final File file, final String path, final ImagePlus image, final File output) {
+
+        boolean queued = false;
+        try {
+            final HueColoursFilter filter = HueColoursFilter.fromOptions(options);
+            filter.apply(image);
+            synchronized (statistics) {
+                statistics.put(path, filter.getStatistics().getCounts());
+            }
+            pixelCount.addAndGet((long) image.getWidth() * image.getHeight());
+
+            encoders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    encode(file, image, output);
+                }
+            });
+            queued = true;
+        } catch (final Throwable e) {
+            fail(file, String.valueOf(e));
+        } finally {
+            if (!queued) {
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Encode stage: write a filtered image.
+     *
+     * @param file   the input image file.
+     * @param image  the filtered image.
+     * @param output the output file.
+     */
+    private void encode(final File file, final ImagePlus image, final File output) {
+
+        try {
+            final File directory = output.getParentFile();
+            if ((directory.isDirectory() || directory.mkdirs()) && new FileSaver(image).saveAsTiff(output.getPath())) {
+                imageCount.incrementAndGet();
+            } else {
+                fail(file, "can't write " + output);
+            }
+        } catch (final Throwable e) {
+            fail(file, "can't write " + output + ": " + e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Reports an image that failed. Its permit is released by the stage it failed in.
+     */
+    private void fail(final File file, final String message) {
+
+        System.err.println(file + ": " + message);
+        failureCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of images written.
+     *
+     * @return the count.
+     */
+    public int getImageCount() {
+        return imageCount.get();
+    }
+
+    /**
+     * Gets the number of images that couldn't be processed.
+     *
+     * @return the count.
+     */
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Write the class statistics of all images as CSV.
+     *
+     * @param file the CSV file.
+     * @throws IOException if the file can't be written.
+     */
+    public void saveStatistics(final File file) throws IOException {
+
+        final ResultsTable table = new ResultsTable();
+        synchronized (statistics) {
+            for (final Map.Entry<String, long[]> entry : statistics.entrySet()) {
+
+                final ClassStatistics imageStatistics = new ClassStatistics();
+                imageStatistics.add(entry.getValue());
+                imageStatistics.addTo(table, entry.getKey());
+            }
+        }
+        table.saveAs(file.getPath());
+    }
+}
@@ -0,0 +1,855 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable set of HueColoursFilter parameters.
+ * <p>
+ * Each filter instance, and each run of a filter, uses its own configuration, so filters with different parameters
+ * can run concurrently in the same JVM. Create configurations with a {@link Builder}, or from an options string with
+ * {@link #fromOptions(String)}.
+ */
+public final class HueColoursConfig {
+
+    // Parameter names and defaults.
+    static final String WHITE_MIN_PARAM_NAME = "White_min";
+    static final int WHITE_MIN_PARAM_DEFAULT = 200;
+
+    static final String BLACK_MAX_PARAM_NAME = "Black_max";
+    static final int BLACK_MAX_PARAM_DEFAULT = 10;
+
+    static final String GREY_TOLERANCE_PARAM_NAME = "Tolerance for black/white/grey RGB values";
+    static final int GREY_TOLERANCE_PARAM_DEFAULT = 10;
+
+    static final String LIGHT_DARK_PARAM_NAME = "Light_Dark_Threshold";
+    static final double LIGHT_DARK_PARAM_DEFAULT = 0.5;
+
+    static final String SATURATION_PARAM_NAME = "Saturation_min";
+    static final double SATURATION_PARAM_DEFAULT = 0.5;
+
+    static final String LCH_PARAM_NAME = "Classify_LCH (perceptual lightness, chroma and hue)";
+    static final boolean LCH_PARAM_DEFAULT = false;
+
+    static final String LCH_BLACK_MAX_PARAM_NAME = "LCH_black_max";
+    static final double LCH_BLACK_MAX_PARAM_DEFAULT = 10.0;
+
+    static final String LCH_WHITE_MIN_PARAM_NAME = "LCH_white_min";
+    static final double LCH_WHITE_MIN_PARAM_DEFAULT = 80.0;
+
+    static final String LCH_LIGHT_DARK_PARAM_NAME = "LCH_light_dark_threshold";
+    static final double LCH_LIGHT_DARK_PARAM_DEFAULT = 55.0;
+
+    static final String LCH_CHROMA_PARAM_NAME = "LCH_chroma_min";
+    static final double LCH_CHROMA_PARAM_DEFAULT = 20.0;
+
+    static final String LCH_HUE_BOUNDARIES_PARAM_NAME = "LCH_hue_boundaries";
+
+    static final String BINARIZE_PARAM_NAME = "Make Binary";
+    static final boolean BINARIZE_PARAM_DEFAULT = false;
+
+    static final String LABELS_PARAM_NAME = "Make_labels (8-bit class index image)";
+    static final boolean LABELS_PARAM_DEFAULT = false;
+
+    static final String HIDE_BACKGROUND_PARAM_NAME = "Hide background image";
+    static final boolean HIDE_BACKGROUND_PARAM_DEFAULT = false;
+
+    static final String MAKE_GREY_PARAM_NAME = "Make_background greyscale";
+    static final boolean MAKE_GREY_PARAM_DEFAULT = false;
+
+    static final String MEASURE_PARAM_NAME = "Measure colour areas";
+    static final boolean MEASURE_PARAM_DEFAULT = false;
+
+    static final String MEASURE_ONLY_PARAM_NAME = "Measure_only (leave image unchanged)";
+    static final boolean MEASURE_ONLY_PARAM_DEFAULT = false;
+
+    static final String OBJECTS_PARAM_NAME = "Count_objects (connected regions of selected colours)";
+    static final boolean OBJECTS_PARAM_DEFAULT = false;
+
+    static final String ROIS_PARAM_NAME = "Measure_ROIs (colour areas of each ROI in the ROI Manager)";
+    static final boolean ROIS_PARAM_DEFAULT = false;
+
+    static final String CLASS_TABLE_PARAM_NAME = "Class_table (hue class file, blank for built-in)";
+    static final String CLASS_TABLE_PARAM_DEFAULT = "";
+
+    static final boolean SHOW_PARAM_DEFAULT = true;
+    static final String WHITE_SHOW_PARAM_NAME = "_White";
+    static final String RED_SHOW_PARAM_NAME = "_Red";
+    static final String GREEN_YELLOW_LIGHT_SHOW_PARAM_NAME = "_GreenYellow_Light";
+    static final String AQUA_SHOW_PARAM_NAME = "_Aqua";
+    static final String BLACK_SHOW_PARAM_NAME = "_Black";
+    static final String GREEN_YELLOW_DARK_SHOW_PARAM_NAME = "_GreenYellow_Dark_";
+    static final String LIGHT_BLUE_SHOW_PARAM_NAME = "_Light_Blue";
+    static final String GREY_SHOW_PARAM_NAME = "_Grey";
+    static final String BROWN_SHOW_PARAM_NAME = "_Brown";
+    static final String GREEN_LIGHT_PARAM_NAME = "_Green_Light_";
+    static final String DARK_BLUE_SHOW_PARAM_NAME = "_Dark_Blue";
+    static final String YELLOW_LIGHT_SHOW_PARAM_NAME = "_Yellow_Light_";
+    static final String GREEN_DARK_SHOW_PARAM_NAME = "_Green_Dark_";
+    static final String MAGENTA_SHOW_PARAM_NAME = "_Magenta";
+    static final String YELLOW_DARK_SHOW_PARAM_NAME = "_Yellow_Dark_";
+    static final String ORANGE_SHOW_PARAM_NAME = "_Orange";
+
+    // Class checkbox names, and the classes they select, in dialog (and options) order.
+    static final String[] SHOW_PARAM_NAMES =
+            {WHITE_SHOW_PARAM_NAME, RED_SHOW_PARAM_NAME, GREEN_YELLOW_LIGHT_SHOW_PARAM_NAME, AQUA_SHOW_PARAM_NAME,
+                    BLACK_SHOW_PARAM_NAME, ORANGE_SHOW_PARAM_NAME, GREEN_YELLOW_DARK_SHOW_PARAM_NAME,
+                    LIGHT_BLUE_SHOW_PARAM_NAME, GREY_SHOW_PARAM_NAME, BROWN_SHOW_PARAM_NAME, GREEN_LIGHT_PARAM_NAME,
+                    DARK_BLUE_SHOW_PARAM_NAME, YELLOW_LIGHT_SHOW_PARAM_NAME, GREEN_DARK_SHOW_PARAM_NAME,
+                    MAGENTA_SHOW_PARAM_NAME, YELLOW_DARK_SHOW_PARAM_NAME};
+    static final HueColourClass[] SHOW_PARAM_CLASSES =
+            {HueColourClass.WHITE, HueColourClass.RED, HueColourClass.LIGHT_YELLOW_GREEN, HueColourClass.AQUA,
+                    HueColourClass.BLACK, HueColourClass.ORANGE, HueColourClass.DARK_YELLOW_GREEN,
+                    HueColourClass.LIGHT_BLUE, HueColourClass.GREY, HueColourClass.BROWN, HueColourClass.LIGHT_GREEN,
+                    HueColourClass.DARK_BLUE, HueColourClass.LIGHT_YELLOW, HueColourClass.DARK_GREEN,
+                    HueColourClass.MAGENTA, HueColourClass.DARK_YELLOW};
+
+    // Options constants.
+    private static final Pattern OPTIONS_REGEX = Pattern.compile("\\s+.*");
+    private static final String OPTIONS_SEPARATOR = " ";
+    private static final Pattern OPTIONS_SPLIT_REGEX = Pattern.compile("\\s+");
+    private static final char OPTIONS_VALUE_SEPARATOR = '=';
+    private static final String LIST_SEPARATOR = ",";
+
+    // Values in square brackets (which may contain spaces), and the class table path, which keeps its case.
+    private static final Pattern BRACKETED_VALUE_REGEX = Pattern.compile("\\[[^\\]]*\\]");
+    private static final Pattern CLASS_TABLE_REGEX = Pattern.compile(
+            "(?:^|\\s)" + getOptionKey(CLASS_TABLE_PARAM_NAME) + "=(?:\\[([^\\]]*)\\]|(\\S+))",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A configuration with all parameters zero and all options off, i.e. that of a filter that hasn't been configured.
+     */
+    public static final HueColoursConfig UNSET = new Builder().whiteMin(0).blackMax(0).greyTolerance(0)
+            .lightDarkCutoff(0.0).saturationCutoff(0.0).showAll(false).build();
+
+    // Classification parameters.
+    private final int whiteMin;
+    private final int blackMax;
+    private final int greyTolerance;
+    private final double lightDarkCutoff;
+    private final double saturationCutoff;
+
+    // Perceptual classification parameters.
+    private final boolean lch;
+    private final double lchBlackMax;
+    private final double lchWhiteMin;
+    private final double lchLightDarkCutoff;
+    private final double lchChromaMin;
+    private final double[] lchHueBoundaries;
+
+    // Whether each class is selected, indexed by class index.
+    private final boolean[] selected;
+
+    // Output options.
+    private final boolean hideBackground;
+    private final boolean makeGrey;
+    private final boolean binarize;
+    private final boolean labels;
+    private final boolean measure;
+    private final boolean measureOnly;
+    private final boolean objects;
+    private final boolean rois;
+
+    // Hue classes, and the file they were read from ("" for the built-in classes).
+    private final HueClassTable classTable;
+    private final String classTablePath;
+
+    // Derived values.
+    private final ColourClassifier classifier;
+    private final int[] classColours;
+
+    private HueColoursConfig(final Builder builder) {
+
+        whiteMin = builder.whiteMin;
+        blackMax = builder.blackMax;
+        greyTolerance = builder.greyTolerance;
+        lightDarkCutoff = builder.lightDarkCutoff;
+        saturationCutoff = builder.saturationCutoff;
+        lch = builder.lch;
+        lchBlackMax = builder.lchBlackMax;
+        lchWhiteMin = builder.lchWhiteMin;
+        lchLightDarkCutoff = builder.lchLightDarkCutoff;
+        lchChromaMin = builder.lchChromaMin;
+        lchHueBoundaries = builder.lchHueBoundaries.clone();
+        selected = builder.selected.clone();
+        hideBackground = builder.hideBackground;
+        makeGrey = builder.makeGrey;
+        binarize = builder.binarize;
+        labels = builder.labels && !binarize;
+        measure = builder.measure;
+        measureOnly = builder.measureOnly;
+        objects = builder.objects;
+        rois = builder.rois;
+        classTable = builder.classTable;
+        classTablePath = builder.classTablePath;
+
+        classifier = lch ?
+                new LchClassifier(lchBlackMax, lchWhiteMin, lchLightDarkCutoff, lchChromaMin, lchHueBoundaries) :
+                new HueClassifier(whiteMin, blackMax, greyTolerance, lightDarkCutoff, saturationCutoff, classTable);
+        classColours = classTable.getColours();
+        if (binarize) {
+            Arrays.fill(classColours, Rgb24Bit.BLACK);
+        }
+    }
+
+    /**
+     * Create a builder initialised with the filter's default parameters.
+     *
+     * @return the builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a builder initialised with this configuration's parameters.
+     *
+     * @return the builder.
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Create a configuration from an options string, i.e. in the format returned by {@link #getOptions()} or used by
+     * macros. Numeric parameters that are missing take their default values; missing checkboxes are unchecked.
+     *
+     * @param options the options string, e.g. "white_min=240 black_max=12 _red _orange".
+     * @return the configuration.
+     */
+    public static HueColoursConfig fromOptions(final String options) {
+
+        final Map<String, String> values = parseOptions(options);
+        final Builder builder = new Builder()
+                .whiteMin(getOptionValue(values, WHITE_MIN_PARAM_NAME, WHITE_MIN_PARAM_DEFAULT))
+                .blackMax(getOptionValue(values, BLACK_MAX_PARAM_NAME, BLACK_MAX_PARAM_DEFAULT))
+                .greyTolerance(getOptionValue(values, GREY_TOLERANCE_PARAM_NAME, GREY_TOLERANCE_PARAM_DEFAULT))
+                .lightDarkCutoff(getOptionValue(values, LIGHT_DARK_PARAM_NAME, LIGHT_DARK_PARAM_DEFAULT))
+                .saturationCutoff(getOptionValue(values, SATURATION_PARAM_NAME, SATURATION_PARAM_DEFAULT))
+                .binarize(hasOption(values, BINARIZE_PARAM_NAME))
+                .labels(hasOption(values, LABELS_PARAM_NAME))
+                .makeGrey(hasOption(values, MAKE_GREY_PARAM_NAME))
+                .hideBackground(hasOption(values, HIDE_BACKGROUND_PARAM_NAME))
+                .measure(hasOption(values, MEASURE_PARAM_NAME))
+                .measureOnly(hasOption(values, MEASURE_ONLY_PARAM_NAME))
+                .objects(hasOption(values, OBJECTS_PARAM_NAME))
+                .rois(hasOption(values, ROIS_PARAM_NAME))
+                .lch(hasOption(values, LCH_PARAM_NAME))
+                .lchBlackMax(getOptionValue(values, LCH_BLACK_MAX_PARAM_NAME, LCH_BLACK_MAX_PARAM_DEFAULT))
+                .lchWhiteMin(getOptionValue(values, LCH_WHITE_MIN_PARAM_NAME, LCH_WHITE_MIN_PARAM_DEFAULT))
+                .lchLightDarkCutoff(getOptionValue(values, LCH_LIGHT_DARK_PARAM_NAME, LCH_LIGHT_DARK_PARAM_DEFAULT))
+                .lchChromaMin(getOptionValue(values, LCH_CHROMA_PARAM_NAME, LCH_CHROMA_PARAM_DEFAULT));
+        final String hueBoundaries = values.get(getOptionKey(LCH_HUE_BOUNDARIES_PARAM_NAME));
+        if (hueBoundaries != null) {
+            builder.lchHueBoundaries(parseHueBoundaries(hueBoundaries));
+        }
+        for (int i = 0; i < SHOW_PARAM_NAMES.length; i++) {
+            builder.show(SHOW_PARAM_CLASSES[i], hasOption(values, SHOW_PARAM_NAMES[i]));
+        }
+        final Matcher classTableMatcher = CLASS_TABLE_REGEX.matcher(options);
+        if (classTableMatcher.find()) {
+            final String path = classTableMatcher.group(1) == null ? classTableMatcher.group(2) :
+                    classTableMatcher.group(1);
+            builder.classTable(path, readClassTable(path));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Gets the parameters as an options string, in the format used by macros.
+     *
+     * @return the options string.
+     */
+    public String getOptions() {
+
+        // Object counting, ROI measurement, class table and perceptual parameters are only given if they are used, so
+        // earlier options are unchanged.
+        final StringBuilder options = new StringBuilder()
+                .append(getOptionString(WHITE_MIN_PARAM_NAME, whiteMin))
+                .append(getOptionString(BLACK_MAX_PARAM_NAME, blackMax))
+                .append(getOptionString(GREY_TOLERANCE_PARAM_NAME, greyTolerance))
+                .append(getOptionString(LIGHT_DARK_PARAM_NAME, lightDarkCutoff))
+                .append(getOptionString(SATURATION_PARAM_NAME, saturationCutoff));
+        for (int i = 0; i < SHOW_PARAM_NAMES.length; i++) {
+            options.append(getOptionString(SHOW_PARAM_NAMES[i], isSelected(SHOW_PARAM_CLASSES[i])));
+        }
+        options.append(getOptionString(BINARIZE_PARAM_NAME, binarize))
+                .append(getOptionString(LABELS_PARAM_NAME, labels))
+                .append(getOptionString(MAKE_GREY_PARAM_NAME, makeGrey))
+                .append(getOptionString(HIDE_BACKGROUND_PARAM_NAME, hideBackground))
+                .append(getOptionString(MEASURE_PARAM_NAME, measure))
+                .append(getOptionString(MEASURE_ONLY_PARAM_NAME, measureOnly));
+        if (objects) {
+            options.append(getOptionString(OBJECTS_PARAM_NAME, true));
+        }
+        if (rois) {
+            options.append(getOptionString(ROIS_PARAM_NAME, true));
+        }
+        if (!classTablePath.isEmpty()) {
+            options.append(getOptionString(CLASS_TABLE_PARAM_NAME, OPTIONS_SPLIT_REGEX.matcher(classTablePath).find() ?
+                    '[' + classTablePath + ']' : classTablePath));
+        }
+        if (lch) {
+            options.append(getOptionString(LCH_PARAM_NAME, true))
+                    .append(getOptionString(LCH_BLACK_MAX_PARAM_NAME, lchBlackMax))
+                    .append(getOptionString(LCH_WHITE_MIN_PARAM_NAME, lchWhiteMin))
+                    .append(getOptionString(LCH_LIGHT_DARK_PARAM_NAME, lchLightDarkCutoff))
+                    .append(getOptionString(LCH_CHROMA_PARAM_NAME, lchChromaMin))
+                    .append(getOptionString(LCH_HUE_BOUNDARIES_PARAM_NAME, formatHueBoundaries(lchHueBoundaries)));
+        }
+        return options.toString();
+    }
+
+    /**
+     * Reads a hue class table.
+     *
+     * @param path the table file, or blank for the built-in table.
+     * @return the table.
+     * @throws IllegalArgumentException if the file can't be read or the table is invalid.
+     */
+    public static HueClassTable readClassTable(final String path) {
+
+        if (path.trim().isEmpty()) {
+            return HueClassTable.DEFAULT;
+        }
+        try {
+            return HueClassTable.read(new File(path));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Can't read class table " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses a list of LCh hue boundaries.
+     *
+     * @param value the boundaries (degrees), separated by commas, e.g. "13,42,76,112,135,151,176,321".
+     * @return the boundaries.
+     * @throws NumberFormatException if a boundary isn't a number.
+     */
+    public static double[] parseHueBoundaries(final String value) {
+
+        final String[] items = value.split(LIST_SEPARATOR);
+        final double[] boundaries = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+            boundaries[i] = Double.parseDouble(items[i].trim());
+        }
+        return boundaries;
+    }
+
+    /**
+     * Formats LCh hue boundaries as a list that {@link #parseHueBoundaries(String)} reads.
+     *
+     * @param boundaries the boundaries (degrees).
+     * @return the boundaries, separated by commas.
+     */
+    public static String formatHueBoundaries(final double[] boundaries) {
+
+        final StringBuilder value = new StringBuilder();
+        for (final double boundary : boundaries) {
+            if (value.length() > 0) {
+                value.append(LIST_SEPARATOR);
+            }
+            value.append(boundary);
+        }
+        return value.toString();
+    }
+
+    private static Map<String, String> parseOptions(final String options) {
+
+        final Map<String, String> values = new HashMap<String, String>();
+        final String unbracketed = BRACKETED_VALUE_REGEX.matcher(options).replaceAll("");
+        for (final String option : OPTIONS_SPLIT_REGEX.split(unbracketed.trim().toLowerCase())) {
+            final int separator = option.indexOf(OPTIONS_VALUE_SEPARATOR);
+            if (separator < 0) {
+                values.put(option, null);
+            } else {
+                values.put(option.substring(0, separator), option.substring(separator + 1));
+            }
+        }
+        return values;
+    }
+
+    private static boolean hasOption(final Map<String, String> values, final String name) {
+        return values.containsKey(getOptionKey(name));
+    }
+
+    private static int getOptionValue(final Map<String, String> values, final String name, final int defaultValue) {
+
+        final String value = values.get(getOptionKey(name));
+        return value == null ? defaultValue : (int) Double.parseDouble(value);
+    }
+
+    private static double getOptionValue(final Map<String, String> values, final String name,
+                                         final double defaultValue) {
+
+        final String value = values.get(getOptionKey(name));
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static String getOptionKey(final CharSequence name) {
+        return OPTIONS_REGEX.matcher(name).replaceAll("").toLowerCase().trim();
+    }
+
+    static String getOptionString(final String name, final String value) {
+
+        return getOptionKey(name) + '=' + value + OPTIONS_SEPARATOR;
+    }
+
+    static String getOptionString(final String name, final boolean value) {
+
+        return value ? getOptionKey(name) + OPTIONS_SEPARATOR : "";
+    }
+
+    static String getOptionString(final String name, final int value) {
+        return getOptionString(name, String.valueOf(value));
+    }
+
+    static String getOptionString(final String name, final double value) {
+        return getOptionString(name, String.valueOf(value));
+    }
+
+    public int getWhiteMin() {
+        return whiteMin;
+    }
+
+    public int getBlackMax() {
+        return blackMax;
+    }
+
+    public int getGreyTolerance() {
+        return greyTolerance;
+    }
+
+    public double getLightDarkCutoff() {
+        return lightDarkCutoff;
+    }
+
+    public double getSaturationCutoff() {
+        return saturationCutoff;
+    }
+
+    /**
+     * Whether colours are classified by perceptual lightness, chroma and hue (see {@link LchClassifier}) rather than
+     * by HSV.
+     *
+     * @return true for LCh classification.
+     */
+    public boolean isLch() {
+        return lch;
+    }
+
+    public double getLchBlackMax() {
+        return lchBlackMax;
+    }
+
+    public double getLchWhiteMin() {
+        return lchWhiteMin;
+    }
+
+    public double getLchLightDarkCutoff() {
+        return lchLightDarkCutoff;
+    }
+
+    public double getLchChromaMin() {
+        return lchChromaMin;
+    }
+
+    public double[] getLchHueBoundaries() {
+        return lchHueBoundaries.clone();
+    }
+
+    public boolean isHideBackground() {
+        return hideBackground;
+    }
+
+    public boolean isMakeGrey() {
+        return makeGrey;
+    }
+
+    public boolean isBinarize() {
+        return binarize;
+    }
+
+    /**
+     * Whether the output is a label image, i.e. an 8-bit class label per pixel (see {@link ClassLabels}). Binary
+     * output takes precedence.
+     *
+     * @return true for label output.
+     */
+    public boolean isLabels() {
+        return labels;
+    }
+
+    public boolean isMeasure() {
+        return measure;
+    }
+
+    public boolean isMeasureOnly() {
+        return measureOnly;
+    }
+
+    /**
+     * Whether to find the connected components (objects) of each selected class (see {@link ConnectedComponents}).
+     *
+     * @return true to count objects.
+     */
+    public boolean isObjects() {
+        return objects;
+    }
+
+    /**
+     * Whether to count the pixels of each class in each ROI of the ROI Manager (see {@link RoiIndex}).
+     *
+     * @return true to measure ROIs.
+     */
+    public boolean isRois() {
+        return rois;
+    }
+
+    /**
+     * Gets the hue classes, i.e. the hue ranges, their classes and the class colours.
+     *
+     * @return the class table.
+     */
+    public HueClassTable getClassTable() {
+        return classTable;
+    }
+
+    /**
+     * Gets the file the hue classes were read from.
+     *
+     * @return the path, or "" for the built-in classes.
+     */
+    public String getClassTablePath() {
+        return classTablePath;
+    }
+
+    /**
+     * Whether a class is selected, i.e. shown.
+     *
+     * @param hueClass the class.
+     * @return true if selected.
+     */
+    public boolean isSelected(final HueColourClass hueClass) {
+        return selected[hueClass.ordinal()];
+    }
+
+    /**
+     * Gets which classes are selected.
+     *
+     * @return whether each class is selected, indexed by class index.
+     */
+    public boolean[] getSelectedClasses() {
+        return selected.clone();
+    }
+
+    /**
+     * Gets the colour to paint each selected class.
+     *
+     * @return the colours, indexed by class index.
+     */
+    public int[] getClassColours() {
+        return classColours.clone();
+    }
+
+    /**
+     * Gets the classifier for the classification parameters: an {@link LchClassifier} for LCh classification,
+     * otherwise a {@link HueClassifier}.
+     *
+     * @return the classifier.
+     */
+    public ColourClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Whether the filter changes the image's pixels, i.e. it isn't only measuring (class areas, ROIs or objects).
+     *
+     * @return true if pixels are changed.
+     */
+    public boolean isFiltering() {
+        return !(measureOnly && (measure || rois || objects));
+    }
+
+    /**
+     * Calculates the colour of a pixel that isn't in a selected class.
+     *
+     * @param pixel the pixel value (packed RGB)
+     * @return the background colour.
+     */
+    public int getBackgroundColour(final int pixel) {
+
+        final int result;
+        if (binarize) {
+            result = Rgb24Bit.WHITE;
+        } else if (labels) {
+            result = ClassLabels.BACKGROUND_COLOUR;
+        } else if (hideBackground) {
+            result = Rgb24Bit.LIGHT_GREY;
+        } else if (makeGrey) {
+            final int mean = Rgb24Bit.mean(pixel);
+            result = Rgb24Bit.pack(mean, mean, mean);
+        } else {
+            result = pixel;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final HueColoursConfig that = (HueColoursConfig) o;
+        return whiteMin == that.whiteMin && blackMax == that.blackMax && greyTolerance == that.greyTolerance &&
+                Double.compare(lightDarkCutoff, that.lightDarkCutoff) == 0 &&
+                Double.compare(saturationCutoff, that.saturationCutoff) == 0 && classifier.equals(that.classifier) &&
+                Arrays.equals(selected, that.selected) &&
+                hideBackground == that.hideBackground && makeGrey == that.makeGrey && binarize == that.binarize &&
+                labels == that.labels && measure == that.measure && measureOnly == that.measureOnly &&
+                objects == that.objects && rois == that.rois && classTable.equals(that.classTable) &&
+                classTablePath.equals(that.classTablePath);
+    }
+
+    @Override
+    public int hashCode() {
+
+        int result = classifier.hashCode();
+        result = 31 * result + Arrays.hashCode(selected);
+        result = 31 * result + (hideBackground ? 1 : 0);
+        result = 31 * result + (makeGrey ? 1 : 0);
+        result = 31 * result + (binarize ? 1 : 0);
+        result = 31 * result + (labels ? 1 : 0);
+        result = 31 * result + (measure ? 1 : 0);
+        result = 31 * result + (measureOnly ? 1 : 0);
+        result = 31 * result + (objects ? 1 : 0);
+        result = 31 * result + (rois ? 1 : 0);
+        result = 31 * result + classTable.hashCode();
+        result = 31 * result + classTablePath.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getOptions();
+    }
+
+    /**
+     * Builds configurations. A new builder has the filter's default parameters.
+     */
+    public static final class Builder {
+
+        private int whiteMin = WHITE_MIN_PARAM_DEFAULT;
+        private int blackMax = BLACK_MAX_PARAM_DEFAULT;
+        private int greyTolerance = GREY_TOLERANCE_PARAM_DEFAULT;
+        private double lightDarkCutoff = LIGHT_DARK_PARAM_DEFAULT;
+        private double saturationCutoff = SATURATION_PARAM_DEFAULT;
+        private boolean lch = LCH_PARAM_DEFAULT;
+        private double lchBlackMax = LCH_BLACK_MAX_PARAM_DEFAULT;
+        private double lchWhiteMin = LCH_WHITE_MIN_PARAM_DEFAULT;
+        private double lchLightDarkCutoff = LCH_LIGHT_DARK_PARAM_DEFAULT;
+        private double lchChromaMin = LCH_CHROMA_PARAM_DEFAULT;
+        private double[] lchHueBoundaries = LchClassifier.DEFAULT_HUE_BOUNDARIES.clone();
+        private final boolean[] selected = new boolean[HueColourClass.count()];
+        private boolean hideBackground = HIDE_BACKGROUND_PARAM_DEFAULT;
+        private boolean makeGrey = MAKE_GREY_PARAM_DEFAULT;
+        private boolean binarize = BINARIZE_PARAM_DEFAULT;
+        private boolean labels = LABELS_PARAM_DEFAULT;
+        private boolean measure = MEASURE_PARAM_DEFAULT;
+        private boolean measureOnly = MEASURE_ONLY_PARAM_DEFAULT;
+        private boolean objects = OBJECTS_PARAM_DEFAULT;
+        private boolean rois = ROIS_PARAM_DEFAULT;
+        private HueClassTable classTable = HueClassTable.DEFAULT;
+        private String classTablePath = CLASS_TABLE_PARAM_DEFAULT;
+
+        /**
+         * Create a builder with the default parameters.
+         */
+        public Builder() {
+            Arrays.fill(selected, SHOW_PARAM_DEFAULT);
+        }
+
+        private Builder(final HueColoursConfig config) {
+
+            whiteMin = config.whiteMin;
+            blackMax = config.blackMax;
+            greyTolerance = config.greyTolerance;
+            lightDarkCutoff = config.lightDarkCutoff;
+            saturationCutoff = config.saturationCutoff;
+            lch = config.lch;
+            lchBlackMax = config.lchBlackMax;
+            lchWhiteMin = config.lchWhiteMin;
+            lchLightDarkCutoff = config.lchLightDarkCutoff;
+            lchChromaMin = config.lchChromaMin;
+            lchHueBoundaries = config.lchHueBoundaries.clone();
+            System.arraycopy(config.selected, 0, selected, 0, selected.length);
+            hideBackground = config.hideBackground;
+            makeGrey = config.makeGrey;
+            binarize = config.binarize;
+            labels = config.labels;
+            measure = config.measure;
+            measureOnly = config.measureOnly;
+            objects = config.objects;
+            rois = config.rois;
+            classTable = config.classTable;
+            classTablePath = config.classTablePath;
+        }
+
+        public Builder whiteMin(final int value) {
+            whiteMin = value;
+            return this;
+        }
+
+        public Builder blackMax(final int value) {
+            blackMax = value;
+            return this;
+        }
+
+        public Builder greyTolerance(final int value) {
+            greyTolerance = value;
+            return this;
+        }
+
+        public Builder lightDarkCutoff(final double value) {
+            lightDarkCutoff = value;
+            return this;
+        }
+
+        public Builder saturationCutoff(final double value) {
+            saturationCutoff = value;
+            return this;
+        }
+
+        public Builder lch(final boolean value) {
+            lch = value;
+            return this;
+        }
+
+        public Builder lchBlackMax(final double value) {
+            lchBlackMax = value;
+            return this;
+        }
+
+        public Builder lchWhiteMin(final double value) {
+            lchWhiteMin = value;
+            return this;
+        }
+
+        public Builder lchLightDarkCutoff(final double value) {
+            lchLightDarkCutoff = value;
+            return this;
+        }
+
+        public Builder lchChromaMin(final double value) {
+            lchChromaMin = value;
+            return this;
+        }
+
+        /**
+         * Set the LCh hue angles at which the hue bins start (see {@link LchClassifier}).
+         *
+         * @param value the boundaries (degrees).
+         * @return this builder.
+         */
+        public Builder lchHueBoundaries(final double... value) {
+            lchHueBoundaries = value.clone();
+            return this;
+        }
+
+        /**
+         * Set whether a class is selected, i.e. shown.
+         *
+         * @param hueClass the class.
+         * @param value    true to select the class.
+         * @return this builder.
+         */
+        public Builder show(final HueColourClass hueClass, final boolean value) {
+            selected[hueClass.ordinal()] = value;
+            return this;
+        }
+
+        /**
+         * Set whether all classes are selected.
+         *
+         * @param value true to select every class.
+         * @return this builder.
+         */
+        public Builder showAll(final boolean value) {
+            Arrays.fill(selected, value);
+            return this;
+        }
+
+        public Builder hideBackground(final boolean value) {
+            hideBackground = value;
+            return this;
+        }
+
+        public Builder makeGrey(final boolean value) {
+            makeGrey = value;
+            return this;
+        }
+
+        public Builder binarize(final boolean value) {
+            binarize = value;
+            return this;
+        }
+
+        public Builder labels(final boolean value) {
+            labels = value;
+            return this;
+        }
+
+        public Builder measure(final boolean value) {
+            measure = value;
+            return this;
+        }
+
+        public Builder measureOnly(final boolean value) {
+            measureOnly = value;
+            return this;
+        }
+
+        public Builder objects(final boolean value) {
+            objects = value;
+            return this;
+        }
+
+        public Builder rois(final boolean value) {
+            rois = value;
+            return this;
+        }
+
+        /**
+         * Sets the hue classes.
+         *
+         * @param path  the file the table was read from, reported in the options, or "" for the built-in table.
+         * @param table the table (see {@link #readClassTable(String)}).
+         * @return this builder.
+         */
+        public Builder classTable(final String path, final HueClassTable table) {
+            classTablePath = path.trim();
+            classTable = table;
+            return this;
+        }
+
+        /**
+         * Create a configuration from the builder's parameters.
+         *
+         * @return the configuration.
+         * @throws IllegalArgumentException if LCh classification is on and the hue boundaries aren't valid.
+         */
+        public HueColoursConfig build() {
+            return new HueColoursConfig(this);
+        }
+    }
+}
@@ -2,15 +2,34 @@ package com.syngenta.imagej.plugins.imagecolours;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
+import ij.gui.ImageCanvas;
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+import ij.plugin.frame.RoiManager;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.PlugInFilterRunner;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
+import ij.process.LUT;
+
+import static com.syngenta.imagej.plugins.imagecolours.HueColoursConfig.*;
 
 import java.awt.*;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An ImageJ plug-in that performs colour filtering by hue.
@@ -24,67 +43,28 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
                     "saturation.<br>It uses both RGB space (to select blacks, greys and whites)<br>and HSB colour space to " +
                     "classify colours by hue. </center></html>";
 
-    // Parameter names and defaults.
-    private static final String WHITE_MIN_PARAM_NAME = "White_min";
-    private static final int WHITE_MIN_PARAM_DEFAULT = 200;
-
-    private static final String BLACK_MAX_PARAM_NAME = "Black_max";
-    private static final int BLACK_MAX_PARAM_DEFAULT = 10;
-
-    private static final String GREY_TOLERANCE_PARAM_NAME = "Tolerance for black/white/grey RGB values";
-    private static final int GREY_TOLERANCE_PARAM_DEFAULT = 10;
-
-    private static final String LIGHT_DARK_PARAM_NAME = "Light_Dark_Threshold";
-    private static final double LIGHT_DARK_PARAM_DEFAULT = 0.5;
-
-    private static final String SATURATION_PARAM_NAME = "Saturation_min";
-    private static final double SATURATION_PARAM_DEFAULT = 0.5;
-
-    private static final String BINARIZE_PARAM_NAME = "Make Binary";
-    private static final boolean BINARIZE_PARAM_DEFAULT = false;
-
-    private static final String HIDE_BACKGROUND_PARAM_NAME = "Hide background image";
-    private static final boolean HIDE_BACKGROUND_PARAM_DEFAULT = false;
-
-    private static final String MAKE_GREY_PARAM_NAME = "Make_background greyscale";
-    private static final boolean MAKE_GREY_PARAM_DEFAULT = false;
-
-    private static final boolean SHOW_PARAM_DEFAULT = true;
-    private static final String WHITE_SHOW_PARAM_NAME = "_White";
-    private static final String RED_SHOW_PARAM_NAME = "_Red";
-    private static final String GREEN_YELLOW_LIGHT_SHOW_PARAM_NAME = "_GreenYellow_Light";
-    private static final String AQUA_SHOW_PARAM_NAME = "_Aqua";
-    private static final String BLACK_SHOW_PARAM_NAME = "_Black";
-    private static final String GREEN_YELLOW_DARK_SHOW_PARAM_NAME = "_GreenYellow_Dark_";
-    private static final String LIGHT_BLUE_SHOW_PARAM_NAME = "_Light_Blue";
-    private static final String GREY_SHOW_PARAM_NAME = "_Grey";
-    private static final String BROWN_SHOW_PARAM_NAME = "_Brown";
-    private static final String GREEN_LIGHT_PARAM_NAME = "_Green_Light_";
-    private static final String DARK_BLUE_SHOW_PARAM_NAME = "_Dark_Blue";
-    private static final String YELLOW_LIGHT_SHOW_PARAM_NAME = "_Yellow_Light_";
-    private static final String GREEN_DARK_SHOW_PARAM_NAME = "_Green_Dark_";
-    private static final String MAGENTA_SHOW_PARAM_NAME = "_Magenta";
-    private static final String YELLOW_DARK_SHOW_PARAM_NAME = "_Yellow_Dark_";
-    private static final String ORANGE_SHOW_PARAM_NAME = "_Orange";
-
-    // Options constants.
-    private static final Pattern OPTIONS_REGEX = Pattern.compile("\\s+.*");
-    private static final String OPTIONS_SEPARATOR = " ";
+    // Title of the colour statistics results table.
+    private static final String STATISTICS_TITLE = "Hue Colours Statistics";
+
+    // Title of the label results table.
+    private static final String LABELS_TITLE = "Hue Colours Labels";
+
+    // Titles of the object results tables.
+    private static final String OBJECTS_TITLE = "Hue Colours Objects";
+    private static final String OBJECT_COUNTS_TITLE = "Hue Colours Object Counts";
+
+    // Title of the per-ROI statistics results table.
+    private static final String ROI_STATISTICS_TITLE = "Hue Colours ROI Statistics";
 
     // Checkbox group dimensions.
     private static final int CHECKBOX_GROUP_ROWS = 5;
     private static final int CHECKBOX_GROUP_COLS = 4;
 
-    // Hues.
-    private static final double RED_HUE = 0.0277;
-    private static final double ORANGE_HUE = 0.1138;
-    private static final double YELLOW_HUE = 0.1916;
-    private static final double YELLOW_GREEN_HUE = 0.3083;
-    private static final double GREEN_HUE = 0.425;
-    private static final double AQUA_HUE = 0.475;
-    private static final double BLUE_HUE = 0.8;
-    private static final double MAGENTA_HUE = 0.9333;
-    private static final double MAX_HUE = 1.0;
+    // Width of the hue boundaries field (characters).
+    private static final int LCH_HUE_BOUNDARIES_COLUMNS = 30;
+
+    // Width of the class table field.
+    private static final int CLASS_TABLE_COLUMNS = 30;
 
     // Dialogue headings.
     private static final String[] HEADINGS = {"Greys", "Red-yellow", "Greens", "Blue-magenta"};
@@ -98,40 +78,81 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
                     DARK_BLUE_SHOW_PARAM_NAME, BLANK_LABEL, YELLOW_LIGHT_SHOW_PARAM_NAME, GREEN_DARK_SHOW_PARAM_NAME,
                     MAGENTA_SHOW_PARAM_NAME, BLANK_LABEL, YELLOW_DARK_SHOW_PARAM_NAME, BLANK_LABEL, BLANK_LABEL};
 
-    // Processing flags for this filter.
-    private static final int FLAGS = DOES_RGB | PARALLELIZE_IMAGES | FINAL_PROCESSING;
-
-    // Filter parameters: we make these static so their values persist from one invocation to the next.
-    private static int whiteMin;
-    private static int blackMax;
-    private static int greyTolerance;
-    private static double lightDarkCutoff;
-    private static double saturationCutoff;
-    private static boolean whiteShow;
-    private static boolean blackShow;
-    private static boolean greyShow;
-    private static boolean redShow;
-    private static boolean orangeShow;
-    private static boolean brownShow;
-    private static boolean lightYellowShow;
-    private static boolean darkYellowShow;
-    private static boolean greenYellowLightShow;
-    private static boolean greenYellowDarkShow;
-    private static boolean lightGreenShow;
-    private static boolean darkGreenShow;
-    private static boolean aquaShow;
-    private static boolean lightBlueShow;
-    private static boolean darkBlueShow;
-    private static boolean magentaShow;
-    private static boolean hideBackground;
-    private static boolean makeGrey;
-    private static boolean binarize;
+    // Binary output values of selected and background pixels.
+    private static final byte BINARY_SELECTED = (byte) 0;
+    private static final byte BINARY_BACKGROUND = (byte) 255;
+
+    // Processing flags for this filter (DOES_STACKS is added once the user has chosen to process a whole stack).
+    private static final int FLAGS = DOES_RGB | PARALLELIZE_IMAGES | PARALLELIZE_STACKS | FINAL_PROCESSING;
+
+    // Delay after the last preview before it is refined to full resolution.
+    private static final long REFINE_DELAY_MILLIS = 300L;
+
+    // Configuration of the most recently configured filter, reported by getOptions().
+    private static volatile HueColoursConfig lastConfig = HueColoursConfig.UNSET;
+
+    // Filter parameters.
+    private volatile HueColoursConfig config;
 
     // Whether to show dialogs.
     private final boolean showDialogs;
 
-    // Progress counter.
-    private int progress;
+    // Class pixel counts.
+    private final ClassStatistics statistics;
+
+    // Class pixel counts of each slice.
+    private final ConcurrentMap<Integer, ClassStatistics> sliceStatistics;
+
+    // Look-up table and palette of the current parameters.
+    private volatile Palette palette;
+
+    // Classes of the image's distinct colours, if it has few enough to classify them instead of building a look-up
+    // table, otherwise null.
+    private volatile UniqueColours uniqueColours;
+
+    // 8-bit output of each slice (binary or label output only), written instead of the RGB pixels.
+    private final ConcurrentMap<Integer, byte[]> outputSlices;
+
+    // Class map of each slice (object counting only), until its objects are found.
+    private final ConcurrentMap<Integer, byte[]> classSlices;
+
+    // Objects of each slice found by the final pass.
+    private final ConcurrentMap<Integer, ConnectedComponents> sliceObjects;
+
+    // ROIs to measure instead of the ROI Manager's, if set.
+    private volatile Roi[] measuredRois;
+
+    // Index of the measured ROIs, built when the first slice is processed. Guarded by this.
+    private RoiIndex roiIndex;
+
+    // Class pixel counts of each ROI on each slice.
+    private final ConcurrentMap<Integer, RoiStatistics> sliceRoiStatistics;
+
+    // Runner calling this filter, if any (used to get the slice being processed).
+    private volatile PlugInFilterRunner runner;
+
+    // Whether the dialog is showing, i.e. runs are previews.
+    private volatile boolean previewing;
+
+    // Classification of the previewed slice, kept between previews.
+    private PreviewCache previewCache;
+
+    // Decimated levels of the previewed slice, for previews of zoomed-out images.
+    private PreviewPyramid previewPyramid;
+
+    // Number of the latest preview; refinements of earlier previews are abandoned. Guarded by previewLock.
+    private final Object previewLock = new Object();
+    private int previewGeneration;
+
+    // Thread refining coarse previews, while the dialog is showing, and the pending refinement.
+    private volatile ScheduledExecutorService refiner;
+    private ScheduledFuture<?> refinement;
+
+    // Progress of the current run.
+    private final ThrottledProgress progress;
+
+    // Stage timings of the current run.
+    private final FilterMetrics metrics;
 
     // Image to process.
     private ImagePlus image;
@@ -141,14 +162,7 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
      */
     public HueColoursFilter() {
 
-        this(WHITE_MIN_PARAM_DEFAULT, BLACK_MAX_PARAM_DEFAULT, GREY_TOLERANCE_PARAM_DEFAULT,
-                LIGHT_DARK_PARAM_DEFAULT, SATURATION_PARAM_DEFAULT,
-                SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT,
-                SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT,
-                SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT, SHOW_PARAM_DEFAULT,
-                SHOW_PARAM_DEFAULT,
-                HIDE_BACKGROUND_PARAM_DEFAULT, MAKE_GREY_PARAM_DEFAULT, BINARIZE_PARAM_DEFAULT,
-                IJ.getInstance() == null);
+        this(HueColoursConfig.builder().build(), IJ.getInstance() == null);
     }
 
     /**
@@ -178,6 +192,7 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
      * @param hideBackground       whether to hide the background.
      * @param makeGrey             whether to make a greyscale image.
      * @param binarize             whether to make a binary image.
+     * @param fromPlugin           whether the filter is called from code, i.e. without dialogs.
      */
     public HueColoursFilter(final int whiteMin, final int blackMax, final int greyTolerance, final double lightDarkCutoff,
                             final double saturationCutoff, final boolean whiteShow, final boolean blackShow,
@@ -188,47 +203,104 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
                             final boolean magentaShow, final boolean hideBackground, final boolean makeGrey,
                             final boolean binarize, final boolean fromPlugin) {
 
+        this(whiteMin, blackMax, greyTolerance, lightDarkCutoff, saturationCutoff, whiteShow, blackShow, greyShow,
+                redShow, orangeShow, brownShow, lightYellowShow, darkYellowShow, greenYellowLightShow,
+                greenYellowDarkShow, lightGreenShow, darkGreenShow, aquaShow, lightBlueShow, darkBlueShow, magentaShow,
+                hideBackground, makeGrey, binarize, MEASURE_PARAM_DEFAULT, MEASURE_ONLY_PARAM_DEFAULT, fromPlugin);
+    }
 
-        this.whiteMin = whiteMin;
-        this.blackMax = blackMax;
-        this.greyTolerance = greyTolerance;
-        this.lightDarkCutoff = lightDarkCutoff;
-        this.saturationCutoff = saturationCutoff;
-        this.whiteShow = whiteShow;
-        this.blackShow = blackShow;
-        this.greyShow = greyShow;
-        this.redShow = redShow;
-        this.orangeShow = orangeShow;
-        this.brownShow = brownShow;
-        this.lightYellowShow = lightYellowShow;
-        this.darkYellowShow = darkYellowShow;
-        this.greenYellowLightShow = greenYellowLightShow;
-        this.greenYellowDarkShow = greenYellowDarkShow;
-        this.lightGreenShow = lightGreenShow;
-        this.darkGreenShow = darkGreenShow;
-        this.aquaShow = aquaShow;
-        this.lightBlueShow = lightBlueShow;
-        this.darkBlueShow = darkBlueShow;
-        this.magentaShow = magentaShow;
-        this.hideBackground = hideBackground;
-        this.makeGrey = makeGrey;
-        this.binarize = binarize;
-
-        progress = 0;
-
-        // Running in ImageJ?
-        showDialogs = !fromPlugin;
+    /**
+     * Create an instance of the filter that can also measure colour statistics.
+     *
+     * @param whiteMin             white minimum value.
+     * @param blackMax             black maximum value.
+     * @param greyTolerance        grey tolerance.
+     * @param lightDarkCutoff      light-dark threshold value.
+     * @param saturationCutoff     saturation threshold value.
+     * @param whiteShow            whether to show white.
+     * @param blackShow            whether to show black.
+     * @param greyShow             whether to show grey.
+     * @param redShow              whether to show red.
+     * @param orangeShow           whether to show orange.
+     * @param brownShow            whether to show brown.
+     * @param lightYellowShow      whether to show light yellow.
+     * @param darkYellowShow       whether to show dark yellow.
+     * @param greenYellowLightShow whether to show light green-yellow.
+     * @param greenYellowDarkShow  whether to show dark green-yellow.
+     * @param lightGreenShow       whether to show light green.
+     * @param darkGreenShow        whether to show dark green.
+     * @param aquaShow             whether to show aqua.
+     * @param lightBlueShow        whether to show light blue.
+     * @param darkBlueShow         whether to show dark blue.
+     * @param magentaShow          whether to show magenta.
+     * @param hideBackground       whether to hide the background.
+     * @param makeGrey             whether to make a greyscale image.
+     * @param binarize             whether to make a binary image.
+     * @param measure              whether to measure the pixel count and area fraction of each class.
+     * @param measureOnly          whether to measure without changing the image.
+     * @param fromPlugin           whether the filter is called from code, i.e. without dialogs.
+     */
+    public HueColoursFilter(final int whiteMin, final int blackMax, final int greyTolerance, final double lightDarkCutoff,
+                            final double saturationCutoff, final boolean whiteShow, final boolean blackShow,
+                            final boolean greyShow, final boolean redShow, final boolean orangeShow, final boolean brownShow,
+                            final boolean lightYellowShow, final boolean darkYellowShow, final boolean greenYellowLightShow,
+                            final boolean greenYellowDarkShow, final boolean lightGreenShow, final boolean darkGreenShow,
+                            final boolean aquaShow, final boolean lightBlueShow, final boolean darkBlueShow,
+                            final boolean magentaShow, final boolean hideBackground, final boolean makeGrey,
+                            final boolean binarize, final boolean measure, final boolean measureOnly,
+                            final boolean fromPlugin) {
+
+        this(HueColoursConfig.builder()
+                .whiteMin(whiteMin)
+                .blackMax(blackMax)
+                .greyTolerance(greyTolerance)
+                .lightDarkCutoff(lightDarkCutoff)
+                .saturationCutoff(saturationCutoff)
+                .show(HueColourClass.WHITE, whiteShow)
+                .show(HueColourClass.BLACK, blackShow)
+                .show(HueColourClass.GREY, greyShow)
+                .show(HueColourClass.RED, redShow)
+                .show(HueColourClass.ORANGE, orangeShow)
+                .show(HueColourClass.BROWN, brownShow)
+                .show(HueColourClass.LIGHT_YELLOW, lightYellowShow)
+                .show(HueColourClass.DARK_YELLOW, darkYellowShow)
+                .show(HueColourClass.LIGHT_YELLOW_GREEN, greenYellowLightShow)
+                .show(HueColourClass.DARK_YELLOW_GREEN, greenYellowDarkShow)
+                .show(HueColourClass.LIGHT_GREEN, lightGreenShow)
+                .show(HueColourClass.DARK_GREEN, darkGreenShow)
+                .show(HueColourClass.AQUA, aquaShow)
+                .show(HueColourClass.LIGHT_BLUE, lightBlueShow)
+                .show(HueColourClass.DARK_BLUE, darkBlueShow)
+                .show(HueColourClass.MAGENTA, magentaShow)
+                .hideBackground(hideBackground)
+                .makeGrey(makeGrey)
+                .binarize(binarize)
+                .measure(measure)
+                .measureOnly(measureOnly)
+                .build(), fromPlugin);
     }
 
     /**
-     * Creates an RGB value for a shade of grey.
+     * Create an instance of the filter from a configuration.
      *
-     * @param level grey value.
-     * @return packed integer representation of RGB.
+     * @param config     the filter parameters.
+     * @param fromPlugin whether the filter is called from code, i.e. without dialogs.
      */
-    private static int toGreyRgb(final int level) {
+    public HueColoursFilter(final HueColoursConfig config, final boolean fromPlugin) {
+
+        setConfig(config);
 
-        return Rgb24Bit.pack(level, level, level);
+        statistics = new ClassStatistics();
+        sliceStatistics = new ConcurrentHashMap<Integer, ClassStatistics>();
+        outputSlices = new ConcurrentHashMap<Integer, byte[]>();
+        classSlices = new ConcurrentHashMap<Integer, byte[]>();
+        sliceObjects = new ConcurrentHashMap<Integer, ConnectedComponents>();
+        sliceRoiStatistics = new ConcurrentHashMap<Integer, RoiStatistics>();
+        progress = new ThrottledProgress();
+        metrics = new FilterMetrics();
+
+        // Running in ImageJ?
+        showDialogs = !fromPlugin;
     }
 
     /**
@@ -243,52 +315,40 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
      */
     public static String getOptions() {
 
-        return getOptionString(WHITE_MIN_PARAM_NAME, whiteMin) +
-                getOptionString(BLACK_MAX_PARAM_NAME, blackMax) +
-                getOptionString(GREY_TOLERANCE_PARAM_NAME, greyTolerance) +
-                getOptionString(LIGHT_DARK_PARAM_NAME, lightDarkCutoff) +
-                getOptionString(SATURATION_PARAM_NAME, saturationCutoff) +
-                getOptionString(WHITE_SHOW_PARAM_NAME, whiteShow) +
-                getOptionString(RED_SHOW_PARAM_NAME, redShow) +
-                getOptionString(GREEN_YELLOW_LIGHT_SHOW_PARAM_NAME, greenYellowLightShow) +
-                getOptionString(AQUA_SHOW_PARAM_NAME, aquaShow) +
-                getOptionString(BLACK_SHOW_PARAM_NAME, blackShow) +
-                getOptionString(ORANGE_SHOW_PARAM_NAME, orangeShow) +
-                getOptionString(GREEN_YELLOW_DARK_SHOW_PARAM_NAME, greenYellowDarkShow) +
-                getOptionString(LIGHT_BLUE_SHOW_PARAM_NAME, lightBlueShow) +
-                getOptionString(GREY_SHOW_PARAM_NAME, greyShow) +
-                getOptionString(BROWN_SHOW_PARAM_NAME, brownShow) +
-                getOptionString(GREEN_LIGHT_PARAM_NAME, lightGreenShow) +
-                getOptionString(DARK_BLUE_SHOW_PARAM_NAME, darkBlueShow) +
-                getOptionString(YELLOW_LIGHT_SHOW_PARAM_NAME, lightYellowShow) +
-                getOptionString(GREEN_DARK_SHOW_PARAM_NAME, darkGreenShow) +
-                getOptionString(MAGENTA_SHOW_PARAM_NAME, magentaShow) +
-                getOptionString(YELLOW_DARK_SHOW_PARAM_NAME, darkYellowShow) +
-                getOptionString(BINARIZE_PARAM_NAME, binarize) +
-                getOptionString(MAKE_GREY_PARAM_NAME, makeGrey) +
-                getOptionString(HIDE_BACKGROUND_PARAM_NAME, hideBackground);
+        return lastConfig.getOptions();
     }
 
-    private static String getOptionKey(final CharSequence name) {
-        return OPTIONS_REGEX.matcher(name).replaceAll("").toLowerCase().trim();
-    }
-
-    private static String getOptionString(final String name, final String value) {
+    /**
+     * Create an instance of the filter, without dialogs, from an options string, i.e. in the format returned by
+     * {@link #getOptions()} or used by macros.
+     *
+     * @param options the options string, e.g. "white_min=240 black_max=12 _red _orange".
+     * @return the filter.
+     * @see HueColoursConfig#fromOptions(String)
+     */
+    public static HueColoursFilter fromOptions(final String options) {
 
-        return getOptionKey(name) + '=' + value + OPTIONS_SEPARATOR;
+        return new HueColoursFilter(HueColoursConfig.fromOptions(options), true);
     }
 
-    private static String getOptionString(final String name, final boolean value) {
-
-        return value ? getOptionKey(name) + OPTIONS_SEPARATOR : "";
+    /**
+     * Gets the filter's parameters.
+     *
+     * @return the configuration.
+     */
+    public HueColoursConfig getConfig() {
+        return config;
     }
 
-    private static String getOptionString(final String name, final int value) {
-        return getOptionString(name, String.valueOf(value));
-    }
+    /**
+     * Sets the filter's parameters.
+     *
+     * @param config the configuration.
+     */
+    private void setConfig(final HueColoursConfig config) {
 
-    private static String getOptionString(final String name, final double value) {
-        return getOptionString(name, String.valueOf(value));
+        this.config = config;
+        lastConfig = config;
     }
 
     /**
@@ -299,213 +359,114 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
     public void setImageForFilter(final ImagePlus img) {
         image = img;
 
-        if (binarize) {
+        if (config.isBinarize()) {
+            final long start = FilterMetrics.start();
             Rgb24Bit.binarizeImage(image, 128);
+            metrics.record(FilterMetrics.Stage.BINARIZE_PRE_PASS, start, getImagePixels(image));
         }
 
         WindowManager.setTempCurrentImage(image);
     }
 
     /**
-     * Gets the image the filter is applied to.
+     * Apply the filter to an image directly, i.e. without a {@code PlugInFilterRunner} or dialogs. The image's ROI,
+     * if any, is respected. All slices of a stack are processed.
+     * <p>
+     * The image is processed in tiles by the default {@link TileEngine}, using ImageJ's thread count.
      *
-     * @return the image.
+     * @param imp the image.
      */
-    public ImagePlus getImage() {
-        return image;
+    public void apply(final ImagePlus imp) {
+        apply(imp, TileEngine.getDefault());
     }
 
     /**
-     * Calculates the hue colour for a pixel.
+     * Apply the filter to an image directly, i.e. without a {@code PlugInFilterRunner} or dialogs. The image's ROI,
+     * if any, is respected. All slices of a stack are processed, tile by tile, in parallel.
      *
-     * @param pixel the pixel value (packed RGB)
-     * @return the calculated hue.
+     * @param imp    the image.
+     * @param engine the engine that processes the image's tiles.
      */
-    private int calculateHueColour(final int pixel) {
+    public void apply(final ImagePlus imp, final TileEngine engine) {
+
+        if ((setup("", imp) & DONE) == 0) {
 
-        // Split RGB pixel value into it's components.
-        final int[] rgb = Rgb24Bit.unpack(pixel);
+            final ImageStack stack = imp.getStack();
+            final int size = stack.getSize();
+            setNPasses(size);
 
-        // Convert to HSV.
-        final double[] hsv = ColourSpaceUtilities.convertRgb2Hsv(rgb);
-        final double hue = hsv[0];
-        final double saturation = hsv[1];
-        final double variance = hsv[2];
+            // Every slice's ROI and processor.
+            final Roi roi = imp.getRoi();
+            final Rectangle[] regions = new Rectangle[size];
+            final TileEngine.TileProcessor[] processors = new TileEngine.TileProcessor[size];
+            for (int n = 1; n <= size; n++) {
 
-        // Calculate RGB sensitivity and mean.
-        final int rgbDiff = ColourSpaceUtilities.getRgbSensitivity(rgb[0], rgb[1], rgb[2]);
-        final int rgbMean = (rgb[0] + rgb[1] + rgb[2]) / 3;
+                final ImageProcessor ip = size == 1 ? imp.getProcessor() : stack.getProcessor(n);
+                ip.setRoi(roi);
+                regions[n - 1] = ip.getRoi();
+                processors[n - 1] = new SliceProcessor(ip, n);
+            }
 
-        // Work out in RGB space if colour is black, gray or white first and if not go into HSB to colour pixel.
-        return binarize ? calculateBinaryHueColour(hue, saturation, variance, rgbDiff, rgbMean) :
-                calculateRgbHueColour(hue, saturation, variance, rgbDiff, rgbMean, pixel);
+            IJ.showStatus("Calculating hues colours...");
+            engine.process(regions, processors);
+            setup("final", imp);
+        }
     }
 
     /**
-     * Calculate the hue colour.
+     * Gets the image the filter is applied to.
      *
-     * @param hue        hue value.
-     * @param saturation saturation value.
-     * @param variance   variance value.
-     * @param diff       RGB sensitivity.
-     * @param mean       RGB mean.
-     * @param pixel      original pixel value.
-     * @return the hue colour.
+     * @return the image.
      */
-    private int calculateRgbHueColour(final double hue, final double saturation, final double variance, final int diff,
-                                      final int mean, final int pixel) {
-        int result = pixel;
-        final boolean isLight = variance >= lightDarkCutoff;
-        final boolean notSaturated = saturation <= saturationCutoff;
-
-        if (hideBackground) {
-            result = Rgb24Bit.LIGHT_GREY;
-        } else if (makeGrey) {
-            result = toGreyRgb(mean);
-        }
-
-        if (diff < greyTolerance || notSaturated) {
-
-            if (mean <= blackMax) {
-                if (blackShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (mean < whiteMin) {
-                if (greyShow) {
-                    result = Rgb24Bit.GREY;
-                }
-            } else if (mean >= whiteMin) {
-                if (whiteShow) {
-                    result = Rgb24Bit.WHITE;
-                }
-            }
-        } else //if (!notSaturated) is always true.
-        {
-            if (hue <= RED_HUE) {
-                if (redShow) {
-                    result = Rgb24Bit.RED;
-                }
-            } else if (hue <= ORANGE_HUE) {
-                if (isLight && orangeShow) {
-                    result = Rgb24Bit.ORANGE;
-                } else if (!isLight && brownShow) {
-                    result = Rgb24Bit.BROWN;
-                }
-            } else if (hue <= YELLOW_HUE) {
-                if (isLight && lightYellowShow) {
-                    result = Rgb24Bit.LIGHT_YELLOW;
-                } else if (!isLight && darkYellowShow) {
-                    result = Rgb24Bit.DARK_YELLOW;
-                }
-            } else if (hue <= YELLOW_GREEN_HUE) {
-                if (isLight && greenYellowLightShow) {
-                    result = Rgb24Bit.LIGHT_YELLOW_GREEN;
-                } else if (!isLight && greenYellowDarkShow) {
-                    result = Rgb24Bit.DARK_YELLOW_GREEN;
-                }
-            } else if (hue <= GREEN_HUE) {
-                if (isLight && lightGreenShow) {
-                    result = Rgb24Bit.LIGHT_GREEN;
-                } else if (!isLight && darkGreenShow) {
-                    result = Rgb24Bit.DARK_GREEN;
-                }
-            } else if (hue <= AQUA_HUE) {
-                if (aquaShow) {
-                    result = Rgb24Bit.AQUA;
-                }
-            } else if (hue <= BLUE_HUE) {
-                if (isLight && lightBlueShow) {
-                    result = Rgb24Bit.LIGHT_BLUE;
-                } else if (!isLight && darkBlueShow) {
-                    result = Rgb24Bit.DARK_BLUE;
-                }
-            } else if (hue <= MAGENTA_HUE) {
-                if (magentaShow) {
-                    result = Rgb24Bit.MAGENTA;
-                }
-            } else if (hue <= MAX_HUE) {
-                if (redShow) {
-                    result = Rgb24Bit.RED;
-                }
-            }
-        }
+    public ImagePlus getImage() {
+        return image;
+    }
 
-        return result;
+    /**
+     * Gets the stage timings of the last run of the filter. They are also logged when ImageJ is in debug mode.
+     *
+     * @return the metrics.
+     */
+    public FilterMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Calculate the hue colour.
+     * Gets the class pixel counts of the last run of the filter.
      *
-     * @param hue        hue value.
-     * @param saturation saturation value.
-     * @param variance   variance value.
-     * @param diff       RGB sensitivity.
-     * @param mean       RGB mean.
-     * @return binary colour.
+     * @return the statistics.
      */
-    private int calculateBinaryHueColour(final double hue, final double saturation, final double variance, final int diff,
-                                         final int mean) {
-        int result = Rgb24Bit.WHITE;
-        final boolean isLight = variance >= lightDarkCutoff;
-        final boolean notSaturated = saturation <= saturationCutoff;
+    public ClassStatistics getStatistics() {
+        return statistics;
+    }
 
-        if (diff < greyTolerance || notSaturated) {
+    /**
+     * Gets the objects of a slice found by the last run of the filter, if it counted objects.
+     *
+     * @param slice the slice number (one-based).
+     * @return the objects, or null if they weren't counted.
+     */
+    public ConnectedComponents getObjects(final int slice) {
+        return sliceObjects.get(slice);
+    }
 
-            if (mean <= blackMax) {
-                if (blackShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (mean < whiteMin) {
-                if (greyShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (mean >= whiteMin) {
-                if (whiteShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            }
-        } else //if (!isNotSaturated) always true.
-        {
-            if (hue <= RED_HUE) {
-                if (redShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= ORANGE_HUE) {
-                if (isLight && orangeShow || !isLight && brownShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= YELLOW_HUE) {
-                if (isLight && lightYellowShow || !isLight && darkYellowShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= YELLOW_GREEN_HUE) {
-                if (isLight && greenYellowLightShow || !isLight && greenYellowDarkShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= GREEN_HUE) {
-                if (isLight && lightGreenShow || !isLight && darkGreenShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= AQUA_HUE) {
-                if (aquaShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= BLUE_HUE) {
-                if (isLight && lightBlueShow || !isLight && darkBlueShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= MAGENTA_HUE) {
-                if (magentaShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            } else if (hue <= MAX_HUE) {
-                if (redShow) {
-                    result = Rgb24Bit.BLACK;
-                }
-            }
-        }
+    /**
+     * Sets the ROIs measured when measuring ROIs, instead of those in the ROI Manager.
+     *
+     * @param rois the ROIs, or null to use the ROI Manager's.
+     */
+    public void setMeasuredRois(final Roi[] rois) {
+        measuredRois = rois == null ? null : rois.clone();
+    }
 
-        return result;
+    /**
+     * Gets the per-ROI class counts of a slice from the last run of the filter, if it measured ROIs.
+     *
+     * @param slice the slice number (one-based).
+     * @return the statistics, or null if ROIs weren't measured.
+     */
+    public RoiStatistics getRoiStatistics(final int slice) {
+        return sliceRoiStatistics.get(slice);
     }
 
     /**
@@ -538,18 +499,261 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
 
         // Final pass.
         if ("final".equalsIgnoreCase(arg)) {
-            if (binarize) {
-                Rgb24Bit.binarizeImage(image, 128);
+
+            final HueColoursConfig finalConfig = config;
+            if (finalConfig.isBinarize() && finalConfig.isFiltering()) {
+                final long start = FilterMetrics.start();
+                if (outputSlices.isEmpty()) {
+                    Rgb24Bit.binarizeImage(image, 128);
+                } else {
+                    setOutputImage();
+                }
+                metrics.record(FilterMetrics.Stage.FINAL_BINARIZE, start, getImagePixels(image));
+            } else if (finalConfig.isLabels() && finalConfig.isFiltering()) {
+                final long start = FilterMetrics.start();
+                setOutputImage();
+                metrics.record(FilterMetrics.Stage.FINAL_LABELS, start, getImagePixels(image));
+                if (showDialogs) {
+                    ClassLabels.createTable(finalConfig.getClassTable().getColours()).show(LABELS_TITLE);
+                }
+            }
+            if (finalConfig.isMeasure()) {
+                showStatistics();
+            }
+            if (finalConfig.isObjects()) {
+                final long start = FilterMetrics.start();
+                findObjects(finalConfig);
+                metrics.record(FilterMetrics.Stage.FINAL_OBJECTS, start, getImagePixels(image));
+            }
+            if (finalConfig.isRois()) {
+                showRoiStatistics();
+            }
+            progress.finish();
+            if (IJ.debugMode) {
+                IJ.log("Hue Colours timings for " + image.getTitle() + ":\n" + metrics);
             }
             return DONE;
         }
 
         // Set image.
+        final long start = FilterMetrics.start();
+        metrics.reset();
         image = imp;
+        resetResults();
+        metrics.record(FilterMetrics.Stage.SETUP, start, getImagePixels(imp));
 
         return FLAGS;
     }
 
+    /**
+     * Replaces the image by its 8-bit output, one slice per RGB slice. Any slices that weren't processed are
+     * thresholded for binary output, or all background for label output, which is coloured by the label LUT.
+     */
+    private void setOutputImage() {
+
+        final boolean labels = config.isLabels();
+        final ImageStack stack = image.getStack();
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        if (stack.getSize() == 1) {
+
+            final byte[] output = outputSlices.get(1);
+            image.setProcessor(new ByteProcessor(width, height, output == null ? new byte[width * height] : output));
+        } else {
+
+            final ImageStack outputStack = new ImageStack(width, height);
+            for (int n = 1; n <= stack.getSize(); n++) {
+
+                final byte[] output = outputSlices.get(n);
+                outputStack.addSlice(stack.getSliceLabel(n), output != null ?
+                        new ByteProcessor(width, height, output) : labels ? new ByteProcessor(width, height) :
+                        Rgb24Bit.binarize(stack.getProcessor(n), 128));
+            }
+            image.setStack(outputStack);
+        }
+        if (labels) {
+            image.setLut(ClassLabels.createLut(config.getClassTable().getColours()));
+        }
+    }
+
+    /**
+     * Gets the 8-bit output of a slice, creating it if necessary. If the image has a ROI then pixels outside it are
+     * initialised by thresholding the slice, as if the RGB output were binarized, or as background labels.
+     *
+     * @param ip    the slice's processor.
+     * @param slice the slice number.
+     * @return the slice's output pixels.
+     */
+    private byte[] getOutputSlice(final ImageProcessor ip, final int slice) {
+
+        byte[] output = outputSlices.get(slice);
+        if (output == null) {
+
+            // Initialise fully before sharing, as other threads may be processing the same slice.
+            output = image.getRoi() == null || config.isLabels() ? new byte[ip.getPixelCount()] :
+                    (byte[]) Rgb24Bit.binarize(
+                            new ColorProcessor(ip.getWidth(), ip.getHeight(), (int[]) ip.getPixels()), 128)
+                            .getPixels();
+            final byte[] existing = outputSlices.putIfAbsent(slice, output);
+            if (existing != null) {
+                output = existing;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Gets the number of pixels in every slice of an image.
+     *
+     * @param imp the image.
+     * @return the pixel count.
+     */
+    private static long getImagePixels(final ImagePlus imp) {
+        return (long) imp.getWidth() * imp.getHeight() * imp.getStackSize();
+    }
+
+    /**
+     * Adds the class statistics of the image to the statistics results table.
+     */
+    private void showStatistics() {
+
+        ResultsTable table = ResultsTable.getResultsTable(STATISTICS_TITLE);
+        if (table == null) {
+            table = new ResultsTable();
+        }
+
+        // One row per slice of a stack, in slice order.
+        if (sliceStatistics.size() > 1) {
+            for (final Map.Entry<Integer, ClassStatistics> entry :
+                    new TreeMap<Integer, ClassStatistics>(sliceStatistics).entrySet()) {
+                entry.getValue().addTo(table, image.getTitle() + ':' + entry.getKey());
+            }
+        } else {
+            statistics.addTo(table, image.getTitle());
+        }
+        if (showDialogs) {
+            table.show(STATISTICS_TITLE);
+        }
+    }
+
+    /**
+     * Adds the class statistics of each measured ROI to the ROI statistics results table.
+     */
+    private void showRoiStatistics() {
+
+        ResultsTable table = ResultsTable.getResultsTable(ROI_STATISTICS_TITLE);
+        if (table == null) {
+            table = new ResultsTable();
+        }
+
+        // Rows are labelled title:ROI, or title:slice:ROI for a stack, in slice order.
+        final boolean stack = image.getStackSize() > 1;
+        for (final Map.Entry<Integer, RoiStatistics> entry :
+                new TreeMap<Integer, RoiStatistics>(sliceRoiStatistics).entrySet()) {
+            entry.getValue().addTo(table, image.getTitle() + ':' + (stack ? entry.getKey() + ":" : ""));
+        }
+        if (showDialogs) {
+            table.show(ROI_STATISTICS_TITLE);
+        }
+    }
+
+    /**
+     * Gets the index of the measured ROIs, building it for the first slice processed.
+     *
+     * @param ip a slice's processor.
+     * @return the index.
+     */
+    private synchronized RoiIndex getRoiIndex(final ImageProcessor ip) {
+
+        if (roiIndex == null) {
+
+            final long start = FilterMetrics.start();
+            Roi[] rois = measuredRois;
+            if (rois == null) {
+                final RoiManager manager = RoiManager.getInstance2();
+                rois = manager == null ? new Roi[0] : manager.getRoisAsArray();
+            }
+            roiIndex = RoiIndex.create(rois, ip.getWidth(), ip.getHeight());
+            metrics.record(FilterMetrics.Stage.ROI_INDEX, start, ip.getPixelCount());
+        }
+        return roiIndex;
+    }
+
+    /**
+     * Gets the per-ROI class counts of a slice.
+     *
+     * @param index the measured ROIs.
+     * @param slice the slice number.
+     * @return the slice's statistics.
+     */
+    private RoiStatistics getSliceRoiStatistics(final RoiIndex index, final int slice) {
+
+        final RoiStatistics created = new RoiStatistics(index, slice);
+        final RoiStatistics existing = sliceRoiStatistics.putIfAbsent(slice, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Finds the objects of each classified slice, and adds them to the object results tables.
+     *
+     * @param finalConfig the parameters the slices were classified with.
+     */
+    private void findObjects(final HueColoursConfig finalConfig) {
+
+        ResultsTable objectsTable = ResultsTable.getResultsTable(OBJECTS_TITLE);
+        if (objectsTable == null) {
+            objectsTable = new ResultsTable();
+        }
+        ResultsTable countsTable = ResultsTable.getResultsTable(OBJECT_COUNTS_TITLE);
+        if (countsTable == null) {
+            countsTable = new ResultsTable();
+        }
+
+        // Class maps are released as their objects are found, in slice order.
+        final boolean[] selected = finalConfig.getSelectedClasses();
+        final boolean stack = classSlices.size() > 1;
+        for (final Map.Entry<Integer, byte[]> entry : new TreeMap<Integer, byte[]>(classSlices).entrySet()) {
+
+            final int slice = entry.getKey();
+            final ConnectedComponents objects =
+                    ConnectedComponents.find(entry.getValue(), image.getWidth(), image.getHeight(), selected);
+            classSlices.remove(slice);
+            sliceObjects.put(slice, objects);
+
+            final String label = stack ? image.getTitle() + ':' + slice : image.getTitle();
+            objects.addTo(objectsTable, label);
+            objects.addCountsTo(countsTable, label, selected);
+        }
+        if (showDialogs) {
+            objectsTable.show(OBJECTS_TITLE);
+            countsTable.show(OBJECT_COUNTS_TITLE);
+        }
+    }
+
+    /**
+     * Gets the class map of a slice, creating it if necessary. Pixels are {@link ConnectedComponents#UNCLASSIFIED}
+     * until they are classified, so those outside the ROI aren't in any object.
+     *
+     * @param ip    the slice's processor.
+     * @param slice the slice number.
+     * @return the slice's class map.
+     */
+    private byte[] getClassSlice(final ImageProcessor ip, final int slice) {
+
+        byte[] classes = classSlices.get(slice);
+        if (classes == null) {
+
+            // Initialise fully before sharing, as other threads may be processing the same slice.
+            classes = new byte[ip.getPixelCount()];
+            Arrays.fill(classes, ConnectedComponents.UNCLASSIFIED);
+            final byte[] existing = classSlices.putIfAbsent(slice, classes);
+            if (existing != null) {
+                classes = existing;
+            }
+        }
+        return classes;
+    }
+
     /**
      * This method is called after {@code setup(arg, imp)} unless the
      * {@code DONE} flag has been set.
@@ -572,45 +776,106 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
     @Override
     public int showDialog(final ImagePlus imp, final String command, final PlugInFilterRunner pfr) {
 
-        // Show dialogs?
+        runner = pfr;
+
+        // Show dialogs? Without them, all slices of a stack are processed.
         if (!showDialogs) {
-            return FLAGS;
+            return FLAGS | DOES_STACKS;
         }
 
+        final HueColoursConfig dialogConfig = config;
         final GenericDialog gd = new GenericDialog(command);
         gd.addMessage("--------------This slider determines when grey becomes white----------------");
-        gd.addSlider(WHITE_MIN_PARAM_NAME, 0.0, 255.0, whiteMin);
+        gd.addSlider(WHITE_MIN_PARAM_NAME, 0.0, 255.0, dialogConfig.getWhiteMin());
         gd.addMessage("--------------This slider determines when grey becomes black----------------");
-        gd.addSlider(BLACK_MAX_PARAM_NAME, 0.0, 256.0, blackMax);
+        gd.addSlider(BLACK_MAX_PARAM_NAME, 0.0, 256.0, dialogConfig.getBlackMax());
         gd.addMessage("--------------This slider determines how close RGB channels are to be grey----------------");
-        gd.addSlider(GREY_TOLERANCE_PARAM_NAME, 0.0, 256.0, greyTolerance);
+        gd.addSlider(GREY_TOLERANCE_PARAM_NAME, 0.0, 256.0, dialogConfig.getGreyTolerance());
         gd.addMessage(
                 "--------------Alter this slide to set the threshold between light and dark colours----------------");
-        gd.addSlider(LIGHT_DARK_PARAM_NAME, 0.0, 1.0001, lightDarkCutoff);
+        gd.addSlider(LIGHT_DARK_PARAM_NAME, 0.0, 1.0001, dialogConfig.getLightDarkCutoff());
         gd.addMessage("--------------Alter this slide to set the min threshold for saturation----------------");
-        gd.addSlider(SATURATION_PARAM_NAME, 0.0, 1.0001, saturationCutoff);
-
-        gd.addCheckboxGroup(CHECKBOX_GROUP_ROWS, CHECKBOX_GROUP_COLS, LABELS,
-                new boolean[]{whiteShow, redShow, greenYellowLightShow, aquaShow, blackShow, orangeShow,
-                        greenYellowDarkShow, lightBlueShow, greyShow, brownShow, lightGreenShow,
-                        darkBlueShow, false, lightYellowShow, darkGreenShow, magentaShow, false,
-                        darkYellowShow, false, false}, HEADINGS);
+        gd.addSlider(SATURATION_PARAM_NAME, 0.0, 1.0001, dialogConfig.getSaturationCutoff());
+        gd.addMessage("--------------Click on 'Classify LCH' to classify by perceptual lightness (0-100), chroma and " +
+                "hue angle instead----------------");
+        gd.addCheckbox(LCH_PARAM_NAME, dialogConfig.isLch());
+        gd.addSlider(LCH_BLACK_MAX_PARAM_NAME, 0.0, 100.0, dialogConfig.getLchBlackMax());
+        gd.addSlider(LCH_WHITE_MIN_PARAM_NAME, 0.0, 100.0, dialogConfig.getLchWhiteMin());
+        gd.addSlider(LCH_LIGHT_DARK_PARAM_NAME, 0.0, 100.0, dialogConfig.getLchLightDarkCutoff());
+        gd.addSlider(LCH_CHROMA_PARAM_NAME, 0.0, ColourSpaceUtilities.LCH_C_MAX, dialogConfig.getLchChromaMin());
+        gd.addStringField(LCH_HUE_BOUNDARIES_PARAM_NAME,
+                HueColoursConfig.formatHueBoundaries(dialogConfig.getLchHueBoundaries()), LCH_HUE_BOUNDARIES_COLUMNS);
+
+        gd.addMessage("--------------Give a hue class file to replace the built-in hue ranges and colours----------------");
+        gd.addStringField(CLASS_TABLE_PARAM_NAME, dialogConfig.getClassTablePath(), CLASS_TABLE_COLUMNS);
+
+        gd.addCheckboxGroup(CHECKBOX_GROUP_ROWS, CHECKBOX_GROUP_COLS, LABELS, getCheckboxStates(dialogConfig),
+                HEADINGS);
 
         gd.addMessage("--------------Click on 'Make Binary' to convert selected colours to black and non-selected to " +
                 "white----------------");
-        gd.addCheckbox(BINARIZE_PARAM_NAME, binarize);
+        gd.addCheckbox(BINARIZE_PARAM_NAME, dialogConfig.isBinarize());
+        gd.addMessage("--------------Click on 'Make labels' to make an 8-bit image of selected colours' class " +
+                "indices----------------");
+        gd.addCheckbox(LABELS_PARAM_NAME, dialogConfig.isLabels());
         gd.addMessage(
                 "--------------Click on 'Hide background image' to turn deselected colours to grey----------------");
-        gd.addCheckbox(HIDE_BACKGROUND_PARAM_NAME, hideBackground);
-        gd.addCheckbox(MAKE_GREY_PARAM_NAME, makeGrey);
+        gd.addCheckbox(HIDE_BACKGROUND_PARAM_NAME, dialogConfig.isHideBackground());
+        gd.addCheckbox(MAKE_GREY_PARAM_NAME, dialogConfig.isMakeGrey());
+        gd.addMessage("--------------Click on 'Measure colour areas' to count the pixels of every colour----------------");
+        gd.addCheckbox(MEASURE_PARAM_NAME, dialogConfig.isMeasure());
+        gd.addCheckbox(MEASURE_ONLY_PARAM_NAME, dialogConfig.isMeasureOnly());
+        gd.addMessage("--------------Click on 'Count objects' to list the connected regions of each selected " +
+                "colour----------------");
+        gd.addCheckbox(OBJECTS_PARAM_NAME, dialogConfig.isObjects());
+        gd.addMessage("--------------Click on 'Measure ROIs' to measure colour areas in every ROI Manager " +
+                "ROI----------------");
+        gd.addCheckbox(ROIS_PARAM_NAME, dialogConfig.isRois());
         gd.addMessage("--------------Click on Preview to filter the image LIVE----------------");
 
         gd.addPreviewCheckbox(pfr);
         gd.addDialogListener(this);
-        gd.showDialog();
+        refiner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+
+                final Thread thread = new Thread(r, command + " preview");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        previewing = true;
+        try {
+            gd.showDialog();
+        } finally {
+            previewing = false;
+            nextPreviewGeneration();
+            refiner.shutdownNow();
+            clearPreviewCache();
+        }
 
         // Dialog exit status.
-        return gd.wasCanceled() ? DONE : IJ.setupDialog(imp, FLAGS);
+        if (gd.wasCanceled()) {
+            return DONE;
+        }
+        return IJ.setupDialog(imp, FLAGS);
+    }
+
+    /**
+     * Gets the state of each checkbox in the class checkbox group.
+     *
+     * @param config the filter parameters.
+     * @return the checkbox states, in {@code LABELS} order.
+     */
+    private static boolean[] getCheckboxStates(final HueColoursConfig config) {
+
+        final boolean[] states = new boolean[LABELS.length];
+        for (int i = 0, j = 0; i < LABELS.length; i++) {
+            if (!BLANK_LABEL.equals(LABELS[i])) {
+                states[i] = config.isSelected(SHOW_PARAM_CLASSES[j++]);
+            }
+        }
+        return states;
     }
 
     /**
@@ -630,33 +895,44 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
     @Override
     public boolean dialogItemChanged(final GenericDialog gd, final AWTEvent e) {
 
-        // Reset counter.
-        progress = 0;
-
-        whiteMin = (int) gd.getNextNumber();
-        blackMax = (int) gd.getNextNumber();
-        greyTolerance = (int) gd.getNextNumber();
-        lightDarkCutoff = gd.getNextNumber();
-        saturationCutoff = gd.getNextNumber();
-        whiteShow = gd.getNextBoolean();
-        redShow = gd.getNextBoolean();
-        greenYellowLightShow = gd.getNextBoolean();
-        aquaShow = gd.getNextBoolean();
-        blackShow = gd.getNextBoolean();
-        orangeShow = gd.getNextBoolean();
-        greenYellowDarkShow = gd.getNextBoolean();
-        lightBlueShow = gd.getNextBoolean();
-        greyShow = gd.getNextBoolean();
-        brownShow = gd.getNextBoolean();
-        lightGreenShow = gd.getNextBoolean();
-        darkBlueShow = gd.getNextBoolean();
-        lightYellowShow = gd.getNextBoolean();
-        darkGreenShow = gd.getNextBoolean();
-        magentaShow = gd.getNextBoolean();
-        darkYellowShow = gd.getNextBoolean();
-        binarize = gd.getNextBoolean();
-        hideBackground = gd.getNextBoolean();
-        makeGrey = gd.getNextBoolean();
+        // Stop refining the last preview, as the image is about to be reset.
+        nextPreviewGeneration();
+
+        final HueColoursConfig.Builder builder = HueColoursConfig.builder()
+                .whiteMin((int) gd.getNextNumber())
+                .blackMax((int) gd.getNextNumber())
+                .greyTolerance((int) gd.getNextNumber())
+                .lightDarkCutoff(gd.getNextNumber())
+                .saturationCutoff(gd.getNextNumber())
+                .lch(gd.getNextBoolean())
+                .lchBlackMax(gd.getNextNumber())
+                .lchWhiteMin(gd.getNextNumber())
+                .lchLightDarkCutoff(gd.getNextNumber())
+                .lchChromaMin(gd.getNextNumber());
+        final String hueBoundaries = gd.getNextString();
+        final String classTablePath = gd.getNextString().trim();
+        for (final HueColourClass hueClass : SHOW_PARAM_CLASSES) {
+            builder.show(hueClass, gd.getNextBoolean());
+        }
+        builder.binarize(gd.getNextBoolean())
+                .labels(gd.getNextBoolean())
+                .hideBackground(gd.getNextBoolean())
+                .makeGrey(gd.getNextBoolean())
+                .measure(gd.getNextBoolean())
+                .measureOnly(gd.getNextBoolean())
+                .objects(gd.getNextBoolean())
+                .rois(gd.getNextBoolean());
+
+        // Invalid hue boundaries or class tables disable OK and preview until they're corrected. A table is only read
+        // again if its path changes.
+        try {
+            final HueColoursConfig current = config;
+            builder.classTable(classTablePath, classTablePath.equals(current.getClassTablePath()) ?
+                    current.getClassTable() : HueColoursConfig.readClassTable(classTablePath));
+            setConfig(builder.lchHueBoundaries(HueColoursConfig.parseHueBoundaries(hueBoundaries)).build());
+        } catch (final IllegalArgumentException ex) {
+            return false;
+        }
         return true;
     }
 
@@ -674,6 +950,188 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
     @Override
     public void setNPasses(final int nPasses) {
 
+        // Discard results of any previous pass, e.g. a preview.
+        resetResults();
+
+        // Prepare the look-up table, or classify the image's colours, once before any slices are processed (previews
+        // use their cache instead).
+        final long start = FilterMetrics.start();
+        final Palette prepared = getPalette();
+        final Rectangle roiRect = getRoiRect(image);
+        uniqueColours = previewing ? null : collectUniqueColours(prepared, roiRect);
+        if (!previewing && uniqueColours == null) {
+            prepared.getTable();
+        }
+        metrics.record(FilterMetrics.Stage.SETUP, start, 0L);
+
+        // Progress is measured in pixels of the ROI rectangle.
+        progress.start((long) roiRect.width * roiRect.height * nPasses);
+    }
+
+    /**
+     * Collects and classifies the distinct colours of the image, if that's quicker than building the look-up table:
+     * i.e. the table isn't cached and the image has few pixels and colours, as many JPEGs taken under fixed lighting
+     * and palette-reduced images do.
+     *
+     * @param prepared the palette of the current parameters.
+     * @param roiRect  the ROI rectangle.
+     * @return the colours' classes, or null if the table should be used.
+     */
+    private UniqueColours collectUniqueColours(final Palette prepared, final Rectangle roiRect) {
+
+        final ImageStack stack = image.getStack();
+        final ColourClassifier classifier = prepared.config.getClassifier();
+        if (prepared.table != null || ClassificationTable.isCached(classifier) || stack.isVirtual() ||
+                (long) roiRect.width * roiRect.height * stack.getSize() > UniqueColours.MAX_PIXELS) {
+            return null;
+        }
+
+        final long start = FilterMetrics.start();
+        final int[][] slices = new int[stack.getSize()][];
+        for (int n = 1; n <= slices.length; n++) {
+            slices[n - 1] = (int[]) (slices.length == 1 ? image.getProcessor().getPixels() : stack.getPixels(n));
+        }
+        final UniqueColours colours =
+                UniqueColours.collect(slices, image.getWidth(), roiRect, UniqueColours.MAX_COLOURS, classifier);
+        metrics.record(FilterMetrics.Stage.UNIQUE_COLOURS, start,
+                (long) roiRect.width * roiRect.height * slices.length);
+        return colours;
+    }
+
+    /**
+     * Gets the bounds of an image's area ROI, clipped to the image, or the whole image if there isn't one.
+     *
+     * @param imp the image.
+     * @return the rectangle.
+     */
+    private static Rectangle getRoiRect(final ImagePlus imp) {
+
+        final Roi roi = imp.getRoi();
+        return roi != null && roi.isArea() ?
+                roi.getBounds().intersection(new Rectangle(imp.getWidth(), imp.getHeight())) :
+                new Rectangle(imp.getWidth(), imp.getHeight());
+    }
+
+    /**
+     * Discards all class counts, 8-bit output, objects and the ROI index.
+     */
+    private void resetResults() {
+
+        statistics.reset();
+        sliceStatistics.clear();
+        outputSlices.clear();
+        classSlices.clear();
+        sliceObjects.clear();
+        sliceRoiStatistics.clear();
+        synchronized (this) {
+            roiIndex = null;
+        }
+    }
+
+    /**
+     * Gets the preview cache of a slice, creating it if the slice has changed.
+     *
+     * @param ip the slice's processor.
+     * @return the cache.
+     */
+    private synchronized PreviewCache getPreviewCache(final ImageProcessor ip) {
+
+        final int[] pixels = (int[]) ip.getPixels();
+        if (previewCache == null || !previewCache.isFor(pixels)) {
+            previewCache = new PreviewCache(pixels, ip.getWidth(), ip.getHeight());
+        }
+        return previewCache;
+    }
+
+    /**
+     * Gets the preview pyramid of a slice, creating it if the slice has changed.
+     *
+     * @param source the slice's original pixels.
+     * @param width  the slice width.
+     * @param height the slice height.
+     * @return the pyramid.
+     */
+    private synchronized PreviewPyramid getPreviewPyramid(final int[] source, final int width, final int height) {
+
+        if (previewPyramid == null || !previewPyramid.isFor(source)) {
+            previewPyramid = new PreviewPyramid(source, width, height);
+        }
+        return previewPyramid;
+    }
+
+    /**
+     * Discards the preview cache and pyramid.
+     */
+    private synchronized void clearPreviewCache() {
+
+        previewCache = null;
+        previewPyramid = null;
+    }
+
+    /**
+     * Gets the pyramid level that matches the size the image is shown at.
+     *
+     * @return the level (0 if the image isn't shown zoomed out).
+     */
+    private int getPreviewLevel() {
+
+        final ImageCanvas canvas = image.getCanvas();
+        return canvas == null ? 0 : PreviewPyramid.getLevel(canvas.getMagnification());
+    }
+
+    /**
+     * Starts a new preview, abandoning any refinement of the last one.
+     *
+     * @return the new preview's number.
+     */
+    private int nextPreviewGeneration() {
+
+        synchronized (previewLock) {
+            return ++previewGeneration;
+        }
+    }
+
+    /**
+     * Refines a coarse preview to full resolution once the parameters have stopped changing, replacing any pending
+     * refinement.
+     *
+     * @param processor the preview's processor.
+     */
+    private synchronized void scheduleRefinement(final SliceProcessor processor) {
+
+        final ScheduledExecutorService executor = refiner;
+        if (executor != null && !executor.isShutdown()) {
+
+            if (refinement != null) {
+                refinement.cancel(false);
+            }
+            final int generation;
+            synchronized (previewLock) {
+                generation = previewGeneration;
+            }
+            refinement = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    processor.refine(generation);
+                }
+            }, REFINE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the look-up table and palette of the current parameters, preparing them if the parameters have changed.
+     *
+     * @return the palette.
+     */
+    private Palette getPalette() {
+
+        final HueColoursConfig current = config;
+        Palette prepared = palette;
+        if (prepared == null || prepared.config != current) {
+            prepared = new Palette(current);
+            palette = prepared;
+        }
+        return prepared;
     }
 
     /**
@@ -693,20 +1151,162 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
     @Override
     public void run(final ImageProcessor ip) {
 
+        final PlugInFilterRunner pfr = runner;
+        final int slice = pfr == null ? -1 : pfr.getSliceNumber();
+        process(ip, slice > 0 ? slice : image.getCurrentSlice());
+    }
+
+    /**
+     * Process a slice of the image.
+     *
+     * @param ip    the slice's processor, with the ROI set.
+     * @param slice the slice number (one-based).
+     */
+    private void process(final ImageProcessor ip, final int slice) {
+
         IJ.showStatus("Calculating hues colours...");
 
         try {
 
-            // Image pixels.
-            final int[] pixels = (int[]) ip.getPixels();
-            final int height = ip.getHeight();
-            final int width = ip.getWidth();
+            // ROI rectangle (used for parallel processing).
+            final Rectangle roiRect = ip.getRoi();
+            final SliceProcessor processor = new SliceProcessor(ip, slice);
+            processor.processTile(roiRect.x, roiRect.y, roiRect.width, roiRect.height);
+
+            // Coarse previews are refined in the background.
+            if (processor.pyramid != null) {
+                scheduleRefinement(processor);
+            }
+
+        } catch (final Throwable e) {
+            IJ.error("Runtime Error", e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the class counts of a slice.
+     *
+     * @param slice the slice number.
+     * @return the slice's statistics.
+     */
+    private ClassStatistics getSliceStatistics(final int slice) {
+
+        final ClassStatistics created = new ClassStatistics();
+        final ClassStatistics existing = sliceStatistics.putIfAbsent(slice, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * The class look-up table and colours of a configuration, prepared once and shared by all slices.
+     */
+    private static final class Palette {
+
+        // The configuration.
+        private final HueColoursConfig config;
+
+        // Class look-up table (built when first needed, as previews don't use it), and whether it has been kept in a
+        // file if possible (previews don't keep it).
+        private volatile ClassificationTable table;
+        private volatile boolean tableKept;
+
+        // Selected classes, their colours and their 8-bit output values, indexed by class index.
+        private final boolean[] selected;
+        private final int[] colours;
+        private final byte[] outputs;
+
+        private Palette(final HueColoursConfig config) {
+
+            this.config = config;
+            selected = config.getSelectedClasses();
+            colours = config.getClassColours();
+            outputs = new byte[selected.length];
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = config.isLabels() ?
+                        (byte) (selected[i] ? ClassLabels.getLabel(i) : ClassLabels.BACKGROUND) :
+                        selected[i] ? BINARY_SELECTED : BINARY_BACKGROUND;
+            }
+        }
+
+        private ClassificationTable getTable() {
+            return getTable(true);
+        }
+
+        /**
+         * Gets the look-up table.
+         *
+         * @param keepFile whether the table should be kept in a file, i.e. it isn't for a preview.
+         */
+        private ClassificationTable getTable(final boolean keepFile) {
+
+            ClassificationTable prepared = table;
+            if (prepared == null || keepFile && !tableKept) {
+                prepared = ClassificationTable.getTable(config.getClassifier(), keepFile);
+                table = prepared;
+                if (keepFile) {
+                    tableKept = true;
+                }
+            }
+            return prepared;
+        }
+    }
+
+    /**
+     * Classifies the pixels of a slice, tile by tile.
+     */
+    private final class SliceProcessor implements TileEngine.TileProcessor {
+
+        // Image pixels.
+        private final int[] pixels;
+        private final int width;
+
+        // ROI mask, and its bounds.
+        private final byte[] mask;
+        private final int mX;
+        private final int mY;
+        private final int mW;
+
+        // Slice number.
+        private final int slice;
+
+        // 8-bit (binary or label) output, or null to write RGB pixels.
+        private final byte[] output;
+
+        // Class of each pixel when counting objects, otherwise null.
+        private final byte[] classMap;
+
+        // Measured ROIs and their counts when measuring ROIs, otherwise null.
+        private final RoiIndex rois;
+        private final RoiStatistics roiStatistics;
+
+        // Parameters, class look-up table, and class colours.
+        private final Palette runPalette;
+
+        // Classes of the image's distinct colours, if they were collected instead of using the look-up table.
+        private final UniqueColours colourClasses;
+
+        // Cached classification when previewing, otherwise null.
+        private final PreviewCache cache;
+
+        // Decimated image and its level when previewing a zoomed-out image, otherwise null and 0.
+        private final PreviewPyramid pyramid;
+        private final int level;
+
+        // Original pixels (the runner's snapshot) and ROI rectangle of a coarse preview.
+        private final int[] source;
+        private final Rectangle bounds;
+
+        /**
+         * Create a processor for a slice.
+         *
+         * @param ip    the slice's processor.
+         * @param slice the slice number (one-based).
+         */
+        private SliceProcessor(final ImageProcessor ip, final int slice) {
+
+            pixels = (int[]) ip.getPixels();
+            width = ip.getWidth();
 
             // ROI rectangle (used for masking).
-            final byte[] mask;
-            final int mX;
-            final int mY;
-            final int mW;
             if (image.getRoi() != null && image.getMask() != null) {
 
                 mask = (byte[]) image.getMask().getPixels();
@@ -722,14 +1322,76 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
                 mW = 0;
             }
 
-            // ROI rectangle (used for parallel processing).
-            final Rectangle roiRect = ip.getRoi();
-            final int rX = roiRect.x;
-            final int rY = roiRect.y;
-            final int rW = roiRect.width;
-            final int rH = roiRect.height;
+            this.slice = slice;
+            runPalette = getPalette();
+            colourClasses = uniqueColours;
+
+            // Write binary or labels straight to 8-bit unless previewing, as a preview must be shown in the RGB image.
+            final HueColoursConfig sliceConfig = runPalette.config;
+            final boolean preview = previewing;
+            output = (sliceConfig.isBinarize() || sliceConfig.isLabels()) && sliceConfig.isFiltering() && !preview ?
+                    getOutputSlice(ip, slice) : null;
+            classMap = sliceConfig.isObjects() && !preview ? getClassSlice(ip, slice) : null;
+            rois = sliceConfig.isRois() && !preview ? getRoiIndex(ip) : null;
+            roiStatistics = rois == null ? null : getSliceRoiStatistics(rois, slice);
+
+            // The runner's snapshot holds a preview's original pixels.
+            final Object snapshot = preview ? ip.getSnapshotPixels() : null;
+            final int[] original = snapshot instanceof int[] && ((int[]) snapshot).length == pixels.length ?
+                    (int[]) snapshot : null;
+            source = original == null ? pixels : original;
+            bounds = original == null ? null : getRoiRect(image);
+
+            // Previews of a zoomed-out image classify a decimated copy first.
+            final int previewLevel = original != null && sliceConfig.isFiltering() ? getPreviewLevel() : 0;
+            if (previewLevel > 0) {
+
+                pyramid = getPreviewPyramid(source, width, ip.getHeight());
+                level = Math.min(previewLevel, pyramid.getMaxLevel());
+                cache = null;
+                nextPreviewGeneration();
+            } else {
+
+                pyramid = null;
+                level = 0;
+
+                // Previews reuse the classification of earlier previews.
+                cache = preview ? getPreviewCache(ip) : null;
+            }
+        }
+
+        @Override
+        public void processTile(final int rX, final int rY, final int rW, final int rH) {
 
-            // Loop through ROI rectangle (it is clipped against the mask ROI).
+            final long start = FilterMetrics.start();
+            if (pyramid != null) {
+
+                previewTile(rX, rY, rW, rH, null);
+                progress.add((long) rW * rH);
+                metrics.record(FilterMetrics.Stage.CLASSIFICATION, start, (long) rW * rH);
+                return;
+            }
+
+            final HueColoursConfig runConfig = runPalette.config;
+            final ClassificationTable table =
+                    cache == null && colourClasses == null ? runPalette.getTable() : null;
+            final boolean[] selected = runPalette.selected;
+            final int[] colours = runPalette.colours;
+            final byte[] outputs = runPalette.outputs;
+
+            // This tile's class counts, and the classes of a row and per-ROI counts if it overlaps measured ROIs.
+            final long[] counts = runConfig.isMeasure() ? ClassStatistics.newCounts() : null;
+            final boolean measureRois = rois != null && rois.hasRuns(rY, rH);
+            final byte[] rowClasses = measureRois ? new byte[rW] : null;
+            final long[] roiCounts = measureRois ? rois.newCounts() : null;
+            final boolean filtering = runConfig.isFiltering();
+
+            // Bring the cached classes of the tile's rows up to date.
+            if (cache != null) {
+                cache.update(runConfig.getClassifier(), rY, rH);
+            }
+
+            // Loop through tile (it is clipped against the mask ROI).
             final int maxY = rY + rH;
             final int maxX = rX + rW;
             for (int y = rY; y < maxY; y++) {
@@ -737,14 +1399,34 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
                 // Calculate offsets into pixel arrays.
                 int roiOffset = rX + y * width;
                 int maskOffset = mask == null ? 0 : (y - mY) * mW + rX - mX;
+                if (rowClasses != null && mask != null) {
+                    Arrays.fill(rowClasses, ConnectedComponents.UNCLASSIFIED);
+                }
 
                 for (int x = rX; x < maxX; x++) {
 
                     // Perform calculation (if masked).
                     if (mask == null || mask[maskOffset] != 0) {
 
-                        // Calculate hue.
-                        pixels[roiOffset] = calculateHueColour(pixels[roiOffset]);
+                        // Look up class, count it and colour pixel.
+                        final int pixel = pixels[roiOffset];
+                        final int hueClass = table != null ? table.classify(pixel) :
+                                cache == null ? colourClasses.classify(pixel) : cache.getClass(roiOffset);
+                        if (counts != null) {
+                            counts[hueClass]++;
+                        }
+                        if (classMap != null) {
+                            classMap[roiOffset] = (byte) hueClass;
+                        }
+                        if (rowClasses != null) {
+                            rowClasses[x - rX] = (byte) hueClass;
+                        }
+                        if (output != null) {
+                            output[roiOffset] = outputs[hueClass];
+                        } else if (filtering) {
+                            pixels[roiOffset] =
+                                    selected[hueClass] ? colours[hueClass] : runConfig.getBackgroundColour(pixel);
+                        }
                     }
 
                     // Increment offsets.
@@ -752,10 +1434,78 @@ public class HueColoursFilter implements ExtendedPlugInFilter, DialogListener {
                     maskOffset++;
                 }
 
-                IJ.showProgress(progress++, height - 1);
+                if (rowClasses != null) {
+                    rois.count(y, rX, rowClasses, rW, slice, roiCounts);
+                }
+                progress.add(rW);
             }
-        } catch (final Throwable e) {
-            IJ.error("Runtime Error", e.getMessage());
+
+            if (counts != null) {
+                statistics.add(counts);
+                getSliceStatistics(slice).add(counts);
+            }
+            if (roiCounts != null) {
+                roiStatistics.add(roiCounts);
+            }
+            metrics.record(FilterMetrics.Stage.CLASSIFICATION, start, (long) rW * rH);
+        }
+
+        /**
+         * Colours a tile of a coarse preview from the original pixels, without counting classes.
+         *
+         * @param table the look-up table, or null to use the classes of the pyramid level.
+         */
+        private void previewTile(final int rX, final int rY, final int rW, final int rH,
+                                 final ClassificationTable table) {
+
+            final HueColoursConfig runConfig = runPalette.config;
+            final boolean[] selected = runPalette.selected;
+            final int[] colours = runPalette.colours;
+            final PreviewCache levelClasses = table == null ? pyramid.classify(runConfig.getClassifier(), level) : null;
+            final int levelWidth = pyramid.getWidth(level);
+
+            final int maxY = rY + rH;
+            final int maxX = rX + rW;
+            for (int y = rY; y < maxY; y++) {
+
+                int roiOffset = rX + y * width;
+                int maskOffset = mask == null ? 0 : (y - mY) * mW + rX - mX;
+                final int levelOffset = (y >> level) * levelWidth;
+
+                for (int x = rX; x < maxX; x++) {
+
+                    if (mask == null || mask[maskOffset] != 0) {
+
+                        final int pixel = source[roiOffset];
+                        final int hueClass = table == null ?
+                                levelClasses.getClass(levelOffset + (x >> level)) : table.classify(pixel);
+                        pixels[roiOffset] =
+                                selected[hueClass] ? colours[hueClass] : runConfig.getBackgroundColour(pixel);
+                    }
+                    roiOffset++;
+                    maskOffset++;
+                }
+            }
+        }
+
+        /**
+         * Replaces a coarse preview by the full-resolution one, row by row, unless another preview starts.
+         *
+         * @param generation the number of the preview.
+         */
+        private void refine(final int generation) {
+
+            final ClassificationTable table = runPalette.getTable(false);
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                synchronized (previewLock) {
+
+                    if (previewGeneration != generation) {
+                        return;
+                    }
+                    previewTile(bounds.x, y, bounds.width, 1, table);
+                }
+            }
+            image.updateAndDraw();
         }
     }
 }
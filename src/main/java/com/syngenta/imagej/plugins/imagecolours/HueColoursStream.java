@@ -0,0 +1,192 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ij.process.ColorProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Applies the HueColoursFilter to a TIFF too large for the heap, band by band.
+ * <p>
+ * Bands of rows are read from an uncompressed RGB TIFF (see {@link TiffStripReader}), filtered and written to the
+ * output TIFF as strips, so memory use is fixed by the band size whatever the image size. Each band is processed by
+ * the filter itself, so the results are the same as filtering the whole image, as long as there's no ROI.
+ */
+public class HueColoursStream {
+
+    /**
+     * Default number of pixels per band.
+     */
+    public static final int DEFAULT_BAND_PIXELS = 1 << 22;
+
+    // Usage message.
+    private static final String USAGE = "usage: HueColoursStream [-band-pixels <n>] [-options \"<filter options>\"] " +
+            "<input_tiff> <output_tiff>";
+
+    // Command-line flags.
+    private static final String BAND_PIXELS_FLAG = "-band-pixels";
+    private static final String OPTIONS_FLAG = "-options";
+
+    // Statistics and label table file suffixes.
+    private static final String STATISTICS_SUFFIX = "-statistics.csv";
+    private static final String LABELS_SUFFIX = "-labels.csv";
+
+    // Nanoseconds per second.
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    // Filter parameters.
+    private final HueColoursConfig config;
+
+    // Target number of pixels per band.
+    private final int bandPixels;
+
+    /**
+     * Create a stream processor.
+     *
+     * @param config     filter parameters.
+     * @param bandPixels target number of pixels per band.
+     */
+    public HueColoursStream(final HueColoursConfig config, final int bandPixels) {
+
+        this.config = config;
+        this.bandPixels = bandPixels;
+    }
+
+    public static void main(final String... args) throws IOException {
+
+        // Process command-line args.
+        int bandPixels = DEFAULT_BAND_PIXELS;
+        String options = null;
+        int arg = 0;
+        try {
+            for (; arg < args.length - 2 && args[arg].startsWith("-"); arg += 2) {
+                if (BAND_PIXELS_FLAG.equals(args[arg])) {
+                    bandPixels = Integer.parseInt(args[arg + 1]);
+                } else if (OPTIONS_FLAG.equals(args[arg])) {
+                    options = args[arg + 1];
+                } else {
+                    throw new IllegalArgumentException("Unknown flag: " + args[arg]);
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            arg = args.length;
+        }
+        if (args.length - arg != 2) {
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+        final File input = new File(args[arg]);
+        final File output = new File(args[arg + 1]);
+
+        // Use the filter's defaults if no options are given.
+        final HueColoursConfig config =
+                options == null ? HueColoursConfig.builder().build() : HueColoursConfig.fromOptions(options);
+
+        // Process the image.
+        final long start = System.nanoTime();
+        final ClassStatistics statistics = new HueColoursStream(config, bandPixels).process(input, output);
+        final double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        // Write statistics.
+        if (config.isMeasure()) {
+            final ResultsTable table = new ResultsTable();
+            statistics.addTo(table, input.getName());
+            table.saveAs(new File(output.getParentFile(), getBaseName(output) + STATISTICS_SUFFIX).getPath());
+        }
+
+        // Write the label table.
+        if (config.isLabels() && config.isFiltering()) {
+            ClassLabels.createTable(config.getClassTable().getColours())
+                    .saveAs(new File(output.getParentFile(), getBaseName(output) + LABELS_SUFFIX).getPath());
+        }
+
+        // Report throughput.
+        long pixels = 0L;
+        for (final long count : statistics.getCounts()) {
+            pixels += count;
+        }
+        System.out.println(String.format(Locale.ROOT, "Processed %s in %.2fs%s", input, seconds,
+                pixels > 0L ? String.format(Locale.ROOT, ": %.0f pixels/s", pixels / seconds) : ""));
+    }
+
+    private static String getBaseName(final File file) {
+
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Filter a TIFF band by band.
+     *
+     * @param input  the RGB TIFF to filter.
+     * @param output the TIFF to write: RGB, 8-bit when binarizing, or 8-bit with the label colour map for label output;
+     *               ignored if only measuring (may be null).
+     * @return the class counts of the whole image (empty unless measuring).
+     * @throws IOException if the input can't be read or the output can't be written.
+     */
+    public ClassStatistics process(final File input, final File output) throws IOException {
+
+        final ClassStatistics statistics = new ClassStatistics();
+        final TiffStripReader reader = new TiffStripReader(input);
+        try {
+
+            // Band height: whole strips or tile rows if they are small enough.
+            final int width = reader.getWidth();
+            final int height = reader.getHeight();
+            final int chunkRows = reader.getRowsPerChunk();
+            final int targetRows = Math.max(1, bandPixels / width);
+            final int bandRows =
+                    Math.min(height, targetRows >= chunkRows ? targetRows / chunkRows * chunkRows : targetRows);
+
+            // Writer, if filtering.
+            final boolean eightBit = (config.isBinarize() || config.isLabels()) && config.isFiltering();
+            final TiffStripWriter writer = config.isFiltering() ?
+                    new TiffStripWriter(output, width, height, eightBit ? 1 : 3, bandRows) : null;
+            try {
+                if (writer != null && config.isLabels()) {
+                    writer.setColourMap(ClassLabels.getColours(config.getClassTable().getColours()));
+                }
+
+                final HueColoursFilter filter = new HueColoursFilter(config, true);
+                int[] band = new int[bandRows * width];
+                for (int y = 0; y < height; y += bandRows) {
+
+                    // The last band may be shorter.
+                    final int rows = Math.min(bandRows, height - y);
+                    if (band.length != rows * width) {
+                        band = new int[rows * width];
+                    }
+                    reader.readRows(y, rows, band);
+
+                    // Filter the band.
+                    final ImagePlus bandImage = new ImagePlus(input.getName(), new ColorProcessor(width, rows, band));
+                    filter.apply(bandImage);
+                    if (config.isMeasure()) {
+                        statistics.add(filter.getStatistics().getCounts());
+                    }
+
+                    // Write it.
+                    if (writer != null) {
+                        if (eightBit) {
+                            writer.writeRows((byte[]) bandImage.getProcessor().getPixels(), rows);
+                        } else {
+                            writer.writeRows((int[]) bandImage.getProcessor().getPixels(), rows);
+                        }
+                    }
+                }
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,29 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+/**
+ * Classifies pixels in bulk with a {@link HueClassifier}, e.g. with SIMD instructions.
+ * <p>
+ * Kernels are optional: they're found with {@link java.util.ServiceLoader}, and {@link HueClassifier} classifies one
+ * pixel at a time if there is none, or none that can run on this JVM. A kernel must give exactly the same classes as
+ * {@link HueClassifier#classify(int)}.
+ */
+public interface HueKernel {
+
+    /**
+     * Whether the kernel can run, and is faster than classifying one pixel at a time, on this JVM and CPU.
+     *
+     * @return true if the kernel should be used.
+     */
+    boolean isAvailable();
+
+    /**
+     * Classifies pixels. Classes are written at the same indices as the pixels.
+     *
+     * @param classifier the classifier.
+     * @param pixels     packed RGB pixels.
+     * @param offset     index of the first pixel to classify.
+     * @param length     number of pixels to classify.
+     * @param classes    receives the class indices.
+     */
+    void classify(HueClassifier classifier, int[] pixels, int offset, int length, byte[] classes);
+}
@@ -0,0 +1,59 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Finds the {@link HueKernel}, if any, that {@link HueClassifier} classifies in bulk with.
+ */
+final class HueKernels {
+
+    /**
+     * Name of the system property that, if "false", stops kernels from being used.
+     */
+    static final String ENABLED_PROPERTY = "hue.colours.kernels";
+
+    // The first available kernel, or null.
+    private static final HueKernel KERNEL = load();
+
+    private HueKernels() {
+    }
+
+    /**
+     * Gets the kernel to classify with.
+     *
+     * @return the kernel, or null to classify one pixel at a time.
+     */
+    static HueKernel getKernel() {
+        return KERNEL;
+    }
+
+    /**
+     * Finds the first available kernel. A kernel built for a later JVM, or that needs a module that isn't present,
+     * fails to load and is skipped.
+     */
+    private static HueKernel load() {
+
+        if ("false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY))) {
+            return null;
+        }
+        try {
+            final Iterator<HueKernel> kernels =
+                    ServiceLoader.load(HueKernel.class, HueKernel.class.getClassLoader()).iterator();
+            while (kernels.hasNext()) {
+                try {
+                    final HueKernel kernel = kernels.next();
+                    if (kernel.isAvailable()) {
+                        return kernel;
+                    }
+                } catch (final ServiceConfigurationError | LinkageError ignored) {
+                    // Try the next kernel.
+                }
+            }
+        } catch (final ServiceConfigurationError ignored) {
+            // No usable kernels.
+        }
+        return null;
+    }
+}
@@ -0,0 +1,239 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import static com.syngenta.imagej.plugins.imagecolours.HueColoursConfig.*;
+
+import java.util.Arrays;
+
+/**
+ * Assigns RGB colours to {@link HueColourClass}es in CIE LCh, i.e. by perceptual lightness, chroma and hue.
+ * <p>
+ * Colours with little chroma are split into black, grey and white by lightness; all others are classified by hue
+ * angle, and by lightness into light and dark variants. Unlike HSV value, lightness follows perceived brightness,
+ * so dark saturated tissue isn't mistaken for black or grey. Colours are converted with the piecewise tables of
+ * {@link ColourSpaceUtilities}; classifying is meant to be precompiled into a {@link ClassificationTable}.
+ */
+public final class LchClassifier implements ColourClassifier {
+
+    /**
+     * Number of hue bins, one per hue: red, orange, yellow, yellow-green, green, aqua, blue and magenta.
+     */
+    public static final int HUE_BINS = 8;
+
+    /**
+     * Default hue boundaries (degrees): the LCh hues of the HSV classifier's boundaries at full saturation and value.
+     */
+    public static final double[] DEFAULT_HUE_BOUNDARIES = {13.0, 42.0, 76.0, 112.0, 135.0, 151.0, 176.0, 321.0};
+
+    // Degrees in a circle.
+    private static final double FULL_CIRCLE = 360.0;
+
+    // Class indices.
+    private static final int BLACK = HueColourClass.BLACK.ordinal();
+    private static final int GREY = HueColourClass.GREY.ordinal();
+    private static final int WHITE = HueColourClass.WHITE.ordinal();
+
+    // Classes of light and dark colours in each hue bin.
+    private static final int[] LIGHT_BIN_CLASSES =
+            {HueColourClass.RED.ordinal(), HueColourClass.ORANGE.ordinal(), HueColourClass.LIGHT_YELLOW.ordinal(),
+                    HueColourClass.LIGHT_YELLOW_GREEN.ordinal(), HueColourClass.LIGHT_GREEN.ordinal(),
+                    HueColourClass.AQUA.ordinal(), HueColourClass.LIGHT_BLUE.ordinal(),
+                    HueColourClass.MAGENTA.ordinal()};
+    private static final int[] DARK_BIN_CLASSES =
+            {HueColourClass.RED.ordinal(), HueColourClass.BROWN.ordinal(), HueColourClass.DARK_YELLOW.ordinal(),
+                    HueColourClass.DARK_YELLOW_GREEN.ordinal(), HueColourClass.DARK_GREEN.ordinal(),
+                    HueColourClass.AQUA.ordinal(), HueColourClass.DARK_BLUE.ordinal(),
+                    HueColourClass.MAGENTA.ordinal()};
+
+    // Classification thresholds.
+    private final double blackMax;
+    private final double whiteMin;
+    private final double lightDarkCutoff;
+    private final double chromaMin;
+    private final double[] hueBoundaries;
+
+    // Angle of each hue boundary from the first, increasing.
+    private final double[] hueOffsets;
+
+    /**
+     * Create a classifier.
+     *
+     * @param blackMax        largest lightness (0-100) of black.
+     * @param whiteMin        smallest lightness of white.
+     * @param lightDarkCutoff smallest lightness of light colours.
+     * @param chromaMin       smallest chroma of colours that aren't greys.
+     * @param hueBoundaries   hue angles (degrees) at which the red, orange, yellow, yellow-green, green, aqua, blue
+     *                        and magenta bins start, in order round the circle; each bin ends (inclusive) where the
+     *                        next starts.
+     */
+    public LchClassifier(final double blackMax, final double whiteMin, final double lightDarkCutoff,
+                         final double chromaMin, final double... hueBoundaries) {
+
+        if (hueBoundaries.length != HUE_BINS) {
+            throw new IllegalArgumentException(
+                    "There must be " + HUE_BINS + " hue boundaries: " + Arrays.toString(hueBoundaries));
+        }
+        this.blackMax = blackMax;
+        this.whiteMin = whiteMin;
+        this.lightDarkCutoff = lightDarkCutoff;
+        this.chromaMin = chromaMin;
+        this.hueBoundaries = hueBoundaries.clone();
+
+        // The boundaries must go once round the circle.
+        hueOffsets = new double[HUE_BINS];
+        for (int i = 1; i < HUE_BINS; i++) {
+            hueOffsets[i] = getOffset(hueBoundaries[i], hueBoundaries[0]);
+            if (hueOffsets[i] <= hueOffsets[i - 1]) {
+                throw new IllegalArgumentException(
+                        "Hue boundaries must increase round the circle: " + Arrays.toString(hueBoundaries));
+            }
+        }
+    }
+
+    /**
+     * Gets the angle of a hue from a boundary, going round the circle.
+     */
+    private static double getOffset(final double hue, final double boundary) {
+
+        final double offset = (hue - boundary) % FULL_CIRCLE;
+        return offset < 0.0 ? offset + FULL_CIRCLE : offset;
+    }
+
+    public double getBlackMax() {
+        return blackMax;
+    }
+
+    public double getWhiteMin() {
+        return whiteMin;
+    }
+
+    public double getLightDarkCutoff() {
+        return lightDarkCutoff;
+    }
+
+    public double getChromaMin() {
+        return chromaMin;
+    }
+
+    /**
+     * Gets the hue angles at which the hue bins start.
+     *
+     * @return the boundaries (degrees).
+     */
+    public double[] getHueBoundaries() {
+        return hueBoundaries.clone();
+    }
+
+    @Override
+    public int classify(final int pixel) {
+        return classify(pixel, new float[3]);
+    }
+
+    @Override
+    public void classify(final int[] pixels, final int offset, final int length, final byte[] classes) {
+
+        // Each pixel is converted in the same scratch array, rather than into planar arrays as long as the input.
+        final float[] lch = new float[3];
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            classes[i] = (byte) classify(pixels[i], lch);
+        }
+    }
+
+    /**
+     * Classifies a pixel, converting it to LCh in a scratch array.
+     */
+    private int classify(final int pixel, final float[] lch) {
+
+        ColourSpaceUtilities.convertRgb2Lab(Rgb24Bit.red(pixel), Rgb24Bit.green(pixel), Rgb24Bit.blue(pixel), lch);
+        ColourSpaceUtilities.convertLab2Lch(lch[0], lch[1], lch[2], lch);
+        return classify(lch[0], lch[1], lch[2]);
+    }
+
+    /**
+     * Classifies a colour from its LCh coordinates.
+     *
+     * @param lightness lightness (0-100).
+     * @param chroma    chroma.
+     * @param hue       hue angle (degrees).
+     * @return the class index.
+     */
+    public int classify(final double lightness, final double chroma, final double hue) {
+
+        final int result;
+        if (chroma < chromaMin) {
+            if (lightness <= blackMax) {
+                result = BLACK;
+            } else if (lightness < whiteMin) {
+                result = GREY;
+            } else {
+                result = WHITE;
+            }
+        } else {
+            final int bin = getHueBin(hue);
+            result = lightness >= lightDarkCutoff ? LIGHT_BIN_CLASSES[bin] : DARK_BIN_CLASSES[bin];
+        }
+        return result;
+    }
+
+    /**
+     * Gets the hue bin of a hue angle.
+     *
+     * @param hue hue angle (degrees).
+     * @return the bin, 0 to {@code HUE_BINS - 1}.
+     */
+    public int getHueBin(final double hue) {
+
+        // Bins end inclusively, so a hue on the first boundary is in the last bin.
+        final double offset = getOffset(hue, hueBoundaries[0]);
+        int bin = 0;
+        if (offset == 0.0) {
+            bin = HUE_BINS - 1;
+        } else {
+            while (bin < HUE_BINS - 1 && offset > hueOffsets[bin + 1]) {
+                bin++;
+            }
+        }
+        return bin;
+    }
+
+    @Override
+    public String getParameters() {
+
+        return getOptionString(LCH_PARAM_NAME, true) +
+                getOptionString(LCH_BLACK_MAX_PARAM_NAME, blackMax) +
+                getOptionString(LCH_WHITE_MIN_PARAM_NAME, whiteMin) +
+                getOptionString(LCH_LIGHT_DARK_PARAM_NAME, lightDarkCutoff) +
+                getOptionString(LCH_CHROMA_PARAM_NAME, chromaMin) +
+                getOptionString(LCH_HUE_BOUNDARIES_PARAM_NAME, formatHueBoundaries(hueBoundaries));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final LchClassifier that = (LchClassifier) o;
+        return Double.compare(that.blackMax, blackMax) == 0 && Double.compare(that.whiteMin, whiteMin) == 0 &&
+                Double.compare(that.lightDarkCutoff, lightDarkCutoff) == 0 &&
+                Double.compare(that.chromaMin, chromaMin) == 0 && Arrays.equals(hueBoundaries, that.hueBoundaries);
+    }
+
+    @Override
+    public int hashCode() {
+
+        long bits = Double.doubleToLongBits(blackMax);
+        int result = (int) (bits ^ bits >>> 32);
+        bits = Double.doubleToLongBits(whiteMin);
+        result = 31 * result + (int) (bits ^ bits >>> 32);
+        bits = Double.doubleToLongBits(lightDarkCutoff);
+        result = 31 * result + (int) (bits ^ bits >>> 32);
+        bits = Double.doubleToLongBits(chromaMin);
+        result = 31 * result + (int) (bits ^ bits >>> 32);
+        result = 31 * result + Arrays.hashCode(hueBoundaries);
+        return result;
+    }
+}
@@ -0,0 +1,216 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+/**
+ * Per-pixel classification of an image, kept between previews so that changing the parameters is incremental.
+ * <p>
+ * For each pixel the cache holds the quantities that the classification thresholds are compared with: the largest,
+ * smallest and mean RGB channels and the hue bin, together with the pixel's class. Selecting or deselecting classes
+ * then only remaps the palette, and changing a threshold only reclassifies the pixels whose quantities lie between
+ * the old and new values. Other kinds of {@link ColourClassifier} reclassify each affected row from its pixels.
+ * Rows are built and updated independently, so that {@code PARALLELIZE_IMAGES} workers can
+ * share the cache.
+ */
+final class PreviewCache {
+
+    // Number of 8-bit values.
+    private static final int BYTE_VALUES = 256;
+
+    // Packing of hue bin and class into a byte.
+    private static final int CLASS_BITS = 4;
+    private static final int CLASS_MASK = (1 << CLASS_BITS) - 1;
+
+    // Pixels the cache was built from (identity).
+    private final int[] source;
+    private final int width;
+
+    // Per-pixel quantities.
+    private final byte[] maxima;
+    private final byte[] minima;
+    private final byte[] means;
+    private final byte[] binClasses;
+
+    // Classifier each row was last classified with (null if the row hasn't been built).
+    private final ColourClassifier[] rowClassifiers;
+
+    // Which quantities are affected by the last change of classifier.
+    private volatile Changes changes;
+
+    /**
+     * Create an empty cache for an image.
+     *
+     * @param source the image's pixels.
+     * @param width  the image width.
+     * @param height the image height.
+     */
+    PreviewCache(final int[] source, final int width, final int height) {
+
+        this.source = source;
+        this.width = width;
+        maxima = new byte[width * height];
+        minima = new byte[width * height];
+        means = new byte[width * height];
+        binClasses = new byte[width * height];
+        rowClassifiers = new ColourClassifier[height];
+    }
+
+    /**
+     * Whether this cache was built for an image's pixels.
+     *
+     * @param pixels the image's pixels.
+     * @return true if the cache is for the pixels.
+     */
+    boolean isFor(final int[] pixels) {
+        return pixels == source;
+    }
+
+    /**
+     * Brings the classes of a band of rows up to date. Bands processed concurrently must not overlap.
+     *
+     * @param classifier the classifier.
+     * @param y          the first row.
+     * @param rows       the number of rows.
+     */
+    void update(final ColourClassifier classifier, final int y, final int rows) {
+
+        for (int row = y; row < y + rows; row++) {
+
+            final ColourClassifier rowClassifier = rowClassifiers[row];
+            if (rowClassifier == null) {
+                buildRow(classifier, row);
+            } else if (isSameTable(rowClassifier, classifier)) {
+                if (!rowClassifier.equals(classifier)) {
+                    reclassifyRow(getChanges((HueClassifier) rowClassifier, (HueClassifier) classifier), row);
+                }
+            } else if (classifier instanceof HueClassifier) {
+
+                // Hue bins are ranges of the class table, so are found again.
+                buildRow(classifier, row);
+            } else if (!rowClassifier.equals(classifier)) {
+                reclassifyRow(classifier, row);
+            }
+            rowClassifiers[row] = classifier;
+        }
+    }
+
+    /**
+     * Whether two classifiers are both {@link HueClassifier}s with the same class table, i.e. hue bins.
+     */
+    private static boolean isSameTable(final ColourClassifier from, final ColourClassifier to) {
+
+        return from instanceof HueClassifier && to instanceof HueClassifier &&
+                ((HueClassifier) from).getClassTable().equals(((HueClassifier) to).getClassTable());
+    }
+
+    /**
+     * Gets the class of a pixel. The pixel's row must be up to date.
+     *
+     * @param index the pixel index.
+     * @return the class index.
+     */
+    int getClass(final int index) {
+        return binClasses[index] & CLASS_MASK;
+    }
+
+    /**
+     * Computes the quantities and class of every pixel in a row.
+     */
+    private void buildRow(final ColourClassifier classifier, final int row) {
+
+        final HueClassifier hueClassifier = classifier instanceof HueClassifier ? (HueClassifier) classifier : null;
+        final int end = (row + 1) * width;
+        for (int i = row * width; i < end; i++) {
+
+            final int pixel = source[i];
+            final int red = Rgb24Bit.red(pixel);
+            final int green = Rgb24Bit.green(pixel);
+            final int blue = Rgb24Bit.blue(pixel);
+            final int max = Math.max(Math.max(red, green), blue);
+            final int min = Math.min(Math.min(red, green), blue);
+            final int mean = (red + green + blue) / 3;
+            final int hueBin = hueClassifier == null ? 0 :
+                    hueClassifier.getBin(ColourSpaceUtilities.getHue(red, green, blue));
+
+            maxima[i] = (byte) max;
+            minima[i] = (byte) min;
+            means[i] = (byte) mean;
+            if (hueClassifier != null) {
+                binClasses[i] = (byte) (hueBin << CLASS_BITS | hueClassifier.classify(hueBin, max, min, mean));
+            }
+        }
+        if (hueClassifier == null) {
+            reclassifyRow(classifier, row);
+        }
+    }
+
+    /**
+     * Reclassifies every pixel in a row in bulk. The hue bins are cleared, as only {@link HueClassifier}s use them.
+     */
+    private void reclassifyRow(final ColourClassifier classifier, final int row) {
+        classifier.classify(source, row * width, width, binClasses);
+    }
+
+    /**
+     * Reclassifies the pixels in a row whose quantities are affected by a change of classifier.
+     */
+    private void reclassifyRow(final Changes rowChanges, final int row) {
+
+        final int end = (row + 1) * width;
+        for (int i = row * width; i < end; i++) {
+
+            final int max = maxima[i] & 0xff;
+            final int min = minima[i] & 0xff;
+            final int mean = means[i] & 0xff;
+            if (rowChanges.grey[max << 8 | min] || rowChanges.light[max] || rowChanges.mean[mean]) {
+
+                final int hueBin = (binClasses[i] & 0xff) >> CLASS_BITS;
+                binClasses[i] = (byte) (hueBin << CLASS_BITS | rowChanges.to.classify(hueBin, max, min, mean));
+            }
+        }
+    }
+
+    /**
+     * Gets the quantities affected by a change of classifier, reusing those of the last change if it is the same.
+     */
+    private Changes getChanges(final HueClassifier from, final HueClassifier to) {
+
+        Changes current = changes;
+        if (current == null || !current.from.equals(from) || !current.to.equals(to)) {
+            current = new Changes(from, to);
+            changes = current;
+        }
+        return current;
+    }
+
+    /**
+     * The values of each quantity whose classification differs between two classifiers.
+     */
+    private static final class Changes {
+
+        // The classifiers.
+        private final HueClassifier from;
+        private final HueClassifier to;
+
+        // Whether grey/colour differs, indexed by (max << 8 | min).
+        private final boolean[] grey = new boolean[BYTE_VALUES * BYTE_VALUES];
+
+        // Whether light/dark differs, indexed by max.
+        private final boolean[] light = new boolean[BYTE_VALUES];
+
+        // Whether black/grey/white differs, indexed by mean.
+        private final boolean[] mean = new boolean[BYTE_VALUES];
+
+        private Changes(final HueClassifier from, final HueClassifier to) {
+
+            this.from = from;
+            this.to = to;
+            for (int max = 0; max < BYTE_VALUES; max++) {
+
+                for (int min = 0; min <= max; min++) {
+                    grey[max << 8 | min] = from.isGrey(max, min) != to.isGrey(max, min);
+                }
+                light[max] = from.isLight(max) != to.isLight(max);
+                mean[max] = from.classifyGrey(max) != to.classifyGrey(max);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+/**
+ * Decimated copies of an image, so that previews of a zoomed-out image classify about as many pixels as are shown.
+ * <p>
+ * Level {@code n} samples every {@code 2^n}th pixel of every {@code 2^n}th row, so its pixels are true colours of the
+ * image rather than blends of them. Levels are created when first needed and each keeps a {@link PreviewCache}, so
+ * moving a slider only reclassifies the level's affected pixels.
+ */
+final class PreviewPyramid {
+
+    // Full-resolution pixels (identity).
+    private final int[] source;
+    private final int width;
+    private final int height;
+
+    // Classification of each level (null until needed), indexed by level.
+    private final PreviewCache[] levels;
+
+    /**
+     * Create an empty pyramid for an image.
+     *
+     * @param source the image's pixels.
+     * @param width  the image width.
+     * @param height the image height.
+     */
+    PreviewPyramid(final int[] source, final int width, final int height) {
+
+        this.source = source;
+        this.width = width;
+        this.height = height;
+        levels = new PreviewCache[getMaxLevel(width, height) + 1];
+    }
+
+    /**
+     * Gets the level whose resolution matches a display magnification, i.e. the number of times the image can be
+     * halved before it is smaller than shown.
+     *
+     * @param magnification the display magnification.
+     * @return the level (0 if the image is shown at full size or larger).
+     */
+    static int getLevel(final double magnification) {
+
+        int level = 0;
+        for (double scale = magnification * 2.0; scale <= 1.0; scale *= 2.0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Gets the coarsest level of an image, at which it is one pixel wide or high.
+     */
+    private static int getMaxLevel(final int width, final int height) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, Math.min(width, height)));
+    }
+
+    /**
+     * Whether this pyramid was built for an image's pixels.
+     *
+     * @param pixels the image's pixels.
+     * @return true if the pyramid is for the pixels.
+     */
+    boolean isFor(final int[] pixels) {
+        return pixels == source;
+    }
+
+    /**
+     * Gets the coarsest level of the image.
+     *
+     * @return the level.
+     */
+    int getMaxLevel() {
+        return levels.length - 1;
+    }
+
+    /**
+     * Gets the width of a level.
+     *
+     * @param level the level.
+     * @return its width in pixels.
+     */
+    int getWidth(final int level) {
+        return ((width - 1) >> level) + 1;
+    }
+
+    /**
+     * Gets the height of a level.
+     *
+     * @param level the level.
+     * @return its height in pixels.
+     */
+    int getHeight(final int level) {
+        return ((height - 1) >> level) + 1;
+    }
+
+    /**
+     * Classifies every pixel of a level, creating the level if necessary.
+     *
+     * @param classifier the classifier.
+     * @param level      the level, from 1 to {@link #getMaxLevel()}.
+     * @return the level's classes, indexed by {@code (y >> level) * getWidth(level) + (x >> level)}.
+     */
+    synchronized PreviewCache classify(final ColourClassifier classifier, final int level) {
+
+        final int levelWidth = getWidth(level);
+        final int levelHeight = getHeight(level);
+        PreviewCache cache = levels[level];
+        if (cache == null) {
+
+            // Decimate the image.
+            final int[] pixels = new int[levelWidth * levelHeight];
+            for (int y = 0, i = 0; y < levelHeight; y++) {
+
+                final int offset = (y << level) * width;
+                for (int x = 0; x < levelWidth; x++) {
+                    pixels[i++] = source[offset + (x << level)];
+                }
+            }
+            cache = new PreviewCache(pixels, levelWidth, levelHeight);
+            levels[level] = cache;
+        }
+        cache.update(classifier, 0, levelHeight);
+        return cache;
+    }
+}
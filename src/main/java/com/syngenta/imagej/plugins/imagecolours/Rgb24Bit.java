@@ -1,7 +1,12 @@
 package com.syngenta.imagej.plugins.imagecolours;
 
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
 import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 24-bit RGB colour utilities.
@@ -45,6 +50,58 @@ public class Rgb24Bit {
         return ((vals[0] & B_BYTE_MASK) << 16) + ((vals[1] & B_BYTE_MASK) << 8) + (vals[2] & B_BYTE_MASK);
     }
 
+    /**
+     * Pack red, green, blue 8-bit values into a 24-bit value without allocating a triple.
+     *
+     * @param red   red channel.
+     * @param green green channel.
+     * @param blue  blue channel.
+     * @return the packed value.
+     */
+    public static int pack(final int red, final int green, final int blue) {
+        return ((red & B_BYTE_MASK) << 16) + ((green & B_BYTE_MASK) << 8) + (blue & B_BYTE_MASK);
+    }
+
+    /**
+     * Gets the red channel of a 24-bit value.
+     *
+     * @param val the 24-bit value.
+     * @return the red 8-bit value.
+     */
+    public static int red(final int val) {
+        return (val & R_BYTE_MASK) >> 16;
+    }
+
+    /**
+     * Gets the green channel of a 24-bit value.
+     *
+     * @param val the 24-bit value.
+     * @return the green 8-bit value.
+     */
+    public static int green(final int val) {
+        return (val & G_BYTE_MASK) >> 8;
+    }
+
+    /**
+     * Gets the blue channel of a 24-bit value.
+     *
+     * @param val the 24-bit value.
+     * @return the blue 8-bit value.
+     */
+    public static int blue(final int val) {
+        return val & B_BYTE_MASK;
+    }
+
+    /**
+     * Gets the mean of the red, green and blue channels of a 24-bit value.
+     *
+     * @param val the 24-bit value.
+     * @return the (truncated) mean 8-bit value.
+     */
+    public static int mean(final int val) {
+        return (red(val) + green(val) + blue(val)) / 3;
+    }
+
     /**
      * Unpack red, green, blue 8-bit values into a 24-bit value.
      *
@@ -56,16 +113,58 @@ public class Rgb24Bit {
     }
 
     /**
-     * Convert to a binary image with ByteProcessor by thresholding.
+     * Convert an image processor to binary by thresholding.
+     *
+     * @param processor the processor to convert.
+     * @param level     threshold level.
+     * @return a new byte processor.
+     */
+    public static ImageProcessor binarize(final ImageProcessor processor, final int level) {
+
+        final ImageProcessor binary = processor.convertToByte(false);
+        binary.threshold(level);
+        return binary;
+    }
+
+    /**
+     * Convert to a binary image with ByteProcessor by thresholding. Every slice of a stack is converted, in parallel.
      *
      * @param image the image to convert.
      * @param level threshold level.
      */
-    public static void binarizeImage(final ImagePlus image, int level) {
+    public static void binarizeImage(final ImagePlus image, final int level) {
 
         // Convert type byte image and threshold.
-        final ImageProcessor processor = image.getProcessor().convertToByte(false);
-        processor.threshold(level);
-        image.setProcessor(processor);
+        if (image.getStackSize() == 1) {
+
+            image.setProcessor(binarize(image.getProcessor(), level));
+        } else {
+
+            // Threads take slices until all are done.
+            final ImageStack stack = image.getStack();
+            final int size = stack.getSize();
+            final ImageProcessor[] processors = new ImageProcessor[size];
+            final AtomicInteger nextSlice = new AtomicInteger();
+            final Thread[] threads = ThreadUtil.createThreadArray(Math.min(Prefs.getThreads(), size));
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int n = nextSlice.getAndIncrement(); n < size; n = nextSlice.getAndIncrement()) {
+
+                            processors[n] = binarize(stack.getProcessor(n + 1), level);
+                        }
+                    }
+                };
+            }
+            ThreadUtil.startAndJoin(threads);
+
+            // Replace the stack, keeping slice labels.
+            final ImageStack binaryStack = new ImageStack(stack.getWidth(), stack.getHeight());
+            for (int n = 0; n < size; n++) {
+                binaryStack.addSlice(stack.getSliceLabel(n + 1), processors[n]);
+            }
+            image.setStack(binaryStack);
+        }
     }
 }
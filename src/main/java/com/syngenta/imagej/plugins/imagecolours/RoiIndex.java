@@ -0,0 +1,221 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * A row index of the pixels of many ROIs, e.g. the plots in the ROI Manager, so that their class counts can be
+ * accumulated in one pass over the image.
+ * <p>
+ * Each area ROI is rasterized into runs of pixels along rows, clipped to the image, and the runs of all ROIs are
+ * grouped by row. Counting a row visits only the runs on it, so the cost is one pass over the image plus one visit of
+ * each ROI pixel, however many ROIs there are; overlapping ROIs each count the pixels they share. Line and point ROIs
+ * have no area, so have no runs.
+ */
+public final class RoiIndex {
+
+    // Number of classes counted per ROI.
+    private static final int NUM_CLASSES = HueColourClass.count();
+
+    // Prefix of the names of unnamed ROIs.
+    private static final String UNNAMED_PREFIX = "ROI ";
+
+    // Name and stack position (0 for all slices) of each ROI.
+    private final String[] names;
+    private final int[] positions;
+
+    // Index of the first run of each row, and one past the last row's runs.
+    private final int[] rowStarts;
+
+    // ROI, first x and last x (exclusive) of each run, grouped by row.
+    private final int[] runRois;
+    private final int[] runStarts;
+    private final int[] runEnds;
+
+    private RoiIndex(final String[] names, final int[] positions, final int[] rowStarts, final int[] runRois,
+                     final int[] runStarts, final int[] runEnds) {
+
+        this.names = names;
+        this.positions = positions;
+        this.rowStarts = rowStarts;
+        this.runRois = runRois;
+        this.runStarts = runStarts;
+        this.runEnds = runEnds;
+    }
+
+    /**
+     * Indexes ROIs of an image.
+     *
+     * @param rois   the ROIs.
+     * @param width  width of the image.
+     * @param height height of the image.
+     * @return the index.
+     */
+    public static RoiIndex create(final Roi[] rois, final int width, final int height) {
+
+        final String[] names = new String[rois.length];
+        final int[] positions = new int[rois.length];
+
+        // Rasterize each ROI's mask into runs, in ROI order.
+        int numRuns = 0;
+        int[] rows = new int[rois.length];
+        int[] roiIndices = new int[rois.length];
+        int[] starts = new int[rois.length];
+        int[] ends = new int[rois.length];
+        for (int i = 0; i < rois.length; i++) {
+
+            final Roi roi = rois[i];
+            names[i] = roi.getName() == null ? UNNAMED_PREFIX + (i + 1) : roi.getName();
+            positions[i] = roi.getPosition();
+            if (!roi.isArea()) {
+                continue;
+            }
+
+            final Rectangle bounds = roi.getBounds();
+            final ImageProcessor mask = roi.getMask();
+            final byte[] maskPixels = mask == null ? null : (byte[]) mask.getPixels();
+            final int maskWidth = mask == null ? bounds.width : mask.getWidth();
+            final int minX = Math.max(bounds.x, 0);
+            final int maxX = Math.min(bounds.x + bounds.width, width);
+            final int minY = Math.max(bounds.y, 0);
+            final int maxY = Math.min(bounds.y + bounds.height, height);
+            for (int y = minY; y < maxY; y++) {
+
+                final int maskOffset = (y - bounds.y) * maskWidth - bounds.x;
+                int x = minX;
+                while (x < maxX) {
+
+                    // Find the next run of the row in the mask (all of it for a rectangle).
+                    while (x < maxX && maskPixels != null && maskPixels[maskOffset + x] == 0) {
+                        x++;
+                    }
+                    final int start = x;
+                    while (x < maxX && (maskPixels == null || maskPixels[maskOffset + x] != 0)) {
+                        x++;
+                    }
+                    if (x > start) {
+
+                        if (numRuns == rows.length) {
+                            final int capacity = 2 * rows.length + 1;
+                            rows = Arrays.copyOf(rows, capacity);
+                            roiIndices = Arrays.copyOf(roiIndices, capacity);
+                            starts = Arrays.copyOf(starts, capacity);
+                            ends = Arrays.copyOf(ends, capacity);
+                        }
+                        rows[numRuns] = y;
+                        roiIndices[numRuns] = i;
+                        starts[numRuns] = start;
+                        ends[numRuns] = x;
+                        numRuns++;
+                    }
+                }
+            }
+        }
+
+        // Group the runs by row, keeping ROI order within rows.
+        final int[] rowStarts = new int[height + 1];
+        for (int i = 0; i < numRuns; i++) {
+            rowStarts[rows[i] + 1]++;
+        }
+        for (int y = 0; y < height; y++) {
+            rowStarts[y + 1] += rowStarts[y];
+        }
+        final int[] next = Arrays.copyOf(rowStarts, height);
+        final int[] runRois = new int[numRuns];
+        final int[] runStarts = new int[numRuns];
+        final int[] runEnds = new int[numRuns];
+        for (int i = 0; i < numRuns; i++) {
+
+            final int j = next[rows[i]]++;
+            runRois[j] = roiIndices[i];
+            runStarts[j] = starts[i];
+            runEnds[j] = ends[i];
+        }
+        return new RoiIndex(names, positions, rowStarts, runRois, runStarts, runEnds);
+    }
+
+    /**
+     * Gets the number of ROIs.
+     *
+     * @return the count.
+     */
+    public int getRoiCount() {
+        return names.length;
+    }
+
+    /**
+     * Gets the name of a ROI: its name in the ROI Manager, or "ROI n" if it has none.
+     *
+     * @param roi the ROI number, in the order the ROIs were indexed.
+     * @return the name.
+     */
+    public String getName(final int roi) {
+        return names[roi];
+    }
+
+    /**
+     * Whether a ROI applies to a slice, i.e. it has no stack position or it's on the slice.
+     *
+     * @param roi   the ROI number.
+     * @param slice the slice number (one-based).
+     * @return true if the ROI's pixels on the slice are counted.
+     */
+    public boolean isOnSlice(final int roi, final int slice) {
+        return positions[roi] == 0 || positions[roi] == slice;
+    }
+
+    /**
+     * Whether any ROI has pixels in a band of rows.
+     *
+     * @param y      the first row.
+     * @param height the number of rows.
+     * @return true if there are pixels to count.
+     */
+    public boolean hasRuns(final int y, final int height) {
+        return rowStarts[y] != rowStarts[y + height];
+    }
+
+    /**
+     * Creates an array for a tile's counts.
+     *
+     * @return an array of zero counts, indexed by ROI number times the number of classes plus class index.
+     */
+    public long[] newCounts() {
+        return new long[names.length * NUM_CLASSES];
+    }
+
+    /**
+     * Counts the classes of part of a row in each ROI that covers it.
+     *
+     * @param y       the row.
+     * @param x       the first x of the part.
+     * @param classes the class of each pixel of the part, or {@link ConnectedComponents#UNCLASSIFIED}.
+     * @param length  the length of the part.
+     * @param slice   the slice number, to skip ROIs on other slices.
+     * @param counts  the counts to add to (see {@link #newCounts()}).
+     */
+    public void count(final int y, final int x, final byte[] classes, final int length, final int slice,
+                      final long[] counts) {
+
+        final int end = x + length;
+        for (int i = rowStarts[y]; i < rowStarts[y + 1]; i++) {
+
+            final int roi = runRois[i];
+            final int runStart = Math.max(runStarts[i], x);
+            final int runEnd = Math.min(runEnds[i], end);
+            if (runStart < runEnd && isOnSlice(roi, slice)) {
+
+                final int base = roi * NUM_CLASSES;
+                for (int j = runStart - x; j < runEnd - x; j++) {
+                    final int hueClass = classes[j];
+                    if (hueClass >= 0) {
+                        counts[base + hueClass]++;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.measure.ResultsTable;
+
+import java.util.Arrays;
+
+/**
+ * Per-class pixel counts of each ROI of a {@link RoiIndex} on one slice, accumulated by several threads.
+ * <p>
+ * Tiles count into their own arrays, from {@link RoiIndex#newCounts()}, which are summed as they are added rather than
+ * kept, as there may be many ROIs.
+ */
+public class RoiStatistics {
+
+    // Number of classes counted per ROI.
+    private static final int NUM_CLASSES = HueColourClass.count();
+
+    // The ROIs, and the slice they were counted on.
+    private final RoiIndex index;
+    private final int slice;
+
+    // Counts, indexed by ROI number times the number of classes plus class index. Guarded by this.
+    private final long[] totals;
+
+    /**
+     * Create empty statistics.
+     *
+     * @param index the ROIs.
+     * @param slice the slice number (one-based).
+     */
+    public RoiStatistics(final RoiIndex index, final int slice) {
+
+        this.index = index;
+        this.slice = slice;
+        totals = index.newCounts();
+    }
+
+    /**
+     * Adds a tile's counts.
+     *
+     * @param counts the counts (see {@link RoiIndex#newCounts()}).
+     */
+    public synchronized void add(final long[] counts) {
+
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += counts[i];
+        }
+    }
+
+    /**
+     * Gets the count of each class in a ROI.
+     *
+     * @param roi the ROI number.
+     * @return the counts, indexed by class index.
+     */
+    public synchronized long[] getCounts(final int roi) {
+        return Arrays.copyOfRange(totals, roi * NUM_CLASSES, (roi + 1) * NUM_CLASSES);
+    }
+
+    /**
+     * Adds a row of class counts and area fractions to a results table for each ROI on the slice.
+     *
+     * @param table  the results table.
+     * @param prefix prefix of the row labels, e.g. the image title; each is followed by the ROI's name.
+     */
+    public synchronized void addTo(final ResultsTable table, final String prefix) {
+
+        for (int i = 0; i < index.getRoiCount(); i++) {
+            if (index.isOnSlice(i, slice)) {
+                ClassStatistics.addRow(table, prefix + index.getName(i), totals, i * NUM_CLASSES);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the {@link ClassificationTable}s of classifiers in files, so that a new JVM maps a table it has used before
+ * instead of building it, and processes using the same parameters share one copy in the page cache.
+ * <p>
+ * A table's file is named by a hash of its classifier's parameters (see {@link ColourClassifier#getParameters()}),
+ * which are also stored in its header to guard against collisions, with a checksum of the table. Files are written to
+ * a temporary file and renamed, so a process never maps a partly written table, and are mapped read-only once their
+ * checksum and classes have been checked. Any file that can't be read or written, or is corrupt, is ignored, and the
+ * table is built in memory instead.
+ * <p>
+ * The directory holds at most {@link #MAX_FILES} tables: the least recently used are deleted as new ones are written.
+ */
+final class TableCache {
+
+    /**
+     * Name of the system property holding the directory of the table files; if "false", tables aren't kept in files.
+     * The default is {@code .hue-colours/tables} in the user's home directory.
+     */
+    static final String DIRECTORY_PROPERTY = "hue.colours.tables";
+
+    /**
+     * Largest number of table files kept (each is 16MB).
+     */
+    static final int MAX_FILES = 8;
+
+    // Default directory, in the user's home directory.
+    private static final String DEFAULT_DIRECTORY = ".hue-colours" + File.separator + "tables";
+
+    // File name suffix.
+    private static final String SUFFIX = ".lut";
+
+    // File header: magic number ("HCLT") and format version, which must change whenever classification results do.
+    private static final int MAGIC = 0x48434c54;
+    private static final int VERSION = 2;
+
+    // Bytes in the header's fixed fields: magic, version, checksum and parameters length.
+    private static final int FIXED_HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    // Number of classes, which every stored class must be below.
+    private static final int NUM_CLASSES = HueColourClass.count();
+
+    // Tables are checksummed in blocks of this many bytes.
+    private static final int CHECKSUM_BLOCK = 1 << 16;
+
+    // Table files.
+    private static final FileFilter TABLE_FILES = new FileFilter() {
+        @Override
+        public boolean accept(final File file) {
+            return file.isFile() && file.getName().endsWith(SUFFIX);
+        }
+    };
+
+    // Encoding of the parameters.
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Algorithm hashing the parameters.
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private TableCache() {
+    }
+
+    /**
+     * Maps the table of a classifier, if it's in a file, and marks the file as recently used.
+     *
+     * @param classifier the classifier.
+     * @return the class index of each colour, or null if the table isn't in a file (or can't be read, or is corrupt).
+     */
+    static ByteBuffer load(final ColourClassifier classifier) {
+
+        final File file = getFile(classifier);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            final RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+
+                // The header must be for this classifier, and be followed by a whole table.
+                final byte[] parameters = classifier.getParameters().getBytes(UTF_8);
+                final long headerBytes = FIXED_HEADER_BYTES + parameters.length;
+                if (input.length() != headerBytes + ClassificationTable.SIZE || input.readInt() != MAGIC ||
+                        input.readInt() != VERSION) {
+                    return null;
+                }
+                final long checksum = input.readLong();
+                if (input.readInt() != parameters.length) {
+                    return null;
+                }
+                final byte[] stored = new byte[parameters.length];
+                input.readFully(stored);
+                if (!Arrays.equals(stored, parameters)) {
+                    return null;
+                }
+
+                // The table must be as written, and hold only valid classes, as they index arrays of classes.
+                final ByteBuffer classes =
+                        input.getChannel().map(FileChannel.MapMode.READ_ONLY, headerBytes, ClassificationTable.SIZE);
+                if (getChecksum(classes) != checksum) {
+                    return null;
+                }
+
+                // Mark the file as recently used (if that fails, it's only evicted sooner).
+                file.setLastModified(System.currentTimeMillis());
+                return classes;
+            } finally {
+                input.close();
+            }
+        } catch (final IOException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the table of a classifier to a file, replacing any existing file, then maps it. The least recently used
+     * files are deleted if there are more than {@link #MAX_FILES}.
+     *
+     * @param classifier the classifier.
+     * @param classes    the class index of each colour.
+     * @return the mapped table, or null if it couldn't be written.
+     */
+    static ByteBuffer save(final ColourClassifier classifier, final ByteBuffer classes) {
+
+        final File file = getFile(classifier);
+        final File directory = file == null ? null : file.getParentFile();
+        if (directory == null || !(directory.isDirectory() || directory.mkdirs())) {
+            return null;
+        }
+        File temporary = null;
+        try {
+            final long checksum = getChecksum(classes);
+            if (checksum < 0L) {
+                return null;
+            }
+            temporary = File.createTempFile(file.getName(), null, directory);
+            final byte[] parameters = classifier.getParameters().getBytes(UTF_8);
+            final FileOutputStream stream = new FileOutputStream(temporary);
+            try {
+                final DataOutputStream output = new DataOutputStream(stream);
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(checksum);
+                output.writeInt(parameters.length);
+                output.write(parameters);
+                output.flush();
+                final ByteBuffer body = classes.duplicate();
+                body.clear();
+                while (body.hasRemaining()) {
+                    stream.getChannel().write(body);
+                }
+            } finally {
+                stream.close();
+            }
+
+            // Other processes see the old file, or none, until the new one is complete.
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            evict(directory, file);
+            return load(classifier);
+        } catch (final IOException ignored) {
+            if (temporary != null && !temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the least recently used table files, other than the one just written, until at most {@link #MAX_FILES}
+     * remain. Processes that have mapped a deleted file keep their mapping.
+     */
+    private static void evict(final File directory, final File written) {
+
+        final File[] files = directory.listFiles(TABLE_FILES);
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+
+        // Most recently used first.
+        final long[] times = new long[files.length];
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            times[i] = files[i].equals(written) ? Long.MAX_VALUE : files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return Long.compare(times[b], times[a]);
+            }
+        });
+        for (int i = MAX_FILES; i < order.length; i++) {
+
+            // Another process may have deleted it already.
+            files[order[i]].delete();
+        }
+    }
+
+    /**
+     * Gets the checksum of a table, checking that it holds only valid classes.
+     *
+     * @param classes the class index of each colour.
+     * @return the CRC-32 of the table, or -1 if it holds an invalid class.
+     */
+    private static long getChecksum(final ByteBuffer classes) {
+
+        final ByteBuffer table = classes.duplicate();
+        table.clear();
+        final CRC32 crc = new CRC32();
+        final byte[] block = new byte[CHECKSUM_BLOCK];
+        while (table.hasRemaining()) {
+
+            final int length = Math.min(block.length, table.remaining());
+            table.get(block, 0, length);
+            for (int i = 0; i < length; i++) {
+                if (block[i] < 0 || block[i] >= NUM_CLASSES) {
+                    return -1L;
+                }
+            }
+            crc.update(block, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Gets the file of a classifier's table.
+     *
+     * @param classifier the classifier.
+     * @return the file, or null if tables aren't kept in files.
+     */
+    static File getFile(final ColourClassifier classifier) {
+
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if ("false".equalsIgnoreCase(directory)) {
+            return null;
+        }
+        final File parent = directory == null || directory.isEmpty() ?
+                new File(System.getProperty("user.home"), DEFAULT_DIRECTORY) : new File(directory);
+        return new File(parent, getHash(classifier.getParameters()) + SUFFIX);
+    }
+
+    /**
+     * Hashes parameters, for a file name.
+     */
+    private static String getHash(final String parameters) {
+
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance(HASH_ALGORITHM).digest(parameters.getBytes(UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256.
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (final byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
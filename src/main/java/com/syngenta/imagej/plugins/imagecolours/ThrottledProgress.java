@@ -0,0 +1,102 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.IJ;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe progress of a task, shown on ImageJ's progress bar at most once per interval.
+ * <p>
+ * Workers add the amount of work they have done; only the worker that finds the interval has elapsed updates the
+ * progress bar, so the cost per update is an atomic add and a clock read.
+ */
+public class ThrottledProgress {
+
+    /**
+     * Default interval between progress bar updates, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 50L;
+
+    // Interval between updates.
+    private final long intervalNanos;
+
+    // Work done and total work.
+    private final AtomicLong done = new AtomicLong();
+    private volatile long total;
+
+    // Time after which the next update may be shown.
+    private final AtomicLong nextUpdate = new AtomicLong();
+
+    /**
+     * Create progress with the default update interval.
+     */
+    public ThrottledProgress() {
+        this(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Create progress.
+     *
+     * @param intervalMillis minimum interval between updates, in milliseconds.
+     */
+    public ThrottledProgress(final long intervalMillis) {
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Start a task, discarding any previous progress.
+     *
+     * @param totalWork the total amount of work.
+     */
+    public void start(final long totalWork) {
+
+        done.set(0L);
+        total = totalWork;
+        nextUpdate.set(System.nanoTime() + intervalNanos);
+    }
+
+    /**
+     * Adds work done, showing progress if the update interval has elapsed.
+     *
+     * @param work the amount of work.
+     */
+    public void add(final long work) {
+
+        final long workDone = done.addAndGet(work);
+        final long now = System.nanoTime();
+        final long next = nextUpdate.get();
+        if (now - next >= 0L && nextUpdate.compareAndSet(next, now + intervalNanos)) {
+
+            final long workTotal = total;
+            if (workTotal > 0L) {
+                IJ.showProgress(Math.min(1.0, (double) workDone / workTotal));
+            }
+        }
+    }
+
+    /**
+     * Finish the task, clearing the progress bar.
+     */
+    public void finish() {
+        IJ.showProgress(1.0);
+    }
+
+    /**
+     * Gets the work done so far.
+     *
+     * @return the amount of work done.
+     */
+    public long getDone() {
+        return done.get();
+    }
+
+    /**
+     * Gets the total amount of work.
+     *
+     * @return the total passed to {@link #start(long)}.
+     */
+    public long getTotal() {
+        return total;
+    }
+}
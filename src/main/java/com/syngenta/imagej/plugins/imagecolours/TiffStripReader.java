@@ -0,0 +1,374 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads bands of rows from an uncompressed, 8-bit RGB TIFF without loading the whole image.
+ * <p>
+ * The first image of classic or BigTIFF files is read, whether organised in strips or tiles. Samples must be chunky
+ * (interleaved); any extra samples, e.g. alpha, are ignored. Only the bytes of the requested rows are read, using
+ * positional reads of the file channel, so memory use depends on the band size and not the image size.
+ */
+public class TiffStripReader implements Closeable {
+
+    // TIFF header magic numbers.
+    private static final int CLASSIC_MAGIC = 42;
+    private static final int BIG_MAGIC = 43;
+
+    // TIFF tags.
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int BITS_PER_SAMPLE = 258;
+    private static final int COMPRESSION = 259;
+    private static final int PHOTOMETRIC = 262;
+    private static final int STRIP_OFFSETS = 273;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int ROWS_PER_STRIP = 278;
+    private static final int STRIP_BYTE_COUNTS = 279;
+    private static final int PLANAR_CONFIGURATION = 284;
+    private static final int TILE_WIDTH = 322;
+    private static final int TILE_LENGTH = 323;
+    private static final int TILE_OFFSETS = 324;
+
+    // Supported tag values.
+    private static final int NO_COMPRESSION = 1;
+    private static final int PHOTOMETRIC_RGB = 2;
+    private static final int CHUNKY = 1;
+    private static final int BITS = 8;
+
+    // TIFF field types and their sizes in bytes.
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4, 0, 0, 8, 8, 8};
+
+    // Field types.
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int LONG8 = 16;
+
+    // Maximum bytes read at once.
+    private static final int MAX_READ_BYTES = 1 << 22;
+
+    // File channel.
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    // Byte order and format.
+    private final ByteOrder order;
+    private final boolean bigTiff;
+
+    // Image properties.
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+
+    // Strip (or tile) layout.
+    private final boolean tiled;
+    private final int chunkWidth;
+    private final int chunkHeight;
+    private final long[] offsets;
+
+    // Read buffer.
+    private ByteBuffer buffer;
+
+    /**
+     * Opens a TIFF and reads its first image file directory.
+     *
+     * @param tiff the TIFF file.
+     * @throws IOException if the file can't be read or isn't a supported TIFF.
+     */
+    public TiffStripReader(final File tiff) throws IOException {
+
+        file = new RandomAccessFile(tiff, "r");
+        channel = file.getChannel();
+        try {
+
+            // Header.
+            final ByteBuffer header = read(0L, 16, ByteOrder.BIG_ENDIAN);
+            final short byteOrder = header.getShort();
+            if (byteOrder == 0x4949) {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (byteOrder == 0x4d4d) {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new IOException("Not a TIFF: " + tiff);
+            }
+            header.order(order);
+            final int magic = header.getShort();
+            if (magic == CLASSIC_MAGIC) {
+                bigTiff = false;
+            } else if (magic == BIG_MAGIC) {
+                bigTiff = true;
+                header.getInt();
+            } else {
+                throw new IOException("Not a TIFF: " + tiff);
+            }
+            final long ifdOffset = bigTiff ? header.getLong() : header.getInt() & 0xffffffffL;
+
+            // Image file directory.
+            final ByteBuffer countBuffer = read(ifdOffset, bigTiff ? 8 : 2, order);
+            final long entryCount = bigTiff ? countBuffer.getLong() : countBuffer.getShort() & 0xffff;
+            final int entrySize = bigTiff ? 20 : 12;
+            final ByteBuffer ifd = read(ifdOffset + (bigTiff ? 8 : 2), (int) entryCount * entrySize, order);
+            long[] widthValue = null;
+            long[] heightValue = null;
+            long[] bitsValue = {1L};
+            long[] compressionValue = {NO_COMPRESSION};
+            long[] photometricValue = null;
+            long[] samplesValue = {1L};
+            long[] rowsPerStripValue = null;
+            long[] planarValue = {CHUNKY};
+            long[] tileWidthValue = null;
+            long[] tileLengthValue = null;
+            long[] offsetsValue = null;
+            for (int i = 0; i < entryCount; i++) {
+
+                ifd.position(i * entrySize);
+                final int tag = ifd.getShort() & 0xffff;
+                switch (tag) {
+                    case IMAGE_WIDTH:
+                        widthValue = readValues(ifd);
+                        break;
+                    case IMAGE_LENGTH:
+                        heightValue = readValues(ifd);
+                        break;
+                    case BITS_PER_SAMPLE:
+                        bitsValue = readValues(ifd);
+                        break;
+                    case COMPRESSION:
+                        compressionValue = readValues(ifd);
+                        break;
+                    case PHOTOMETRIC:
+                        photometricValue = readValues(ifd);
+                        break;
+                    case SAMPLES_PER_PIXEL:
+                        samplesValue = readValues(ifd);
+                        break;
+                    case ROWS_PER_STRIP:
+                        rowsPerStripValue = readValues(ifd);
+                        break;
+                    case PLANAR_CONFIGURATION:
+                        planarValue = readValues(ifd);
+                        break;
+                    case TILE_WIDTH:
+                        tileWidthValue = readValues(ifd);
+                        break;
+                    case TILE_LENGTH:
+                        tileLengthValue = readValues(ifd);
+                        break;
+                    case STRIP_OFFSETS:
+                    case TILE_OFFSETS:
+                        offsetsValue = readValues(ifd);
+                        break;
+                    default:
+                        // Ignore other tags.
+                }
+            }
+
+            // Check the image is supported.
+            if (widthValue == null || heightValue == null || offsetsValue == null) {
+                throw new IOException("Missing TIFF tags: " + tiff);
+            }
+            if (compressionValue[0] != NO_COMPRESSION) {
+                throw new IOException("Compressed TIFFs aren't supported: " + tiff);
+            }
+            if (photometricValue == null || photometricValue[0] != PHOTOMETRIC_RGB || samplesValue[0] < 3) {
+                throw new IOException("Only RGB TIFFs are supported: " + tiff);
+            }
+            for (final long bits : bitsValue) {
+                if (bits != BITS) {
+                    throw new IOException("Only 8-bit samples are supported: " + tiff);
+                }
+            }
+            if (planarValue[0] != CHUNKY) {
+                throw new IOException("Only chunky (interleaved) samples are supported: " + tiff);
+            }
+
+            width = (int) widthValue[0];
+            height = (int) heightValue[0];
+            samplesPerPixel = (int) samplesValue[0];
+            offsets = offsetsValue;
+            tiled = tileWidthValue != null && tileLengthValue != null;
+            if (tiled) {
+                chunkWidth = (int) tileWidthValue[0];
+                chunkHeight = (int) tileLengthValue[0];
+            } else {
+                chunkWidth = width;
+                chunkHeight = rowsPerStripValue == null ? height : (int) Math.min(height, rowsPerStripValue[0]);
+            }
+        } catch (final IOException e) {
+            file.close();
+            throw e;
+        } catch (final RuntimeException e) {
+            file.close();
+            throw new IOException("Invalid TIFF: " + tiff, e);
+        }
+    }
+
+    /**
+     * Reads the values of the IFD entry at the buffer's position (just after its tag).
+     *
+     * @param ifd the IFD entries.
+     * @return the values.
+     * @throws IOException if the values can't be read.
+     */
+    private long[] readValues(final ByteBuffer ifd) throws IOException {
+
+        final int type = ifd.getShort() & 0xffff;
+        final long count = bigTiff ? ifd.getLong() : ifd.getInt() & 0xffffffffL;
+        final int typeSize = type < TYPE_SIZES.length ? TYPE_SIZES[type] : 0;
+        if (type != SHORT && type != LONG && type != LONG8) {
+            throw new IOException("Unsupported TIFF field type: " + type);
+        }
+
+        // Values are inline if they fit, otherwise at an offset.
+        final long size = count * typeSize;
+        final ByteBuffer values;
+        if (size <= (bigTiff ? 8 : 4)) {
+            values = ifd;
+        } else {
+            final long offset = bigTiff ? ifd.getLong() : ifd.getInt() & 0xffffffffL;
+            values = read(offset, (int) size, order);
+        }
+
+        final long[] result = new long[(int) count];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = type == SHORT ? values.getShort() & 0xffff :
+                    type == LONG ? values.getInt() & 0xffffffffL : values.getLong();
+        }
+        return result;
+    }
+
+    /**
+     * Reads bytes from the file.
+     *
+     * @param position file position.
+     * @param length   number of bytes.
+     * @param order    byte order.
+     * @return a buffer of the bytes, ready to get.
+     * @throws IOException if the bytes can't be read.
+     */
+    private ByteBuffer read(final long position, final int length, final ByteOrder order) throws IOException {
+
+        final ByteBuffer bytes = ByteBuffer.allocate(length).order(order);
+        readFully(bytes, position);
+        return bytes;
+    }
+
+    private void readFully(final ByteBuffer bytes, final long position) throws IOException {
+
+        long filePosition = position;
+        while (bytes.hasRemaining()) {
+            final int read = channel.read(bytes, filePosition);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of TIFF at " + filePosition);
+            }
+            filePosition += read;
+        }
+        bytes.flip();
+    }
+
+    /**
+     * Gets the image width.
+     *
+     * @return width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the image height.
+     *
+     * @return height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of rows in each strip, or tile row, i.e. the most efficient band height to read.
+     *
+     * @return rows per strip or tile length.
+     */
+    public int getRowsPerChunk() {
+        return chunkHeight;
+    }
+
+    /**
+     * Whether the image is organised in tiles rather than strips.
+     *
+     * @return true if tiled.
+     */
+    public boolean isTiled() {
+        return tiled;
+    }
+
+    /**
+     * Reads a band of rows as packed RGB pixels.
+     *
+     * @param y      the first row.
+     * @param rows   the number of rows.
+     * @param pixels receives the pixels, row by row; must hold at least {@code rows * getWidth()} values.
+     * @throws IOException if the rows can't be read.
+     */
+    public void readRows(final int y, final int rows, final int[] pixels) throws IOException {
+
+        if (y < 0 || rows < 0 || y + rows > height) {
+            throw new IllegalArgumentException("Rows " + y + " to " + (y + rows) + " are outside the image");
+        }
+
+        final int chunksAcross = (width + chunkWidth - 1) / chunkWidth;
+        final int chunkRowBytes = chunkWidth * samplesPerPixel;
+        final int maxRows = Math.max(1, MAX_READ_BYTES / chunkRowBytes);
+        for (int row = y; row < y + rows; ) {
+
+            // Rows of the current strip, or tile row, limited by the read buffer.
+            final int chunkRow = row / chunkHeight;
+            final int chunkY = chunkRow * chunkHeight;
+            final int readRows = Math.min(Math.min(chunkY + chunkHeight, y + rows) - row, maxRows);
+
+            for (int across = 0; across < chunksAcross; across++) {
+
+                // Read the rows' bytes.
+                final long offset = offsets[chunkRow * chunksAcross + across] + (long) (row - chunkY) * chunkRowBytes;
+                final int length = readRows * chunkRowBytes;
+                if (buffer == null || buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(Math.max(length, Math.min(MAX_READ_BYTES, chunkRowBytes * maxRows)));
+                }
+                buffer.clear();
+                buffer.limit(length);
+                readFully(buffer, offset);
+
+                // Unpack the samples, clipping tiles at the image edge.
+                final byte[] bytes = buffer.array();
+                final int x0 = across * chunkWidth;
+                final int columns = Math.min(chunkWidth, width - x0);
+                for (int r = 0; r < readRows; r++) {
+
+                    int i = r * chunkRowBytes;
+                    int p = (row - y + r) * width + x0;
+                    for (int c = 0; c < columns; c++, i += samplesPerPixel, p++) {
+                        pixels[p] = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+                    }
+                }
+            }
+            row += readRows;
+        }
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,383 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes an uncompressed TIFF strip by strip, without holding the whole image in memory.
+ * <p>
+ * Images are 8-bit RGB, 8-bit grey (e.g. binary masks) or 8-bit palette colour (e.g. label images). The strips are
+ * written first and the image file directory last, when the writer is closed. BigTIFF is used if the image data won't
+ * fit in a classic TIFF.
+ */
+public class TiffStripWriter implements Closeable {
+
+    // TIFF tags.
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int BITS_PER_SAMPLE = 258;
+    private static final int COMPRESSION = 259;
+    private static final int PHOTOMETRIC = 262;
+    private static final int STRIP_OFFSETS = 273;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int ROWS_PER_STRIP = 278;
+    private static final int STRIP_BYTE_COUNTS = 279;
+    private static final int PLANAR_CONFIGURATION = 284;
+    private static final int COLOR_MAP = 320;
+
+    // Field types.
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int LONG8 = 16;
+
+    // Tag values.
+    private static final int BITS = 8;
+    private static final int NO_COMPRESSION = 1;
+    private static final int PHOTOMETRIC_BLACK_IS_ZERO = 1;
+    private static final int PHOTOMETRIC_RGB = 2;
+    private static final int PHOTOMETRIC_PALETTE = 3;
+    private static final int CHUNKY = 1;
+
+    // Number of colour map entries, and the scale from 8-bit to 16-bit colour map values.
+    private static final int COLOR_MAP_SIZE = 1 << BITS;
+    private static final int COLOR_MAP_SCALE = 257;
+
+    // Bytes of a colour map: 16-bit red, green and blue values.
+    private static final long COLOR_MAP_BYTES = 3L * COLOR_MAP_SIZE * 2L;
+
+    // Largest offset in a classic TIFF.
+    private static final long MAX_CLASSIC_OFFSET = 0xffffffffL;
+
+    // Bytes allowed for the image file directory, besides the strip offsets and byte counts.
+    private static final long IFD_BYTES = 1024L;
+
+    // Header sizes.
+    private static final int CLASSIC_HEADER_BYTES = 8;
+    private static final int BIG_HEADER_BYTES = 16;
+
+    // File channel.
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    // Image properties.
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+    private final int rowsPerStrip;
+    private final boolean bigTiff;
+
+    // Strip layout.
+    private final long[] stripOffsets;
+    private final long[] stripByteCounts;
+    private int stripCount;
+    private int rowsWritten;
+
+    // Write position.
+    private long position;
+
+    // Conversion buffer for RGB strips.
+    private ByteBuffer buffer;
+
+    // Colours of a palette-colour image, or null.
+    private int[] colourMap;
+
+    /**
+     * Create a TIFF, choosing classic or BigTIFF format by the image size.
+     *
+     * @param tiff            the file to write.
+     * @param width           image width.
+     * @param height          image height.
+     * @param samplesPerPixel 3 for RGB, 1 for grey.
+     * @param rowsPerStrip    rows in every strip but the last.
+     * @throws IOException if the file can't be created.
+     */
+    public TiffStripWriter(final File tiff, final int width, final int height, final int samplesPerPixel,
+                           final int rowsPerStrip) throws IOException {
+
+        this(tiff, width, height, samplesPerPixel, rowsPerStrip,
+                isBigTiff(width, height, samplesPerPixel, rowsPerStrip));
+    }
+
+    /**
+     * Whether an image needs BigTIFF, i.e. it might not fit in a classic TIFF. Grey images allow for a colour map, as
+     * one may be set after the format is chosen.
+     *
+     * @param width           image width.
+     * @param height          image height.
+     * @param samplesPerPixel 3 for RGB, 1 for grey.
+     * @param rowsPerStrip    rows in every strip but the last.
+     * @return true if BigTIFF is needed.
+     */
+    static boolean isBigTiff(final int width, final int height, final int samplesPerPixel, final int rowsPerStrip) {
+
+        final long strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        return CLASSIC_HEADER_BYTES + (long) width * height * samplesPerPixel + 8L * strips + IFD_BYTES +
+                (samplesPerPixel == 1 ? COLOR_MAP_BYTES : 0L) > MAX_CLASSIC_OFFSET;
+    }
+
+    /**
+     * Create a TIFF.
+     *
+     * @param tiff            the file to write.
+     * @param width           image width.
+     * @param height          image height.
+     * @param samplesPerPixel 3 for RGB, 1 for grey.
+     * @param rowsPerStrip    rows in every strip but the last.
+     * @param bigTiff         whether to write BigTIFF.
+     * @throws IOException if the file can't be created.
+     */
+    public TiffStripWriter(final File tiff, final int width, final int height, final int samplesPerPixel,
+                           final int rowsPerStrip, final boolean bigTiff) throws IOException {
+
+        if (samplesPerPixel != 1 && samplesPerPixel != 3) {
+            throw new IllegalArgumentException("Samples per pixel must be 1 or 3: " + samplesPerPixel);
+        }
+        if (rowsPerStrip < 1) {
+            throw new IllegalArgumentException("Rows per strip must be positive: " + rowsPerStrip);
+        }
+        this.width = width;
+        this.height = height;
+        this.samplesPerPixel = samplesPerPixel;
+        this.rowsPerStrip = rowsPerStrip;
+        this.bigTiff = bigTiff;
+
+        final int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        stripOffsets = new long[strips];
+        stripByteCounts = new long[strips];
+
+        file = new RandomAccessFile(tiff, "rw");
+        file.setLength(0L);
+        channel = file.getChannel();
+
+        // Strips follow the header, which is written on closing.
+        position = bigTiff ? BIG_HEADER_BYTES : CLASSIC_HEADER_BYTES;
+    }
+
+    /**
+     * Sets the colour of each grey level, so that the image is written as a palette-colour image.
+     *
+     * @param colours the packed RGB colours, indexed by pixel value.
+     */
+    public void setColourMap(final int[] colours) {
+
+        if (samplesPerPixel != 1) {
+            throw new IllegalStateException("Writer is for RGB images");
+        }
+        if (colours.length != COLOR_MAP_SIZE) {
+            throw new IllegalArgumentException("Colour map must have " + COLOR_MAP_SIZE + " entries: " +
+                    colours.length);
+        }
+        colourMap = colours.clone();
+    }
+
+    /**
+     * Writes the next strip of RGB pixels.
+     *
+     * @param pixels the packed RGB pixels, row by row.
+     * @param rows   the number of rows: {@code rowsPerStrip}, or fewer for the last strip.
+     * @throws IOException if the strip can't be written.
+     */
+    public void writeRows(final int[] pixels, final int rows) throws IOException {
+
+        if (samplesPerPixel != 3) {
+            throw new IllegalStateException("Writer is for grey images");
+        }
+        final int length = rows * width * 3;
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear();
+        final int count = rows * width;
+        for (int i = 0; i < count; i++) {
+
+            final int pixel = pixels[i];
+            buffer.put((byte) (pixel >> 16));
+            buffer.put((byte) (pixel >> 8));
+            buffer.put((byte) pixel);
+        }
+        buffer.flip();
+        writeStrip(buffer, rows);
+    }
+
+    /**
+     * Writes the next strip of grey pixels.
+     *
+     * @param pixels the pixels, row by row.
+     * @param rows   the number of rows: {@code rowsPerStrip}, or fewer for the last strip.
+     * @throws IOException if the strip can't be written.
+     */
+    public void writeRows(final byte[] pixels, final int rows) throws IOException {
+
+        if (samplesPerPixel != 1) {
+            throw new IllegalStateException("Writer is for RGB images");
+        }
+        writeStrip(ByteBuffer.wrap(pixels, 0, rows * width), rows);
+    }
+
+    private void writeStrip(final ByteBuffer bytes, final int rows) throws IOException {
+
+        if (rows != Math.min(rowsPerStrip, height - rowsWritten) || rows == 0) {
+            throw new IllegalArgumentException("Strip " + stripCount + " must have " +
+                    Math.min(rowsPerStrip, height - rowsWritten) + " rows, not " + rows);
+        }
+        stripOffsets[stripCount] = position;
+        stripByteCounts[stripCount] = bytes.remaining();
+        position = writeFully(bytes, position);
+        stripCount++;
+        rowsWritten += rows;
+    }
+
+    private long writeFully(final ByteBuffer bytes, final long start) throws IOException {
+
+        long filePosition = start;
+        while (bytes.hasRemaining()) {
+            filePosition += channel.write(bytes, filePosition);
+        }
+        return filePosition;
+    }
+
+    /**
+     * Writes the image file directory and header, then closes the file.
+     *
+     * @throws IOException if the image is incomplete or the file can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Only " + rowsWritten + " of " + height + " rows were written");
+            }
+
+            // Tags, in ascending order (the colour map, if any, is last).
+            final int offsetType = bigTiff ? LONG8 : LONG;
+            final long[] bitsPerSample = new long[samplesPerPixel];
+            Arrays.fill(bitsPerSample, BITS);
+            final int photometric = samplesPerPixel == 3 ? PHOTOMETRIC_RGB :
+                    colourMap == null ? PHOTOMETRIC_BLACK_IS_ZERO : PHOTOMETRIC_PALETTE;
+            final int[] allTags = {IMAGE_WIDTH, IMAGE_LENGTH, BITS_PER_SAMPLE, COMPRESSION, PHOTOMETRIC,
+                    STRIP_OFFSETS, SAMPLES_PER_PIXEL, ROWS_PER_STRIP, STRIP_BYTE_COUNTS, PLANAR_CONFIGURATION,
+                    COLOR_MAP};
+            final int tagCount = colourMap == null ? allTags.length - 1 : allTags.length;
+            final int[] tags = Arrays.copyOf(allTags, tagCount);
+            final int[] types = Arrays.copyOf(
+                    new int[]{LONG, LONG, SHORT, SHORT, SHORT, offsetType, SHORT, LONG, offsetType, SHORT, SHORT},
+                    tagCount);
+            final long[][] values = Arrays.copyOf(new long[][]{{width}, {height}, bitsPerSample, {NO_COMPRESSION},
+                    {photometric}, stripOffsets, {samplesPerPixel}, {rowsPerStrip}, stripByteCounts, {CHUNKY},
+                    getColourMapValues()}, tagCount);
+
+            // The directory, word aligned, then values too large to fit in their entries.
+            final long ifdOffset = (position + 1L) & ~1L;
+            final int entrySize = bigTiff ? 20 : 12;
+            final int inlineBytes = bigTiff ? 8 : 4;
+            final int ifdBytes = bigTiff ? 8 + tags.length * entrySize + 8 : 2 + tags.length * entrySize + 4;
+            int externalBytes = 0;
+            for (int i = 0; i < tags.length; i++) {
+                final int size = values[i].length * typeSize(types[i]);
+                externalBytes += size > inlineBytes ? size : 0;
+            }
+            if (!bigTiff && ifdOffset + ifdBytes + externalBytes - 1L > MAX_CLASSIC_OFFSET) {
+                throw new IOException("Image is too large for a classic TIFF");
+            }
+            final ByteBuffer ifd = ByteBuffer.allocate(ifdBytes + externalBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (bigTiff) {
+                ifd.putLong(tags.length);
+            } else {
+                ifd.putShort((short) tags.length);
+            }
+            long externalOffset = ifdOffset + ifdBytes;
+            final ByteBuffer external = ByteBuffer.allocate(externalBytes).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < tags.length; i++) {
+
+                ifd.putShort((short) tags[i]);
+                ifd.putShort((short) types[i]);
+                if (bigTiff) {
+                    ifd.putLong(values[i].length);
+                } else {
+                    ifd.putInt(values[i].length);
+                }
+                final int size = values[i].length * typeSize(types[i]);
+                if (size > inlineBytes) {
+
+                    putOffset(ifd, externalOffset);
+                    putValues(external, types[i], values[i]);
+                    externalOffset += size;
+                } else {
+
+                    final int start = ifd.position();
+                    putValues(ifd, types[i], values[i]);
+                    ifd.position(start + inlineBytes);
+                }
+            }
+            putOffset(ifd, 0L);
+            external.flip();
+            ifd.put(external);
+            ifd.flip();
+            writeFully(ifd, ifdOffset);
+
+            // Header.
+            final ByteBuffer header = ByteBuffer.allocate(bigTiff ? BIG_HEADER_BYTES : CLASSIC_HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 'I').put((byte) 'I');
+            if (bigTiff) {
+                header.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(ifdOffset);
+            } else {
+                header.putShort((short) 42).putInt((int) ifdOffset);
+            }
+            header.flip();
+            writeFully(header, 0L);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Gets the colour map's values: all reds, then all greens, then all blues, scaled to 16 bits.
+     */
+    private long[] getColourMapValues() {
+
+        if (colourMap == null) {
+            return null;
+        }
+        final long[] values = new long[3 * COLOR_MAP_SIZE];
+        for (int i = 0; i < COLOR_MAP_SIZE; i++) {
+            values[i] = (long) Rgb24Bit.red(colourMap[i]) * COLOR_MAP_SCALE;
+            values[COLOR_MAP_SIZE + i] = (long) Rgb24Bit.green(colourMap[i]) * COLOR_MAP_SCALE;
+            values[2 * COLOR_MAP_SIZE + i] = (long) Rgb24Bit.blue(colourMap[i]) * COLOR_MAP_SCALE;
+        }
+        return values;
+    }
+
+    private void putOffset(final ByteBuffer bytes, final long offset) {
+
+        if (bigTiff) {
+            bytes.putLong(offset);
+        } else {
+            bytes.putInt((int) offset);
+        }
+    }
+
+    private static int typeSize(final int type) {
+        return type == SHORT ? 2 : type == LONG ? 4 : 8;
+    }
+
+    private static void putValues(final ByteBuffer bytes, final int type, final long[] values) {
+
+        for (final long value : values) {
+            if (type == SHORT) {
+                bytes.putShort((short) value);
+            } else if (type == LONG) {
+                bytes.putInt((int) value);
+            } else {
+                bytes.putLong(value);
+            }
+        }
+    }
+}
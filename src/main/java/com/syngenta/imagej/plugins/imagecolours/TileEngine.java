@@ -0,0 +1,192 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.Prefs;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes rectangular regions of images in cache-sized tiles on a fork-join pool.
+ * <p>
+ * Each region is split in half, across its longer side, until the pieces are no larger than the tile size. Idle
+ * threads steal halves from busy ones, so work is balanced across cores however unevenly the cost is spread over the
+ * image. Regions of several images, e.g. the slices of a stack, can be processed at once.
+ */
+public class TileEngine {
+
+    /**
+     * Default tile size in pixels: 256 KB of RGB pixels, which fits in a typical L2 cache.
+     */
+    public static final int DEFAULT_TILE_PIXELS = 1 << 16;
+
+    // Minimum tile width, so that rows are long enough to stream from memory efficiently.
+    private static final int MIN_TILE_WIDTH = 64;
+
+    // Engine using ImageJ's thread count.
+    private static TileEngine defaultEngine;
+
+    // Fork-join pool.
+    private final ForkJoinPool pool;
+
+    // Maximum number of pixels per tile.
+    private final int tilePixels;
+
+    /**
+     * Processes a tile of an image.
+     */
+    public interface TileProcessor {
+
+        /**
+         * Process a tile. Tiles never overlap, and may be processed concurrently.
+         *
+         * @param x      left of the tile.
+         * @param y      top of the tile.
+         * @param width  tile width.
+         * @param height tile height.
+         */
+        void processTile(int x, int y, int width, int height);
+    }
+
+    /**
+     * Create an engine.
+     *
+     * @param parallelism number of threads.
+     * @param tilePixels  maximum number of pixels per tile.
+     */
+    public TileEngine(final int parallelism, final int tilePixels) {
+
+        if (tilePixels < 1) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tilePixels);
+        }
+        pool = new ForkJoinPool(parallelism);
+        this.tilePixels = tilePixels;
+    }
+
+    /**
+     * Gets an engine with ImageJ's thread count (see {@link Prefs#getThreads()}) and the default tile size. A new
+     * engine is created if the thread count has changed.
+     *
+     * @return the engine.
+     */
+    public static synchronized TileEngine getDefault() {
+
+        final int threads = Prefs.getThreads();
+        if (defaultEngine == null || defaultEngine.getParallelism() != threads) {
+
+            // The old engine isn't shut down, as other threads may still be using it: its (daemon) threads finish
+            // their work, then exit once idle.
+            defaultEngine = new TileEngine(threads, DEFAULT_TILE_PIXELS);
+        }
+        return defaultEngine;
+    }
+
+    /**
+     * Gets the number of threads.
+     *
+     * @return the pool's parallelism.
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Gets the maximum number of pixels per tile.
+     *
+     * @return the tile size.
+     */
+    public int getTilePixels() {
+        return tilePixels;
+    }
+
+    /**
+     * Process a region, waiting until all tiles are done.
+     *
+     * @param region    the region.
+     * @param processor processes each tile.
+     */
+    public void process(final Rectangle region, final TileProcessor processor) {
+
+        process(new Rectangle[]{region}, new TileProcessor[]{processor});
+    }
+
+    /**
+     * Process several regions at once, waiting until all tiles are done.
+     *
+     * @param regions    the regions.
+     * @param processors processes each tile of the corresponding region.
+     */
+    public void process(final Rectangle[] regions, final TileProcessor[] processors) {
+
+        final List<TileTask> tasks = new ArrayList<TileTask>(regions.length);
+        for (int i = 0; i < regions.length; i++) {
+
+            final Rectangle region = regions[i];
+            if (!region.isEmpty()) {
+                tasks.add(new TileTask(processors[i], region.x, region.y, region.width, region.height));
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Stop the engine's threads. It can't be used afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Processes a region, splitting it in two if it is larger than a tile.
+     */
+    private final class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Tile processor.
+        private final TileProcessor processor;
+
+        // Region bounds.
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        private TileTask(final TileProcessor processor, final int x, final int y, final int width, final int height) {
+
+            this.processor = processor;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        protected void compute() {
+
+            if ((long) width * height <= tilePixels || width < 2 * MIN_TILE_WIDTH && height == 1) {
+
+                processor.processTile(x, y, width, height);
+            } else if (width > height && width >= 2 * MIN_TILE_WIDTH || height == 1) {
+
+                // Split columns.
+                final int half = width / 2;
+                invokeAll(new TileTask(processor, x, y, half, height),
+                        new TileTask(processor, x + half, y, width - half, height));
+            } else {
+
+                // Split rows.
+                final int half = height / 2;
+                invokeAll(new TileTask(processor, x, y, width, half),
+                        new TileTask(processor, x, y + half, width, height - half));
+            }
+        }
+    }
+}
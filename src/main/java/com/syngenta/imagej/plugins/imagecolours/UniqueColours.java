@@ -0,0 +1,298 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.Prefs;
+import ij.util.ThreadUtil;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The classes of the distinct colours of an image, for images with far fewer colours than a
+ * {@link ClassificationTable} has entries, e.g. JPEGs taken under fixed lighting or palette-reduced exports.
+ * <p>
+ * The distinct colours are collected in parallel, each thread into its own open-addressing hash map of packed RGB
+ * values, and the maps are merged. Each distinct colour is then classified once, in bulk, and pixels are classified by
+ * looking up their colour in the merged map. Collecting stops as soon as there are too many colours, so an image that
+ * doesn't suit this costs little more than a pass over part of it.
+ */
+public final class UniqueColours {
+
+    /**
+     * Largest number of pixels worth collecting the colours of: beyond this, looking colours up in a hash map costs
+     * more than building a {@link ClassificationTable}, which is also cached for later runs.
+     */
+    public static final int MAX_PIXELS = ClassificationTable.SIZE / 2;
+
+    /**
+     * Largest number of distinct colours worth collecting: each takes as long to collect and
+     * classify as a few table entries take to build.
+     */
+    public static final int MAX_COLOURS = ClassificationTable.SIZE / 32;
+
+    // Mask for the 24-bit colour in a packed pixel.
+    private static final int RGB_MASK = 0xffffff;
+
+    // Initial capacity of each thread's map.
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    // Rows are collected in chunks of about this many pixels.
+    private static final int CHUNK_PIXELS = 1 << 16;
+
+    // Map of each distinct colour to its class.
+    private final ColourMap classes;
+
+    // The classifier, for colours that weren't collected.
+    private final ColourClassifier classifier;
+
+    private UniqueColours(final ColourMap classes, final ColourClassifier classifier) {
+
+        this.classes = classes;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Collects and classifies the distinct colours of a region of one or more images of the same size, e.g. the slices
+     * of a stack.
+     *
+     * @param images     the packed RGB pixels of each image.
+     * @param width      width of the images.
+     * @param bounds     the region.
+     * @param maxColours the largest number of distinct colours to collect.
+     * @param classifier the classifier.
+     * @return the colours' classes, or null if there are more than {@code maxColours} colours.
+     */
+    public static UniqueColours collect(final int[][] images, final int width, final Rectangle bounds,
+                                        final int maxColours, final ColourClassifier classifier) {
+
+        // Threads take chunks of rows until all are done, or one thread finds too many colours.
+        final int chunkRows = Math.max(1, CHUNK_PIXELS / Math.max(1, bounds.width));
+        final int chunksPerImage = (bounds.height + chunkRows - 1) / chunkRows;
+        final int numChunks = chunksPerImage * images.length;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(Prefs.getThreads(), numChunks)));
+        final AtomicReferenceArray<ColourMap> threadMaps = new AtomicReferenceArray<ColourMap>(threads.length);
+        for (int t = 0; t < threads.length; t++) {
+
+            final int thread = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+
+                    final ColourMap map = new ColourMap(INITIAL_CAPACITY);
+                    for (int chunk = nextChunk.getAndIncrement(); chunk < numChunks;
+                         chunk = nextChunk.getAndIncrement()) {
+
+                        final int[] pixels = images[chunk / chunksPerImage];
+                        final int minY = bounds.y + chunk % chunksPerImage * chunkRows;
+                        final int maxY = Math.min(minY + chunkRows, bounds.y + bounds.height);
+                        for (int y = minY; y < maxY; y++) {
+
+                            // Runs of a colour, e.g. in flat backgrounds, are only looked up once.
+                            int offset = y * width + bounds.x;
+                            int previous = -1;
+                            for (int x = 0; x < bounds.width; x++) {
+
+                                final int colour = pixels[offset++] & RGB_MASK;
+                                if (colour != previous) {
+                                    map.add(colour);
+                                    previous = colour;
+                                }
+                            }
+                        }
+
+                        // Give up, and stop the other threads, once there are too many colours.
+                        if (map.size() > maxColours) {
+                            nextChunk.set(numChunks);
+                            return;
+                        }
+                    }
+                    threadMaps.set(thread, map);
+                }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+
+        // Merge the threads' maps.
+        ColourMap merged = null;
+        for (int t = 0; t < threads.length; t++) {
+
+            final ColourMap map = threadMaps.get(t);
+            if (map == null) {
+                return null;
+            }
+            if (merged == null) {
+                merged = map;
+            } else {
+                merged.addAll(map);
+            }
+            if (merged.size() > maxColours) {
+                return null;
+            }
+        }
+
+        // Classify each colour once.
+        final int[] colours = merged.getKeys();
+        final byte[] colourClasses = new byte[colours.length];
+        classifier.classify(colours, 0, colours.length, colourClasses);
+        for (int i = 0; i < colours.length; i++) {
+            merged.put(colours[i], colourClasses[i]);
+        }
+        return new UniqueColours(merged, classifier);
+    }
+
+    /**
+     * Gets the number of distinct colours.
+     *
+     * @return the count.
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * Gets the class index of a pixel.
+     *
+     * @param pixel the pixel value (packed RGB, any alpha is ignored).
+     * @return the class index.
+     */
+    public int classify(final int pixel) {
+
+        final int hueClass = classes.get(pixel & RGB_MASK);
+        return hueClass >= 0 ? hueClass : classifier.classify(pixel);
+    }
+
+    /**
+     * A hash map of 24-bit colours to non-negative ints, using open addressing with linear probing in primitive arrays.
+     */
+    private static final class ColourMap {
+
+        // Marks empty slots (not a 24-bit colour), and is returned for absent keys.
+        private static final int EMPTY = -1;
+
+        // Multiplier of Fibonacci hashing (2^32 divided by the golden ratio).
+        private static final int HASH_MULTIPLIER = 0x9e3779b9;
+
+        // Number of bits in an int.
+        private static final int INT_BITS = 32;
+
+        // Keys (or EMPTY) and values of the slots.
+        private int[] keys;
+        private int[] values;
+
+        // Number of keys, and the number at which the map grows (half its capacity).
+        private int size;
+        private int threshold;
+
+        // Right shift from a hash to a slot.
+        private int shift;
+
+        private ColourMap(final int capacity) {
+            allocate(capacity);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        /**
+         * Adds a key with value 0, if it isn't in the map.
+         */
+        private void add(final int key) {
+
+            int slot = (key * HASH_MULTIPLIER) >>> shift;
+            final int mask = keys.length - 1;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            if (++size > threshold) {
+                grow();
+            }
+        }
+
+        /**
+         * Adds the keys of another map.
+         */
+        private void addAll(final ColourMap other) {
+
+            for (final int key : other.keys) {
+                if (key != EMPTY) {
+                    add(key);
+                }
+            }
+        }
+
+        /**
+         * Sets the value of a key that is in the map.
+         */
+        private void put(final int key, final int value) {
+            values[find(key)] = value;
+        }
+
+        /**
+         * Gets the value of a key, or EMPTY if it isn't in the map.
+         */
+        private int get(final int key) {
+
+            final int slot = find(key);
+            return keys[slot] == EMPTY ? EMPTY : values[slot];
+        }
+
+        /**
+         * Gets the keys, in slot order.
+         */
+        private int[] getKeys() {
+
+            final int[] mapKeys = new int[size];
+            int i = 0;
+            for (final int key : keys) {
+                if (key != EMPTY) {
+                    mapKeys[i++] = key;
+                }
+            }
+            return mapKeys;
+        }
+
+        /**
+         * Finds the slot of a key, or the empty slot that ends its probe sequence.
+         */
+        private int find(final int key) {
+
+            int slot = (key * HASH_MULTIPLIER) >>> shift;
+            final int mask = keys.length - 1;
+            while (keys[slot] != key && keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void allocate(final int capacity) {
+
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new int[capacity];
+            size = 0;
+            threshold = capacity / 2;
+            shift = INT_BITS - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        /**
+         * Doubles the capacity (values are only set once all keys are added, so aren't copied).
+         */
+        private void grow() {
+
+            final int[] oldKeys = keys;
+            allocate(keys.length * 2);
+            for (final int key : oldKeys) {
+                if (key != EMPTY) {
+                    add(key);
+                }
+            }
+        }
+    }
+}
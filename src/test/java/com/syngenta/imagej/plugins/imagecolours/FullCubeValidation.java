@@ -0,0 +1,480 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import com.syngenta.imagej.plugins.imagecolours.ColourCubeLut.Interpolation;
+import com.syngenta.imagej.plugins.imagecolours.ColourSpaceUtilities.ColourSpace;
+import ij.Prefs;
+import ij.util.ThreadUtil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sweeps every 24-bit colour through each fast colour conversion and classification path, in parallel, and compares
+ * them with a double precision reference.
+ * <p>
+ * Conversion errors are XYZ distances (0-100 scale) for XYZ, and CIE76 delta E for LAB and LCH. Classification paths
+ * report the number of colours whose class differs from the reference class. Rates are millions of colours per second
+ * per thread, timing only the path itself.
+ */
+public final class FullCubeValidation {
+
+    // Colours per chunk: all colours with the same red value.
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int NUM_CHUNKS = ClassificationTable.SIZE / CHUNK_SIZE;
+
+    // Nodes of the colour cube LUTs.
+    private static final int LUT_NODES = 33;
+
+    // Classifiers, with the dialog's default thresholds.
+    private static final HueClassifier HUE_CLASSIFIER = new HueClassifier(200, 10, 10, 0.5, 0.5);
+    private static final LchClassifier LCH_CLASSIFIER =
+            new LchClassifier(10.0, 80.0, 55.0, 20.0, LchClassifier.DEFAULT_HUE_BOUNDARIES);
+
+    // Reference white and CIE constants, as used by ColourSpaceUtilities.
+    private static final double[] WHITE = {95.047, 100.0, 108.883};
+    private static final double EPSILON = 0.008856;
+    private static final double KAPPA = 7.787;
+    private static final double SIXTEENTHS = 16.0 / 116.0;
+    private static final double DEGREES = 180.0 / Math.PI;
+
+    // Linear light of each channel value.
+    private static final double[] LINEAR = new double[256];
+
+    // Nanoseconds per second and colours per million.
+    private static final double NANOS = 1.0e9;
+    private static final double MILLION = 1.0e6;
+
+    static {
+        for (int i = 0; i < LINEAR.length; i++) {
+            final double v = i / 255.0;
+            LINEAR[i] = v > 0.04045 ? Math.pow((v + 0.055) / 1.055, 2.4) : v / 12.92;
+        }
+    }
+
+    /**
+     * A conversion or classification path.
+     */
+    private interface Path {
+
+        /**
+         * Converts or classifies a chunk of colours.
+         *
+         * @param pixels    the colours.
+         * @param converted receives converted colours.
+         * @param classes   receives class indices.
+         */
+        void run(int[] pixels, float[][] converted, byte[] classes);
+    }
+
+    /**
+     * A conversion or classification path and its results.
+     */
+    public static final class Row {
+
+        private final String name;
+        private final ColourSpace space;
+        private final Path path;
+        private double maxError;
+        private double sumError;
+        private long disagreements;
+        private long nanos;
+
+        private Row(final String name, final ColourSpace space, final Path path) {
+            this.name = name;
+            this.space = space;
+            this.path = path;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the colour space converted to.
+         *
+         * @return the colour space, or null for classification paths.
+         */
+        public ColourSpace getSpace() {
+            return space;
+        }
+
+        public double getMaxError() {
+            return maxError;
+        }
+
+        public double getMeanError() {
+            return sumError / ClassificationTable.SIZE;
+        }
+
+        public long getDisagreements() {
+            return disagreements;
+        }
+
+        /**
+         * Gets the throughput of one thread.
+         *
+         * @return millions of colours per second.
+         */
+        public double getRate() {
+            return ClassificationTable.SIZE / MILLION / (nanos / NANOS);
+        }
+
+        private synchronized void add(final double chunkMax, final double chunkSum, final long chunkDisagreements,
+                                      final long chunkNanos) {
+            maxError = Math.max(maxError, chunkMax);
+            sumError += chunkSum;
+            disagreements += chunkDisagreements;
+            nanos += chunkNanos;
+        }
+    }
+
+    // Paths, in report order. The first conversion is the reference; HSV classifications are compared with
+    // classifying one pixel at a time, and LCH classifications with classifying reference colours.
+    private final List<Row> conversions = new ArrayList<>();
+    private final List<Row> hueClassifications = new ArrayList<>();
+    private final List<Row> lchClassifications = new ArrayList<>();
+
+    // Look up tables.
+    private final ColourCubeLut trilinearLab =
+            ColourCubeLut.getLut(ColourSpace.LAB, LUT_NODES, Interpolation.TRILINEAR);
+    private final ColourCubeLut tetrahedralLab =
+            ColourCubeLut.getLut(ColourSpace.LAB, LUT_NODES, Interpolation.TETRAHEDRAL);
+    private final ColourCubeLut tetrahedralLch =
+            ColourCubeLut.getLut(ColourSpace.LCH, LUT_NODES, Interpolation.TETRAHEDRAL);
+    private final ClassificationTable hueTable = ClassificationTable.getTable(HUE_CLASSIFIER);
+    private final String kernel;
+
+    private final int numThreads;
+
+    private FullCubeValidation() {
+
+        final HueKernel hueKernel = HueKernels.getKernel();
+        kernel = hueKernel == null ? "none" : hueKernel.getClass().getSimpleName();
+        numThreads = Math.min(Prefs.getThreads(), NUM_CHUNKS);
+
+        Collections.addAll(conversions, new Row("Reference (double precision)", ColourSpace.LAB, null),
+                new Row("Tables", ColourSpace.XYZ, new SpacePath(ColourSpace.XYZ)),
+                new Row("Tables", ColourSpace.LAB, new SpacePath(ColourSpace.LAB)),
+                new Row("Tables", ColourSpace.LCH, new SpacePath(ColourSpace.LCH)),
+                new Row("LUT " + LUT_NODES + " trilinear", ColourSpace.LAB, new LutPath(trilinearLab)),
+                new Row("LUT " + LUT_NODES + " tetrahedral", ColourSpace.LAB, new LutPath(tetrahedralLab)),
+                new Row("LUT " + LUT_NODES + " tetrahedral", ColourSpace.LCH, new LutPath(tetrahedralLch)));
+        Collections.addAll(hueClassifications, new Row("HSV per pixel", null, new Path() {
+            @Override
+            public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+                for (int i = 0; i < pixels.length; i++) {
+                    classes[i] = (byte) HUE_CLASSIFIER.classify(pixels[i]);
+                }
+            }
+        }), new Row("HSV table", null, new Path() {
+            @Override
+            public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+                for (int i = 0; i < pixels.length; i++) {
+                    classes[i] = (byte) hueTable.classify(pixels[i]);
+                }
+            }
+        }), new Row("HSV bulk, kernel " + kernel, null, new Path() {
+            @Override
+            public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+                HUE_CLASSIFIER.classify(pixels, 0, pixels.length, classes);
+            }
+        }));
+        Collections.addAll(lchClassifications, new Row("LCH tables", null, new Path() {
+            @Override
+            public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+                LCH_CLASSIFIER.classify(pixels, 0, pixels.length, classes);
+            }
+        }), new Row("LCH LUT " + LUT_NODES + " tetrahedral", null, new Path() {
+            @Override
+            public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+                tetrahedralLch.convert(pixels, 0, pixels.length, converted[0], converted[1], converted[2]);
+                for (int i = 0; i < pixels.length; i++) {
+                    classes[i] = (byte) LCH_CLASSIFIER.classify(converted[0][i], converted[1][i], converted[2][i]);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Converts with the look up tables of {@link ColourSpaceUtilities}.
+     */
+    private static final class SpacePath implements Path {
+
+        private final ColourSpace space;
+
+        SpacePath(final ColourSpace space) {
+            this.space = space;
+        }
+
+        @Override
+        public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+            ColourSpaceUtilities.convertRgb(space, pixels, 0, pixels.length, converted[0], converted[1], converted[2]);
+        }
+    }
+
+    /**
+     * Converts with a colour cube LUT.
+     */
+    private static final class LutPath implements Path {
+
+        private final ColourCubeLut lut;
+
+        LutPath(final ColourCubeLut lut) {
+            this.lut = lut;
+        }
+
+        @Override
+        public void run(final int[] pixels, final float[][] converted, final byte[] classes) {
+            lut.convert(pixels, 0, pixels.length, converted[0], converted[1], converted[2]);
+        }
+    }
+
+    /**
+     * Runs the validation.
+     *
+     * @return the results.
+     */
+    public static FullCubeValidation run() {
+
+        final FullCubeValidation validation = new FullCubeValidation();
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Thread[] threads = ThreadUtil.createThreadArray(validation.numThreads);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+
+                    final Sweep sweep = validation.new Sweep();
+                    for (int chunk = nextChunk.getAndIncrement(); chunk < NUM_CHUNKS;
+                         chunk = nextChunk.getAndIncrement()) {
+                        sweep.validate(chunk * CHUNK_SIZE);
+                    }
+                }
+            };
+        }
+        ThreadUtil.startAndJoin(threads);
+        return validation;
+    }
+
+    /**
+     * Gets a conversion path's results.
+     *
+     * @param name  the path's name.
+     * @param space the colour space it converts to.
+     * @return the results.
+     */
+    public Row getConversion(final String name, final ColourSpace space) {
+
+        for (final Row row : conversions) {
+            if (row.name.equals(name) && row.space == space) {
+                return row;
+            }
+        }
+        throw new IllegalArgumentException("No conversion: " + name + ' ' + space);
+    }
+
+    /**
+     * Gets a classification path's results.
+     *
+     * @param name the path's name, ignoring any kernel name.
+     * @return the results.
+     */
+    public Row getClassification(final String name) {
+
+        final List<Row> classifications = new ArrayList<>(hueClassifications);
+        classifications.addAll(lchClassifications);
+        for (final Row row : classifications) {
+            if (row.name.startsWith(name)) {
+                return row;
+            }
+        }
+        throw new IllegalArgumentException("No classification: " + name);
+    }
+
+    /**
+     * Formats the results as a plain text report.
+     *
+     * @return the report.
+     */
+    public String getReport() {
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "Full RGB cube validation: %d colours, %d threads, kernel %s%n%n",
+                ClassificationTable.SIZE, numThreads, kernel));
+        report.append(String.format(Locale.ROOT, "%-32s %-6s %12s %12s %14s%n", "Conversion", "Space", "Max error",
+                "Mean error", "M/s per thread"));
+        for (final Row row : conversions) {
+            report.append(String.format(Locale.ROOT, "%-32s %-6s %12.5f %12.5f %14.2f%n", row.name, row.space,
+                    row.getMaxError(), row.getMeanError(), row.getRate()));
+        }
+        report.append(String.format(Locale.ROOT, "%n%-39s %12s %12s %14s%n", "Classification", "Disagree",
+                "Percent", "M/s per thread"));
+        final List<Row> classifications = new ArrayList<>(hueClassifications);
+        classifications.addAll(lchClassifications);
+        for (final Row row : classifications) {
+            report.append(String.format(Locale.ROOT, "%-39s %12d %12.5f %14.2f%n", row.name, row.disagreements,
+                    100.0 * row.disagreements / ClassificationTable.SIZE, row.getRate()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report to a file.
+     *
+     * @param file the file.
+     * @throws FileNotFoundException if the file can't be written.
+     */
+    public void write(final File file) throws FileNotFoundException {
+
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.print(getReport());
+        }
+    }
+
+    /**
+     * One thread's buffers for validating chunks.
+     */
+    private final class Sweep {
+
+        private final int[] pixels = new int[CHUNK_SIZE];
+        private final double[][] xyz = new double[3][CHUNK_SIZE];
+        private final double[][] lab = new double[3][CHUNK_SIZE];
+        private final double[][] lch = new double[3][CHUNK_SIZE];
+        private final float[][] converted = new float[3][CHUNK_SIZE];
+        private final byte[] hueClasses = new byte[CHUNK_SIZE];
+        private final byte[] lchClasses = new byte[CHUNK_SIZE];
+        private final byte[] classes = new byte[CHUNK_SIZE];
+
+        void validate(final int start) {
+
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                pixels[i] = start + i;
+            }
+
+            // Reference conversions and classes.
+            final long time = System.nanoTime();
+            convertReference();
+            conversions.get(0).add(0.0, 0.0, 0L, System.nanoTime() - time);
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                hueClasses[i] = (byte) HUE_CLASSIFIER.classify(pixels[i]);
+                lchClasses[i] = (byte) LCH_CLASSIFIER.classify(lch[0][i], lch[1][i], lch[2][i]);
+            }
+
+            for (final Row row : conversions.subList(1, conversions.size())) {
+                compare(row, run(row));
+            }
+            for (final Row row : hueClassifications) {
+                compare(row, run(row), hueClasses);
+            }
+            for (final Row row : lchClassifications) {
+                compare(row, run(row), lchClasses);
+            }
+        }
+
+        /**
+         * Runs a path on the chunk.
+         *
+         * @return the time taken (ns).
+         */
+        private long run(final Row row) {
+
+            final long time = System.nanoTime();
+            row.path.run(pixels, converted, classes);
+            return System.nanoTime() - time;
+        }
+
+        private void convertReference() {
+
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+
+                final double r = LINEAR[Rgb24Bit.red(pixels[i])];
+                final double g = LINEAR[Rgb24Bit.green(pixels[i])];
+                final double b = LINEAR[Rgb24Bit.blue(pixels[i])];
+                final double x = 41.24 * r + 35.76 * g + 18.05 * b;
+                final double y = 21.26 * r + 71.52 * g + 7.22 * b;
+                final double z = 1.93 * r + 11.92 * g + 95.05 * b;
+                xyz[0][i] = x;
+                xyz[1][i] = y;
+                xyz[2][i] = z;
+
+                final double fx = f(x / WHITE[0]);
+                final double fy = f(y / WHITE[1]);
+                final double fz = f(z / WHITE[2]);
+                final double a = 500.0 * (fx - fy);
+                final double bb = 200.0 * (fy - fz);
+                lab[0][i] = 116.0 * fy - 16.0;
+                lab[1][i] = a;
+                lab[2][i] = bb;
+
+                lch[0][i] = lab[0][i];
+                lch[1][i] = Math.sqrt(a * a + bb * bb);
+                final double h = Math.atan2(bb, a) * DEGREES;
+                lch[2][i] = h < 0.0 ? h + 360.0 : h;
+            }
+        }
+
+        private double f(final double t) {
+            return t > EPSILON ? Math.cbrt(t) : KAPPA * t + SIXTEENTHS;
+        }
+
+        private void compare(final Row row, final long nanos) {
+
+            double max = 0.0;
+            double sum = 0.0;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+
+                final double error;
+                switch (row.space) {
+                    case XYZ:
+                        error = distance(xyz, i);
+                        break;
+                    case LAB:
+                        error = distance(lab, i);
+                        break;
+                    default:
+                        error = lchDistance(i);
+                }
+                max = Math.max(max, error);
+                sum += error;
+            }
+            row.add(max, sum, 0L, nanos);
+        }
+
+        private void compare(final Row row, final long nanos, final byte[] expected) {
+
+            long disagreements = 0L;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                if (classes[i] != expected[i]) {
+                    disagreements++;
+                }
+            }
+            row.add(0.0, 0.0, disagreements, nanos);
+        }
+
+        private double distance(final double[][] expected, final int i) {
+
+            final double d0 = converted[0][i] - expected[0][i];
+            final double d1 = converted[1][i] - expected[1][i];
+            final double d2 = converted[2][i] - expected[2][i];
+            return Math.sqrt(d0 * d0 + d1 * d1 + d2 * d2);
+        }
+
+        /**
+         * Delta E of LCH colours, from their lightness, chroma and hue differences.
+         */
+        private double lchDistance(final int i) {
+
+            final double dl = converted[0][i] - lch[0][i];
+            final double dc = converted[1][i] - lch[1][i];
+            final double dh = 2.0 * Math.sqrt(converted[1][i] * lch[1][i]) *
+                    Math.sin((converted[2][i] - lch[2][i]) / DEGREES / 2.0);
+            return Math.sqrt(dl * dl + dc * dc + dh * dh);
+        }
+    }
+}
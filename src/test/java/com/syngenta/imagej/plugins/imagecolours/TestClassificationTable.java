@@ -0,0 +1,30 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestClassificationTable {
+
+    @Test
+    public void testTableMatchesClassifier() {
+
+        final HueClassifier classifier = new HueClassifier(220, 20, 40, 0.4, 0.6);
+        final ClassificationTable table = ClassificationTable.build(classifier);
+
+        // Every 24-bit colour.
+        for (int rgb = 0; rgb < ClassificationTable.SIZE; rgb++) {
+            Assert.assertEquals("Class differs for " + Integer.toHexString(rgb), classifier.classify(rgb),
+                    table.classify(rgb));
+        }
+
+        // Alpha is ignored.
+        Assert.assertEquals("Alpha not ignored", table.classify(0x123456), table.classify(0xff123456));
+    }
+
+    @Test
+    public void testTableIsCached() {
+
+        Assert.assertSame("Table rebuilt", ClassificationTable.getTable(new HueClassifier(200, 10, 10, 0.5, 0.5)),
+                ClassificationTable.getTable(new HueClassifier(200, 10, 10, 0.5, 0.5)));
+    }
+}
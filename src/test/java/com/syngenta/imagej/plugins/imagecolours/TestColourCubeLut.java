@@ -0,0 +1,120 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import com.syngenta.imagej.plugins.imagecolours.ColourCubeLut.Interpolation;
+import com.syngenta.imagej.plugins.imagecolours.ColourSpaceUtilities.ColourSpace;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestColourCubeLut {
+
+    // Documented largest Lab errors for 33 nodes, with some slack for floating point differences.
+    private static final double TRILINEAR_33_ERROR = 0.47;
+    private static final double TETRAHEDRAL_33_ERROR = 0.68;
+
+    // Tolerance of exact conversions.
+    private static final float EXACT_TOLERANCE = 1.0e-3f;
+
+    // Number of random pixels converted in bulk.
+    private static final int PIXELS = 10000;
+
+    @Test
+    public void testLabErrors() {
+
+        testLabError(ColourCubeLut.build(ColourSpace.LAB, 33, Interpolation.TRILINEAR), TRILINEAR_33_ERROR);
+        testLabError(ColourCubeLut.build(ColourSpace.LAB, 33, Interpolation.TETRAHEDRAL), TETRAHEDRAL_33_ERROR);
+    }
+
+    private static void testLabError(final ColourCubeLut lut, final double maxError) {
+
+        final float[] expected = new float[3];
+        final float[] actual = new float[3];
+        double error = 0.0;
+        for (int rgb = 0; rgb < ClassificationTable.SIZE; rgb++) {
+
+            ColourSpaceUtilities.convertRgb2Lab(Rgb24Bit.red(rgb), Rgb24Bit.green(rgb), Rgb24Bit.blue(rgb), expected);
+            lut.convert(rgb, actual);
+            error = Math.max(error, distance(expected, actual));
+        }
+        Assert.assertTrue(lut.getInterpolation() + " error " + error + " > " + maxError, error <= maxError);
+    }
+
+    private static double distance(final float[] a, final float[] b) {
+
+        final double d0 = a[0] - b[0];
+        final double d1 = a[1] - b[1];
+        final double d2 = a[2] - b[2];
+        return Math.sqrt(d0 * d0 + d1 * d1 + d2 * d2);
+    }
+
+    @Test
+    public void testGridColoursAreExact() {
+
+        // With a node per channel value every colour is a grid colour.
+        final Random random = new Random(17L);
+        final float[] expected = new float[3];
+        final float[] actual = new float[3];
+        for (final ColourSpace space : new ColourSpace[]{ColourSpace.XYZ, ColourSpace.LAB, ColourSpace.LCH}) {
+            for (final Interpolation interpolation : Interpolation.values()) {
+
+                final ColourCubeLut lut = ColourCubeLut.build(space, ColourCubeLut.MAX_NODES, interpolation);
+                for (int i = 0; i < PIXELS; i++) {
+
+                    final int rgb = random.nextInt() & 0xffffff;
+                    convertExact(space, rgb, expected);
+                    lut.convert(rgb, actual);
+                    Assert.assertArrayEquals(space + " " + interpolation + " differs for " + Integer.toHexString(rgb),
+                            expected, actual, EXACT_TOLERANCE);
+                }
+            }
+        }
+
+        // Corners of the cube are grid colours at any size.
+        final ColourCubeLut lut = ColourCubeLut.build(ColourSpace.LAB, 17, Interpolation.TETRAHEDRAL);
+        for (final int rgb : new int[]{0x000000, 0xff0000, 0x00ff00, 0x0000ff, 0xffff00, 0xff00ff, 0x00ffff,
+                0xffffff}) {
+            convertExact(ColourSpace.LAB, rgb, expected);
+            lut.convert(rgb, actual);
+            Assert.assertArrayEquals("Corner differs: " + Integer.toHexString(rgb), expected, actual, EXACT_TOLERANCE);
+        }
+    }
+
+    private static void convertExact(final ColourSpace space, final int rgb, final float[] converted) {
+
+        final int[] pixels = {rgb};
+        final float[] c0 = new float[1];
+        final float[] c1 = new float[1];
+        final float[] c2 = new float[1];
+        ColourSpaceUtilities.convertRgb(space, pixels, 0, 1, c0, c1, c2);
+        converted[0] = c0[0];
+        converted[1] = c1[0];
+        converted[2] = c2[0];
+    }
+
+    @Test
+    public void testBulkMatchesConvert() {
+
+        final Random random = new Random(17L);
+        final int[] pixels = new int[PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        final ColourCubeLut lut = ColourCubeLut.getLut(ColourSpace.LCH, 33, Interpolation.TETRAHEDRAL);
+        Assert.assertSame("Table rebuilt", lut, ColourCubeLut.getLut(ColourSpace.LCH, 33, Interpolation.TETRAHEDRAL));
+        final float[] l = new float[PIXELS];
+        final float[] c = new float[PIXELS];
+        final float[] h = new float[PIXELS];
+        lut.convert(pixels, 0, PIXELS, l, c, h);
+        final float[] lch = new float[3];
+        for (int i = 0; i < PIXELS; i++) {
+            lut.convert(pixels[i], lch);
+            Assert.assertArrayEquals("Bulk differs", lch, new float[]{l[i], c[i], h[i]}, 0.0f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHsvRejected() {
+        ColourCubeLut.build(ColourSpace.HSV, 17, Interpolation.TRILINEAR);
+    }
+}
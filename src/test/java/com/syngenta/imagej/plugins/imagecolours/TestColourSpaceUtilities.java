@@ -0,0 +1,292 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+public class TestColourSpaceUtilities {
+
+    // Sample every STEP-th value of each channel.
+    private static final int STEP = 5;
+
+    // Allocation budget for the allocation-free APIs (covers the measurement's own overhead).
+    private static final long MAX_ALLOCATED_BYTES = 64 * 1024;
+
+    // Random colours converted back to RGB.
+    private static final int NUM_INVERSE_SAMPLES = 200000;
+    private static final long SEED = 42L;
+
+    // Greatest difference of an LCH to LAB conversion from the exact one, and of a channel after a round trip.
+    private static final float LCH2LAB_TOLERANCE = 1.0e-4f;
+    private static final int ROUND_TRIP_TOLERANCE = 1;
+
+    @Test
+    public void testPrimitiveApisMatchArrayApis() {
+
+        final double[] hsv = new double[3];
+        final float[] xyz = new float[3];
+        final float[] lab = new float[3];
+        final float[] lch = new float[3];
+        for (int r = 0; r < 256; r += STEP) {
+            for (int g = 0; g < 256; g += STEP) {
+                for (int b = 0; b < 256; b += STEP) {
+
+                    final int pixel = Rgb24Bit.pack(r, g, b);
+                    Assert.assertArrayEquals("Unpack differs", Rgb24Bit.unpack(pixel),
+                            new int[]{Rgb24Bit.red(pixel), Rgb24Bit.green(pixel), Rgb24Bit.blue(pixel)});
+                    Assert.assertEquals("Pack differs", Rgb24Bit.pack(new int[]{r, g, b}), pixel);
+
+                    ColourSpaceUtilities.convertRgb2Hsv(r, g, b, hsv);
+                    final double[] expectedHsv = ColourSpaceUtilities.convertRgb2Hsv(new int[]{r, g, b});
+                    Assert.assertArrayEquals("HSV differs", expectedHsv, hsv, 0.0);
+                    Assert.assertEquals("Hue differs", expectedHsv[0], ColourSpaceUtilities.getHue(r, g, b), 0.0);
+                    Assert.assertEquals("Saturation differs", expectedHsv[1],
+                            ColourSpaceUtilities.getSaturation(r, g, b), 0.0);
+                    Assert.assertEquals("Value differs", expectedHsv[2], ColourSpaceUtilities.getValue(r, g, b), 0.0);
+
+                    ColourSpaceUtilities.convertRgb2Xyz(r, g, b, xyz);
+                    final float[] expectedXyz = ColourSpaceUtilities.convertRgb2Xyz(new int[]{r, g, b});
+                    Assert.assertArrayEquals("XYZ differs", expectedXyz, xyz, 0.0f);
+
+                    ColourSpaceUtilities.convertRgb2Lab(r, g, b, lab);
+                    final float[] expectedLab = ColourSpaceUtilities.convertXyz2Lab(expectedXyz);
+                    Assert.assertArrayEquals("Lab differs", expectedLab, lab, 0.0f);
+
+                    ColourSpaceUtilities.convertLab2Lch(lab[0], lab[1], lab[2], lch);
+                    Assert.assertArrayEquals("LCH differs", ColourSpaceUtilities.convertLab2Lch(expectedLab), lch,
+                            0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBulkConversions() {
+
+        // An image of distinct colours.
+        final int width = 1000;
+        final int height = 300;
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i * 53;
+        }
+        final Rectangle roi = new Rectangle(17, 23, 900, 250);
+
+        final float[] expected = new float[3];
+        final double[] hsv = new double[3];
+        for (final ColourSpaceUtilities.ColourSpace space : ColourSpaceUtilities.ColourSpace.values()) {
+
+            final float[] c0 = new float[pixels.length];
+            final float[] c1 = new float[pixels.length];
+            final float[] c2 = new float[pixels.length];
+            ColourSpaceUtilities.convertRgbParallel(space, pixels, width, roi, c0, c1, c2);
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+
+                    final int i = y * width + x;
+                    if (roi.contains(x, y)) {
+
+                        final int r = Rgb24Bit.red(pixels[i]);
+                        final int g = Rgb24Bit.green(pixels[i]);
+                        final int b = Rgb24Bit.blue(pixels[i]);
+                        switch (space) {
+                            case HSV:
+                                ColourSpaceUtilities.convertRgb2Hsv(r, g, b, hsv);
+                                for (int j = 0; j < 3; j++) {
+                                    expected[j] = (float) hsv[j];
+                                }
+                                break;
+                            case XYZ:
+                                ColourSpaceUtilities.convertRgb2Xyz(r, g, b, expected);
+                                break;
+                            case LAB:
+                                ColourSpaceUtilities.convertRgb2Lab(r, g, b, expected);
+                                break;
+                            default:
+                                ColourSpaceUtilities.convertRgb2Lab(r, g, b, expected);
+                                ColourSpaceUtilities.convertLab2Lch(expected[0], expected[1], expected[2], expected);
+                        }
+                        Assert.assertArrayEquals(space + " differs", expected, new float[]{c0[i], c1[i], c2[i]},
+                                0.0f);
+                    } else {
+                        Assert.assertArrayEquals(space + " written outside ROI", new float[3],
+                                new float[]{c0[i], c1[i], c2[i]}, 0.0f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInverseConversionsMatchFormulas() {
+
+        final Random random = new Random(SEED);
+        final int[] rgb = new int[3];
+        final float[] xyz = new float[3];
+        final float[] lab = new float[3];
+        for (int i = 0; i < NUM_INVERSE_SAMPLES; i++) {
+
+            // XYZ, including colours outside the RGB gamut.
+            final float x = random.nextFloat() * 110.0f - 5.0f;
+            final float y = random.nextFloat() * 110.0f - 5.0f;
+            final float z = random.nextFloat() * 120.0f - 5.0f;
+            ColourSpaceUtilities.convertXyz2Rgb(x, y, z, rgb);
+            Assert.assertArrayEquals("RGB differs for " + x + ',' + y + ',' + z, convertXyz2Rgb(x, y, z), rgb);
+            Assert.assertArrayEquals("Array API differs", rgb, ColourSpaceUtilities.convertXyz2Rgb(x, y, z));
+
+            // LAB.
+            final float l = random.nextFloat() * 100.0f;
+            final float a = random.nextFloat() * 220.0f - 110.0f;
+            final float b = random.nextFloat() * 220.0f - 110.0f;
+            ColourSpaceUtilities.convertLab2Xyz(l, a, b, xyz);
+            Assert.assertArrayEquals("XYZ differs", convertLab2Xyz(l, a, b), xyz, 1.0e-4f);
+            Assert.assertArrayEquals("Array API differs", xyz, ColourSpaceUtilities.convertLab2Xyz(l, a, b), 0.0f);
+
+            // LCH, including hues outside 0-360.
+            final float c = random.nextFloat() * 140.0f;
+            final float h = random.nextFloat() * 1080.0f - 360.0f;
+            ColourSpaceUtilities.convertLch2Lab(l, c, h, lab);
+            final double theta = h * Math.PI / 180.0;
+            Assert.assertArrayEquals("LAB differs for " + c + ',' + h,
+                    new float[]{l, (float) (StrictMath.cos(theta) * c), (float) (StrictMath.sin(theta) * c)}, lab,
+                    LCH2LAB_TOLERANCE);
+            Assert.assertArrayEquals("Array API differs", lab, ColourSpaceUtilities.convertLch2Lab(l, c, h), 0.0f);
+        }
+    }
+
+    @Test
+    public void testInverseBulkConversions() {
+
+        final int length = 256 * 256;
+        final int offset = 3;
+        final int[] pixels = new int[length + 2 * offset];
+        final float[] c0 = new float[pixels.length];
+        final float[] c1 = new float[pixels.length];
+        final float[] c2 = new float[pixels.length];
+        final int[] converted = new int[pixels.length];
+        for (int b = 0; b < 256; b += STEP) {
+            for (int i = 0; i < length; i++) {
+                pixels[offset + i] = Rgb24Bit.pack(i >> 8, i & 0xff, b);
+            }
+            for (final ColourSpaceUtilities.ColourSpace space : ColourSpaceUtilities.ColourSpace.values()) {
+
+                // Round trip.
+                ColourSpaceUtilities.convertRgb(space, pixels, offset, length, c0, c1, c2);
+                converted[0] = -1;
+                converted[converted.length - 1] = -1;
+                ColourSpaceUtilities.convert2Rgb(space, c0, c1, c2, offset, length, converted);
+                Assert.assertEquals(space + " written before offset", -1, converted[0]);
+                Assert.assertEquals(space + " written after end", -1, converted[converted.length - 1]);
+                for (int i = offset; i < offset + length; i++) {
+                    if (getChannelDistance(pixels[i], converted[i]) > ROUND_TRIP_TOLERANCE) {
+                        Assert.fail(space + " round trip of " + Integer.toHexString(pixels[i]) + " gives " +
+                                Integer.toHexString(converted[i]));
+                    }
+                }
+            }
+        }
+
+        // Colours outside the RGB gamut are clamped.
+        final float[][] lab = {{100.0f, 110.0f, 110.0f}, {0.0f, 0.0f, -110.0f}};
+        ColourSpaceUtilities.convertLab2Rgb(new float[]{lab[0][0], lab[1][0]}, new float[]{lab[0][1], lab[1][1]},
+                new float[]{lab[0][2], lab[1][2]}, 0, lab.length, converted);
+        for (int i = 0; i < lab.length; i++) {
+            final int[] rgb = ColourSpaceUtilities.convertXyz2Rgb(ColourSpaceUtilities.convertLab2Xyz(lab[i]));
+            Assert.assertTrue("In gamut", Math.min(Math.min(rgb[0], rgb[1]), rgb[2]) < 0 ||
+                    Math.max(Math.max(rgb[0], rgb[1]), rgb[2]) > 255);
+            Assert.assertEquals("Not clamped", Rgb24Bit.pack(Math.max(0, Math.min(rgb[0], 255)),
+                    Math.max(0, Math.min(rgb[1], 255)), Math.max(0, Math.min(rgb[2], 255))), converted[i]);
+        }
+    }
+
+    @Test
+    public void testPrimitiveApisDoNotAllocate() {
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final double[] hsv = new double[3];
+        final float[] lab = new float[3];
+        final float[] lch = new float[3];
+        final HueClassifier classifier = new HueClassifier(200, 10, 10, 0.5, 0.5);
+
+        // Warm up, then measure.
+        convertAll(classifier, hsv, lab, lch);
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        final int sum = convertAll(classifier, hsv, lab, lch);
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        Assert.assertTrue("No conversions", sum != 0);
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+    }
+
+    private static int convertAll(final HueClassifier classifier, final double[] hsv, final float[] lab,
+                                  final float[] lch) {
+
+        int sum = 0;
+        for (int pixel = 0; pixel < ClassificationTable.SIZE; pixel += 7) {
+
+            final int r = Rgb24Bit.red(pixel);
+            final int g = Rgb24Bit.green(pixel);
+            final int b = Rgb24Bit.blue(pixel);
+            ColourSpaceUtilities.convertRgb2Hsv(r, g, b, hsv);
+            ColourSpaceUtilities.convertRgb2Lab(r, g, b, lab);
+            ColourSpaceUtilities.convertLab2Lch(lab[0], lab[1], lab[2], lch);
+            sum += classifier.classify(pixel) + Rgb24Bit.pack(r, g, b) + (int) hsv[0] + (int) lch[2];
+        }
+        return sum;
+    }
+
+    /**
+     * Greatest difference between the channels of two pixels.
+     */
+    private static int getChannelDistance(final int pixel1, final int pixel2) {
+        return Math.max(Math.max(Math.abs(Rgb24Bit.red(pixel1) - Rgb24Bit.red(pixel2)),
+                Math.abs(Rgb24Bit.green(pixel1) - Rgb24Bit.green(pixel2))),
+                Math.abs(Rgb24Bit.blue(pixel1) - Rgb24Bit.blue(pixel2)));
+    }
+
+    /**
+     * XYZ to RGB with StrictMath, as it was before it used look up tables.
+     */
+    private static int[] convertXyz2Rgb(final float x, final float y, final float z) {
+
+        final float xs = x / 100.0f;
+        final float ys = y / 100.0f;
+        final float zs = z / 100.0f;
+        final double[] rgb = {xs * 3.2406f + ys * -1.5372f + zs * -0.4986f, xs * -0.9689f + ys * 1.8758f + zs * 0.0415f,
+                xs * 0.0557f + ys * -0.2040f + zs * 1.0570f};
+        final int[] expected = new int[3];
+        for (int i = 0; i < 3; i++) {
+            final double v = rgb[i] > 0.0031308f ? 1.055f * StrictMath.pow(rgb[i], 1.0 / 2.4) - 0.055f : 12.92f * rgb[i];
+            expected[i] = (int) Math.round(v * 255.0);
+        }
+        return expected;
+    }
+
+    /**
+     * LAB to XYZ with StrictMath.
+     */
+    private static float[] convertLab2Xyz(final float l, final float a, final float b) {
+
+        final double x = (l + 16.0) / 116.0;
+        final double[] f = {a / 500.0 + x, x, x - b / 200.0};
+        final double[] white = {95.047, 100.0, 108.883};
+        final float[] xyz = new float[3];
+        for (int i = 0; i < 3; i++) {
+            final double f3 = StrictMath.pow(f[i], 3);
+            xyz[i] = (float) (white[i] * (f3 > 0.008856 ? f3 : (f[i] - 16.0 / 116.0) / 7.787));
+        }
+        return xyz;
+    }
+}
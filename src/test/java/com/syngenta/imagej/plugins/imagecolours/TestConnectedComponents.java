@@ -0,0 +1,160 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.measure.ResultsTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestConnectedComponents {
+
+    // Classes used in the maps.
+    private static final byte RED = (byte) HueColourClass.RED.ordinal();
+    private static final byte AQUA = (byte) HueColourClass.AQUA.ordinal();
+    private static final byte GREY = (byte) HueColourClass.GREY.ordinal();
+
+    // Random map dimensions, tall enough to be split into several strips.
+    private static final int WIDTH = 301;
+    private static final int HEIGHT = 517;
+
+    @Test
+    public void testShapes() {
+
+        // A diagonal (8-connected), a U closed on its last row, an aqua pixel, an unselected grey pixel and
+        // unclassified pixels.
+        final String[] rows = {
+                "R.......",
+                ".R..R.R.",
+                "..R.R.R.",
+                "A...RRR.",
+                "G-------"};
+        final int width = rows[0].length();
+        final int height = rows.length;
+        final byte[] classes = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                classes[y * width + x] = toClass(rows[y].charAt(x));
+            }
+        }
+        final boolean[] selected = new boolean[HueColourClass.count()];
+        selected[RED] = true;
+        selected[AQUA] = true;
+
+        final ConnectedComponents objects = ConnectedComponents.find(classes, width, height, selected, 1);
+        Assert.assertEquals("Wrong count", 3, objects.getCount());
+        final int[] expectedCounts = new int[HueColourClass.count()];
+        expectedCounts[RED] = 2;
+        expectedCounts[AQUA] = 1;
+        Assert.assertArrayEquals("Wrong class counts", expectedCounts, objects.getClassCounts());
+
+        // Raster order of first pixels: diagonal, U, aqua.
+        Assert.assertEquals("Wrong class", RED, objects.getClassIndex(0));
+        Assert.assertEquals("Wrong area", 3L, objects.getArea(0));
+        Assert.assertEquals("Wrong bounds", new Rectangle(0, 0, 3, 3), objects.getBounds(0));
+        Assert.assertEquals("Wrong centroid", 1.5, objects.getCentroidX(0), 0.0);
+        Assert.assertEquals("Wrong centroid", 1.5, objects.getCentroidY(0), 0.0);
+        Assert.assertEquals("Wrong area", 7L, objects.getArea(1));
+        Assert.assertEquals("Wrong bounds", new Rectangle(4, 1, 3, 3), objects.getBounds(1));
+        Assert.assertEquals("Wrong centroid", 5.5, objects.getCentroidX(1), 1e-12);
+        Assert.assertEquals("Wrong centroid", 2.5 + 1.0 / 7.0, objects.getCentroidY(1), 1e-12);
+        Assert.assertEquals("Wrong class", AQUA, objects.getClassIndex(2));
+        Assert.assertEquals("Wrong bounds", new Rectangle(0, 3, 1, 1), objects.getBounds(2));
+
+        // Tables.
+        final ResultsTable table = new ResultsTable();
+        objects.addTo(table, "shapes");
+        Assert.assertEquals("Wrong rows", 3, table.size());
+        Assert.assertEquals("Wrong area", 7.0, table.getValue("Area", 1), 0.0);
+        Assert.assertEquals("Wrong class", HueColourClass.AQUA.getLabel(), table.getStringValue("Class", 2));
+        final ResultsTable counts = new ResultsTable();
+        objects.addCountsTo(counts, "shapes", selected);
+        Assert.assertEquals("Wrong count", 2.0, counts.getValue(HueColourClass.RED.getLabel() + "_Count", 0), 0.0);
+        Assert.assertFalse("Unselected class counted",
+                counts.columnExists(HueColourClass.GREY.getLabel() + "_Count"));
+    }
+
+    @Test
+    public void testThreadsMatchFloodFill() {
+
+        // Blocky random classes, so objects span strips.
+        final Random random = new Random(7L);
+        final byte[] classes = new byte[WIDTH * HEIGHT];
+        final byte[] palette = {RED, AQUA, GREY, ConnectedComponents.UNCLASSIFIED};
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                classes[y * WIDTH + x] = random.nextInt(4) == 0 || y == 0 ?
+                        palette[random.nextInt(palette.length)] : classes[(y - 1) * WIDTH + x];
+            }
+        }
+        final boolean[] selected = new boolean[HueColourClass.count()];
+        selected[RED] = true;
+        selected[AQUA] = true;
+
+        final long[] expected = floodFill(classes, selected);
+        for (final int numThreads : new int[]{1, 2, 3, 8}) {
+
+            final ConnectedComponents objects = ConnectedComponents.find(classes, WIDTH, HEIGHT, selected, numThreads);
+            final long[] actual = new long[objects.getCount()];
+            for (int i = 0; i < actual.length; i++) {
+                actual[i] = objects.getArea(i);
+            }
+            Assert.assertArrayEquals("Areas differ with " + numThreads + " threads", expected, actual);
+        }
+    }
+
+    private static byte toClass(final char c) {
+
+        final byte result;
+        if (c == 'R') {
+            result = RED;
+        } else if (c == 'A') {
+            result = AQUA;
+        } else if (c == 'G') {
+            result = GREY;
+        } else if (c == '-') {
+            result = ConnectedComponents.UNCLASSIFIED;
+        } else {
+            result = (byte) HueColourClass.WHITE.ordinal();
+        }
+        return result;
+    }
+
+    // Areas of the 8-connected components of selected classes, in raster order of their first pixels.
+    private static long[] floodFill(final byte[] classes, final boolean[] selected) {
+
+        final boolean[] visited = new boolean[classes.length];
+        final int[] stack = new int[classes.length];
+        final long[] areas = new long[classes.length];
+        int count = 0;
+        for (int start = 0; start < classes.length; start++) {
+
+            if (visited[start] || classes[start] < 0 || !selected[classes[start]]) {
+                continue;
+            }
+            long area = 0L;
+            int size = 0;
+            stack[size++] = start;
+            visited[start] = true;
+            while (size > 0) {
+
+                final int i = stack[--size];
+                area++;
+                final int x = i % WIDTH;
+                final int y = i / WIDTH;
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(HEIGHT - 1, y + 1); ny++) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(WIDTH - 1, x + 1); nx++) {
+                        final int j = ny * WIDTH + nx;
+                        if (!visited[j] && classes[j] == classes[start]) {
+                            visited[j] = true;
+                            stack[size++] = j;
+                        }
+                    }
+                }
+            }
+            areas[count++] = area;
+        }
+        return Arrays.copyOf(areas, count);
+    }
+}
@@ -0,0 +1,54 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import com.syngenta.imagej.plugins.imagecolours.ColourSpaceUtilities.ColourSpace;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+public class TestFullCubeValidation {
+
+    // Largest errors against the double precision reference, with some slack.
+    private static final double TABLES_XYZ_ERROR = 1.0e-3;
+    private static final double TABLES_LAB_ERROR = 0.05;
+    private static final double TRILINEAR_33_ERROR = 0.47;
+    private static final double TETRAHEDRAL_33_ERROR = 0.68;
+
+    // Largest fractions of colours whose LCH class differs from the reference class.
+    private static final double TABLES_LCH_DISAGREEMENT = 1.0e-4;
+    private static final double LUT_LCH_DISAGREEMENT = 1.0e-3;
+
+    @Test
+    public void testFullCube() throws FileNotFoundException {
+
+        final FullCubeValidation validation = FullCubeValidation.run();
+        final File directory = new File("target");
+        directory.mkdirs();
+        validation.write(new File(directory, "full-cube-report.txt"));
+        System.out.print(validation.getReport());
+
+        assertMaxError(validation.getConversion("Tables", ColourSpace.XYZ), TABLES_XYZ_ERROR);
+        assertMaxError(validation.getConversion("Tables", ColourSpace.LAB), TABLES_LAB_ERROR);
+        assertMaxError(validation.getConversion("Tables", ColourSpace.LCH), TABLES_LAB_ERROR);
+        assertMaxError(validation.getConversion("LUT 33 trilinear", ColourSpace.LAB), TRILINEAR_33_ERROR);
+        assertMaxError(validation.getConversion("LUT 33 tetrahedral", ColourSpace.LAB), TETRAHEDRAL_33_ERROR);
+        assertMaxError(validation.getConversion("LUT 33 tetrahedral", ColourSpace.LCH), TETRAHEDRAL_33_ERROR);
+
+        // HSV classes are exact; LCH classes differ only for colours within rounding of a threshold.
+        Assert.assertEquals("HSV table", 0L, validation.getClassification("HSV table").getDisagreements());
+        Assert.assertEquals("HSV bulk", 0L, validation.getClassification("HSV bulk").getDisagreements());
+        assertDisagreements(validation.getClassification("LCH tables"), TABLES_LCH_DISAGREEMENT);
+        assertDisagreements(validation.getClassification("LCH LUT"), LUT_LCH_DISAGREEMENT);
+    }
+
+    private static void assertMaxError(final FullCubeValidation.Row row, final double maxError) {
+        Assert.assertTrue(row.getName() + ' ' + row.getSpace() + " error " + row.getMaxError() + " > " + maxError,
+                row.getMaxError() <= maxError);
+    }
+
+    private static void assertDisagreements(final FullCubeValidation.Row row, final double maxFraction) {
+        Assert.assertTrue(row.getName() + " disagreements " + row.getDisagreements(),
+                row.getDisagreements() <= maxFraction * ClassificationTable.SIZE);
+    }
+}
@@ -0,0 +1,102 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+public class TestHueClassTable {
+
+    // The built-in hue boundaries, as they were hard-coded.
+    private static final double[] BUILT_IN_BOUNDARIES = {0.0277, 0.1138, 0.1916, 0.3083, 0.425, 0.475, 0.8, 0.9333};
+
+    // A crop palette: reds, greens (light and dark) and everything else aqua.
+    private static final String CROP_TABLE = "# hue_max light_class dark_class\n" +
+            "0.05 Red Brown\n" +
+            "\n" +
+            "0.2 Yellow_Light Yellow_Dark\n" +
+            "0.45 Green_Light Green_Dark\n" +
+            "  0.95   AQUA   Aqua  \n" +
+            "1.0 Red Brown\n" +
+            "colour Green_Dark 004000\n";
+
+    @Test
+    public void testBuiltInRanges() {
+
+        final HueClassTable table = HueClassTable.DEFAULT;
+        Assert.assertArrayEquals("Boundaries differ", BUILT_IN_BOUNDARIES, table.getBoundaries(), 0.0);
+        Assert.assertEquals("Wrong range count", HueClassifier.HUE_BINS, table.getRangeCount());
+
+        // Random hues, look-up bin edges, and hues on and either side of each boundary.
+        final Random random = new Random(5L);
+        for (int i = 0; i < 1000000; i++) {
+            assertRange(table, random.nextDouble());
+        }
+        for (int bin = 0; bin <= HueClassTable.LOOKUP_BINS; bin++) {
+            final double hue = (double) bin / HueClassTable.LOOKUP_BINS;
+            assertRange(table, hue);
+            assertRange(table, Math.nextAfter(hue, 0.0));
+        }
+        for (final double boundary : BUILT_IN_BOUNDARIES) {
+            assertRange(table, boundary);
+            assertRange(table, Math.nextUp(boundary));
+            assertRange(table, Math.nextAfter(boundary, 0.0));
+        }
+
+        // Classes and colours.
+        Assert.assertEquals("Wrong class", HueColourClass.BROWN.ordinal(), table.getClass(1, false));
+        Assert.assertEquals("Wrong class", HueColourClass.ORANGE.ordinal(), table.getClass(1, true));
+        Assert.assertEquals("Wrong colour", Rgb24Bit.MAGENTA, table.getColours()[HueColourClass.MAGENTA.ordinal()]);
+    }
+
+    @Test
+    public void testRead() throws IOException {
+
+        final HueClassTable table = HueClassTable.read(new StringReader(CROP_TABLE));
+        Assert.assertArrayEquals("Boundaries differ", new double[]{0.05, 0.2, 0.45, 0.95}, table.getBoundaries(),
+                0.0);
+        Assert.assertEquals("Wrong range", 0, table.getRange(0.05));
+        Assert.assertEquals("Wrong range", 3, table.getRange(0.5));
+        Assert.assertEquals("Wrong range", 4, table.getRange(1.0));
+        Assert.assertEquals("Wrong class", HueColourClass.DARK_GREEN.ordinal(), table.getClass(2, false));
+        Assert.assertEquals("Wrong class", HueColourClass.AQUA.ordinal(), table.getClass(3, false));
+        Assert.assertEquals("Wrong colour", 0x004000, table.getColours()[HueColourClass.DARK_GREEN.ordinal()]);
+        Assert.assertEquals("Wrong colour", Rgb24Bit.RED, table.getColours()[HueColourClass.RED.ordinal()]);
+        Assert.assertEquals("Tables differ", table, HueClassTable.read(new StringReader(CROP_TABLE)));
+        Assert.assertNotEquals("Tables equal", HueClassTable.DEFAULT, table);
+
+        // A classifier with the table classifies a pure green as light green, and bright red as red.
+        final HueClassifier classifier = new HueClassifier(220, 20, 40, 0.4, 0.6, table);
+        Assert.assertEquals("Wrong class", HueColourClass.LIGHT_GREEN.ordinal(), classifier.classify(0x00ff00));
+        Assert.assertEquals("Wrong class", HueColourClass.RED.ordinal(), classifier.classify(0xff0000));
+        Assert.assertEquals("Wrong class", HueColourClass.AQUA.ordinal(), classifier.classify(0x0000ff));
+        Assert.assertNotEquals("Classifiers equal", new HueClassifier(220, 20, 40, 0.4, 0.6), classifier);
+    }
+
+    @Test
+    public void testInvalidTables() throws IOException {
+
+        for (final String text : new String[]{"", "0.5 Red Red\n", "0.5 Red Purple\n1.0 Red Red\n",
+                "0.5 Red\n1.0 Red Red\n", "0.5 Red Red\n0.4 Red Red\n1.0 Red Red\n",
+                "0.5 Red Red\n0.50001 Red Red\n1.0 Red Red\n", "colour Red red\n1.0 Red Red\n"}) {
+            try {
+                HueClassTable.read(new StringReader(text));
+                Assert.fail("Invalid table read: " + text);
+            } catch (final IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    // Check a hue's range against a linear search of the boundaries.
+    private static void assertRange(final HueClassTable table, final double hue) {
+
+        int range = 0;
+        while (range < BUILT_IN_BOUNDARIES.length && hue > BUILT_IN_BOUNDARIES[range]) {
+            range++;
+        }
+        Assert.assertEquals("Wrong range for " + hue, range, table.getRange(hue));
+    }
+}
@@ -0,0 +1,70 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestHueColoursBatch {
+
+    private static final String TEST_IMAGE_DIR = "data/testimages/ImageColours/HueColoursFilter";
+
+    private static final String OPTIONS =
+            "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _green_light_";
+
+    @Test
+    public void testProcess() throws IOException, InterruptedException {
+
+        // Images with the same name in different directories, an image that can't be decoded, and a missing one.
+        final File inputDir = new File("target", "batch-input");
+        final File outputDir = new File("target", "batch-output");
+        final File image = new File(TEST_IMAGE_DIR, "maize.jpg");
+        final File imageA = new File(inputDir, "plotA/img1.jpg");
+        final File imageB = new File(inputDir, "plotB/img1.jpg");
+        final File broken = new File(inputDir, "plotB/broken.jpg");
+        for (final File file : new File[]{imageA, imageB}) {
+            Assert.assertTrue("Can't create " + file, file.getParentFile().isDirectory() ||
+                    file.getParentFile().mkdirs());
+            Files.copy(image.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        final OutputStream output = new FileOutputStream(broken);
+        try {
+            output.write("not an image".getBytes(Charset.forName("UTF-8")));
+        } finally {
+            output.close();
+        }
+        final List<File> files = Arrays.asList(imageA, imageB, broken, new File(inputDir, "missing.jpg"), imageA);
+        Assert.assertEquals("Wrong paths",
+                Arrays.asList("plotA/img1.jpg", "plotB/img1.jpg", "plotB/broken.jpg", "missing.jpg", "plotA/img1.jpg"),
+                HueColoursBatch.getRelativePaths(files));
+
+        // One classification thread, so a leaked permit would stall the pipeline. The filter's last options (shared
+        // by all filters) are restored for other tests.
+        final String lastOptions = HueColoursFilter.getOptions();
+        final HueColoursBatch batch = new HueColoursBatch(OPTIONS, 1, 1);
+        try {
+            batch.process(files, outputDir);
+        } finally {
+            HueColoursFilter.fromOptions(lastOptions);
+        }
+        Assert.assertEquals("Wrong image count", 2, batch.getImageCount());
+        Assert.assertEquals("Wrong failure count", 3, batch.getFailureCount());
+        Assert.assertTrue("Image A not written", new File(outputDir, "plotA/img1.tif").isFile());
+        Assert.assertTrue("Image B not written", new File(outputDir, "plotB/img1.tif").isFile());
+
+        // Each image has its own row of statistics.
+        final File statistics = new File(outputDir, "statistics.csv");
+        batch.saveStatistics(statistics);
+        final String csv = new String(Files.readAllBytes(statistics.toPath()), Charset.forName("UTF-8"));
+        Assert.assertTrue("No row for image A", csv.contains("plotA/img1.jpg"));
+        Assert.assertTrue("No row for image B", csv.contains("plotB/img1.jpg"));
+    }
+}
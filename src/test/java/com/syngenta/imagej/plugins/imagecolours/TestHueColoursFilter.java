@@ -1,10 +1,26 @@
 package com.syngenta.imagej.plugins.imagecolours;
 
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.gui.Line;
+import ij.gui.OvalRoi;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.io.Opener;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.PlugInFilterRunner;
 import org.junit.Assert;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class TestHueColoursFilter {
 
@@ -46,4 +62,432 @@ public class TestHueColoursFilter {
                 TEST_IMAGE_DIR + "/maize.jpg",
                 TEST_IMAGE_DIR + "/maize-white_min=220 black_max=20 tolerance=40 light_dark_threshold=.4 saturation_min=.6 _white _black _grey make hide make_background.tif");
     }
+
+    @Test
+    public void testStatistics() {
+
+        // Measure only.
+        final HueColoursFilter filter = new HueColoursFilter(220, 20, 40, 0.4, 0.6, true, true, true, false, false,
+                false, false, false, false, false, false, false, false, false, false, false, true, true, true, true,
+                true, true);
+        TestUtilities.testFilter(filter, TEST_IMAGE_DIR + "/maize.jpg", TEST_IMAGE_DIR + "/maize.jpg");
+
+        // Compare counts with classifying each pixel.
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final HueClassifier classifier = new HueClassifier(220, 20, 40, 0.4, 0.6);
+        final long[] expected = new long[HueColourClass.count()];
+        for (final int pixel : (int[]) image.getProcessor().getPixels()) {
+            expected[classifier.classify(pixel)]++;
+        }
+        Assert.assertArrayEquals("Counts differ", expected, filter.getStatistics().getCounts());
+    }
+
+    @Test
+    public void testIndependentConfigs() throws InterruptedException {
+
+        final HueColoursConfig redConfig = HueColoursConfig.fromOptions(
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red");
+        final HueColoursConfig greenConfig = redConfig.toBuilder()
+                .show(HueColourClass.RED, false)
+                .show(HueColourClass.LIGHT_GREEN, true)
+                .show(HueColourClass.DARK_GREEN, true)
+                .build();
+
+        // Expected results, one filter at a time.
+        final ImagePlus redExpected = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        new HueColoursFilter(redConfig, true).apply(redExpected);
+        final ImagePlus greenExpected = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        new HueColoursFilter(greenConfig, true).apply(greenExpected);
+
+        // Run both filters at once.
+        final HueColoursFilter redFilter = new HueColoursFilter(redConfig, true);
+        final HueColoursFilter greenFilter = new HueColoursFilter(greenConfig, true);
+        final ImagePlus redImage = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final ImagePlus greenImage = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final Thread redThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                redFilter.apply(redImage);
+            }
+        });
+        redThread.start();
+        greenFilter.apply(greenImage);
+        redThread.join();
+
+        Assert.assertEquals("Config changed", redConfig, redFilter.getConfig());
+        Assert.assertEquals("Config changed", greenConfig, greenFilter.getConfig());
+        Assert.assertArrayEquals("Red result differs", (int[]) redExpected.getProcessor().getPixels(),
+                (int[]) redImage.getProcessor().getPixels());
+        Assert.assertArrayEquals("Green result differs", (int[]) greenExpected.getProcessor().getPixels(),
+                (int[]) greenImage.getProcessor().getPixels());
+    }
+
+    @Test
+    public void testStacks() {
+
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _green_light_";
+        for (final String extraOptions : new String[]{" measure", " make measure"}) {
+
+            // Expected slices: maize, inverted maize and maize.
+            final ImagePlus maize = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+            final ImagePlus inverted = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+            inverted.getProcessor().invert();
+            final ImageStack stack = new ImageStack(maize.getWidth(), maize.getHeight());
+            final ImagePlus[] expected = new ImagePlus[]{maize.duplicate(), inverted.duplicate(), maize.duplicate()};
+            for (final ImagePlus slice : expected) {
+                stack.addSlice(slice.getProcessor().duplicate());
+                HueColoursFilter.fromOptions(options + extraOptions).apply(slice);
+            }
+
+            // Process via a runner, and directly.
+            final ImagePlus runnerStack = new ImagePlus("stack", stack.duplicate());
+            final HueColoursFilter runnerFilter = HueColoursFilter.fromOptions(options + extraOptions);
+            WindowManager.setTempCurrentImage(runnerStack);
+            new PlugInFilterRunner(runnerFilter, "", "");
+            final ImagePlus appliedStack = new ImagePlus("stack", stack.duplicate());
+            final HueColoursFilter appliedFilter = HueColoursFilter.fromOptions(options + extraOptions);
+            appliedFilter.apply(appliedStack);
+
+            for (final ImagePlus actual : new ImagePlus[]{runnerStack, appliedStack}) {
+                Assert.assertEquals("Slice count differs", expected.length, actual.getStackSize());
+                for (int n = 0; n < expected.length; n++) {
+                    TestUtilities.assertEqualImages(expected[n],
+                            new ImagePlus("slice", actual.getStack().getProcessor(n + 1)));
+                }
+            }
+
+            // Stack statistics are the sum of the slices' statistics.
+            Assert.assertEquals("Total differs", 3L * maize.getWidth() * maize.getHeight(),
+                    sum(appliedFilter.getStatistics().getCounts()));
+            Assert.assertArrayEquals("Counts differ", runnerFilter.getStatistics().getCounts(),
+                    appliedFilter.getStatistics().getCounts());
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final long pixels = (long) image.getWidth() * image.getHeight();
+        final HueColoursFilter filter = HueColoursFilter.fromOptions(
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red make");
+        filter.apply(image);
+
+        final FilterMetrics metrics = filter.getMetrics();
+        Assert.assertEquals("Setup pixels differ", pixels, metrics.getPixels(FilterMetrics.Stage.SETUP));
+        Assert.assertEquals("Classification pixels differ", pixels,
+                metrics.getPixels(FilterMetrics.Stage.CLASSIFICATION));
+        Assert.assertEquals("Binarize pixels differ", pixels, metrics.getPixels(FilterMetrics.Stage.FINAL_BINARIZE));
+        Assert.assertEquals("Pre-pass ran", 0L, metrics.getNanos(FilterMetrics.Stage.BINARIZE_PRE_PASS));
+        Assert.assertTrue("No classification time", metrics.getNanos(FilterMetrics.Stage.CLASSIFICATION) > 0L);
+        Assert.assertTrue("No throughput", metrics.getPixelsPerSecond(FilterMetrics.Stage.CLASSIFICATION) > 0.0);
+    }
+
+    @Test
+    public void testBinaryRoi() {
+
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey make";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        final ImagePlus original = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final int width = original.getWidth();
+        final int height = original.getHeight();
+        final OvalRoi roi = new OvalRoi(width / 5, height / 4, width / 2, height / 2);
+
+        // Expected: selected pixels in the ROI are black, others in it white, and the rest thresholded.
+        final byte[] expected = (byte[]) Rgb24Bit.binarize(original.getProcessor(), 128).getPixels();
+        final ClassificationTable table = ClassificationTable.getTable(config.getClassifier());
+        final int[] pixels = (int[]) original.getProcessor().getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (roi.contains(x, y)) {
+                    final int i = y * width + x;
+                    expected[i] = config.isSelected(HueColourClass.valueOf(table.classify(pixels[i]))) ?
+                            (byte) 0 : (byte) 255;
+                }
+            }
+        }
+
+        // Via a runner, and directly.
+        final ImagePlus runnerImage = original.duplicate();
+        runnerImage.setRoi((Roi) roi.clone());
+        WindowManager.setTempCurrentImage(runnerImage);
+        new PlugInFilterRunner(HueColoursFilter.fromOptions(options), "", "");
+        final ImagePlus appliedImage = original.duplicate();
+        appliedImage.setRoi((Roi) roi.clone());
+        HueColoursFilter.fromOptions(options).apply(appliedImage);
+
+        for (final ImagePlus actual : new ImagePlus[]{runnerImage, appliedImage}) {
+            Assert.assertEquals("Not 8-bit", ImagePlus.GRAY8, actual.getType());
+            Assert.assertArrayEquals("Pixels differ", expected, (byte[]) actual.getProcessor().getPixels());
+        }
+    }
+
+    @Test
+    public void testLabels() {
+
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey _aqua " +
+                        "make_labels";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        final ImagePlus original = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final int width = original.getWidth();
+        final int height = original.getHeight();
+        final OvalRoi roi = new OvalRoi(width / 5, height / 4, width / 2, height / 2);
+
+        // Expected: selected pixels in the ROI are labelled by class, the rest are background.
+        final byte[] expected = new byte[width * height];
+        final ClassificationTable table = ClassificationTable.getTable(config.getClassifier());
+        final int[] pixels = (int[]) original.getProcessor().getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (roi.contains(x, y)) {
+                    final int i = y * width + x;
+                    final int hueClass = table.classify(pixels[i]);
+                    expected[i] = (byte) (config.isSelected(HueColourClass.valueOf(hueClass)) ?
+                            ClassLabels.getLabel(hueClass) : ClassLabels.BACKGROUND);
+                }
+            }
+        }
+
+        // Via a runner, and directly.
+        final ImagePlus runnerImage = original.duplicate();
+        runnerImage.setRoi((Roi) roi.clone());
+        WindowManager.setTempCurrentImage(runnerImage);
+        new PlugInFilterRunner(HueColoursFilter.fromOptions(options), "", "");
+        final ImagePlus appliedImage = original.duplicate();
+        appliedImage.setRoi((Roi) roi.clone());
+        HueColoursFilter.fromOptions(options).apply(appliedImage);
+
+        for (final ImagePlus actual : new ImagePlus[]{runnerImage, appliedImage}) {
+            Assert.assertEquals("Not 8-bit", ImagePlus.GRAY8, actual.getType());
+            Assert.assertArrayEquals("Pixels differ", expected, (byte[]) actual.getProcessor().getPixels());
+            Assert.assertArrayEquals("LUTs differ", ClassLabels.createLut().getBytes(),
+                    actual.getProcessor().getLut().getBytes());
+        }
+
+        // The LUT reproduces the RGB output with a hidden background.
+        final ImagePlus rgbImage = original.duplicate();
+        HueColoursFilter.fromOptions(options.replace("make_labels", "hide")).apply(rgbImage);
+        HueColoursFilter.fromOptions(options).apply(original);
+        original.setProcessor(original.getProcessor().convertToRGB());
+        TestUtilities.assertEqualImages(rgbImage, original);
+    }
+
+    @Test
+    public void testObjects() {
+
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey " +
+                        "make count_objects ";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        Assert.assertEquals("Options differ", options, config.getOptions());
+        Assert.assertTrue("Not counting objects", config.isObjects());
+
+        // Expected: the objects of a class map of the pixels in the ROI.
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final OvalRoi roi = new OvalRoi(width / 5, height / 4, width / 2, height / 2);
+        final byte[] classes = new byte[width * height];
+        final ClassificationTable table = ClassificationTable.getTable(config.getClassifier());
+        final int[] pixels = (int[]) image.getProcessor().getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int i = y * width + x;
+                classes[i] = roi.contains(x, y) ? (byte) table.classify(pixels[i]) : ConnectedComponents.UNCLASSIFIED;
+            }
+        }
+        final ConnectedComponents expected =
+                ConnectedComponents.find(classes, width, height, config.getSelectedClasses(), 1);
+        Assert.assertTrue("No objects", expected.getCount() > 0);
+
+        image.setRoi(roi);
+        final HueColoursFilter filter = new HueColoursFilter(config, true);
+        filter.apply(image);
+        final ConnectedComponents actual = filter.getObjects(1);
+        Assert.assertNotNull("Objects not found", actual);
+        Assert.assertEquals("Counts differ", expected.getCount(), actual.getCount());
+        Assert.assertArrayEquals("Class counts differ", expected.getClassCounts(), actual.getClassCounts());
+        for (int i = 0; i < expected.getCount(); i++) {
+            Assert.assertEquals("Areas differ", expected.getArea(i), actual.getArea(i));
+            Assert.assertEquals("Bounds differ", expected.getBounds(i), actual.getBounds(i));
+        }
+        Assert.assertTrue("No object timing", filter.getMetrics().getNanos(FilterMetrics.Stage.FINAL_OBJECTS) > 0L);
+    }
+
+    @Test
+    public void testRois() {
+
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey " +
+                        "measure_only measure_rois ";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        Assert.assertEquals("Options differ", options, config.getOptions());
+        Assert.assertTrue("Not measuring ROIs", config.isRois());
+
+        // Overlapping plots, one partly outside the image, and a line (no area).
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Roi[] rois = {new Roi(10, 20, width / 3, height / 3),
+                new OvalRoi(width / 4, height / 4, width / 2, height / 3),
+                new PolygonRoi(new int[]{width / 2, width + 20, width / 2}, new int[]{0, height / 2, height}, 3,
+                        Roi.POLYGON),
+                new Line(0, 0, width, height)};
+        rois[1].setName("oval");
+
+        // Measuring only leaves the image unchanged.
+        final ImagePlus original = image.duplicate();
+        final HueColoursFilter filter = new HueColoursFilter(config, true);
+        filter.setMeasuredRois(rois);
+        filter.apply(image);
+        Assert.assertArrayEquals("Pixels changed", (int[]) original.getProcessor().getPixels(),
+                (int[]) image.getProcessor().getPixels());
+        final RoiStatistics actual = filter.getRoiStatistics(1);
+        Assert.assertNotNull("ROIs not measured", actual);
+
+        // Expected: measure each ROI of the original image in turn, as a macro looping over the ROI Manager would.
+        for (int i = 0; i < rois.length; i++) {
+
+            final long[] expected;
+            if (rois[i].isArea()) {
+                final ImagePlus roiImage = original.duplicate();
+                roiImage.setRoi((Roi) rois[i].clone());
+                final HueColoursFilter roiFilter =
+                        new HueColoursFilter(config.toBuilder().measure(true).rois(false).build(), true);
+                roiFilter.apply(roiImage);
+                expected = roiFilter.getStatistics().getCounts();
+            } else {
+                expected = ClassStatistics.newCounts();
+            }
+            Assert.assertArrayEquals("Counts differ for ROI " + i, expected, actual.getCounts(i));
+        }
+
+        // One row per ROI, named or numbered.
+        final ResultsTable table = new ResultsTable();
+        actual.addTo(table, "maize:");
+        Assert.assertEquals("Wrong rows", rois.length, table.size());
+        Assert.assertEquals("Wrong label", "maize:oval", table.getLabel(1));
+        Assert.assertEquals("Wrong label", "maize:ROI 1", table.getLabel(0));
+        Assert.assertEquals("Index not timed", (long) width * height,
+                filter.getMetrics().getPixels(FilterMetrics.Stage.ROI_INDEX));
+    }
+
+    @Test
+    public void testClassTable() throws IOException {
+
+        // A table in a file whose path has a space.
+        final File file = new File("target", "crop classes.txt");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("0.1 Red Brown\n0.45 Green_Light Green_Dark\n1.0 Aqua Aqua\ncolour Green_Light 00c000\n");
+        } finally {
+            writer.close();
+        }
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.3 _red _green_light_ " +
+                        "class_table=[" + file.getPath() + "] ";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        Assert.assertEquals("Options differ", options, config.getOptions());
+        Assert.assertEquals("Configs differ", config, HueColoursConfig.fromOptions(config.getOptions()));
+        Assert.assertEquals("Wrong table", HueClassTable.read(file), config.getClassTable());
+        Assert.assertEquals("Wrong path", file.getPath(), config.getClassTablePath());
+
+        // Compare with classifying each pixel.
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final HueClassifier classifier = new HueClassifier(220, 20, 40, 0.4, 0.3, HueClassTable.read(file));
+        final int[] pixels = (int[]) image.getProcessor().getPixels();
+        final int[] expected = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            final int hueClass = classifier.classify(pixels[i]);
+            expected[i] = hueClass == HueColourClass.LIGHT_GREEN.ordinal() ? 0x00c000 :
+                    (hueClass == HueColourClass.RED.ordinal() ? Rgb24Bit.RED : pixels[i]) & 0xffffff;
+        }
+        new HueColoursFilter(config, true).apply(image);
+        final int[] actual = (int[]) image.getProcessor().getPixels();
+        for (int i = 0; i < actual.length; i++) {
+            Assert.assertEquals("Pixel " + i + " differs", expected[i], actual[i] & 0xffffff);
+        }
+
+        // Missing tables are rejected.
+        try {
+            HueColoursConfig.fromOptions("class_table=" + new File("target", "missing.txt").getPath());
+            Assert.fail("Missing table read");
+        } catch (final IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testUniqueColours() {
+
+        // Parameters no other test uses, so the look-up table isn't cached.
+        final String options = "white_min=217 black_max=23 tolerance=37 light_dark_threshold=0.45 saturation_min=0.55 " +
+                "_red _aqua _green_dark measure";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        final File tableFile = TableCache.getFile(config.getClassifier());
+        Assert.assertTrue("Table file remains", !tableFile.exists() || tableFile.delete());
+        Assert.assertFalse("Table cached", ClassificationTable.isCached(config.getClassifier()));
+
+        // The image's few colours are classified instead of building the table.
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final long pixels = (long) image.getWidth() * image.getHeight();
+        final HueColoursFilter filter = new HueColoursFilter(config, true);
+        filter.apply(image);
+        Assert.assertEquals("Colours not collected", pixels,
+                filter.getMetrics().getPixels(FilterMetrics.Stage.UNIQUE_COLOURS));
+        Assert.assertFalse("Table built", ClassificationTable.isCached(config.getClassifier()));
+
+        // Once the table is built it's used instead, with the same results.
+        ClassificationTable.getTable(config.getClassifier());
+        final ImagePlus tableImage = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final HueColoursFilter tableFilter = new HueColoursFilter(config, true);
+        tableFilter.apply(tableImage);
+        Assert.assertEquals("Colours collected", 0L,
+                tableFilter.getMetrics().getPixels(FilterMetrics.Stage.UNIQUE_COLOURS));
+        Assert.assertArrayEquals("Pixels differ", (int[]) tableImage.getProcessor().getPixels(),
+                (int[]) image.getProcessor().getPixels());
+        Assert.assertArrayEquals("Counts differ", tableFilter.getStatistics().getCounts(),
+                filter.getStatistics().getCounts());
+    }
+
+    @Test
+    public void testLch() {
+
+        final String options =
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _aqua _grey " +
+                        "measure measure_only classify_lch lch_black_max=15.0 lch_white_min=85.0 " +
+                        "lch_light_dark_threshold=50.0 lch_chroma_min=12.0 " +
+                        "lch_hue_boundaries=10.0,40.0,80.0,110.0,135.0,150.0,180.0,320.0 ";
+        final HueColoursConfig config = HueColoursConfig.fromOptions(options);
+        Assert.assertEquals("Options differ", options, config.getOptions());
+        Assert.assertEquals("Configs differ", config, HueColoursConfig.fromOptions(config.getOptions()));
+        Assert.assertEquals("Wrong classifier",
+                new LchClassifier(15.0, 85.0, 50.0, 12.0, 10.0, 40.0, 80.0, 110.0, 135.0, 150.0, 180.0, 320.0),
+                config.getClassifier());
+
+        // Switching LCh off leaves the HSV options.
+        Assert.assertFalse("LCh options remain", config.toBuilder().lch(false).build().getOptions().contains("lch"));
+
+        // Compare counts with classifying each pixel.
+        final ImagePlus image = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final long[] expected = new long[HueColourClass.count()];
+        for (final int pixel : (int[]) image.getProcessor().getPixels()) {
+            expected[config.getClassifier().classify(pixel)]++;
+        }
+        final HueColoursFilter filter = new HueColoursFilter(config, true);
+        filter.apply(image);
+        Assert.assertArrayEquals("Counts differ", expected, filter.getStatistics().getCounts());
+    }
+
+    private static long sum(final long[] values) {
+
+        long total = 0L;
+        for (final long value : values) {
+            total += value;
+        }
+        return total;
+    }
 }
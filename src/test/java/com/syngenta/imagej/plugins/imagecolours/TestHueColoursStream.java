@@ -0,0 +1,223 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.io.Opener;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class TestHueColoursStream {
+
+    private static final String TEST_IMAGE_DIR = "data/testimages/ImageColours/HueColoursFilter";
+
+    // Small bands, so that images are processed in many.
+    private static final int BAND_ROWS = 7;
+
+    // Tile size of the tiled test image.
+    private static final int TILE_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStreamMatchesFilter() throws IOException {
+
+        // ImageJ writes big-endian TIFFs with a single strip.
+        final ImagePlus maize = new Opener().openImage(TEST_IMAGE_DIR + "/maize.jpg");
+        final File input = folder.newFile("maize.tif");
+        Assert.assertTrue("Can't save input", new FileSaver(maize).saveAsTiff(input.getPath()));
+
+        for (final String options : new String[]{
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey " +
+                        "make_background measure",
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey " +
+                        "make measure",
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red _grey " +
+                        "make_labels measure"}) {
+
+            final ImagePlus expected = maize.duplicate();
+            final HueColoursFilter filter = HueColoursFilter.fromOptions(options);
+            filter.apply(expected);
+
+            final File output = folder.newFile();
+            final ClassStatistics statistics =
+                    new HueColoursStream(HueColoursConfig.fromOptions(options), BAND_ROWS * maize.getWidth())
+                            .process(input, output);
+
+            final ImagePlus actual = new Opener().openImage(output.getPath());
+            TestUtilities.assertEqualImages(expected, actual);
+            if (expected.getBitDepth() == 8 && !expected.getProcessor().isDefaultLut()) {
+                Assert.assertArrayEquals("LUTs differ", expected.getProcessor().getLut().getBytes(),
+                        actual.getProcessor().getLut().getBytes());
+            }
+            Assert.assertArrayEquals("Counts differ", filter.getStatistics().getCounts(), statistics.getCounts());
+        }
+    }
+
+    @Test
+    public void testReadTiles() throws IOException {
+
+        // An image whose size isn't a multiple of the tile size.
+        final int width = 50;
+        final int height = 37;
+        final int[] pixels = createPixels(width, height);
+        final File tiff = folder.newFile("tiled.tif");
+        writeTiledTiff(tiff, width, height, pixels);
+
+        final TiffStripReader reader = new TiffStripReader(tiff);
+        try {
+            Assert.assertTrue("Not tiled", reader.isTiled());
+            Assert.assertEquals("Chunk rows differ", TILE_SIZE, reader.getRowsPerChunk());
+            assertReadRows(reader, pixels);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testBigTiffRoundTrip() throws IOException {
+
+        final int width = 41;
+        final int height = 30;
+        final int[] pixels = createPixels(width, height);
+        final File tiff = folder.newFile("big.tif");
+        final TiffStripWriter writer = new TiffStripWriter(tiff, width, height, 3, BAND_ROWS, true);
+        try {
+            for (int y = 0; y < height; y += BAND_ROWS) {
+
+                final int rows = Math.min(BAND_ROWS, height - y);
+                final int[] band = new int[rows * width];
+                System.arraycopy(pixels, y * width, band, 0, band.length);
+                writer.writeRows(band, rows);
+            }
+        } finally {
+            writer.close();
+        }
+
+        final TiffStripReader reader = new TiffStripReader(tiff);
+        try {
+            Assert.assertFalse("Tiled", reader.isTiled());
+            assertReadRows(reader, pixels);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testBigTiffAllowsForColourMap() {
+
+        // Grey images 2 pixels wide, in one strip, leaving 2047 and 4095 bytes of a classic TIFF for the header,
+        // directory and colour map (2576 bytes at most, of which the colour map takes 1536).
+        final int height = Integer.MAX_VALUE - 1023;
+        Assert.assertTrue("Colour map may not fit", TiffStripWriter.isBigTiff(2, height, 1, height));
+        Assert.assertFalse("Classic TIFF fits", TiffStripWriter.isBigTiff(2, height - 1024, 1, height - 1024));
+    }
+
+    /**
+     * Read an image in bands of various heights and compare with its pixels.
+     */
+    private static void assertReadRows(final TiffStripReader reader, final int[] pixels) throws IOException {
+
+        final int width = reader.getWidth();
+        final int height = reader.getHeight();
+        for (int bandRows = 1; bandRows <= height; bandRows += 6) {
+
+            final int[] actual = new int[width * height];
+            final int[] band = new int[bandRows * width];
+            for (int y = 0; y < height; y += bandRows) {
+
+                final int rows = Math.min(bandRows, height - y);
+                reader.readRows(y, rows, band);
+                System.arraycopy(band, 0, actual, y * width, rows * width);
+            }
+            Assert.assertArrayEquals("Pixels differ for bands of " + bandRows + " rows", pixels, actual);
+        }
+    }
+
+    private static int[] createPixels(final int width, final int height) {
+
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (int) (i * 2654435761L) & 0xffffff;
+        }
+        return pixels;
+    }
+
+    /**
+     * Write a little-endian, tiled RGBA TIFF (the alpha sample tests that extra samples are skipped).
+     */
+    private static void writeTiledTiff(final File tiff, final int width, final int height, final int[] pixels)
+            throws IOException {
+
+        final int across = (width + TILE_SIZE - 1) / TILE_SIZE;
+        final int down = (height + TILE_SIZE - 1) / TILE_SIZE;
+        final int tileBytes = TILE_SIZE * TILE_SIZE * 4;
+        final int tiles = across * down;
+        final int entries = 10;
+        final int ifdOffset = 8 + tiles * tileBytes;
+        final int arraysOffset = ifdOffset + 2 + entries * 12 + 4;
+
+        final ByteBuffer bytes =
+                ByteBuffer.allocate(arraysOffset + 8 + tiles * 8).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(ifdOffset);
+
+        // Tiles, padded at the image edges.
+        for (int ty = 0; ty < down; ty++) {
+            for (int tx = 0; tx < across; tx++) {
+                for (int y = ty * TILE_SIZE; y < (ty + 1) * TILE_SIZE; y++) {
+                    for (int x = tx * TILE_SIZE; x < (tx + 1) * TILE_SIZE; x++) {
+
+                        final int pixel = x < width && y < height ? pixels[y * width + x] : 0;
+                        bytes.put((byte) (pixel >> 16)).put((byte) (pixel >> 8)).put((byte) pixel).put((byte) -1);
+                    }
+                }
+            }
+        }
+
+        // Directory.
+        bytes.putShort((short) entries);
+        putEntry(bytes, 256, 4, 1, width);
+        putEntry(bytes, 257, 4, 1, height);
+        putEntry(bytes, 258, 3, 4, arraysOffset);
+        putEntry(bytes, 259, 3, 1, 1);
+        putEntry(bytes, 262, 3, 1, 2);
+        putEntry(bytes, 277, 3, 1, 4);
+        putEntry(bytes, 322, 3, 1, TILE_SIZE);
+        putEntry(bytes, 323, 3, 1, TILE_SIZE);
+        putEntry(bytes, 324, 4, tiles, arraysOffset + 8);
+        putEntry(bytes, 338, 3, 1, 2);
+        bytes.putInt(0);
+
+        // Bits per sample and tile offsets.
+        bytes.putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 8);
+        for (int i = 0; i < tiles; i++) {
+            bytes.putInt(8 + i * tileBytes);
+        }
+
+        final RandomAccessFile file = new RandomAccessFile(tiff, "rw");
+        try {
+            file.write(bytes.array());
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void putEntry(final ByteBuffer bytes, final int tag, final int type, final int count,
+                                 final int value) {
+
+        bytes.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3 && count == 1) {
+            bytes.putShort((short) value).putShort((short) 0);
+        } else {
+            bytes.putInt(value);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestLchClassifier {
+
+    // Number of random pixels classified in bulk.
+    private static final int PIXELS = 10000;
+
+    private static LchClassifier createDefault() {
+        return new LchClassifier(10.0, 80.0, 55.0, 20.0, LchClassifier.DEFAULT_HUE_BOUNDARIES);
+    }
+
+    @Test
+    public void testTableMatchesClassifier() {
+
+        final LchClassifier classifier = createDefault();
+        final ClassificationTable table = ClassificationTable.build(classifier);
+        for (int rgb = 0; rgb < ClassificationTable.SIZE; rgb++) {
+            Assert.assertEquals("Class differs for " + Integer.toHexString(rgb), classifier.classify(rgb),
+                    table.classify(rgb));
+        }
+    }
+
+    @Test
+    public void testBulkMatchesClassifier() {
+
+        final Random random = new Random(16L);
+        final int[] pixels = new int[PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() & 0xffffff;
+        }
+        final LchClassifier classifier = createDefault();
+        final byte[] classes = new byte[PIXELS];
+        classifier.classify(pixels, 100, PIXELS - 200, classes);
+        for (int i = 0; i < PIXELS; i++) {
+            Assert.assertEquals("Class differs for " + Integer.toHexString(pixels[i]),
+                    i < 100 || i >= PIXELS - 100 ? 0 : classifier.classify(pixels[i]), classes[i]);
+        }
+    }
+
+    @Test
+    public void testClasses() {
+
+        final LchClassifier classifier = createDefault();
+        Assert.assertEquals(HueColourClass.BLACK.ordinal(), classifier.classify(0x101010));
+        Assert.assertEquals(HueColourClass.GREY.ordinal(), classifier.classify(0x808080));
+        Assert.assertEquals(HueColourClass.WHITE.ordinal(), classifier.classify(0xf0f0f0));
+        Assert.assertEquals(HueColourClass.RED.ordinal(), classifier.classify(0xff0000));
+        Assert.assertEquals(HueColourClass.LIGHT_YELLOW.ordinal(), classifier.classify(0xffff00));
+        Assert.assertEquals(HueColourClass.DARK_GREEN.ordinal(), classifier.classify(0x006000));
+        Assert.assertEquals(HueColourClass.MAGENTA.ordinal(), classifier.classify(0xff00ff));
+
+        // Bins end inclusively, including where they wrap round.
+        Assert.assertEquals(0, classifier.getHueBin(13.5));
+        Assert.assertEquals(0, classifier.getHueBin(42.0));
+        Assert.assertEquals(1, classifier.getHueBin(42.5));
+        Assert.assertEquals(LchClassifier.HUE_BINS - 1, classifier.getHueBin(13.0));
+        Assert.assertEquals(LchClassifier.HUE_BINS - 1, classifier.getHueBin(360.0));
+        Assert.assertEquals(LchClassifier.HUE_BINS - 1, classifier.getHueBin(5.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnorderedBoundaries() {
+        new LchClassifier(10.0, 80.0, 55.0, 20.0, 13.0, 76.0, 42.0, 112.0, 135.0, 151.0, 176.0, 321.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingBoundaries() {
+        new LchClassifier(10.0, 80.0, 55.0, 20.0, 13.0, 42.0, 76.0);
+    }
+}
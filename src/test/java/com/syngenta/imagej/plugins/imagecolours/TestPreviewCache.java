@@ -0,0 +1,89 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestPreviewCache {
+
+    // Size of the test image.
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+
+    // Number of parameter changes.
+    private static final int CHANGES = 40;
+
+    @Test
+    public void testIncrementalUpdatesMatchClassifier() {
+
+        final Random random = new Random(13L);
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() & 0xffffff;
+        }
+
+        // Change the parameters one at a time, like the dialog's sliders, updating bands of rows.
+        final PreviewCache cache = new PreviewCache(pixels, WIDTH, HEIGHT);
+        Assert.assertTrue("Cache not for pixels", cache.isFor(pixels));
+        int whiteMin = 220;
+        int blackMax = 20;
+        int tolerance = 40;
+        double lightDark = 0.4;
+        double saturation = 0.6;
+        for (int change = 0; change < CHANGES; change++) {
+
+            switch (change % 5) {
+                case 0:
+                    whiteMin = random.nextInt(256);
+                    break;
+                case 1:
+                    blackMax = random.nextInt(256);
+                    break;
+                case 2:
+                    tolerance = random.nextInt(256);
+                    break;
+                case 3:
+                    lightDark = random.nextDouble();
+                    break;
+                default:
+                    saturation = random.nextDouble();
+                    break;
+            }
+            final HueClassifier classifier = new HueClassifier(whiteMin, blackMax, tolerance, lightDark, saturation);
+            for (int y = 0; y < HEIGHT; y += 8) {
+                cache.update(classifier, y, Math.min(8, HEIGHT - y));
+            }
+            for (int i = 0; i < pixels.length; i++) {
+                Assert.assertEquals("Class differs for " + Integer.toHexString(pixels[i]) + " after change " + change,
+                        classifier.classify(pixels[i]), cache.getClass(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSwitchingClassifiers() {
+
+        final Random random = new Random(16L);
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() & 0xffffff;
+        }
+
+        // Alternate between HSV and LCh classification.
+        final PreviewCache cache = new PreviewCache(pixels, WIDTH, HEIGHT);
+        final ColourClassifier[] classifiers = {new HueClassifier(220, 20, 40, 0.4, 0.6),
+                new LchClassifier(10.0, 80.0, 55.0, 20.0, LchClassifier.DEFAULT_HUE_BOUNDARIES),
+                new LchClassifier(20.0, 70.0, 40.0, 30.0, LchClassifier.DEFAULT_HUE_BOUNDARIES),
+                new HueClassifier(180, 60, 10, 0.7, 0.2)};
+        for (int change = 0; change < classifiers.length * 2; change++) {
+
+            final ColourClassifier classifier = classifiers[change % classifiers.length];
+            cache.update(classifier, 0, HEIGHT);
+            for (int i = 0; i < pixels.length; i++) {
+                Assert.assertEquals("Class differs for " + Integer.toHexString(pixels[i]) + " after change " + change,
+                        classifier.classify(pixels[i]), cache.getClass(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestPreviewPyramid {
+
+    // Size of the test image.
+    private static final int WIDTH = 101;
+    private static final int HEIGHT = 67;
+
+    @Test
+    public void testGetLevel() {
+
+        Assert.assertEquals("Level differs at full size", 0, PreviewPyramid.getLevel(1.0));
+        Assert.assertEquals("Level differs when zoomed in", 0, PreviewPyramid.getLevel(4.0));
+        Assert.assertEquals("Level differs at 3/4 size", 0, PreviewPyramid.getLevel(0.75));
+        Assert.assertEquals("Level differs at 1/2 size", 1, PreviewPyramid.getLevel(0.5));
+        Assert.assertEquals("Level differs at 1/3 size", 1, PreviewPyramid.getLevel(1.0 / 3.0));
+        Assert.assertEquals("Level differs at 1/16 size", 4, PreviewPyramid.getLevel(1.0 / 16.0));
+    }
+
+    @Test
+    public void testLevelsMatchClassifier() {
+
+        final Random random = new Random(14L);
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() & 0xffffff;
+        }
+        final PreviewPyramid pyramid = new PreviewPyramid(pixels, WIDTH, HEIGHT);
+        Assert.assertTrue("Pyramid not for pixels", pyramid.isFor(pixels));
+        Assert.assertEquals("Max level differs", 6, pyramid.getMaxLevel());
+
+        // Each level samples every 2^level-th pixel, and is reclassified when the parameters change.
+        for (final HueClassifier classifier : new HueClassifier[]{
+                new HueClassifier(220, 20, 40, 0.4, 0.6), new HueClassifier(180, 60, 10, 0.7, 0.2)}) {
+            for (int level = 1; level <= pyramid.getMaxLevel(); level++) {
+
+                final int levelWidth = pyramid.getWidth(level);
+                Assert.assertEquals("Width differs", (WIDTH + (1 << level) - 1) >> level, levelWidth);
+                Assert.assertEquals("Height differs", (HEIGHT + (1 << level) - 1) >> level, pyramid.getHeight(level));
+
+                final PreviewCache classes = pyramid.classify(classifier, level);
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+
+                        final int sample = pixels[(y >> level << level) * WIDTH + (x >> level << level)];
+                        Assert.assertEquals("Class differs at level " + level, classifier.classify(sample),
+                                classes.getClass((y >> level) * levelWidth + (x >> level)));
+                    }
+                }
+            }
+        }
+    }
+}
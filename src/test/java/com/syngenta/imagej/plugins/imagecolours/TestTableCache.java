@@ -0,0 +1,160 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+public class TestTableCache {
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+
+        // Parameters no other test uses.
+        final HueClassifier classifier = new HueClassifier(211, 13, 17, 0.35, 0.45);
+        final File file = TableCache.getFile(classifier);
+        Assert.assertTrue("Table file remains", !file.exists() || file.delete());
+        Assert.assertNull("Missing table loaded", TableCache.load(classifier));
+
+        final ClassificationTable table = ClassificationTable.build(classifier);
+        final byte[] classes = new byte[ClassificationTable.SIZE];
+        for (int rgb = 0; rgb < classes.length; rgb++) {
+            classes[rgb] = (byte) table.classify(rgb);
+        }
+        final ByteBuffer saved = TableCache.save(classifier, ByteBuffer.wrap(classes));
+        Assert.assertNotNull("Table not saved", saved);
+        Assert.assertTrue("No table file", file.isFile());
+        Assert.assertTrue("Table not cached", ClassificationTable.isCached(classifier));
+
+        // The file maps to the same table, and isn't used for other parameters.
+        final ByteBuffer loaded = TableCache.load(classifier);
+        Assert.assertNotNull("Table not loaded", loaded);
+        for (int rgb = 0; rgb < classes.length; rgb++) {
+            Assert.assertEquals("Class differs for " + Integer.toHexString(rgb), classes[rgb], loaded.get(rgb));
+        }
+        Assert.assertNotEquals("Same file", file, TableCache.getFile(new HueClassifier(211, 13, 17, 0.35, 0.46)));
+
+        // A corrupt file, even with valid classes, is ignored, as are invalid classes and truncated files.
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            final long offset = file.length() - ClassificationTable.SIZE + 0x123456;
+            output.seek(offset);
+            output.write(classes[0x123456] == 0 ? 1 : 0);
+            Assert.assertNull("Corrupt table loaded", TableCache.load(classifier));
+            output.seek(offset);
+            output.write(HueColourClass.count());
+            Assert.assertNull("Invalid class loaded", TableCache.load(classifier));
+            output.setLength(file.length() - 1);
+            Assert.assertNull("Truncated table loaded", TableCache.load(classifier));
+        } finally {
+            output.close();
+        }
+        Assert.assertNull("Invalid table saved",
+                TableCache.save(classifier, ByteBuffer.wrap(new byte[]{(byte) HueColourClass.count()})));
+    }
+
+    @Test
+    public void testPreviewTable() {
+
+        // Tables for previews aren't written to files, until they're needed for a run.
+        final HueClassifier classifier = new HueClassifier(213, 13, 17, 0.35, 0.45);
+        final File file = TableCache.getFile(classifier);
+        Assert.assertTrue("Table file remains", !file.exists() || file.delete());
+        final ClassificationTable preview = ClassificationTable.getTable(classifier, false);
+        Assert.assertFalse("Preview table written", file.exists());
+        Assert.assertSame("Table rebuilt", preview, ClassificationTable.getTable(classifier, false));
+        final ClassificationTable table = ClassificationTable.getTable(classifier);
+        Assert.assertTrue("Table not written", file.isFile());
+        Assert.assertEquals("Class differs", preview.classify(0x20a040), table.classify(0x20a040));
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+
+        // An empty directory of its own.
+        final File directory = new File("target", "evicted-tables");
+        final File[] existing = directory.listFiles();
+        if (existing != null) {
+            for (final File file : existing) {
+                Assert.assertTrue("Can't delete " + file, file.delete());
+            }
+        }
+        final String property = System.getProperty(TableCache.DIRECTORY_PROPERTY);
+        System.setProperty(TableCache.DIRECTORY_PROPERTY, directory.getPath());
+        try {
+
+            // Fill the directory with tables, used longer ago the earlier they were written.
+            final ByteBuffer classes = ByteBuffer.allocateDirect(ClassificationTable.SIZE);
+            final HueClassifier[] classifiers = new HueClassifier[TableCache.MAX_FILES + 2];
+            final long now = System.currentTimeMillis();
+            for (int i = 0; i < TableCache.MAX_FILES; i++) {
+
+                classifiers[i] = new HueClassifier(200 + i, 20, 40, 0.4, 0.6);
+                Assert.assertNotNull("Table not saved", TableCache.save(classifiers[i], classes));
+                Assert.assertTrue("Can't date table",
+                        TableCache.getFile(classifiers[i]).setLastModified(now - 100000L + i * 1000L));
+            }
+
+            // A new table evicts the least recently used, which is no longer the first once it has been loaded.
+            Assert.assertNotNull("Table not loaded", TableCache.load(classifiers[0]));
+            for (int i = TableCache.MAX_FILES; i < classifiers.length; i++) {
+                classifiers[i] = new HueClassifier(200 + i, 20, 40, 0.4, 0.6);
+                Assert.assertNotNull("Table not saved", TableCache.save(classifiers[i], classes));
+            }
+            Assert.assertEquals("Wrong file count", TableCache.MAX_FILES, directory.listFiles().length);
+            Assert.assertTrue("Used table evicted", TableCache.getFile(classifiers[0]).isFile());
+            Assert.assertFalse("Old table kept", TableCache.getFile(classifiers[1]).exists());
+            Assert.assertFalse("Old table kept", TableCache.getFile(classifiers[2]).exists());
+            Assert.assertTrue("New table evicted", TableCache.getFile(classifiers[classifiers.length - 1]).isFile());
+        } finally {
+            if (property == null) {
+                System.clearProperty(TableCache.DIRECTORY_PROPERTY);
+            } else {
+                System.setProperty(TableCache.DIRECTORY_PROPERTY, property);
+            }
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+
+        final String directory = System.getProperty(TableCache.DIRECTORY_PROPERTY);
+        System.setProperty(TableCache.DIRECTORY_PROPERTY, "false");
+        try {
+            final HueClassifier classifier = new HueClassifier(220, 20, 40, 0.4, 0.6);
+            Assert.assertNull("Table file used", TableCache.getFile(classifier));
+            Assert.assertNull("Table saved",
+                    TableCache.save(classifier, ByteBuffer.allocate(ClassificationTable.SIZE)));
+        } finally {
+            if (directory == null) {
+                System.clearProperty(TableCache.DIRECTORY_PROPERTY);
+            } else {
+                System.setProperty(TableCache.DIRECTORY_PROPERTY, directory);
+            }
+        }
+    }
+
+    @Test
+    public void testParameters() throws IOException {
+
+        // Parameters are written as options are.
+        final HueColoursConfig config = HueColoursConfig.fromOptions(
+                "white_min=220 black_max=20 tolerance=40 light_dark_threshold=0.4 saturation_min=0.6 _red");
+        Assert.assertTrue("Parameters differ", config.getOptions().startsWith(config.getClassifier().getParameters()));
+        final HueColoursConfig lchConfig = config.toBuilder().lch(true).build();
+        Assert.assertTrue("LCh parameters differ",
+                lchConfig.getOptions().endsWith(lchConfig.getClassifier().getParameters()));
+
+        // A custom class table is given by its contents, which read back as the same table.
+        final HueClassTable table = HueClassTable.read(
+                new StringReader("0.1 Red Brown\n0.45 Green_Light Green_Dark\n1.0 Aqua Aqua\ncolour Red 00c000\n"));
+        Assert.assertEquals("Table differs", table, HueClassTable.read(new StringReader(table.toString())));
+        final String parameters = new HueClassifier(220, 20, 40, 0.4, 0.6, table).getParameters();
+        Assert.assertTrue("No table", parameters.startsWith(config.getClassifier().getParameters()) &&
+                parameters.contains(table.toString()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import ij.Prefs;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class TestTileEngine {
+
+    // Image dimensions.
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 777;
+
+    // Maximum tile size.
+    private static final int TILE_PIXELS = 4096;
+
+    @Test
+    public void testTilesCoverRegions() {
+
+        final TileEngine engine = new TileEngine(4, TILE_PIXELS);
+        try {
+            final Rectangle[] regions = {new Rectangle(13, 29, 901, 700), new Rectangle(0, 0, WIDTH, 1),
+                    new Rectangle(5, 5, 0, 10)};
+            final AtomicIntegerArray[] visits = new AtomicIntegerArray[regions.length];
+            final TileEngine.TileProcessor[] processors = new TileEngine.TileProcessor[regions.length];
+            for (int i = 0; i < regions.length; i++) {
+
+                final AtomicIntegerArray regionVisits = new AtomicIntegerArray(WIDTH * HEIGHT);
+                visits[i] = regionVisits;
+                processors[i] = new TileEngine.TileProcessor() {
+                    @Override
+                    public void processTile(final int x, final int y, final int width, final int height) {
+
+                        Assert.assertTrue("Tile too large: " + width + "x" + height,
+                                width * height <= TILE_PIXELS || height == 1);
+                        for (int j = y; j < y + height; j++) {
+                            for (int k = x; k < x + width; k++) {
+                                regionVisits.incrementAndGet(j * WIDTH + k);
+                            }
+                        }
+                    }
+                };
+            }
+            engine.process(regions, processors);
+
+            // Every pixel of each region is visited exactly once.
+            for (int i = 0; i < regions.length; i++) {
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        Assert.assertEquals("Visits differ at " + x + ',' + y, regions[i].contains(x, y) ? 1 : 0,
+                                visits[i].get(y * WIDTH + x));
+                    }
+                }
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultAfterThreadsChange() {
+
+        final int threads = Prefs.getThreads();
+        try {
+            final TileEngine engine = TileEngine.getDefault();
+            Prefs.setThreads(threads + 1);
+            final TileEngine newEngine = TileEngine.getDefault();
+            Assert.assertNotSame(engine, newEngine);
+            Assert.assertEquals(threads + 1, newEngine.getParallelism());
+
+            // An engine obtained before the change can still be used.
+            final AtomicInteger pixels = new AtomicInteger();
+            engine.process(new Rectangle(0, 0, WIDTH, HEIGHT), new TileEngine.TileProcessor() {
+                @Override
+                public void processTile(final int x, final int y, final int width, final int height) {
+                    pixels.addAndGet(width * height);
+                }
+            });
+            Assert.assertEquals(WIDTH * HEIGHT, pixels.get());
+        } finally {
+            Prefs.setThreads(threads);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.syngenta.imagej.plugins.imagecolours;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class TestUniqueColours {
+
+    @Test
+    public void testCollect() {
+
+        // Two slices of colours from a small palette, with runs, outside a region of other colours.
+        final int width = 300;
+        final int height = 200;
+        final Rectangle bounds = new Rectangle(10, 20, 250, 150);
+        final Random random = new Random(3L);
+        final int[] palette = new int[1000];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = random.nextInt(ClassificationTable.SIZE);
+        }
+        final int[][] slices = new int[2][width * height];
+        for (final int[] pixels : slices) {
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = i % 7 == 0 ? pixels[Math.max(i - 1, 0)] : 0xff000000 | palette[random.nextInt(100) +
+                        (bounds.contains(i % width, i / width) ? 0 : 900)];
+            }
+        }
+
+        final HueClassifier classifier = new HueClassifier(220, 20, 40, 0.4, 0.6);
+        final UniqueColours colours = UniqueColours.collect(slices, width, bounds, 1000, classifier);
+        Assert.assertNotNull("Colours not collected", colours);
+        final Set<Integer> expected = new HashSet<Integer>();
+        for (final int[] pixels : slices) {
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                    expected.add(pixels[y * width + x] & 0xffffff);
+                }
+            }
+        }
+        Assert.assertEquals("Wrong colour count", expected.size(), colours.size());
+
+        // Every colour is classified, including colours outside the region.
+        for (final int colour : palette) {
+            Assert.assertEquals("Class differs for " + Integer.toHexString(colour), classifier.classify(colour),
+                    colours.classify(colour));
+            Assert.assertEquals("Alpha not ignored", colours.classify(colour), colours.classify(0xff000000 | colour));
+        }
+
+        // Collecting gives up when there are too many colours.
+        Assert.assertNull("Too many colours collected",
+                UniqueColours.collect(slices, width, bounds, colours.size() - 1, classifier));
+    }
+}
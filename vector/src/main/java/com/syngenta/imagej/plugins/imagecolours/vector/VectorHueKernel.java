@@ -0,0 +1,153 @@
+package com.syngenta.imagej.plugins.imagecolours.vector;
+
+import com.syngenta.imagej.plugins.imagecolours.HueClassTable;
+import com.syngenta.imagej.plugins.imagecolours.HueClassifier;
+import com.syngenta.imagej.plugins.imagecolours.HueColourClass;
+import com.syngenta.imagej.plugins.imagecolours.HueKernel;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Classifies pixels with the JDK Vector API: RGB unpacking, channel statistics, HSV hue and saturation and class
+ * assignment are done for a vector of pixels at a time, without branches.
+ * <p>
+ * Hue and saturation are computed in double precision with the same operations as {@link HueClassifier}, so that
+ * colours on a hue or saturation boundary get the same class; a vector holds as many pixels as doubles (4 with AVX2, 8
+ * with AVX-512). Channel statistics and the grey classes are computed with ints.
+ * <p>
+ * The Vector API is an incubator module in JDK 17 to 21, so the JVM must be run with
+ * {@code --add-modules jdk.incubator.vector}; otherwise this kernel fails to load and pixels are classified one at a
+ * time.
+ */
+public final class VectorHueKernel implements HueKernel {
+
+    // Vector sizes: as many ints and bytes as doubles.
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = DOUBLES.length();
+    private static final VectorSpecies<Integer> INTS =
+            IntVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(LANES * Integer.SIZE));
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;
+
+    // Smallest vector of doubles that is faster than one pixel at a time, i.e. AVX2.
+    private static final int MIN_DOUBLE_LANES = 4;
+
+    // Constants of the HSV conversion.
+    private static final double CHANNEL_MAX = 255.0;
+    private static final double ONE_THIRD = 1.0 / 3.0;
+    private static final double TWO_THIRDS = 2.0 / 3.0;
+
+    // Multiply and shift that divide a channel sum (0-765) by 3.
+    private static final int DIVIDE_BY_3_MULTIPLIER = 0xaaab;
+    private static final int DIVIDE_BY_3_SHIFT = 17;
+
+    // Class indices.
+    private static final int BLACK = HueColourClass.BLACK.ordinal();
+    private static final int GREY = HueColourClass.GREY.ordinal();
+    private static final int WHITE = HueColourClass.WHITE.ordinal();
+
+    @Override
+    public boolean isAvailable() {
+        return LANES >= MIN_DOUBLE_LANES;
+    }
+
+    @Override
+    public void classify(final HueClassifier classifier, final int[] pixels, final int offset, final int length,
+                         final byte[] classes) {
+
+        final int greyTolerance = classifier.getGreyTolerance();
+        final int blackMax = classifier.getBlackMax();
+        final int whiteMin = classifier.getWhiteMin();
+        final double saturationCutoff = classifier.getSaturationCutoff();
+        final double lightDarkCutoff = classifier.getLightDarkCutoff();
+        final HueClassTable classTable = classifier.getClassTable();
+        final double[] boundaries = classTable.getBoundaries();
+        final int[] binClasses = getBinClasses(classTable);
+        final VectorMask<Byte> storeMask = BYTES.indexInRange(0, LANES);
+        final int[] keys = new int[LANES];
+
+        final int vectorEnd = offset + INTS.loopBound(length);
+        int i = offset;
+        for (; i < vectorEnd; i += LANES) {
+
+            // Unpack channels and compute their statistics.
+            final IntVector pixel = IntVector.fromArray(INTS, pixels, i);
+            final IntVector red = pixel.lanewise(VectorOperators.LSHR, 16).and(0xff);
+            final IntVector green = pixel.lanewise(VectorOperators.LSHR, 8).and(0xff);
+            final IntVector blue = pixel.and(0xff);
+            final IntVector max = red.max(green).max(blue);
+            final IntVector min = red.min(green).min(blue);
+            final IntVector mean = red.add(green).add(blue).mul(DIVIDE_BY_3_MULTIPLIER)
+                    .lanewise(VectorOperators.LSHR, DIVIDE_BY_3_SHIFT);
+
+            // HSV, as ColourSpaceUtilities computes it.
+            final DoubleVector r = toDoubles(red);
+            final DoubleVector g = toDoubles(green);
+            final DoubleVector b = toDoubles(blue);
+            final DoubleVector rgbMax = toDoubles(max);
+            final DoubleVector rgbDelta = rgbMax.sub(toDoubles(min));
+            final VectorMask<Double> chromatic = rgbDelta.compare(VectorOperators.NE, 0.0);
+            final DoubleVector saturation = rgbDelta.div(rgbMax).blend(0.0, chromatic.not());
+            final DoubleVector halfDelta = rgbDelta.div(2.0);
+            final DoubleVector rDelta = rgbMax.sub(r).div(6.0).add(halfDelta).div(rgbDelta);
+            final DoubleVector gDelta = rgbMax.sub(g).div(6.0).add(halfDelta).div(rgbDelta);
+            final DoubleVector bDelta = rgbMax.sub(b).div(6.0).add(halfDelta).div(rgbDelta);
+            DoubleVector hue = gDelta.add(TWO_THIRDS).sub(rDelta)
+                    .blend(rDelta.add(ONE_THIRD).sub(bDelta), g.compare(VectorOperators.EQ, rgbMax))
+                    .blend(bDelta.sub(gDelta), r.compare(VectorOperators.EQ, rgbMax));
+            hue = hue.lanewise(VectorOperators.ADD, 1.0, hue.compare(VectorOperators.LT, 0.0));
+            hue = hue.lanewise(VectorOperators.SUB, 1.0, hue.compare(VectorOperators.GT, 1.0));
+            hue = hue.blend(0.0, chromatic.not());
+
+            // Hue class, by hue bin and lightness.
+            DoubleVector key = DoubleVector.zero(DOUBLES);
+            for (final double boundary : boundaries) {
+                key = key.lanewise(VectorOperators.ADD, 1.0, hue.compare(VectorOperators.GT, boundary));
+            }
+            key = key.mul(2.0).lanewise(VectorOperators.ADD, 1.0,
+                    rgbMax.compare(VectorOperators.GE, lightDarkCutoff));
+            ((IntVector) key.convertShape(VectorOperators.D2I, INTS, 0)).intoArray(keys, 0);
+            final IntVector hueClass = IntVector.fromArray(INTS, binClasses, 0, keys, 0);
+
+            // Grey class, by mean.
+            final IntVector greyClass = IntVector.broadcast(INTS, WHITE)
+                    .blend(GREY, mean.compare(VectorOperators.LT, whiteMin))
+                    .blend(BLACK, mean.compare(VectorOperators.LE, blackMax));
+            final VectorMask<Integer> grey = max.sub(min).compare(VectorOperators.LT, greyTolerance)
+                    .or(saturation.compare(VectorOperators.LE, saturationCutoff).cast(INTS));
+
+            ((ByteVector) hueClass.blend(greyClass, grey).convertShape(VectorOperators.I2B, BYTES, 0))
+                    .intoArray(classes, i, storeMask);
+        }
+
+        // Remaining pixels.
+        final int end = offset + length;
+        for (; i < end; i++) {
+            classes[i] = (byte) classifier.classify(pixels[i]);
+        }
+    }
+
+    /**
+     * Gets the class of each (hue bin, light) key of a class table, indexed by hueBin * 2 + (light ? 1 : 0).
+     */
+    private static int[] getBinClasses(final HueClassTable classTable) {
+
+        final int[] binClasses = new int[classTable.getRangeCount() * 2];
+        for (int bin = 0; bin < classTable.getRangeCount(); bin++) {
+            binClasses[bin * 2] = classTable.getClass(bin, false);
+            binClasses[bin * 2 + 1] = classTable.getClass(bin, true);
+        }
+        return binClasses;
+    }
+
+    /**
+     * Converts channel values to doubles scaled to 0-1.
+     */
+    private static DoubleVector toDoubles(final IntVector values) {
+        return ((DoubleVector) values.convertShape(VectorOperators.I2D, DOUBLES, 0)).div(CHANNEL_MAX);
+    }
+}
@@ -0,0 +1,26 @@
+package com.syngenta.imagej.plugins.imagecolours.vector;
+
+import com.syngenta.imagej.plugins.imagecolours.FullCubeValidation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+public class TestVectorFullCube {
+
+    @Test
+    public void testFullCube() throws FileNotFoundException {
+
+        final FullCubeValidation validation = FullCubeValidation.run();
+        final File directory = new File("target");
+        directory.mkdirs();
+        validation.write(new File(directory, "full-cube-report.txt"));
+        System.out.print(validation.getReport());
+
+        final FullCubeValidation.Row bulk = validation.getClassification("HSV bulk");
+        Assert.assertTrue("Kernel not used: " + bulk.getName(),
+                bulk.getName().endsWith(VectorHueKernel.class.getSimpleName()));
+        Assert.assertEquals("HSV bulk", 0L, bulk.getDisagreements());
+    }
+}
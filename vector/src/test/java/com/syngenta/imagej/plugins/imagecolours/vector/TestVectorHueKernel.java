@@ -0,0 +1,72 @@
+package com.syngenta.imagej.plugins.imagecolours.vector;
+
+import com.syngenta.imagej.plugins.imagecolours.ClassificationTable;
+import com.syngenta.imagej.plugins.imagecolours.HueClassTable;
+import com.syngenta.imagej.plugins.imagecolours.HueClassifier;
+import com.syngenta.imagej.plugins.imagecolours.HueColourClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TestVectorHueKernel {
+
+    // Number of colours classified per call, not a multiple of any vector size.
+    private static final int CHUNK_SIZE = 4099;
+
+    // Class of pixels that aren't classified.
+    private static final byte UNSET = -1;
+
+    @Test
+    public void testKernelMatchesClassifier() {
+
+        final VectorHueKernel kernel = new VectorHueKernel();
+        Assert.assertTrue("Kernel not available", kernel.isAvailable());
+
+        // A custom class table with fewer hue ranges.
+        final HueClassTable cropTable = new HueClassTable(new double[]{0.05, 0.45},
+                new HueColourClass[]{HueColourClass.RED, HueColourClass.LIGHT_GREEN, HueColourClass.AQUA},
+                new HueColourClass[]{HueColourClass.BROWN, HueColourClass.DARK_GREEN, HueColourClass.AQUA},
+                HueClassTable.DEFAULT.getColours());
+
+        // Including colours on the saturation boundary, and greys that aren't classified as greys.
+        for (final HueClassifier classifier : new HueClassifier[]{new HueClassifier(200, 10, 10, 0.5, 0.5),
+                new HueClassifier(220, 20, 40, 0.4, 0.6), new HueClassifier(255, 0, 0, 0.2, -1.0),
+                new HueClassifier(220, 20, 40, 0.4, 0.6, cropTable)}) {
+
+            final int[] pixels = new int[CHUNK_SIZE];
+            final byte[] classes = new byte[CHUNK_SIZE];
+            for (int start = 0; start < ClassificationTable.SIZE; start += CHUNK_SIZE) {
+
+                final int length = Math.min(CHUNK_SIZE, ClassificationTable.SIZE - start);
+                for (int i = 0; i < length; i++) {
+                    pixels[i] = start + i | 0xff000000;
+                }
+                kernel.classify(classifier, pixels, 0, length, classes);
+                for (int i = 0; i < length; i++) {
+                    if (classes[i] != classifier.classify(pixels[i])) {
+                        Assert.fail("Class differs for " + Integer.toHexString(start + i) + " with " +
+                                classifier.getGreyTolerance() + '/' + classifier.getSaturationCutoff());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOffset() {
+
+        final HueClassifier classifier = new HueClassifier(200, 10, 10, 0.5, 0.5);
+        final int[] pixels = {0xff0000, 0x00ff00, 0x0000ff, 0xffffff, 0x000000, 0x808080, 0xff8000, 0x80ff00,
+                0x00ff80, 0x0080ff, 0x8000ff, 0xff0080, 0x804000};
+        final byte[] classes = new byte[pixels.length];
+        Arrays.fill(classes, UNSET);
+        new VectorHueKernel().classify(classifier, pixels, 1, pixels.length - 2, classes);
+        Assert.assertEquals("First pixel classified", UNSET, classes[0]);
+        Assert.assertEquals("Last pixel classified", UNSET, classes[pixels.length - 1]);
+        for (int i = 1; i < pixels.length - 1; i++) {
+            Assert.assertEquals("Class differs for " + Integer.toHexString(pixels[i]), classifier.classify(pixels[i]),
+                    classes[i]);
+        }
+    }
+}